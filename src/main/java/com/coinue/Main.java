@@ -1,8 +1,13 @@
 package com.coinue;
 
 import com.coinue.model.User;
+import com.coinue.model.UserDataService;
+import com.coinue.util.CsvBackupStore;
 import com.coinue.util.PageManager;
+import com.coinue.util.PersistenceWorker;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.control.Alert;
 import javafx.stage.Stage;
 import java.time.LocalDate;
 
@@ -13,6 +18,16 @@ public class Main extends Application {
             // 初始化页面管理器
             PageManager.getInstance().initStage(primaryStage);
             
+            // 后台保存最终失败时提示用户
+            UserDataService.getInstance().addSaveFailureListener((file, error) -> Platform.runLater(() -> {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("保存失败");
+                alert.setHeaderText(null);
+                alert.setContentText("数据文件 " + file.getFileName() + " 保存失败: " + error.getMessage()
+                        + "\n数据仍保留在内存中，再次保存或退出程序时会重新写入。");
+                alert.show();
+            }));
+            
             // 自动登录指定用户
             autoLoginTestUser();
             
@@ -27,6 +42,17 @@ public class Main extends Application {
         }
     }
     
+    /**
+     * 退出前把尚未落盘的数据写入文件
+     */
+    @Override
+    public void stop() {
+        // 导入产生的数据与CSV备份在同一事务中由备份线程提交，先等它们完成
+        CsvBackupStore.awaitBackgroundBackups();
+        PersistenceWorker.getInstance().retryFailed();
+        PersistenceWorker.getInstance().flush();
+    }
+    
     /**
      * 自动登录测试用户
      */
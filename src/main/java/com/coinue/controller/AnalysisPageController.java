@@ -2,9 +2,12 @@ package com.coinue.controller;
 
 import com.coinue.model.User;
 import com.coinue.model.UserAnalysisData;
+import com.coinue.model.UserDataService;
 import com.coinue.util.CSVHandler;
+import com.coinue.util.CsvBackupStore;
 import com.coinue.util.ChartGenerator;
 import com.coinue.util.PageManager;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 
 import javafx.scene.chart.PieChart;
@@ -33,10 +36,6 @@ import javafx.scene.layout.VBox;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
 import java.io.File;
 import java.io.IOException;
@@ -302,16 +301,11 @@ public class AnalysisPageController {
             // 更新预算使用情况
             currentUserAnalysisData.updateBudgetUsage("总预算", currentBudget, totalExpense);
             
-            // 保存分析数据到用户目录
-            boolean saved = currentUser.saveAnalysisData(currentUserAnalysisData);
-            
-            if (saved) {
-                // 备份原始CSV文件到用户目录
-                backupCsvFileToUserDirectory(originalFile, currentUser);
-                System.out.println("User analysis data saved successfully.");
-            } else {
-                System.err.println("Failed to save user analysis data.");
-            }
+            // 分析数据与原始CSV文件的备份记录在同一个事务中提交
+            UserDataService.Transaction transaction = UserDataService.getInstance()
+                    .beginTransaction(currentUser.getUsername())
+                    .write(UserDataService.ANALYSIS_DATA_FILE, currentUserAnalysisData);
+            backupCsvFileToUserDirectory(originalFile, currentUser, transaction);
             
         } catch (Exception e) {
             System.err.println("Error saving user analysis data: " + e.getMessage());
@@ -320,31 +314,27 @@ public class AnalysisPageController {
     }
 
     /**
-     * 备份CSV文件到用户目录
+     * 在后台备份CSV文件到用户目录并提交事务，相同内容只保存一次
+     * 备份失败时事务照常提交，分析数据不会丢失；程序退出时会等待事务提交
      * @param csvFile 原始CSV文件
      * @param user 当前用户
+     * @param transaction 包含分析数据的事务
      */
-    private void backupCsvFileToUserDirectory(File csvFile, User user) {
-        try {
-            // 创建用户CSV备份目录
-            File userCsvDir = new File(user.getUserDataPath() + "/imported_csv_files");
-            if (!userCsvDir.exists()) {
-                userCsvDir.mkdirs();
-            }
-            
-            // 生成带时间戳的文件名
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String backupFileName = timestamp + "_" + csvFile.getName();
-            File backupFile = new File(userCsvDir, backupFileName);
-            
-            // 复制文件
-            Files.copy(csvFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            
-            System.out.println("CSV file has been backed up to: " + backupFile.getAbsolutePath());
-            
-        } catch (Exception e) {
-            System.err.println("Failed to backup CSV file: " + e.getMessage());
-        }
+    private void backupCsvFileToUserDirectory(File csvFile, User user, UserDataService.Transaction transaction) {
+        new CsvBackupStore(user.getUsername()).backupInBackground(csvFile.toPath(), transaction)
+                .whenComplete((event, error) -> {
+                    if (error != null) {
+                        System.err.println("Failed to save user analysis data: " + error.getMessage());
+                        Platform.runLater(() -> showError("Save Failed",
+                                "Analysis data could not be saved: " + error.getMessage()));
+                    } else if (event == null) {
+                        System.out.println("User analysis data saved, but the CSV file could not be backed up.");
+                    } else {
+                        System.out.println("User analysis data saved successfully.");
+                        System.out.println("CSV file has been backed up: " + event.getFileName()
+                                + " (" + event.getContentHash() + ")");
+                    }
+                });
     }
     
 
@@ -390,7 +380,10 @@ public class AnalysisPageController {
                     currentUserAnalysisData.setCategoryExpenses(currentCategoryStatistics);
                     currentUserAnalysisData.setTotalExpenses(totalExpense);
                     currentUserAnalysisData.updateBudgetUsage("总预算", currentBudget, totalExpense);
-                    currentUser.saveAnalysisData(currentUserAnalysisData);
+                    // 离开页面时的自动保存，数据没有变化时不写入
+                    if (currentUserAnalysisData.isDirty()) {
+                        currentUser.saveAnalysisData(currentUserAnalysisData);
+                    }
                 }
             } catch (Exception e) {
                 System.err.println("Failed to save user data: " + e.getMessage());
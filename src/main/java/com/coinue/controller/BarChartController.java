@@ -1,5 +1,9 @@
 package com.coinue.controller;
 
+import com.coinue.model.ExpenseRecord;
+import com.coinue.util.CategoryAggregator;
+import com.coinue.util.ExpenseRowSchema;
+import com.coinue.util.ImportPipeline;
 import javafx.embed.swing.SwingFXUtils;
 import javafx.fxml.FXML;
 import javafx.scene.SnapshotParameters;
@@ -18,9 +22,7 @@ import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.HashMap;
 import java.util.Map;
 
 public class BarChartController {
@@ -37,17 +39,15 @@ public class BarChartController {
     }
 
     private void loadDataAndUpdateChart() {
-        Map<String, Double> categoryAmounts = new HashMap<>();
+        CategoryAggregator aggregator = new CategoryAggregator();
         try {
-            // 读取CSV文件
-            Files.lines(Paths.get("src/test/resources/test_expense_records.csv"))
-                    .skip(1) // 跳过标题行
-                    .forEach(line -> {
-                        String[] parts = line.split(",");
-                        String category = parts[2];
-                        double amount = Double.parseDouble(parts[3]);
-                        categoryAmounts.merge(category, amount, Double::sum);
-                    });
+            // 读取CSV文件（日期,描述,类别,金额）
+            new ImportPipeline<>(ExpenseRowSchema.exportLayout(), batch -> {
+                for (ExpenseRecord record : batch) {
+                    aggregator.add(record.getCategory(), record.getAmount());
+                }
+            }).run(Paths.get("src/test/resources/test_expense_records.csv"));
+            Map<String, Double> categoryAmounts = aggregator.toMap();
 
             // 创建数据系列
             XYChart.Series<String, Number> series = new XYChart.Series<>();
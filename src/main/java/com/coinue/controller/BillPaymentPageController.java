@@ -3,7 +3,13 @@ package com.coinue.controller;
 import com.coinue.model.User;
 import com.coinue.model.UserBillData;
 import com.coinue.model.UserDataService;
+import com.coinue.util.BillRowSchema;
+import com.coinue.util.CsvBackupStore;
+import com.coinue.util.FingerprintIndex;
+import com.coinue.util.ImportCheckpointStore;
+import com.coinue.util.ImportTask;
 import com.coinue.util.PageManager;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -14,21 +20,21 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.stage.FileChooser;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Bill Payment Page Controller
  * Handles bill import and chart display functionality
  */
 public class BillPaymentPageController {
+    // 账单指纹索引文件，位于用户数据目录中
+    private static final String BILL_INDEX_FILE = "bill_fingerprints.idx";
 
     @FXML
     private PieChart repaymentChart;
@@ -52,6 +58,10 @@ public class BillPaymentPageController {
     private Label userDataStatusLabel;
     @FXML
     private Button clearDataButton;
+    @FXML
+    private ProgressBar importProgressBar;
+    @FXML
+    private Button cancelImportButton;
 
     private double creditLimit = 7500.00; // Default credit limit
     
@@ -60,6 +70,11 @@ public class BillPaymentPageController {
     
     // 用户数据服务
     private UserDataService userDataService;
+    
+    // 正在运行的CSV导入任务
+    private ImportTask<UserBillData.BillRecord> currentImport;
+    // 第一个尚未结束的导入开始前的表格内容，连续导入时都以它为基础，失败或取消时恢复到它
+    private ObservableList<BillRecord> itemsBeforeImport;
 
     @FXML
     private void initialize() {
@@ -99,6 +114,14 @@ public class BillPaymentPageController {
             userDataStatusLabel.setStyle("-fx-text-fill: #666666; -fx-font-size: 12px;");
         }
         
+        // 导入进度控件只在导入期间可用
+        if (importProgressBar != null) {
+            importProgressBar.setVisible(false);
+        }
+        if (cancelImportButton != null) {
+            cancelImportButton.setDisable(true);
+        }
+        
         // 设置清除数据按钮
         if (clearDataButton != null) {
             clearDataButton.setOnAction(e -> handleClearData());
@@ -181,54 +204,206 @@ public class BillPaymentPageController {
             return;
         }
         
-        List<BillRecord> records = new ArrayList<>();
-        double totalAmount = 0.0;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            boolean isFirstLine = true;
-            while ((line = reader.readLine()) != null) {
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue;
-                }
-                String[] data = line.split(",");
-                if (data.length >= 4) {
-                    BillRecord record = new BillRecord(
-                        LocalDate.parse(data[0].trim()),
-                        data[1].trim(),
-                        Double.parseDouble(data[2].trim()),
-                        data[3].trim()
-                    );
-                    records.add(record);
-                    totalAmount += record.getAmount();
-                }
+        // 同一时间只运行一个导入任务，被替换的任务已经追加的行不作为新导入的基础
+        if (currentImport != null) {
+            currentImport.cancel();
+        } else {
+            itemsBeforeImport = billTable.getItems();
+        }
+
+        // 导入结果逐批追加到现有账单之后的新列表中，失败或取消时恢复原来的表格内容
+        ObservableList<BillRecord> previousItems = itemsBeforeImport;
+        ObservableList<BillRecord> importedItems = FXCollections.observableArrayList(previousItems);
+        List<UserBillData.BillRecord> acceptedRows = new ArrayList<>();
+        double[] totalAmount = {calculateTotalRepayment()};
+        billTable.setItems(importedItems);
+
+        // 已有的账单通过指纹索引跳过，重复导入有重叠的账单不会产生重复记录
+        FingerprintIndex billIndex = openBillIndex(currentUser.getUsername(), previousItems);
+        FingerprintIndex.DuplicateFilter<UserBillData.BillRecord> duplicates =
+                billIndex.newFilter(FingerprintIndex::fingerprint);
+
+        // 导入进度定期保存到用户目录，中断后再次导入同一文件会从断点继续
+        BillRowSchema schema = new BillRowSchema();
+        ImportCheckpointStore checkpoints = new ImportCheckpointStore(currentUser.getUsername());
+        AtomicReference<ImportTask<UserBillData.BillRecord>> self = new AtomicReference<>();
+        ImportTask<UserBillData.BillRecord> task = new ImportTask<>(schema, schema, checkpoints, file.toPath(), batch -> {
+            // 已被取消或替换的任务排队中的批次不再更新表格和金额
+            ImportTask<UserBillData.BillRecord> owner = self.get();
+            if (currentImport != owner || owner.isCancelled()) {
+                return;
             }
-        } catch (IOException e) {
-            showError("Import Error", "Failed to import CSV file: " + e.getMessage());
-            return;
-        } catch (Exception e) {
-            showError("Data Error", "Please ensure the CSV file format is correct (e.g., date,description,amount,status).");
-            return;
+            List<BillRecord> rows = new ArrayList<>(batch.size());
+            for (UserBillData.BillRecord row : batch) {
+                rows.add(new BillRecord(row.getDate(), row.getDescription(), row.getAmount(), row.getStatus()));
+                totalAmount[0] += row.getAmount();
+            }
+            acceptedRows.addAll(batch);
+            importedItems.addAll(rows);
+            repaymentAmountLabel.setText(String.format("Repayment Amount: ¥%.2f", totalAmount[0]));
+        }, true).skipDuplicates(duplicates);
+        self.set(task);
+        currentImport = task;
+
+        task.messageProperty().addListener((obs, oldVal, newVal) -> updateUserDataStatus(newVal));
+        if (importProgressBar != null) {
+            importProgressBar.progressProperty().bind(task.progressProperty());
+            importProgressBar.setVisible(true);
+        }
+        if (cancelImportButton != null) {
+            cancelImportButton.setDisable(false);
         }
 
-        // 备份CSV文件到用户目录
-        String backupPath = backupCsvFileToUserDirectory(file, currentUser.getUsername());
-        
-        billTable.setItems(FXCollections.observableArrayList(records));
-        updatePieChart(totalAmount);
+        task.setOnSucceeded(event -> {
+            if (!endImport(task)) {
+                return;
+            }
+            updatePieChart(totalAmount[0]);
+            updateRepaymentAmountColor(totalAmount[0]);
+            backupAndSaveImport(file, currentUser.getUsername(), acceptedRows, duplicates.getDuplicateCount(), billIndex);
+        });
+        task.setOnFailed(event -> {
+            if (!endImport(task)) {
+                return;
+            }
+            restoreItems(previousItems);
+            Throwable error = task.getException();
+            if (error instanceof IOException) {
+                showError("Import Error", "Failed to import CSV file: " + error.getMessage()
+                        + "\nProgress has been saved; importing the same file again resumes where it stopped.");
+            } else if (error instanceof IllegalArgumentException) {
+                // 出错的行之前的进度已放弃，修正文件后从头导入
+                showError("Data Error", error.getMessage()
+                        + "\nPlease fix the row (e.g., date,description,amount,status) and import the file again.");
+            } else {
+                showError("Data Error", "Please ensure the CSV file format is correct (e.g., date,description,amount,status).");
+            }
+        });
+        task.setOnCancelled(event -> {
+            if (!endImport(task)) {
+                return;
+            }
+            restoreItems(previousItems);
+            updateUserDataStatus("Import cancelled - " + currentUser.getUsername());
+        });
+
+        Thread worker = new Thread(task, "coinue-bill-import");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @FXML
+    private void handleCancelImport() {
+        if (currentImport != null) {
+            currentImport.cancel();
+        }
+    }
+
+    /**
+     * 导入任务结束后重置进度控件
+     * @param task 结束的导入任务
+     * @return 该任务是否仍是当前任务，已被新导入替换的任务返回false
+     */
+    private boolean endImport(ImportTask<UserBillData.BillRecord> task) {
+        if (currentImport != task) {
+            return false;
+        }
+        currentImport = null;
+        itemsBeforeImport = null;
+        if (importProgressBar != null) {
+            importProgressBar.progressProperty().unbind();
+            importProgressBar.setVisible(false);
+        }
+        if (cancelImportButton != null) {
+            cancelImportButton.setDisable(true);
+        }
+        return true;
+    }
+
+    private void restoreItems(ObservableList<BillRecord> previousItems) {
+        billTable.setItems(previousItems);
+        double totalAmount = calculateTotalRepayment();
         repaymentAmountLabel.setText(String.format("Repayment Amount: ¥%.2f", totalAmount));
         updateRepaymentAmountColor(totalAmount);
-        
-        // 保存用户数据
-        saveUserBillData(currentUser.getUsername());
-        
-        // 更新状态
-        String statusMessage = "Imported " + records.size() + " records";
-        if (backupPath != null) {
-            statusMessage += " (CSV file backed up)";
+    }
+
+    /**
+     * 打开用户的账单指纹索引，索引与当前账单数量不一致时按当前账单重建
+     * @param username 用户名
+     * @param currentItems 当前表格中的账单
+     * @return 指纹索引
+     */
+    private FingerprintIndex openBillIndex(String username, List<BillRecord> currentItems) {
+        FingerprintIndex index = FingerprintIndex.open(
+                Paths.get(userDataService.getUserDataDirectory(username), BILL_INDEX_FILE));
+        try {
+            index.syncWith(currentItems,
+                    record -> FingerprintIndex.fingerprint(record.getDate(), record.getAmount(), record.getDescription(), null));
+        } catch (IOException e) {
+            System.err.println("Failed to rebuild bill fingerprint index: " + e.getMessage());
         }
-        updateUserDataStatus(statusMessage + " - " + currentUser.getUsername());
+        return index;
+    }
+
+    /**
+     * 在后台线程备份导入的CSV文件并保存用户数据
+     * 账单数据在界面线程上更新并序列化进事务，后台线程只备份文件和提交事务，不访问账单数据对象
+     * @param file 导入的CSV文件
+     * @param username 用户名
+     * @param importedRows 本次导入新增的账单
+     * @param duplicateCount 跳过的重复账单数量
+     * @param billIndex 账单指纹索引，保存成功后追加新账单的指纹
+     */
+    private void backupAndSaveImport(File file, String username, List<UserBillData.BillRecord> importedRows,
+                                     long duplicateCount, FingerprintIndex billIndex) {
+        syncUserBillData();
+        userBillData.setLastImportedFile(file.getName());
+        UserDataService.Transaction transaction;
+        try {
+            transaction = userDataService.beginTransaction(username).write("bill_data.json", userBillData);
+        } catch (IOException e) {
+            System.err.println("Failed to save bill data: " + e.getMessage());
+            updateUserDataStatus("Failed to save imported records - " + username);
+            return;
+        }
+        Thread.ofVirtual().name("coinue-bill-import-save").start(() -> {
+            // 账单数据与CSV备份的导入记录一起提交，备份失败时事务单独提交
+            String backupHash = null;
+            boolean success;
+            try {
+                CsvBackupStore.ImportEvent event = new CsvBackupStore(username)
+                        .backupInBackground(file.toPath(), transaction).join();
+                if (event != null) {
+                    System.out.println("CSV file has been backed up: " + event.getFileName()
+                            + " (" + event.getContentHash() + ")");
+                    backupHash = event.getContentHash();
+                }
+                success = true;
+            } catch (CompletionException e) {
+                System.err.println("Failed to save bill data: " + e.getCause().getMessage());
+                success = false;
+            }
+            if (success) {
+                try {
+                    billIndex.addAll(importedRows, FingerprintIndex::fingerprint);
+                } catch (IOException e) {
+                    System.err.println("Failed to update bill fingerprint index: " + e.getMessage());
+                }
+            } else {
+                System.err.println("Failed to save bill data for user " + username);
+            }
+
+            // 更新状态
+            String statusMessage = "Imported " + importedRows.size() + " records";
+            if (duplicateCount > 0) {
+                statusMessage += ", skipped " + duplicateCount + " duplicates";
+            }
+            if (backupHash != null) {
+                statusMessage += " (CSV file backed up)";
+            }
+            String status = statusMessage + " - " + username;
+            Platform.runLater(() -> updateUserDataStatus(status));
+        });
     }
 
     private void updatePieChart(double repaymentAmount) {
@@ -381,6 +556,24 @@ public class BillPaymentPageController {
      * @param username 用户名
      */
     private void saveUserBillData(String username) {
+        syncUserBillData();
+        // 离开页面时的自动保存，账单数据没有变化时不写入
+        if (!userBillData.isDirty()) {
+            return;
+        }
+        
+        boolean success = userDataService.saveData(username, "bill_data.json", userBillData);
+        if (success) {
+            System.out.println("Successfully saved bill data for user " + username);
+        } else {
+            System.err.println("Failed to save bill data for user " + username);
+        }
+    }
+    
+    /**
+     * 把信用额度和当前表格中的账单记录同步到用户账单数据
+     */
+    private void syncUserBillData() {
         if (userBillData == null) {
             userBillData = new UserBillData();
         }
@@ -394,13 +587,6 @@ public class BillPaymentPageController {
             List<UserBillData.BillRecord> userBillRecords = convertToUserBillData(currentRecords);
             userBillData.setBillRecords(userBillRecords);
         }
-        
-        boolean success = userDataService.saveData(username, "bill_data.json", userBillData);
-        if (success) {
-            System.out.println("Successfully saved bill data for user " + username);
-        } else {
-            System.err.println("Failed to save bill data for user " + username);
-        }
     }
     
     /**
@@ -468,34 +654,6 @@ public class BillPaymentPageController {
         return records.stream().mapToDouble(BillRecord::getAmount).sum();
     }
     
-    /**
-     * 备份CSV文件到用户目录
-     * @param sourceFile 源文件
-     * @param username 用户名
-     * @return 备份文件路径
-     */
-    private String backupCsvFileToUserDirectory(File sourceFile, String username) {
-        try {
-            String userDir = userDataService.getUserDataDirectory(username);
-            String timestamp = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-            String backupFileName = "bill_import_" + timestamp + "_" + sourceFile.getName();
-            Path backupPath = Paths.get(userDir, backupFileName);
-            
-            Files.copy(sourceFile.toPath(), backupPath, StandardCopyOption.REPLACE_EXISTING);
-            
-            // 更新用户数据中的最后导入文件名
-            if (userBillData != null) {
-                userBillData.setLastImportedFile(backupFileName);
-            }
-            
-            System.out.println("CSV file has been backed up to: " + backupPath.toString());
-            return backupPath.toString();
-        } catch (IOException e) {
-            System.err.println("Failed to backup CSV file: " + e.getMessage());
-            return null;
-        }
-    }
-    
     /**
      * 如果用户已登录则保存当前数据
      */
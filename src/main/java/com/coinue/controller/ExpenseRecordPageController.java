@@ -2,6 +2,7 @@ package com.coinue.controller;
 
 import com.coinue.model.ExpenseRecord;
 import com.coinue.util.DataManager;
+import com.coinue.util.ExpenseRepository;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -12,7 +13,7 @@ import javafx.scene.control.*;
 import javafx.stage.Stage;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.List;
 
 public class ExpenseRecordPageController {
     
@@ -21,6 +22,8 @@ public class ExpenseRecordPageController {
     
     private ObservableList<ExpenseRecord> expenseRecords = FXCollections.observableArrayList();
     
+    private final ExpenseRepository expenseRepository = DataManager.getExpenseRepository();
+    
     @FXML
     private void initialize() {
         // 加载已有记录
@@ -69,12 +72,32 @@ public class ExpenseRecordPageController {
     }
     
     public void addExpenseRecord(ExpenseRecord record) {
-        expenseRecords.add(record);
-        DataManager.saveExpenseRecords(new ArrayList<>(expenseRecords));
+        try {
+            expenseRepository.insert(record);
+            expenseRecords.add(record);
+        } catch (IOException e) {
+            showError("保存记录失败", e.getMessage());
+        }
+    }
+
+    /**
+     * 批量添加消费记录，只触发一次列表变更通知并只写一次文件
+     * @param records 要添加的消费记录列表
+     */
+    public void addExpenseRecords(List<ExpenseRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            expenseRepository.insertAll(records);
+            expenseRecords.addAll(records);
+        } catch (IOException e) {
+            showError("保存记录失败", e.getMessage());
+        }
     }
     
     private void loadExpenseRecords() {
-        expenseRecords.addAll(DataManager.loadExpenseRecords());
+        expenseRecords.setAll(expenseRepository.findAll());
     }
     
     @FXML
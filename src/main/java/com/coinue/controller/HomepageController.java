@@ -1,15 +1,17 @@
 package com.coinue.controller;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
 
+import com.coinue.util.ImportPipeline;
+import com.coinue.util.ReminderRowSchema;
+
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
@@ -112,38 +114,29 @@ public class HomepageController implements Initializable {
      * @param file 要导入的CSV文件
      */
     private void importCSVFromFile(File file) throws IOException {
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            boolean isFirstLine = true;
-
-            // 清除现有数据
-            budgetList.getChildren().clear();
-            reminderList.getChildren().clear();
-
-            // 重新初始化UI
-            Platform.runLater(() -> {
-                initializeUI();
-            });
-
-            while ((line = br.readLine()) != null) {
-                if (isFirstLine) {
-                    isFirstLine = false;
-                    continue;
-                }
-
-                String[] data = line.split(",");
-                if (data.length >= 4) {
-                    String type = data[0].trim();
-                    String amount = data[1].trim();
-                    String date = data[2].trim();
-                    String additional = data[3].trim();
-
-                    if (isBudgetType(type)) {
-                        addBudgetItem(type, amount, date, additional);
-                    } else {
-                        addReminderItem(type, amount, date, additional);
-                    }
-                }
+        // 清除现有数据
+        budgetList.getChildren().clear();
+        reminderList.getChildren().clear();
+
+        // 重新初始化UI
+        Platform.runLater(() -> {
+            initializeUI();
+        });
+
+        new ImportPipeline<>(new ReminderRowSchema(), this::addImportedRows).run(file.toPath());
+    }
+
+    /**
+     * 将导入管道输出的一批数据添加到预算列表或提醒列表
+     * @param rows 导入的数据行
+     */
+    private void addImportedRows(List<ReminderRowSchema.Row> rows) {
+        for (ReminderRowSchema.Row row : rows) {
+            // 根据类型决定添加到哪个列表
+            if (isBudgetType(row.getType())) {
+                addBudgetItem(row.getType(), row.getAmount(), row.getDate(), row.getAdditional());
+            } else {
+                addReminderItem(row.getType(), row.getAmount(), row.getDate(), row.getAdditional());
             }
         }
     }
@@ -436,56 +429,31 @@ public class HomepageController implements Initializable {
         try {
             File csvFile = new File(CSV_FILE_PATH);
             if (csvFile.exists()) {
-                try (BufferedReader br = new BufferedReader(new FileReader(csvFile))) {
-                    String line;
-                    boolean isFirstLine = true;
-
-                    // 清除现有数据
-                    budgetList.getChildren().clear();
-                    reminderList.getChildren().clear();
+                // 清除现有数据
+                budgetList.getChildren().clear();
+                reminderList.getChildren().clear();
 
-                    // 重新初始化UI
+                // 重新初始化UI
 // 重新初始化UI组件
-                    Platform.runLater(() -> {
-                        // 设置列表样式
-                        budgetList.setSpacing(10);
-                        budgetList.setPadding(new Insets(10));
-                        reminderList.setSpacing(10);
-                        reminderList.setPadding(new Insets(10));
-
-                        // 添加标题
-                        Label reminderTitle = createStyledLabel("Repayment reminder",
-                                "-fx-font-size: 20; -fx-font-weight: bold;");
-                        reminderList.getChildren().add(0, reminderTitle);
-
-                        // 创建按钮容器
-                        HBox buttonContainer = new HBox(10);
-                        buttonContainer.getChildren().addAll(createImportButton(), createAddReminderButton());
-                        reminderList.getChildren().add(1, buttonContainer);
-                    });
-
-                    while ((line = br.readLine()) != null) {
-                        if (isFirstLine) {
-                            isFirstLine = false;
-                            continue;
-                        }
-
-                        String[] data = line.split(",");
-                        if (data.length >= 4) {
-                            String type = data[0].trim();
-                            String amount = data[1].trim();
-                            String date = data[2].trim();
-                            String additional = data[3].trim();
-
-                            // 根据类型决定添加到哪个列表
-                            if (isBudgetType(type)) {
-                                addBudgetItem(type, amount, date, additional);
-                            } else {
-                                addReminderItem(type, amount, date, additional);
-                            }
-                        }
-                    }
-                }
+                Platform.runLater(() -> {
+                    // 设置列表样式
+                    budgetList.setSpacing(10);
+                    budgetList.setPadding(new Insets(10));
+                    reminderList.setSpacing(10);
+                    reminderList.setPadding(new Insets(10));
+
+                    // 添加标题
+                    Label reminderTitle = createStyledLabel("Repayment reminder",
+                            "-fx-font-size: 20; -fx-font-weight: bold;");
+                    reminderList.getChildren().add(0, reminderTitle);
+
+                    // 创建按钮容器
+                    HBox buttonContainer = new HBox(10);
+                    buttonContainer.getChildren().addAll(createImportButton(), createAddReminderButton());
+                    reminderList.getChildren().add(1, buttonContainer);
+                });
+
+                new ImportPipeline<>(new ReminderRowSchema(), this::addImportedRows).run(csvFile.toPath());
             }
         } catch (IOException e) {
             showError("导入失败", "无法读取CSV文件");
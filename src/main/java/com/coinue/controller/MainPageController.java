@@ -4,7 +4,10 @@ import com.coinue.model.Budget;
 import com.coinue.model.ExpenseRecord;
 import com.coinue.model.PaymentReminder;
 import com.coinue.util.DataManager;
+import com.coinue.util.ExpensePager;
+import com.coinue.util.ExpenseRepository;
 import com.coinue.util.PageManager;
+import com.coinue.util.PagedExpenseList;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -104,9 +107,25 @@ public class MainPageController {
     private ObservableList<PaymentReminder> reminders;
 
     /**
-     * 消费记录数据集合
+     * 消费记录表格每页的记录数，表格滚动时按页加载
      */
-    private ObservableList<ExpenseRecord> expenseRecords;
+    private static final int EXPENSE_PAGE_SIZE = 100;
+
+    /**
+     * 消费记录表格当前的排序字段和方向
+     */
+    private ExpensePager.SortKey expenseSortKey = ExpensePager.SortKey.POSITION;
+    private boolean expenseSortDescending;
+
+    /**
+     * 正在替换表格数据，避免替换时触发的排序再次替换
+     */
+    private boolean replacingExpenseItems;
+
+    /**
+     * 消费记录存储
+     */
+    private final ExpenseRepository expenseRepository = DataManager.getExpenseRepository();
 
     /**
      * 初始化方法，在FXML加载后自动调用
@@ -117,7 +136,6 @@ public class MainPageController {
         // 初始化数据
         budgets = FXCollections.observableArrayList(DataManager.loadBudgets());
         reminders = FXCollections.observableArrayList(DataManager.loadReminders());
-        expenseRecords = FXCollections.observableArrayList(DataManager.loadExpenseRecords());
 
         // 设置预算卡片式显示
         updateBudgetCards();
@@ -208,8 +226,12 @@ public class MainPageController {
                         
                         alert.showAndWait().ifPresent(response -> {
                             if (response == ButtonType.OK) {
-                                expenseRecords.remove(record);
-                                DataManager.saveExpenseRecords(List.copyOf(expenseRecords));
+                                // 表格可能已排序，按内容而不是行号删除
+                                try {
+                                    expenseRepository.delete(record);
+                                } catch (IOException e) {
+                                    showError("删除消费记录失败", e.getMessage());
+                                }
                                 refreshExpenseRecords();
                             }
                         });
@@ -221,9 +243,31 @@ public class MainPageController {
         
         // 将删除列添加到表格
         expenseTableView.getColumns().add(deleteColumn);
-        
+
+        // 表格数据按页从存储加载，只有日期和金额可以排序，排序时扫描存储重建分页器而不是在内存中排序
+        categoryColumn.setSortable(false);
+        nameColumn.setSortable(false);
+        remarksColumn.setSortable(false);
+        deleteColumn.setSortable(false);
+        expenseTableView.setSortPolicy(table -> {
+            if (replacingExpenseItems) {
+                return true;
+            }
+            TableColumn<ExpenseRecord, ?> column = table.getSortOrder().isEmpty() ? null : table.getSortOrder().get(0);
+            if (column == dateColumn) {
+                expenseSortKey = ExpensePager.SortKey.DATE;
+            } else if (column == amountColumn) {
+                expenseSortKey = ExpensePager.SortKey.AMOUNT;
+            } else {
+                expenseSortKey = ExpensePager.SortKey.POSITION;
+            }
+            expenseSortDescending = column != null && column.getSortType() == TableColumn.SortType.DESCENDING;
+            refreshExpenseRecords();
+            return true;
+        });
+
         // 设置表格数据
-        expenseTableView.setItems(expenseRecords);
+        refreshExpenseRecords();
     }
 
     /**
@@ -314,7 +358,7 @@ public class MainPageController {
      */
     public void addBudget(Budget budget) {
         budgets.add(budget);
-        DataManager.saveBudgets(List.copyOf(budgets));
+        DataManager.saveBudgets(List.copyOf(budgets), List.of(budget));
         updateBudgetCards(); // 更新预算卡片显示
     }
     
@@ -403,8 +447,9 @@ public class MainPageController {
             
             // 添加删除功能
             deleteButton.setOnAction(e -> {
-                budgets.remove(budget);
-                DataManager.saveBudgets(List.copyOf(budgets));
+                int index = budgets.indexOf(budget);
+                budgets.remove(index);
+                DataManager.saveBudgets(List.copyOf(budgets), index);
                 updateBudgetCards();
             });
             
@@ -436,7 +481,7 @@ public class MainPageController {
      */
     public void addReminder(PaymentReminder reminder) {
         reminders.add(reminder);
-        DataManager.saveReminders(List.copyOf(reminders));
+        DataManager.saveReminders(List.copyOf(reminders), List.of(reminder));
         updateReminderCards(); // 更新卡片显示
     }
     
@@ -519,8 +564,9 @@ public class MainPageController {
             
             // 添加删除功能
             deleteButton.setOnAction(e -> {
-                reminders.remove(reminder);
-                DataManager.saveReminders(List.copyOf(reminders));
+                int index = reminders.indexOf(reminder);
+                reminders.remove(index);
+                DataManager.saveReminders(List.copyOf(reminders), index);
                 updateReminderCards();
             });
             
@@ -617,10 +663,17 @@ public class MainPageController {
     
     /**
      * 刷新消费记录表格数据
+     * 按当前排序重新分页，表格只加载可见行所在的页
      */
     public void refreshExpenseRecords() {
-        expenseRecords.clear();
-        expenseRecords.addAll(DataManager.loadExpenseRecords());
+        ExpensePager pager = new ExpensePager(expenseRepository, null, null, null,
+                expenseSortKey, expenseSortDescending, EXPENSE_PAGE_SIZE);
+        replacingExpenseItems = true;
+        try {
+            expenseTableView.setItems(new PagedExpenseList(pager));
+        } finally {
+            replacingExpenseItems = false;
+        }
     }
     
     /**
@@ -628,8 +681,29 @@ public class MainPageController {
      * @param record 要添加的消费记录对象
      */
     public void addExpenseRecord(ExpenseRecord record) {
-        expenseRecords.add(record);
-        DataManager.saveExpenseRecords(List.copyOf(expenseRecords));
+        try {
+            expenseRepository.insert(record);
+            refreshExpenseRecords();
+        } catch (IOException e) {
+            showError("保存消费记录失败", e.getMessage());
+        }
+    }
+
+    /**
+     * 批量添加消费记录
+     * 只写一次文件，表格只重新分页一次
+     * @param records 要添加的消费记录列表
+     */
+    public void addExpenseRecords(List<ExpenseRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            expenseRepository.insertAll(records);
+            refreshExpenseRecords();
+        } catch (IOException e) {
+            showError("保存消费记录失败", e.getMessage());
+        }
     }
 
     /**
@@ -4,9 +4,13 @@ package com.coinue.controller;
 // Add necessary imports
 import java.io.File;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.coinue.model.ExpenseRecord;
+import com.coinue.model.User;
+import com.coinue.util.DataManager;
+import com.coinue.util.FingerprintIndex;
 
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
@@ -393,20 +397,24 @@ public class ManualEntryDialogController {
         File file = fileChooser.showOpenDialog(dialogStage);
         if (file != null) {
             try {
-                // 使用CSVHandler导入数据
-                List<ExpenseRecord> importedRecords = com.coinue.util.CSVHandler.readExpenseRecords(file.getPath());
+                // 使用CSVHandler导入数据，已登录时保存导入断点，大文件导入中断后可以从断点继续
+                // 已有的支出记录通过指纹索引跳过，重复导入有重叠的账单不会产生重复记录
+                User currentUser = User.getCurrentUser();
+                FingerprintIndex.DuplicateFilter<ExpenseRecord> duplicates =
+                        DataManager.getExpenseIndex().newFilter(FingerprintIndex::fingerprint);
+                List<ExpenseRecord> importedRecords = currentUser != null
+                        ? com.coinue.util.CSVHandler.readExpenseRecords(file.getPath(),
+                                new com.coinue.util.ImportCheckpointStore(currentUser.getUsername()), duplicates)
+                        : duplicates.filter(com.coinue.util.CSVHandler.readExpenseRecords(file.getPath()));
                 
-                // 记录导入成功和失败的数量
-                int successCount = 0;
+                // 先校验全部记录，再一次性批量写入，避免逐条保存导致整个文件被反复重写
+                // Validate all records first, then persist them as one batch instead of rewriting the file per row
+                List<ExpenseRecord> validRecords = new ArrayList<>(importedRecords.size());
                 int failureCount = 0;
-                
-                // 将导入的记录添加到主页面
                 for (ExpenseRecord record : importedRecords) {
                     try {
-                        // 验证记录的有效性
                         if (validateRecord(record)) {
-                            mainPageController.addExpenseRecord(record);
-                            successCount++;
+                            validRecords.add(record);
                         } else {
                             failureCount++;
                         }
@@ -414,12 +422,20 @@ public class ManualEntryDialogController {
                         failureCount++;
                     }
                 }
-                
-                // 刷新主页面的消费记录表格
-                mainPageController.refreshExpenseRecords();
+                int successCount = validRecords.size();
+
+                // 将导入的记录批量添加到页面
+                // Add imported records to the page in one batch
+                if (!validRecords.isEmpty()) {
+                    if (mainPageController != null) {
+                        mainPageController.addExpenseRecords(validRecords);
+                    } else if (expenseRecordPageController != null) {
+                        expenseRecordPageController.addExpenseRecords(validRecords);
+                    }
+                }
                 
                 // 显示导入结果
-                showImportResult(successCount, failureCount);
+                showImportResult(successCount, failureCount, duplicates.getDuplicateCount());
                 
             } catch (Exception e) {
                 showErrorDialog("导入错误", "导入CSV文件时发生错误：" + e.getMessage());
@@ -463,8 +479,10 @@ public class ManualEntryDialogController {
      * @param successCount Number of successfully imported records
      * @param failureCount 导入失败的记录数
      * @param failureCount Number of failed imports
+     * @param duplicateCount 与历史记录重复而跳过的记录数
+     * @param duplicateCount Number of records skipped as duplicates of existing history
      */
-    private void showImportResult(int successCount, int failureCount) {
+    private void showImportResult(int successCount, int failureCount, long duplicateCount) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle("导入结果");
         alert.setHeaderText(null);
@@ -472,6 +490,9 @@ public class ManualEntryDialogController {
         StringBuilder message = new StringBuilder();
         message.append("导入完成：\n");
         message.append("成功导入：").append(successCount).append(" 条记录\n");
+        if (duplicateCount > 0) {
+            message.append("跳过重复：").append(duplicateCount).append(" 条记录（已存在于历史记录中）\n");
+        }
         if (failureCount > 0) {
             message.append("导入失败：").append(failureCount).append(" 条记录\n");
             message.append("请检查失败记录的格式是否正确。");
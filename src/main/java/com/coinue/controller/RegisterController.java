@@ -2,6 +2,7 @@ package com.coinue.controller;
 
 // 导入必要的类
 import com.coinue.model.User;
+import com.coinue.util.DataManager;
 import com.coinue.util.PageManager;
 
 import javafx.animation.Interpolator;
@@ -18,6 +19,7 @@ import javafx.fxml.FXMLLoader;
 
 import javafx.scene.Parent;
 import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.Hyperlink;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
@@ -71,6 +73,11 @@ public class RegisterController {
         // 登录成功，用户会话已由User.login()自动管理
         System.out.println("用户登录成功: " + user.getUsername());
         
+        // 旧版本的数据不带所属用户，由用户确认后才归入自己的账户
+        if (DataManager.hasLegacyData()) {
+            offerLegacyDataClaim();
+        }
+        
         // 登录成功后跳转到主页
         try {
             // 获取当前窗口
@@ -276,6 +283,25 @@ public class RegisterController {
         }
     }
     
+    /**
+     * 询问用户是否把旧版本留下的未归属数据导入自己的账户
+     */
+    private void offerLegacyDataClaim() {
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle("导入旧数据");
+        alert.setHeaderText(null);
+        alert.setContentText("发现旧版本保存的支出、预算和还款提醒数据，它们不属于任何账户。\n"
+                + "是否导入到当前账户？导入后其他账户不能再导入这些数据。");
+        if (alert.showAndWait().filter(ButtonType.OK::equals).isPresent()) {
+            int moved = DataManager.claimLegacyData();
+            if (moved < 0) {
+                showAlert(Alert.AlertType.ERROR, "导入失败", "旧数据导入失败，数据仍保留在原位置");
+            } else if (DataManager.hasLegacyData()) {
+                showAlert(Alert.AlertType.WARNING, "部分导入", "部分旧数据导入失败，未导入的数据仍保留在原位置，可以重新登录后再次导入");
+            }
+        }
+    }
+
     /**
      * 显示提示对话框
      * @param alertType 对话框类型
@@ -0,0 +1,25 @@
+package com.coinue.model;
+
+/**
+ * 记录自上次加载或保存以来是否被修改的数据对象
+ * UserDataService加载出新对象和保存成功后把对象标记为未修改，自动保存可以据此跳过没有修改的对象。
+ * 通过getter拿到集合后直接修改内容的，需要自己调用{@link #markDirty()}。
+ */
+public interface DirtyTrackable {
+
+    /**
+     * 判断自上次加载或保存以来是否被修改
+     * @return 是否被修改
+     */
+    boolean isDirty();
+
+    /**
+     * 标记为已修改
+     */
+    void markDirty();
+
+    /**
+     * 标记为未修改，加载或保存成功后调用
+     */
+    void markClean();
+}
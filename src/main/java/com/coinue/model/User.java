@@ -307,6 +307,7 @@ public class User {
      */
     public static void logout() {
         currentUser = null;
+        com.coinue.util.DataManager.releasePartition();
     }
 
     /**
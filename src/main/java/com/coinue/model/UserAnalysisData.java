@@ -1,17 +1,22 @@
 package com.coinue.model;
 
+import com.coinue.util.SchemaMigrations;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonAppend;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * 用户分析数据模型类
  * 用于存储用户的财务分析数据，包括支出统计、分类汇总等
+ * 保存的文档以格式版本号开头，旧版本的文档读取时由{@link SchemaMigrations}升级
  */
-public class UserAnalysisData {
+@JsonAppend(attrs = @JsonAppend.Attr(SchemaMigrations.VERSION_FIELD), prepend = true)
+public class UserAnalysisData implements DirtyTrackable {
     
     // 最后分析日期
     private LocalDate lastAnalysisDate;
@@ -40,6 +45,10 @@ public class UserAnalysisData {
     // 分析数据更新时间
     private LocalDate updatedDate;
 
+    // 自上次加载或保存以来是否被修改，不保存
+    @JsonIgnore
+    private boolean dirty = true;
+
     /**
      * 默认构造函数
      */
@@ -82,6 +91,22 @@ public class UserAnalysisData {
 
         public double getUsagePercentage() { return usagePercentage; }
         public void setUsagePercentage(double usagePercentage) { this.usagePercentage = usagePercentage; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BudgetUsage)) return false;
+            BudgetUsage that = (BudgetUsage) o;
+            return Double.compare(budgetLimit, that.budgetLimit) == 0
+                    && Double.compare(actualSpent, that.actualSpent) == 0
+                    && Double.compare(remainingBudget, that.remainingBudget) == 0
+                    && Double.compare(usagePercentage, that.usagePercentage) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(budgetLimit, actualSpent, remainingBudget, usagePercentage);
+        }
     }
 
     /**
@@ -100,6 +125,9 @@ public class UserAnalysisData {
      * @param amount 金额
      */
     public void addMonthlyTrend(String month, double amount) {
+        if (Objects.equals(monthlyTrends.get(month), amount)) {
+            return;
+        }
         monthlyTrends.put(month, amount);
         updateAnalysisDate();
     }
@@ -122,7 +150,11 @@ public class UserAnalysisData {
      * @param actualSpent 实际支出
      */
     public void updateBudgetUsage(String category, double budgetLimit, double actualSpent) {
-        budgetUsage.put(category, new BudgetUsage(budgetLimit, actualSpent));
+        BudgetUsage usage = new BudgetUsage(budgetLimit, actualSpent);
+        if (usage.equals(budgetUsage.get(category))) {
+            return;
+        }
+        budgetUsage.put(category, usage);
         updateAnalysisDate();
     }
 
@@ -157,6 +189,23 @@ public class UserAnalysisData {
     private void updateAnalysisDate() {
         this.lastAnalysisDate = LocalDate.now();
         this.updatedDate = LocalDate.now();
+        this.dirty = true;
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    @Override
+    public void markDirty() {
+        dirty = true;
+    }
+
+    @Override
+    public void markClean() {
+        dirty = false;
     }
 
     // ============================== Getters and Setters ==============================
@@ -174,6 +223,9 @@ public class UserAnalysisData {
     }
 
     public void setTotalExpenses(double totalExpenses) {
+        if (Double.compare(this.totalExpenses, totalExpenses) == 0) {
+            return;
+        }
         this.totalExpenses = totalExpenses;
         updateAnalysisDate();
     }
@@ -183,6 +235,9 @@ public class UserAnalysisData {
     }
 
     public void setTotalIncome(double totalIncome) {
+        if (Double.compare(this.totalIncome, totalIncome) == 0) {
+            return;
+        }
         this.totalIncome = totalIncome;
         updateAnalysisDate();
     }
@@ -192,6 +247,10 @@ public class UserAnalysisData {
     }
 
     public void setCategoryExpenses(Map<String, Double> categoryExpenses) {
+        // 同一个集合对象可能已在外部被修改，只有换成内容相同的另一个集合时才算没有修改
+        if (this.categoryExpenses != categoryExpenses && Objects.equals(this.categoryExpenses, categoryExpenses)) {
+            return;
+        }
         this.categoryExpenses = categoryExpenses;
         updateAnalysisDate();
     }
@@ -201,6 +260,10 @@ public class UserAnalysisData {
     }
 
     public void setMonthlyTrends(Map<String, Double> monthlyTrends) {
+        // 同一个集合对象可能已在外部被修改，只有换成内容相同的另一个集合时才算没有修改
+        if (this.monthlyTrends != monthlyTrends && Objects.equals(this.monthlyTrends, monthlyTrends)) {
+            return;
+        }
         this.monthlyTrends = monthlyTrends;
         updateAnalysisDate();
     }
@@ -210,6 +273,10 @@ public class UserAnalysisData {
     }
 
     public void setExpenseTags(List<String> expenseTags) {
+        // 同一个集合对象可能已在外部被修改，只有换成内容相同的另一个集合时才算没有修改
+        if (this.expenseTags != expenseTags && Objects.equals(this.expenseTags, expenseTags)) {
+            return;
+        }
         this.expenseTags = expenseTags;
         updateAnalysisDate();
     }
@@ -219,6 +286,10 @@ public class UserAnalysisData {
     }
 
     public void setBudgetUsage(Map<String, BudgetUsage> budgetUsage) {
+        // 同一个集合对象可能已在外部被修改，只有换成内容相同的另一个集合时才算没有修改
+        if (this.budgetUsage != budgetUsage && Objects.equals(this.budgetUsage, budgetUsage)) {
+            return;
+        }
         this.budgetUsage = budgetUsage;
         updateAnalysisDate();
     }
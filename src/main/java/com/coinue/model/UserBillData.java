@@ -1,15 +1,20 @@
 package com.coinue.model;
 
+import com.coinue.util.SchemaMigrations;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonAppend;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * 用户账单数据模型类
  * 用于存储用户的账单支付数据，包括账单记录、信用额度设置等
+ * 保存的文档以格式版本号开头，旧版本的文档读取时由{@link SchemaMigrations}升级
  */
-public class UserBillData {
+@JsonAppend(attrs = @JsonAppend.Attr(SchemaMigrations.VERSION_FIELD), prepend = true)
+public class UserBillData implements DirtyTrackable {
     
     // 信用额度
     private double creditLimit;
@@ -26,6 +31,10 @@ public class UserBillData {
     // 最后导入的文件名
     private String lastImportedFile;
 
+    // 自上次加载或保存以来是否被修改，不保存
+    @JsonIgnore
+    private boolean dirty = true;
+
     /**
      * 默认构造函数
      */
@@ -66,6 +75,20 @@ public class UserBillData {
 
         public String getStatus() { return status; }
         public void setStatus(String status) { this.status = status; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof BillRecord)) return false;
+            BillRecord that = (BillRecord) o;
+            return Double.compare(amount, that.amount) == 0 && Objects.equals(date, that.date)
+                    && Objects.equals(description, that.description) && Objects.equals(status, that.status);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(date, description, amount, status);
+        }
     }
 
     /**
@@ -90,6 +113,10 @@ public class UserBillData {
      * @param records 账单记录列表
      */
     public void setBillRecords(List<BillRecord> records) {
+        // 同一个列表对象可能已在外部被修改，只有换成内容相同的另一个列表时才算没有修改
+        if (this.billRecords != records && billRecords.equals(records)) {
+            return;
+        }
         this.billRecords = new ArrayList<>(records);
         updateDataTime();
     }
@@ -129,6 +156,23 @@ public class UserBillData {
      */
     private void updateDataTime() {
         this.updatedDate = LocalDate.now();
+        this.dirty = true;
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    @Override
+    public void markDirty() {
+        dirty = true;
+    }
+
+    @Override
+    public void markClean() {
+        dirty = false;
     }
 
     // ============================== Getters and Setters ==============================
@@ -138,6 +182,9 @@ public class UserBillData {
     }
 
     public void setCreditLimit(double creditLimit) {
+        if (Double.compare(this.creditLimit, creditLimit) == 0) {
+            return;
+        }
         this.creditLimit = creditLimit;
         updateDataTime();
     }
@@ -167,6 +214,9 @@ public class UserBillData {
     }
 
     public void setLastImportedFile(String lastImportedFile) {
+        if (Objects.equals(this.lastImportedFile, lastImportedFile)) {
+            return;
+        }
         this.lastImportedFile = lastImportedFile;
         updateDataTime();
     }
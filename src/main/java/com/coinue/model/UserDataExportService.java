@@ -1,6 +1,5 @@
 package com.coinue.model;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -22,7 +21,6 @@ public class UserDataExportService {
     private static final String EXPORT_DIR = "data/exports";
     
     private UserDataService userDataService;
-    private ObjectMapper objectMapper;
     
     /**
      * 单例实例
@@ -45,7 +43,6 @@ public class UserDataExportService {
      */
     private UserDataExportService() {
         this.userDataService = UserDataService.getInstance();
-        this.objectMapper = new ObjectMapper();
         ensureExportDirectoryExists();
     }
     
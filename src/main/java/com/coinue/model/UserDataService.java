@@ -1,33 +1,89 @@
 package com.coinue.model;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.coinue.util.JsonCodecs;
+import com.coinue.util.ObjectCache;
+import com.coinue.util.PersistenceWorker;
+import com.coinue.util.SchemaMigrations;
+import com.coinue.util.TransactionLog;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 用户数据服务类
  * 负责管理每个用户的个人数据存储，包括分析数据、预算数据、交易记录等
  * 每个用户在data/users/{username}/目录下有独立的数据存储空间
+ * 加载的数据对象按文件缓存，保存、删除时失效；缓存中的对象不交给调用方，每次加载返回它的副本，修改后需要保存。
+ * 副本通过{@link JsonCodecs#copy}在内存中复制，省去了读盘和JSON文本解析，但仍要逐个字段构造对象，
+ * 这是为了让调用方各自的修改互不影响、也不在线程之间共享可变对象而付出的代价；
+ * 每次加载还会读取一次文件的修改时间和大小，以便发现文件在程序外被改动
+ * 一次操作要写入多个文件时使用{@link #beginTransaction}，这些文件一起提交，中途崩溃后在首次访问该用户时按日志重做；
+ * 每个用户有自己的事务日志，不同用户的事务可以同时提交
+ * 记录每个文件最后写完或读到的内容摘要，保存的内容与之相同且文件没有被改动时不再写入
+ * 保存方法返回true表示数据已序列化并交给后台写入，后台重试后仍然写入失败时通知{@link SaveFailureListener}，
+ * 失败的内容保留在持久化线程中，加载时仍能读到
  */
 public class UserDataService {
     
-    // Jackson ObjectMapper用于JSON序列化和反序列化
-    private final ObjectMapper objectMapper;
+    /**
+     * 后台写入数据文件最终失败时的回调，在持久化线程上调用
+     */
+    @FunctionalInterface
+    public interface SaveFailureListener {
+        /**
+         * 数据文件写入失败
+         * @param file 数据文件
+         * @param error 最后一次写入的异常
+         */
+        void onSaveFailed(Path file, Throwable error);
+    }
+    
+    // 后台持久化线程，保存操作只在调用线程上序列化，写文件在后台完成
+    private final PersistenceWorker persistence;
+    
+    // 已加载数据对象的缓存，键是数据文件路径，权重是文件的字节数
+    private final ObjectCache<Path> cache;
+    
+    // 已确认数据目录存在的用户
+    private final Set<String> ensuredUsers = ConcurrentHashMap.newKeySet();
+    
+    // 每个用户的事务日志，创建时重做上次没有完成的事务
+    private final Map<String, TransactionLog> transactionLogs = new ConcurrentHashMap<>();
+    
+    // 每个数据文件最后一次写完或读到的内容的SHA-256及当时文件的修改时间和大小，键是绝对路径
+    private final Map<Path, PersistedContent> persistedDigests = new ConcurrentHashMap<>();
+    
+    // 因内容与上次相同而跳过的写入次数
+    private final AtomicLong skippedWrites = new AtomicLong();
+    
+    // 写入失败的监听器
+    private final List<SaveFailureListener> saveFailureListeners = new CopyOnWriteArrayList<>();
     
     // 基础数据目录
     private static final String BASE_DATA_DIR = "data/users";
     
+    // 缓存的数据文件总字节数上限
+    private static final long CACHE_MAX_BYTES = 16L * 1024 * 1024;
+    
     // 各种数据文件名
-    private static final String ANALYSIS_DATA_FILE = "analysis_data.json";
+    /** 分析数据文件名 */
+    public static final String ANALYSIS_DATA_FILE = "analysis_data.json";
     private static final String BUDGET_DATA_FILE = "budget_data.json";
     private static final String EXPENSE_DATA_FILE = "expense_data.json";
     private static final String SETTINGS_FILE = "user_settings.json";
@@ -51,21 +107,20 @@ public class UserDataService {
      * 私有构造函数
      */
     private UserDataService() {
-        objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
-        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        objectMapper.configure(SerializationFeature.INDENT_OUTPUT, true);
-        // 配置忽略未知字段，提高兼容性
-        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        persistence = PersistenceWorker.getInstance();
+        cache = new ObjectCache<>(CACHE_MAX_BYTES);
     }
     
     /**
-     * 确保用户数据目录存在
+     * 确保用户数据目录存在，每个用户只检查一次
      * @param username 用户名
      * @return 用户数据目录路径
      */
     private String ensureUserDataDirectory(String username) {
         String userDir = BASE_DATA_DIR + File.separator + username;
+        if (ensuredUsers.contains(username)) {
+            return userDir;
+        }
         Path userDirPath = Paths.get(userDir);
         
         if (!Files.exists(userDirPath)) {
@@ -74,12 +129,253 @@ public class UserDataService {
                 System.out.println("为用户 " + username + " 创建数据目录: " + userDir);
             } catch (IOException e) {
                 System.err.println("无法为用户 " + username + " 创建数据目录: " + e.getMessage());
+                return userDir;
             }
         }
+        transactionLog(username);
+        ensuredUsers.add(username);
         
         return userDir;
     }
     
+    /**
+     * 获取用户的事务日志，本次运行中第一次获取时重做上次没有完成的事务
+     * @param username 用户名
+     * @return 事务日志
+     */
+    private TransactionLog transactionLog(String username) {
+        return transactionLogs.computeIfAbsent(username, name -> {
+            Path userDirPath = Paths.get(BASE_DATA_DIR, name);
+            TransactionLog log = new TransactionLog(userDirPath);
+            try {
+                if (log.recover()) {
+                    cache.invalidateAll(path -> path.startsWith(userDirPath));
+                    forgetDigests(userDirPath);
+                }
+            } catch (IOException e) {
+                System.err.println("重做用户 " + name + " 的未完成事务失败: " + e.getMessage());
+            }
+            return log;
+        });
+    }
+    
+    /**
+     * 开始一个用户数据事务，事务中的文件在提交时一起写入
+     * @param username 用户名
+     * @return 事务
+     */
+    public Transaction beginTransaction(String username) {
+        String userDir = ensureUserDataDirectory(username);
+        return new Transaction(username, userDir, transactionLog(username).begin());
+    }
+    
+    /**
+     * 把数据序列化后提交给后台持久化线程，同一文件短时间内的多次保存会合并为一次写入
+     * 使用{@link JsonCodecs}中按运行时类型缓存的缩进格式写入器，带版本的类型写入当前格式版本
+     * 内容与该文件最后写完或读到的内容相同、文件也没有被改动时不再写入
+     * @param file 目标文件
+     * @param value 数据对象
+     * @throws IOException 序列化失败时抛出
+     */
+    private void writeValue(File file, Object value) throws IOException {
+        byte[] content = SchemaMigrations.write(value, true);
+        Path path = file.toPath();
+        cache.invalidate(path);
+        byte[] digest = digest(content);
+        if (isPersisted(path, digest)) {
+            skippedWrites.incrementAndGet();
+        } else {
+            // 摘要在内容真正落盘后才记录，写入失败或被丢弃时文件不是这次的内容
+            persistedDigests.remove(digestKey(path));
+            persistence.write(path, content).whenComplete((result, error) -> {
+                if (error == null) {
+                    recordPersisted(path, digest);
+                } else if (!(error instanceof CancellationException)) {
+                    for (SaveFailureListener listener : saveFailureListeners) {
+                        listener.onSaveFailed(path, error);
+                    }
+                }
+            });
+        }
+        if (value instanceof DirtyTrackable trackable) {
+            trackable.markClean();
+        }
+    }
+    
+    /**
+     * 判断文件当前的内容是否就是摘要对应的内容
+     * 还有等待写入或写入失败的内容时文件最终的内容不确定，照常提交；
+     * 否则确认文件的修改时间和大小仍是记录摘要时的值，文件被删除或在外部改动后照常写入
+     */
+    private boolean isPersisted(Path path, byte[] digest) {
+        PersistedContent last = persistedDigests.get(digestKey(path));
+        if (last == null || !MessageDigest.isEqual(last.digest, digest)) {
+            return false;
+        }
+        if (persistence.getPending(path) != null) {
+            return false;
+        }
+        try {
+            return last.matches(Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * 记录文件已是摘要对应的内容，同时记下文件当前的修改时间和大小
+     */
+    private void recordPersisted(Path path, byte[] digest) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            persistedDigests.put(digestKey(path), new PersistedContent(digest, attributes));
+        } catch (IOException e) {
+            persistedDigests.remove(digestKey(path));
+        }
+    }
+    
+    private static Path digestKey(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+    
+    private void forgetDigests(Path directory) {
+        Path key = digestKey(directory);
+        persistedDigests.keySet().removeIf(path -> path.startsWith(key));
+    }
+    
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+    
+    /**
+     * 读取数据文件，尚未落盘的内容优先，缓存中的对象仍对应当前内容时直接复制一份返回
+     * 文档的格式版本较旧时先按{@link SchemaMigrations}中的步骤升级，升级后的内容在后台写回
+     * @param file 数据文件
+     * @param dataClass 数据类型
+     * @param <T> 泛型类型
+     * @return 数据对象，每次都是新的实例
+     * @throws IOException 读取或解析失败时抛出
+     */
+    private <T> T readValue(File file, Class<T> dataClass) throws IOException {
+        Path path = file.toPath();
+        byte[] pending = persistence.getPending(path);
+        // 尚未落盘时版本是待写入的内容本身，否则是文件的修改时间和大小，文件在外部被改动后缓存自动失效
+        Object version;
+        BasicFileAttributes attributes = null;
+        if (pending != null) {
+            version = pending;
+        } else {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            version = attributes.lastModifiedTime() + "/" + attributes.size();
+        }
+        T cached = cache.get(path, dataClass, version);
+        if (cached == null) {
+            byte[] content = pending != null ? pending : Files.readAllBytes(path);
+            if (SchemaMigrations.needsMigration(content, dataClass)) {
+                content = SchemaMigrations.migrate(content, dataClass, true);
+                persistedDigests.remove(digestKey(path));
+                if (pending == null) {
+                    writeBackMigrated(path, version, content);
+                }
+            } else if (pending == null) {
+                // 等待写入的内容在写完时由写入方记录
+                persistedDigests.put(digestKey(path), new PersistedContent(digest(content), attributes));
+            }
+            ObjectReader reader = JsonCodecs.reader(dataClass);
+            cached = reader.readValue(content);
+            cache.put(path, dataClass, cached, version, content.length);
+        }
+        // 缓存中的对象只用来复制，调用方拿到的是各自的副本，未保存的修改互不影响
+        T value = JsonCodecs.copy(cached, dataClass);
+        if (value instanceof DirtyTrackable trackable) {
+            trackable.markClean();
+        }
+        return value;
+    }
+    
+    /**
+     * 在后台把升级后的文档写回，只在文件仍是读取时的内容、也没有新的保存时写入
+     * 不经过持久化线程的队列，写回之前文件被删除或改动都不会被覆盖
+     * @param path 数据文件
+     * @param version 读取时文件的修改时间和大小
+     * @param content 升级后的内容
+     */
+    private void writeBackMigrated(Path path, Object version, byte[] content) {
+        Thread.ofVirtual().name("coinue-schema-migration").start(() -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (persistence.getPending(path) == null
+                        && version.equals(attributes.lastModifiedTime() + "/" + attributes.size())) {
+                    PersistenceWorker.writeAtomically(path, content);
+                    System.out.println("已把 " + path + " 升级到当前格式版本");
+                }
+            } catch (IOException e) {
+                System.err.println("写回升级后的数据文件失败: " + path + " - " + e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * 添加写入失败的监听器
+     * @param listener 监听器
+     */
+    public void addSaveFailureListener(SaveFailureListener listener) {
+        saveFailureListeners.add(listener);
+    }
+    
+    /**
+     * 移除写入失败的监听器
+     * @param listener 监听器
+     */
+    public void removeSaveFailureListener(SaveFailureListener listener) {
+        saveFailureListeners.remove(listener);
+    }
+    
+    /**
+     * 获取因内容与上次写入或读到的相同而跳过的写入次数
+     * @return 跳过的写入数
+     */
+    public long getSkippedWrites() {
+        return skippedWrites.get();
+    }
+    
+    /**
+     * 获取数据缓存命中次数
+     * @return 命中次数
+     */
+    public long getCacheHits() {
+        return cache.getHits();
+    }
+    
+    /**
+     * 获取数据缓存未命中次数
+     * @return 未命中次数
+     */
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+    
+    /**
+     * 获取数据缓存因超过容量逐出的条目数
+     * @return 逐出次数
+     */
+    public long getCacheEvictions() {
+        return cache.getEvictions();
+    }
+    
+    /**
+     * 判断数据文件是否存在，包括已保存但尚未落盘的文件
+     * @param file 数据文件
+     * @return 是否存在
+     */
+    private boolean exists(File file) {
+        return file.exists() || persistence.getPending(file.toPath()) != null;
+    }
+    
     /**
      * 保存用户分析数据
      * @param username 用户名
@@ -91,7 +387,7 @@ public class UserDataService {
         String filePath = userDir + File.separator + ANALYSIS_DATA_FILE;
         
         try {
-            objectMapper.writeValue(new File(filePath), analysisData);
+            writeValue(new File(filePath), analysisData);
             System.out.println("成功保存用户 " + username + " 的分析数据");
             return true;
         } catch (IOException e) {
@@ -112,13 +408,13 @@ public class UserDataService {
         String filePath = userDir + File.separator + ANALYSIS_DATA_FILE;
         File file = new File(filePath);
         
-        if (!file.exists()) {
+        if (!exists(file)) {
             System.out.println("用户 " + username + " 的分析数据文件不存在");
             return null;
         }
         
         try {
-            T data = objectMapper.readValue(file, dataClass);
+            T data = readValue(file, dataClass);
             System.out.println("成功加载用户 " + username + " 的分析数据");
             return data;
         } catch (IOException e) {
@@ -138,7 +434,7 @@ public class UserDataService {
         String filePath = userDir + File.separator + BUDGET_DATA_FILE;
         
         try {
-            objectMapper.writeValue(new File(filePath), budgetData);
+            writeValue(new File(filePath), budgetData);
             System.out.println("成功保存用户 " + username + " 的预算数据");
             return true;
         } catch (IOException e) {
@@ -159,13 +455,13 @@ public class UserDataService {
         String filePath = userDir + File.separator + BUDGET_DATA_FILE;
         File file = new File(filePath);
         
-        if (!file.exists()) {
+        if (!exists(file)) {
             System.out.println("用户 " + username + " 的预算数据文件不存在");
             return null;
         }
         
         try {
-            T data = objectMapper.readValue(file, dataClass);
+            T data = readValue(file, dataClass);
             System.out.println("成功加载用户 " + username + " 的预算数据");
             return data;
         } catch (IOException e) {
@@ -185,7 +481,7 @@ public class UserDataService {
         String filePath = userDir + File.separator + EXPENSE_DATA_FILE;
         
         try {
-            objectMapper.writeValue(new File(filePath), expenseData);
+            writeValue(new File(filePath), expenseData);
             System.out.println("成功保存用户 " + username + " 的支出数据");
             return true;
         } catch (IOException e) {
@@ -206,13 +502,13 @@ public class UserDataService {
         String filePath = userDir + File.separator + EXPENSE_DATA_FILE;
         File file = new File(filePath);
         
-        if (!file.exists()) {
+        if (!exists(file)) {
             System.out.println("用户 " + username + " 的支出数据文件不存在");
             return null;
         }
         
         try {
-            T data = objectMapper.readValue(file, dataClass);
+            T data = readValue(file, dataClass);
             System.out.println("成功加载用户 " + username + " 的支出数据");
             return data;
         } catch (IOException e) {
@@ -232,7 +528,7 @@ public class UserDataService {
         String filePath = userDir + File.separator + SETTINGS_FILE;
         
         try {
-            objectMapper.writeValue(new File(filePath), settings);
+            writeValue(new File(filePath), settings);
             System.out.println("成功保存用户 " + username + " 的设置");
             return true;
         } catch (IOException e) {
@@ -252,13 +548,13 @@ public class UserDataService {
         String filePath = userDir + File.separator + SETTINGS_FILE;
         File file = new File(filePath);
         
-        if (!file.exists()) {
+        if (!exists(file)) {
             System.out.println("用户 " + username + " 的设置文件不存在，返回默认设置");
             return new HashMap<>();
         }
         
         try {
-            Map<String, Object> settings = objectMapper.readValue(file, Map.class);
+            Map<String, Object> settings = readValue(file, Map.class);
             System.out.println("成功加载用户 " + username + " 的设置");
             return settings;
         } catch (IOException e) {
@@ -279,7 +575,7 @@ public class UserDataService {
         String filePath = userDir + File.separator + fileName;
         
         try {
-            objectMapper.writeValue(new File(filePath), data);
+            writeValue(new File(filePath), data);
             System.out.println("成功保存用户 " + username + " 的数据到文件 " + fileName);
             return true;
         } catch (IOException e) {
@@ -301,13 +597,13 @@ public class UserDataService {
         String filePath = userDir + File.separator + fileName;
         File file = new File(filePath);
         
-        if (!file.exists()) {
+        if (!exists(file)) {
             System.out.println("用户 " + username + " 的文件 " + fileName + " 不存在");
             return null;
         }
         
         try {
-            T data = objectMapper.readValue(file, dataClass);
+            T data = readValue(file, dataClass);
             System.out.println("成功加载用户 " + username + " 的文件 " + fileName);
             return data;
         } catch (IOException e) {
@@ -327,6 +623,10 @@ public class UserDataService {
         String filePath = userDir + File.separator + fileName;
         File file = new File(filePath);
         
+        // 先丢弃尚未落盘的内容，避免删除后又被写回
+        persistence.discard(file.toPath());
+        cache.invalidate(file.toPath());
+        persistedDigests.remove(digestKey(file.toPath()));
         if (!file.exists()) {
             System.out.println("用户 " + username + " 的文件 " + fileName + " 不存在，无需删除");
             return true;
@@ -351,7 +651,7 @@ public class UserDataService {
     public boolean dataExists(String username, String fileName) {
         String userDir = ensureUserDataDirectory(username);
         String filePath = userDir + File.separator + fileName;
-        return new File(filePath).exists();
+        return exists(new File(filePath));
     }
     
     /**
@@ -360,6 +660,8 @@ public class UserDataService {
      * @return 用户数据目录的绝对路径
      */
     public String getUserDataDirectory(String username) {
+        // 调用方会直接在这个目录下读写文件，所以每次都重新确认目录存在
+        ensuredUsers.remove(username);
         return ensureUserDataDirectory(username);
     }
     
@@ -371,6 +673,11 @@ public class UserDataService {
     public boolean cleanupUserData(String username) {
         String userDir = BASE_DATA_DIR + File.separator + username;
         Path userDirPath = Paths.get(userDir);
+        persistence.discard(userDirPath);
+        cache.invalidateAll(path -> path.startsWith(userDirPath));
+        forgetDigests(userDirPath);
+        ensuredUsers.remove(username);
+        transactionLogs.remove(username);
         
         if (!Files.exists(userDirPath)) {
             System.out.println("用户 " + username + " 的数据目录不存在，无需清理");
@@ -389,4 +696,84 @@ public class UserDataService {
             return false;
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * 数据文件已保存内容的摘要，以及记录时文件的修改时间和大小
+     */
+    private static class PersistedContent {
+        final byte[] digest;
+        final FileTime modified;
+        final long size;
+        
+        PersistedContent(byte[] digest, BasicFileAttributes attributes) {
+            this.digest = digest;
+            this.modified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+        }
+        
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && modified.equals(attributes.lastModifiedTime());
+        }
+    }
+    
+    /**
+     * 用户数据事务
+     * 写入的数据在加入事务时就序列化，之后修改数据对象不影响事务；提交前不写任何文件
+     */
+    public class Transaction {
+        private final String username;
+        private final String userDir;
+        private final TransactionLog.Transaction operations;
+        
+        private Transaction(String username, String userDir, TransactionLog.Transaction operations) {
+            this.username = username;
+            this.userDir = userDir;
+            this.operations = operations;
+        }
+        
+        /**
+         * 保存数据文件
+         * @param fileName 文件名
+         * @param data 数据对象
+         * @return 当前事务
+         * @throws IOException 序列化失败时抛出
+         */
+        public Transaction write(String fileName, Object data) throws IOException {
+            byte[] content = SchemaMigrations.write(data, true);
+            operations.replace(Paths.get(userDir, fileName), content);
+            return this;
+        }
+        
+        /**
+         * 截断文件到offset后写入内容，用于向用户目录下的文件追加记录
+         * @param file 目标文件，必须在用户数据目录下
+         * @param offset 写入位置
+         * @param content 写入的内容
+         * @return 当前事务
+         */
+        public Transaction writeAt(Path file, long offset, byte[] content) {
+            operations.writeAt(file, offset, content);
+            return this;
+        }
+        
+        /**
+         * 提交事务，返回时所有文件都已落盘
+         * @return 是否提交成功
+         */
+        public boolean commit() {
+            try {
+                operations.commit();
+                System.out.println("成功提交用户 " + username + " 的事务，共 " + operations.getFiles().size() + " 个文件");
+                return true;
+            } catch (IOException e) {
+                System.err.println("提交用户 " + username + " 的事务失败: " + e.getMessage());
+                return false;
+            } finally {
+                // 缓存的键是相对路径，事务中的文件是绝对路径
+                Set<Path> files = Set.copyOf(operations.getFiles());
+                cache.invalidateAll(path -> files.contains(path.toAbsolutePath().normalize()));
+                persistedDigests.keySet().removeAll(files);
+            }
+        }
+    }
+}
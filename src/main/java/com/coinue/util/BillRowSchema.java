@@ -0,0 +1,57 @@
+package com.coinue.util;
+
+import com.coinue.model.UserBillData;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 账单CSV行结构
+ * 列布局：Date,Description,Amount,Status
+ */
+public class BillRowSchema implements RowSchema<UserBillData.BillRecord>, RecordCodec<UserBillData.BillRecord> {
+
+    @Override
+    public String getName() {
+        return "bill";
+    }
+
+    @Override
+    public int getMinimumFieldCount() {
+        return 4;
+    }
+
+    @Override
+    public UserBillData.BillRecord parse(CSVParser row) {
+        return new UserBillData.BillRecord(
+                FieldDecoders.decodeDate(row, 0, DateTimeFormatter.ISO_LOCAL_DATE),
+                row.getTrimmedField(1),
+                FieldDecoders.decodeAmount(row, 2),
+                row.getTrimmedField(3)
+        );
+    }
+
+    @Override
+    public boolean validate(UserBillData.BillRecord record) {
+        return record.getDate() != null && !Double.isNaN(record.getAmount());
+    }
+
+    @Override
+    public void write(DataOutput out, UserBillData.BillRecord record) throws IOException {
+        out.writeLong(record.getDate().toEpochDay());
+        RecordCodec.writeString(out, record.getDescription());
+        out.writeDouble(record.getAmount());
+        RecordCodec.writeString(out, record.getStatus());
+    }
+
+    @Override
+    public UserBillData.BillRecord read(DataInput in) throws IOException {
+        return new UserBillData.BillRecord(
+                FieldDecoders.toLocalDate((int) in.readLong()),
+                RecordCodec.readString(in),
+                in.readDouble(),
+                RecordCodec.readString(in));
+    }
+}
@@ -2,111 +2,420 @@ package com.coinue.util;
 
 import com.coinue.model.ExpenseRecord;
 import java.io.*;
-import java.time.LocalDate;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * CSV文件处理工具类
  * 用于处理消费记录的CSV文件导入导出
  */
 public class CSVHandler {
-    private static final String CSV_SEPARATOR = ",";
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    // 超过该大小的文件在自动模式下使用并行导入
+    static final long PARALLEL_THRESHOLD_BYTES = 64L * 1024 * 1024;
+    // 分析用CSV文件的类别列与金额列（日期,消费名称,类别,金额）
+    private static final int STATISTICS_CATEGORY_COLUMN = 2;
+    private static final int STATISTICS_AMOUNT_COLUMN = 3;
 
     /**
-     * 统一类别名称
-     * @param category 原始类别名称
-     * @return 统一后的类别名称
+     * CSV导入模式
      */
-    private static String normalizeCategory(String category) {
-        switch (category) {
-            case "餐饮":
-                return "食品";
-            case "购物":
-            case "交通":
-            case "娱乐":
-            case "教育":
-            case "医疗":
-            case "住房":
-            case "其他":
-                return category;
-            default:
-                return "其他";
-        }
+    public enum ImportMode {
+        /** 根据文件大小自动选择 */
+        AUTO,
+        /** 单线程流式解析 */
+        SEQUENTIAL,
+        /** 内存映射分块并行解析 */
+        PARALLEL
     }
 
     /**
      * 读取CSV文件并解析为消费记录列表
+     * 列顺序和日期格式由{@link CSVSchemaDetector}根据标题行和前几行数据识别，
+     * 因此既能读取手动导入格式，也能读取本类导出的文件和其他来源的账单。
+     * 根据文件大小自动选择顺序或并行导入模式
      * @param filePath CSV文件路径
      * @return 消费记录列表
      */
     public static List<ExpenseRecord> readExpenseRecords(String filePath) throws IOException {
+        return readExpenseRecords(filePath, ImportMode.AUTO);
+    }
+
+    /**
+     * 按指定模式读取CSV文件并解析为消费记录列表
+     * @param filePath CSV文件路径
+     * @param mode 导入模式
+     * @return 消费记录列表，顺序与文件中的行顺序一致
+     */
+    public static List<ExpenseRecord> readExpenseRecords(String filePath, ImportMode mode) throws IOException {
+        if (mode == ImportMode.AUTO) {
+            mode = chooseImportMode(new File(filePath).length());
+        }
+        if (mode == ImportMode.PARALLEL) {
+            return readExpenseRecordsParallel(filePath, MappedCSVChunker.DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+        }
         List<ExpenseRecord> records = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            // 跳过标题行
-            br.readLine();
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(CSV_SEPARATOR);
-                if (values.length >= 4) {
-                    ExpenseRecord record = new ExpenseRecord(
-                            Double.parseDouble(values[1].trim()),  // 金额
-                            normalizeCategory(values[0].trim()),  // 类别
-                            values[3].trim(),                      // 名称
-                            LocalDate.parse(values[2].trim(), DATE_FORMATTER)  // 日期
-                    );
-                    records.add(record);
+        ImportPipeline.ImportProgress result = new ImportPipeline<>(detectSchema(filePath), records::addAll)
+                .failOnError(true)
+                .run(Paths.get(filePath));
+        reportDroppedRows(filePath, result.getRowsSkipped(), result.getRowsRejected());
+        return records;
+    }
+
+    /**
+     * 报告导入时没有导入的行，顺序和并行模式使用同一种报告方式
+     */
+    private static void reportDroppedRows(String filePath, long skipped, long rejected) {
+        if (skipped > 0 || rejected > 0) {
+            System.err.println("导入 " + filePath + " 时跳过了 " + skipped + " 行列数不足的记录和 "
+                    + rejected + " 行未通过校验的记录");
+        }
+    }
+
+    /**
+     * 可断点续传地读取CSV文件
+     * 按顺序模式导入并定期保存断点，导入中断后再次读取同一文件时从断点继续，已读取的记录从暂存文件读回
+     * @param filePath CSV文件路径
+     * @param checkpoints 断点存储
+     * @return 消费记录列表，顺序与文件中的行顺序一致
+     */
+    public static List<ExpenseRecord> readExpenseRecords(String filePath, ImportCheckpointStore checkpoints) throws IOException {
+        return readExpenseRecords(filePath, checkpoints, null);
+    }
+
+    /**
+     * 可断点续传地读取CSV文件，并跳过历史记录中已有的记录
+     * @param filePath CSV文件路径
+     * @param checkpoints 断点存储
+     * @param duplicates 重复过滤器，为null时不检测重复；跳过的记录数可以从过滤器中取得
+     * @return 不重复的消费记录列表，顺序与文件中的行顺序一致
+     */
+    public static List<ExpenseRecord> readExpenseRecords(String filePath, ImportCheckpointStore checkpoints,
+                                                         FingerprintIndex.DuplicateFilter<ExpenseRecord> duplicates)
+            throws IOException {
+        ExpenseRowSchema schema = detectSchema(filePath);
+        List<ExpenseRecord> records = new ArrayList<>();
+        new ResumableImport<>(schema, schema, checkpoints)
+                .failOnError(true)
+                .skipDuplicates(duplicates)
+                .run(Paths.get(filePath), records::addAll);
+        return records;
+    }
+
+    /**
+     * 根据文件大小选择导入模式
+     * @param fileSize 文件大小（字节）
+     * @return 顺序或并行模式
+     */
+    public static ImportMode chooseImportMode(long fileSize) {
+        if (fileSize >= PARALLEL_THRESHOLD_BYTES && Runtime.getRuntime().availableProcessors() > 1) {
+            return ImportMode.PARALLEL;
+        }
+        return ImportMode.SEQUENTIAL;
+    }
+
+    /**
+     * 并行读取CSV文件
+     * 文件通过内存映射切分为按行对齐的数据块，各数据块在ForkJoinPool上独立解析，最后按原始行顺序合并。
+     * 对错误行的处理与顺序模式相同：无法解析的行中止导入并抛出同样的异常，列数不足和未通过校验的行不导入并报告数量
+     * @param filePath CSV文件路径
+     * @param chunkSize 数据块大小（字节）
+     * @param pool 解析使用的线程池
+     * @return 消费记录列表
+     */
+    static List<ExpenseRecord> readExpenseRecordsParallel(String filePath, long chunkSize, ForkJoinPool pool) throws IOException {
+        ExpenseRowSchema schema = detectSchema(filePath);
+        LongAdder skipped = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            List<MappedCSVChunker.Chunk> chunks = MappedCSVChunker.plan(channel, chunkSize, pool);
+            List<ForkJoinTask<List<ExpenseRecord>>> tasks = new ArrayList<>(chunks.size());
+            for (MappedCSVChunker.Chunk chunk : chunks) {
+                tasks.add(pool.submit(() -> parseChunk(channel, chunk, schema, skipped, rejected)));
+            }
+
+            List<List<ExpenseRecord>> parts = new ArrayList<>(tasks.size());
+            int total = 0;
+            for (ForkJoinTask<List<ExpenseRecord>> task : tasks) {
+                List<ExpenseRecord> part = MappedCSVChunker.join(task);
+                parts.add(part);
+                total += part.size();
+            }
+            List<ExpenseRecord> records = new ArrayList<>(total);
+            for (List<ExpenseRecord> part : parts) {
+                records.addAll(part);
+            }
+            reportDroppedRows(filePath, skipped.sum(), rejected.sum());
+            return records;
+        }
+    }
+
+    private static List<ExpenseRecord> parseChunk(FileChannel channel, MappedCSVChunker.Chunk chunk,
+                                                  ExpenseRowSchema schema, LongAdder skipped, LongAdder rejected) {
+        List<ExpenseRecord> records = new ArrayList<>();
+        try (CSVParser parser = new CSVParser(new InputStreamReader(chunk.openStream(channel), StandardCharsets.UTF_8))) {
+            if (chunk.getIndex() == 0) {
+                // 第一个数据块包含标题行
+                parser.nextRow();
+            }
+            // 与导入管道的failOnError模式一致：解析异常直接抛出，列数不足和未通过校验的行计数后跳过
+            while (parser.nextRow()) {
+                if (parser.getFieldCount() < schema.getMinimumFieldCount()) {
+                    skipped.increment();
+                    continue;
+                }
+                ExpenseRecord record = schema.parse(parser);
+                if (schema.validate(record)) {
+                    records.add(schema.normalize(record));
+                } else {
+                    rejected.increment();
                 }
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
         return records;
     }
 
+    /**
+     * 以流的方式读取CSV文件中的消费记录，调用者无需在内存中持有整个文件
+     * 返回的流需要关闭（建议使用try-with-resources）
+     * @param filePath CSV文件路径
+     * @return 消费记录流
+     */
+    public static Stream<ExpenseRecord> streamExpenseRecords(String filePath) throws IOException {
+        ExpenseRecordIterator iterator = openExpenseRecords(filePath);
+        Spliterator<ExpenseRecord> spliterator = Spliterators.spliteratorUnknownSize(
+                iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+    }
+
+    /**
+     * 打开CSV文件并返回消费记录迭代器，迭代器使用完毕后需要关闭
+     * @param filePath CSV文件路径
+     * @return 消费记录迭代器
+     */
+    public static ExpenseRecordIterator openExpenseRecords(String filePath) throws IOException {
+        ExpenseRowSchema schema = detectSchema(filePath);
+        CSVParser parser = openParser(filePath);
+        // 跳过标题行
+        parser.nextRow();
+        return new ExpenseRecordIterator(parser, schema);
+    }
+
     /**
      * 将消费记录列表写入CSV文件
      * @param records 消费记录列表
      * @param filePath 目标文件路径
      */
     public static void writeExpenseRecords(List<ExpenseRecord> records, String filePath) throws IOException {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filePath))) {
+        try (BufferedWriter bw = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(filePath), StandardCharsets.UTF_8))) {
             // 写入标题行
-            bw.write("日期,消费名称,类别,金额\n");
-            
+            CSVParser.writeRow(bw, "日期", "消费名称", "类别", "金额");
+
             // 写入数据行
             for (ExpenseRecord record : records) {
-                bw.write(String.format("%s,%s,%s,%.2f\n",
+                CSVParser.writeRow(bw,
                         record.getDate().format(DATE_FORMATTER),
                         record.getName(),
                         record.getCategory(),
-                        record.getAmount()));
+                        String.format("%.2f", record.getAmount()));
             }
         }
     }
 
     /**
      * 读取分析用的CSV文件，返回类别统计数据
+     * 根据文件大小自动选择顺序或并行模式
      * @param filePath CSV文件路径
      * @return 类别-金额映射
      */
     public static Map<String, Double> readCategoryStatistics(String filePath) throws IOException {
-        Map<String, Double> statistics = new HashMap<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
+        return readCategoryStatistics(filePath, ImportMode.AUTO);
+    }
+
+    /**
+     * 按指定模式读取分析用的CSV文件，返回类别统计数据
+     * 解析时只投影类别列和金额列，其余字段不会被复制或创建字符串，金额直接累加到原始类型数组中
+     * @param filePath CSV文件路径
+     * @param mode 导入模式
+     * @return 类别-金额映射
+     */
+    public static Map<String, Double> readCategoryStatistics(String filePath, ImportMode mode) throws IOException {
+        if (mode == ImportMode.AUTO) {
+            mode = chooseImportMode(new File(filePath).length());
+        }
+        if (mode == ImportMode.PARALLEL) {
+            return readCategoryStatisticsParallel(filePath, MappedCSVChunker.DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+        }
+        CategoryAggregator aggregator = new CategoryAggregator();
+        try (CSVParser parser = openParser(filePath)) {
             // 跳过标题行
-            br.readLine();
-            while ((line = br.readLine()) != null) {
-                String[] values = line.split(CSV_SEPARATOR);
-                if (values.length >= 4) {
-                    String category = values[2].trim();
-                    double amount = Double.parseDouble(values[3].trim());
-                    statistics.merge(category, amount, Double::sum);
+            parser.nextRow();
+            aggregateCategoryStatistics(parser, aggregator);
+        }
+        return aggregator.toMap();
+    }
+
+    /**
+     * 并行读取类别统计数据
+     * 文件被内存映射后按行切块，每个数据块独立累加，最后合并结果，适用于超过内存大小的文件
+     * @param filePath CSV文件路径
+     * @param chunkSize 数据块大小（字节）
+     * @param pool 解析使用的线程池
+     * @return 类别-金额映射
+     */
+    static Map<String, Double> readCategoryStatisticsParallel(String filePath, long chunkSize, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            List<MappedCSVChunker.Chunk> chunks = MappedCSVChunker.plan(channel, chunkSize, pool);
+            List<ForkJoinTask<CategoryAggregator>> tasks = new ArrayList<>(chunks.size());
+            for (MappedCSVChunker.Chunk chunk : chunks) {
+                tasks.add(pool.submit(() -> aggregateChunk(channel, chunk)));
+            }
+            CategoryAggregator result = new CategoryAggregator();
+            for (ForkJoinTask<CategoryAggregator> task : tasks) {
+                result.merge(MappedCSVChunker.join(task));
+            }
+            return result.toMap();
+        }
+    }
+
+    private static CategoryAggregator aggregateChunk(FileChannel channel, MappedCSVChunker.Chunk chunk) {
+        CategoryAggregator aggregator = new CategoryAggregator();
+        try (CSVParser parser = new CSVParser(new InputStreamReader(chunk.openStream(channel), StandardCharsets.UTF_8))) {
+            if (chunk.getIndex() == 0) {
+                // 第一个数据块包含标题行
+                parser.nextRow();
+            }
+            aggregateCategoryStatistics(parser, aggregator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return aggregator;
+    }
+
+    private static void aggregateCategoryStatistics(CSVParser parser, CategoryAggregator aggregator) throws IOException {
+        // 只需要类别（第3列）和金额（第4列）
+        parser.setProjection(STATISTICS_CATEGORY_COLUMN, STATISTICS_AMOUNT_COLUMN);
+        while (parser.nextRow()) {
+            if (parser.getFieldCount() >= 4) {
+                char[] row = parser.getRowBuffer();
+                double amount = FieldDecoders.decodeAmount(parser, STATISTICS_AMOUNT_COLUMN);
+                aggregator.add(row,
+                        parser.getFieldStart(STATISTICS_CATEGORY_COLUMN), parser.getFieldEnd(STATISTICS_CATEGORY_COLUMN),
+                        amount);
+            }
+        }
+    }
+
+    /**
+     * 以UTF-8编码打开CSV文件的解析器
+     * @param filePath CSV文件路径
+     * @return CSV解析器
+     */
+    static CSVParser openParser(String filePath) throws IOException {
+        return new CSVParser(new InputStreamReader(new FileInputStream(filePath), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 识别CSV文件的列映射并创建导入用的行结构，导入的类别会统一为应用内置类别
+     * @param filePath CSV文件路径
+     * @return 行结构
+     */
+    static ExpenseRowSchema detectSchema(String filePath) throws IOException {
+        return CSVSchemaDetector.detect(filePath).toSchema(true);
+    }
+
+    /**
+     * 将解析器当前行转换为消费记录
+     * 与导入管道使用同一个行结构，供并行解析和迭代器在单个线程内依次执行解析、校验和规范化
+     * @param parser 已定位到数据行的解析器
+     * @param schema 行结构
+     * @return 消费记录，列数不足或未通过校验时返回null
+     */
+    static ExpenseRecord toExpenseRecord(CSVParser parser, ExpenseRowSchema schema) {
+        if (parser.getFieldCount() < schema.getMinimumFieldCount()) {
+            return null;
+        }
+        ExpenseRecord record = schema.parse(parser);
+        if (!schema.validate(record)) {
+            return null;
+        }
+        return schema.normalize(record);
+    }
+
+    /**
+     * 消费记录迭代器
+     * 每次只解析一行，列数不足的行会被跳过
+     */
+    public static class ExpenseRecordIterator implements Iterator<ExpenseRecord>, Closeable {
+        private final CSVParser parser;
+        private final ExpenseRowSchema schema;
+        private ExpenseRecord next;
+        private boolean finished;
+
+        private ExpenseRecordIterator(CSVParser parser, ExpenseRowSchema schema) {
+            this.parser = parser;
+            this.schema = schema;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                while (parser.nextRow()) {
+                    next = toExpenseRecord(parser, schema);
+                    if (next != null) {
+                        return true;
+                    }
                 }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            finished = true;
+            close();
+            return false;
+        }
+
+        @Override
+        public ExpenseRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ExpenseRecord record = next;
+            next = null;
+            return record;
+        }
+
+        @Override
+        public void close() {
+            try {
+                parser.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
-        return statistics;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,350 @@
+package com.coinue.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * 流式CSV解析器
+ * 按字符逐行解析RFC 4180格式的CSV数据，支持引号字段、转义引号以及字段内换行。
+ * 解析器在行与行之间复用读缓冲区和字段缓冲区，只有调用者显式读取字段时才会创建字符串。
+ */
+public class CSVParser implements Closeable {
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] readBuffer = new char[READ_BUFFER_SIZE];
+    private int readPos;
+    private int readLimit;
+    private boolean eof;
+
+    // 当前行所有字段的字符内容（去除引号和转义后），按顺序连续存放
+    private char[] rowBuffer = new char[256];
+    private int rowLength;
+    // 每个字段在rowBuffer中的起止位置
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+
+    // 列投影：为null时保留所有字段，否则只复制被选中字段的字符
+    private boolean[] projection;
+
+    private long rowNumber;
+    private boolean firstRead = true;
+    // 已消费字符对应的UTF-8字节数，用于记录可恢复导入的断点
+    private long byteOffset;
+
+    /**
+     * 创建解析器
+     * @param reader 字符输入源，由解析器负责关闭
+     */
+    public CSVParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * 设置列投影
+     * 设置后只有被选中的字段会被复制到行缓冲区，其余字段仍会被正确跳过（包括引号字段），
+     * 但读取到的内容为空字符串。字段数量不受投影影响。
+     * @param fieldIndexes 需要保留的字段下标，不传参数表示保留所有字段
+     */
+    public void setProjection(int... fieldIndexes) {
+        if (fieldIndexes.length == 0) {
+            projection = null;
+            return;
+        }
+        int max = 0;
+        for (int index : fieldIndexes) {
+            max = Math.max(max, index);
+        }
+        projection = new boolean[max + 1];
+        for (int index : fieldIndexes) {
+            projection[index] = true;
+        }
+    }
+
+    /**
+     * 读取下一行
+     * @return 如果成功读取一行返回true，到达输入末尾返回false
+     */
+    public boolean nextRow() throws IOException {
+        rowLength = 0;
+        fieldCount = 0;
+        if (!fill()) {
+            return false;
+        }
+
+        int fieldStart = 0;
+        boolean inQuotes = false;
+        boolean atFieldStart = true;
+        boolean keep = isProjected(0);
+        while (true) {
+            if (readPos >= readLimit && !fill()) {
+                // 输入末尾，结束最后一个字段
+                break;
+            }
+            char c = readBuffer[readPos++];
+            byteOffset += utf8Length(c);
+            if (inQuotes) {
+                if (c == QUOTE) {
+                    if (readPos >= readLimit && !fill()) {
+                        inQuotes = false;
+                        break;
+                    }
+                    if (readBuffer[readPos] == QUOTE) {
+                        // 转义的双引号
+                        if (keep) {
+                            append(QUOTE);
+                        }
+                        readPos++;
+                        byteOffset++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else if (keep) {
+                    append(c);
+                }
+            } else if (c == SEPARATOR) {
+                endField(fieldStart);
+                fieldStart = rowLength;
+                atFieldStart = true;
+                keep = isProjected(fieldCount);
+            } else if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                if ((readPos < readLimit || fill()) && readBuffer[readPos] == '\n') {
+                    readPos++;
+                    byteOffset++;
+                }
+                break;
+            } else if (c == QUOTE && atFieldStart) {
+                inQuotes = true;
+                atFieldStart = false;
+            } else {
+                atFieldStart = false;
+                if (keep) {
+                    append(c);
+                }
+            }
+        }
+        endField(fieldStart);
+        rowNumber++;
+        return true;
+    }
+
+    /**
+     * 获取当前行的字段数量
+     * @return 字段数量
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * 获取已读取的行数（包括标题行）
+     * @return 行号，从1开始
+     */
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * 获取已读取内容在输入中的字节位置
+     * 按UTF-8编码计算，读取完一行后即为下一行的起始位置。输入不是UTF-8时结果无意义。
+     * @return 字节偏移量
+     */
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    /**
+     * 获取原始字段内容
+     * @param index 字段下标
+     * @return 字段字符串
+     */
+    public String getField(int index) {
+        checkIndex(index);
+        return new String(rowBuffer, fieldStarts[index], fieldEnds[index] - fieldStarts[index]);
+    }
+
+    /**
+     * 获取去除首尾空白后的字段内容
+     * @param index 字段下标
+     * @return 去除空白后的字段字符串
+     */
+    public String getTrimmedField(int index) {
+        checkIndex(index);
+        int start = trimmedStart(index);
+        int end = trimmedEnd(index, start);
+        return new String(rowBuffer, start, end - start);
+    }
+
+    /**
+     * 获取当前行的字符缓冲区，配合{@link #getFieldStart(int)}和{@link #getFieldEnd(int)}
+     * 可以在不创建字符串的情况下读取字段。缓冲区内容在下一次调用{@link #nextRow()}后失效。
+     * @return 当前行字符缓冲区
+     */
+    public char[] getRowBuffer() {
+        return rowBuffer;
+    }
+
+    /**
+     * 获取字段去除首部空白后的起始位置
+     * @param index 字段下标
+     * @return 在行缓冲区中的起始位置
+     */
+    public int getFieldStart(int index) {
+        checkIndex(index);
+        return trimmedStart(index);
+    }
+
+    /**
+     * 获取字段去除尾部空白后的结束位置（不包含）
+     * @param index 字段下标
+     * @return 在行缓冲区中的结束位置
+     */
+    public int getFieldEnd(int index) {
+        checkIndex(index);
+        return trimmedEnd(index, trimmedStart(index));
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * 将字段按RFC 4180规则写出，包含分隔符、引号或换行的字段会被引号包裹
+     * @param out 输出目标
+     * @param value 字段值，null按空字段处理
+     */
+    public static void writeField(Appendable out, CharSequence value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == SEPARATOR || c == QUOTE || c == '\n' || c == '\r') {
+                needsQuotes = true;
+                break;
+            }
+        }
+        if (!needsQuotes) {
+            out.append(value);
+            return;
+        }
+        out.append(QUOTE);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == QUOTE) {
+                out.append(QUOTE);
+            }
+            out.append(c);
+        }
+        out.append(QUOTE);
+    }
+
+    /**
+     * 写出一整行字段，并以换行符结束
+     * @param out 输出目标
+     * @param values 字段值
+     */
+    public static void writeRow(Appendable out, CharSequence... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.append(SEPARATOR);
+            }
+            writeField(out, values[i]);
+        }
+        out.append('\n');
+    }
+
+    private boolean fill() throws IOException {
+        if (readPos < readLimit) {
+            return true;
+        }
+        if (eof) {
+            return false;
+        }
+        int n;
+        do {
+            n = reader.read(readBuffer, 0, readBuffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            readPos = readLimit = 0;
+            return false;
+        }
+        readPos = 0;
+        readLimit = n;
+        if (firstRead) {
+            firstRead = false;
+            // 跳过UTF-8 BOM
+            if (readBuffer[0] == '\uFEFF') {
+                readPos = 1;
+                byteOffset += 3;
+                return fill();
+            }
+        }
+        return true;
+    }
+
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        // 代理对的两个字符合计占4个字节
+        return Character.isSurrogate(c) ? 2 : 3;
+    }
+
+    private boolean isProjected(int fieldIndex) {
+        return projection == null || (fieldIndex < projection.length && projection[fieldIndex]);
+    }
+
+    private void append(char c) {
+        if (rowLength == rowBuffer.length) {
+            rowBuffer = Arrays.copyOf(rowBuffer, rowBuffer.length * 2);
+        }
+        rowBuffer[rowLength++] = c;
+    }
+
+    private void endField(int start) {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = rowLength;
+        fieldCount++;
+    }
+
+    private int trimmedStart(int index) {
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        while (start < end && rowBuffer[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimmedEnd(int index, int start) {
+        int end = fieldEnds[index];
+        while (end > start && rowBuffer[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("字段下标越界: " + index + ", 字段数量: " + fieldCount);
+        }
+    }
+}
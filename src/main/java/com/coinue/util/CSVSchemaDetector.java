@@ -0,0 +1,373 @@
+package com.coinue.util;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 支出CSV文件结构识别工具类
+ * 根据标题行和前若干数据行推断日期、金额、类别、名称分别位于哪一列以及日期格式，
+ * 识别结果按标题行的哈希缓存，相同标题的文件（如同一家银行导出的账单）再次导入时直接复用。
+ */
+public class CSVSchemaDetector {
+    /**
+     * 默认采样的数据行数
+     */
+    public static final int DEFAULT_SAMPLE_ROWS = 20;
+
+    // 缓存上限，超过后清空重建，避免不断出现新标题时无限增长
+    private static final int MAX_CACHE_SIZE = 256;
+    private static final Map<Long, ColumnMapping> CACHE = new ConcurrentHashMap<>();
+
+    // 标题关键字（小写），按列的含义分组
+    private static final String[] DATE_KEYWORDS = {"日期", "时间", "交易日", "记账日", "date", "time"};
+    private static final String[] AMOUNT_KEYWORDS = {"金额", "价格", "花费", "支出", "amount", "price", "cost", "money"};
+    private static final String[] CATEGORY_KEYWORDS = {"类别", "分类", "类型", "category", "type"};
+    private static final String[] NAME_KEYWORDS = {"名称", "项目", "商品", "摘要", "备注", "说明", "消费",
+            "name", "description", "item", "additional", "memo", "note"};
+
+    // 候选日期格式，按优先级排列
+    private static final String[] DATE_PATTERNS = {
+            "uuuu-MM-dd", "uuuu/MM/dd", "uuuu.MM.dd", "uuuuMMdd", "uuuu-M-d", "uuuu/M/d",
+            "uuuu-MM-dd HH:mm:ss", "uuuu-MM-dd HH:mm", "uuuu/MM/dd HH:mm:ss", "uuuu/M/d H:mm",
+            "uuuu年M月d日", "dd/MM/uuuu", "MM/dd/uuuu", "d/M/uuuu", "d MMM uuuu", "dd-MMM-uuuu"
+    };
+    private static final DateTimeFormatter DEFAULT_DATE_FORMATTER = formatter("uuuu-MM-dd");
+
+    private static final Set<String> KNOWN_CATEGORIES = Set.of(
+            "餐饮", "食品", "购物", "交通", "娱乐", "教育", "医疗", "住房", "其他");
+
+    /**
+     * 手动导入文件的默认布局（类别,金额,日期,名称），无法识别时使用
+     */
+    public static final ColumnMapping LEGACY_MAPPING =
+            new ColumnMapping(2, 1, 0, 3, "uuuu-MM-dd", DEFAULT_DATE_FORMATTER);
+
+    private CSVSchemaDetector() {
+    }
+
+    /**
+     * 列映射：各含义所在的列下标（-1表示缺失）及日期格式
+     */
+    public static class ColumnMapping {
+        private final int dateColumn;
+        private final int amountColumn;
+        private final int categoryColumn;
+        private final int nameColumn;
+        private final String datePattern;
+        private final DateTimeFormatter dateFormatter;
+
+        ColumnMapping(int dateColumn, int amountColumn, int categoryColumn, int nameColumn,
+                      String datePattern, DateTimeFormatter dateFormatter) {
+            this.dateColumn = dateColumn;
+            this.amountColumn = amountColumn;
+            this.categoryColumn = categoryColumn;
+            this.nameColumn = nameColumn;
+            this.datePattern = datePattern;
+            this.dateFormatter = dateFormatter;
+        }
+
+        public int getDateColumn() { return dateColumn; }
+        public int getAmountColumn() { return amountColumn; }
+        public int getCategoryColumn() { return categoryColumn; }
+        public int getNameColumn() { return nameColumn; }
+        public String getDatePattern() { return datePattern; }
+
+        /**
+         * 根据映射创建支出记录行结构
+         * @param normalizeCategories 是否统一类别名称
+         * @return 行结构
+         */
+        public ExpenseRowSchema toSchema(boolean normalizeCategories) {
+            return new ExpenseRowSchema(categoryColumn, amountColumn, dateColumn, nameColumn,
+                    normalizeCategories, dateFormatter);
+        }
+
+        /**
+         * 检查一行数据的日期列和金额列是否符合该映射
+         * @param row 数据行
+         * @return 是否符合
+         */
+        boolean matches(List<String> row) {
+            if (dateColumn >= row.size() || amountColumn >= row.size()) {
+                return false;
+            }
+            try {
+                LocalDate.parse(row.get(dateColumn), dateFormatter);
+                Double.parseDouble(row.get(amountColumn));
+                return true;
+            } catch (DateTimeParseException | NumberFormatException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "ColumnMapping{date=" + dateColumn + ", amount=" + amountColumn + ", category=" + categoryColumn
+                    + ", name=" + nameColumn + ", datePattern=" + datePattern + "}";
+        }
+    }
+
+    /**
+     * 识别CSV文件的列映射
+     * 只读取标题行和前{@link #DEFAULT_SAMPLE_ROWS}行数据，标题命中缓存且第一行数据符合缓存的映射时
+     * 只读取标题行和第一行数据
+     * @param filePath CSV文件路径
+     * @return 列映射，无法识别日期列或金额列时返回{@link #LEGACY_MAPPING}
+     */
+    public static ColumnMapping detect(String filePath) throws IOException {
+        try (CSVParser parser = CSVHandler.openParser(filePath)) {
+            if (!parser.nextRow()) {
+                return LEGACY_MAPPING;
+            }
+            List<String> header = readRow(parser);
+            List<List<String>> samples = new ArrayList<>();
+            if (parser.nextRow()) {
+                samples.add(readRow(parser));
+            }
+            ColumnMapping cached = lookup(header, samples);
+            if (cached != null) {
+                return cached;
+            }
+            while (samples.size() < DEFAULT_SAMPLE_ROWS && parser.nextRow()) {
+                samples.add(readRow(parser));
+            }
+            return detect(header, samples);
+        }
+    }
+
+    /**
+     * 根据标题行和采样数据识别列映射，识别结果会按标题缓存
+     * @param header 标题行
+     * @param samples 采样的数据行
+     * @return 列映射，无法识别日期列或金额列时返回{@link #LEGACY_MAPPING}
+     */
+    public static ColumnMapping detect(List<String> header, List<List<String>> samples) {
+        ColumnMapping cached = lookup(header, samples);
+        if (cached != null) {
+            return cached;
+        }
+        ColumnMapping mapping = infer(header, samples);
+        if (mapping != LEGACY_MAPPING) {
+            if (CACHE.size() >= MAX_CACHE_SIZE) {
+                CACHE.clear();
+            }
+            CACHE.put(headerHash(header), mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * 清空列映射缓存
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * 获取缓存中的列映射数量
+     * @return 缓存条目数
+     */
+    public static int getCacheSize() {
+        return CACHE.size();
+    }
+
+    /**
+     * 计算标题行的64位FNV-1a哈希，忽略大小写和首尾空白
+     * @param header 标题行
+     * @return 哈希值
+     */
+    static long headerHash(List<String> header) {
+        long hash = 0xcbf29ce484222325L;
+        for (String name : header) {
+            String normalized = name.trim().toLowerCase(Locale.ROOT);
+            for (int i = 0; i < normalized.length(); i++) {
+                hash ^= normalized.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            hash ^= ',';
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 查找缓存的列映射，并用第一行采样数据快速验证，同一标题但日期格式不同的文件会重新识别
+     */
+    private static ColumnMapping lookup(List<String> header, List<List<String>> samples) {
+        ColumnMapping cached = CACHE.get(headerHash(header));
+        if (cached == null || samples.isEmpty() || cached.matches(samples.get(0))) {
+            return cached;
+        }
+        return null;
+    }
+
+    private static ColumnMapping infer(List<String> header, List<List<String>> samples) {
+        int columns = header.size();
+        int[] roles = {-1, -1, -1, -1}; // 日期、金额、类别、名称
+        boolean[] used = new boolean[columns];
+
+        // 第一步：按标题关键字匹配，先匹配日期、金额这类含义明确的列
+        String[][] keywords = {DATE_KEYWORDS, AMOUNT_KEYWORDS, CATEGORY_KEYWORDS, NAME_KEYWORDS};
+        for (int role = 0; role < roles.length; role++) {
+            for (int col = 0; col < columns && roles[role] < 0; col++) {
+                if (!used[col] && containsKeyword(header.get(col), keywords[role])) {
+                    roles[role] = col;
+                    used[col] = true;
+                }
+            }
+        }
+
+        // 第二步：按采样数据推断尚未确定的列
+        if (roles[0] < 0) {
+            for (int col = 0; col < columns && roles[0] < 0; col++) {
+                if (!used[col] && findDatePattern(column(samples, col)) != null) {
+                    roles[0] = col;
+                    used[col] = true;
+                }
+            }
+        }
+        if (roles[1] < 0) {
+            for (int col = 0; col < columns && roles[1] < 0; col++) {
+                if (!used[col] && isNumeric(column(samples, col))) {
+                    roles[1] = col;
+                    used[col] = true;
+                }
+            }
+        }
+        if (roles[2] < 0) {
+            roles[2] = pickTextColumn(samples, used, true);
+        }
+        if (roles[3] < 0) {
+            roles[3] = pickTextColumn(samples, used, false);
+        }
+
+        if (roles[0] < 0 || roles[1] < 0) {
+            return LEGACY_MAPPING;
+        }
+        String pattern = findDatePattern(column(samples, roles[0]));
+        DateTimeFormatter dateFormatter = pattern == null ? DEFAULT_DATE_FORMATTER : formatter(pattern);
+        return new ColumnMapping(roles[0], roles[1], roles[2], roles[3],
+                pattern == null ? "uuuu-MM-dd" : pattern, dateFormatter);
+    }
+
+    /**
+     * 在未使用的文本列中选择类别列或名称列
+     * 类别列优先选择已知类别最多、取值重复最多的列，名称列选择取值最分散的列
+     */
+    private static int pickTextColumn(List<List<String>> samples, boolean[] used, boolean category) {
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int col = 0; col < used.length; col++) {
+            if (used[col]) {
+                continue;
+            }
+            List<String> values = column(samples, col);
+            if (values.isEmpty()) {
+                continue;
+            }
+            Set<String> distinct = new HashSet<>(values);
+            double distinctRatio = distinct.size() / (double) values.size();
+            double score;
+            if (category) {
+                long known = values.stream().filter(KNOWN_CATEGORIES::contains).count();
+                score = known / (double) values.size() - distinctRatio;
+            } else {
+                score = distinctRatio;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = col;
+            }
+        }
+        if (best >= 0) {
+            used[best] = true;
+        }
+        return best;
+    }
+
+    private static String findDatePattern(List<String> values) {
+        if (values.isEmpty()) {
+            return null;
+        }
+        for (String pattern : DATE_PATTERNS) {
+            DateTimeFormatter candidate = formatter(pattern);
+            boolean matchesAll = true;
+            for (String value : values) {
+                try {
+                    LocalDate.parse(value, candidate);
+                } catch (DateTimeParseException e) {
+                    matchesAll = false;
+                    break;
+                }
+            }
+            if (matchesAll) {
+                return pattern;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNumeric(List<String> values) {
+        if (values.isEmpty()) {
+            return false;
+        }
+        for (String value : values) {
+            try {
+                Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsKeyword(String headerName, String[] keywords) {
+        String normalized = headerName.trim().toLowerCase(Locale.ROOT);
+        for (String keyword : keywords) {
+            if (normalized.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取出采样数据中某一列的非空值
+     */
+    private static List<String> column(List<List<String>> samples, int col) {
+        List<String> values = new ArrayList<>(samples.size());
+        for (List<String> row : samples) {
+            if (col < row.size() && !row.get(col).isEmpty()) {
+                values.add(row.get(col));
+            }
+        }
+        return values;
+    }
+
+    private static List<String> readRow(CSVParser parser) {
+        List<String> row = new ArrayList<>(parser.getFieldCount());
+        for (int i = 0; i < parser.getFieldCount(); i++) {
+            row.add(parser.getTrimmedField(i));
+        }
+        return row;
+    }
+
+    private static DateTimeFormatter formatter(String pattern) {
+        return new DateTimeFormatterBuilder()
+                .parseCaseInsensitive()
+                .appendPattern(pattern)
+                .toFormatter(Locale.ENGLISH)
+                .withResolverStyle(ResolverStyle.STRICT);
+    }
+}
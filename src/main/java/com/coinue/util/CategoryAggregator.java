@@ -0,0 +1,140 @@
+package com.coinue.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 类别金额累加器
+ * 使用一个小型的开放寻址字典把类别名映射到槽位，金额累加在原始类型的double数组中，
+ * 类别名直接从字符缓冲区比较，只有第一次出现的类别才会创建字符串。
+ */
+public class CategoryAggregator {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // 开放寻址哈希表，存放槽位编号+1，0表示空位
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private double[] totals = new double[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * 累加一条记录
+     * @param chars 类别名所在的字符缓冲区
+     * @param start 类别名起始位置
+     * @param end 类别名结束位置（不包含）
+     * @param amount 金额
+     */
+    public void add(char[] chars, int start, int end, double amount) {
+        // 先确定槽位再访问数组，插入新类别时数组可能被扩容
+        int slot = slotOf(chars, start, end);
+        totals[slot] += amount;
+    }
+
+    /**
+     * 累加一条记录
+     * @param category 类别名
+     * @param amount 金额
+     */
+    public void add(String category, double amount) {
+        char[] chars = category.toCharArray();
+        add(chars, 0, chars.length, amount);
+    }
+
+    /**
+     * 将另一个累加器的结果合并到当前累加器
+     * @param other 另一个累加器
+     */
+    public void merge(CategoryAggregator other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.names[i], other.totals[i]);
+        }
+    }
+
+    /**
+     * 获取类别数量
+     * @return 类别数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 转换为类别-金额映射
+     * @return 类别-金额映射
+     */
+    public Map<String, Double> toMap() {
+        Map<String, Double> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(names[i], totals[i]);
+        }
+        return map;
+    }
+
+    private int slotOf(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = table.length - 1;
+        int pos = mix(hash) & mask;
+        while (true) {
+            int entry = table[pos];
+            if (entry == 0) {
+                return insert(new String(chars, start, end - start), hash, pos);
+            }
+            int slot = entry - 1;
+            if (hashes[slot] == hash && contentEquals(names[slot], chars, start, end)) {
+                return slot;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    private int insert(String name, int hash, int pos) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            totals = Arrays.copyOf(totals, size * 2);
+        }
+        int slot = size++;
+        names[slot] = name;
+        hashes[slot] = hash;
+        table[pos] = slot + 1;
+        // 保持装载因子不超过0.5
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] newTable = new int[table.length * 2];
+        int mask = newTable.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int pos = mix(hashes[slot]) & mask;
+            while (newTable[pos] != 0) {
+                pos = (pos + 1) & mask;
+            }
+            newTable[pos] = slot + 1;
+        }
+        table = newTable;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean contentEquals(String name, char[] chars, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,344 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.google.gson.Gson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 带日期和类别索引的列式支出记录存储
+ * 历史记录保存在内存映射的{@link ExpenseColumnFile}中，新插入的记录先追加到{@link JournalStore}增量日志，
+ * 增量达到阈值后与列式文件合并成新文件。
+ * 第一次按日期或类别查询时为列式文件建立索引：按日期排序的行号和每个类别的行号列表，
+ * 查询只读取命中的行，不需要加载全部记录。
+ * 合并先写出完整的新文件，清空增量后再替换旧文件，打开时根据增量是否已清空完成或放弃中断的合并。
+ */
+public class ColumnarExpenseRepository implements ExpenseRepository, Closeable {
+    static final int DEFAULT_MERGE_THRESHOLD = 4096;
+    private static final String MERGING_SUFFIX = ".merging";
+
+    private final Path columnFile;
+    private final Path mergingFile;
+    private final JournalStore<ExpenseRecord> delta;
+    private int mergeThreshold = DEFAULT_MERGE_THRESHOLD;
+    private ExpenseColumnFile base;
+
+    // 列式文件的索引，列式文件替换后重新建立
+    private int[] sortedDays;
+    private int[] rowsByDate;
+    private int[][] rowsByCategory;
+
+    /**
+     * 打开存储，列式文件不存在时从空存储开始
+     * @param columnFile 列式文件，增量日志保存在同目录下
+     * @param gson 增量日志序列化使用的Gson，需要能处理LocalDate
+     * @throws IOException 列式文件无法打开时抛出
+     */
+    public ColumnarExpenseRepository(Path columnFile, Gson gson) throws IOException {
+        this.columnFile = columnFile;
+        String name = columnFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        this.mergingFile = columnFile.resolveSibling(name + MERGING_SUFFIX);
+        this.delta = new JournalStore<>(columnFile.resolveSibling(baseName + ".delta.json"), gson, ExpenseRecord.class);
+        recoverMerge();
+        this.base = Files.exists(columnFile) ? ExpenseColumnFile.open(columnFile) : null;
+    }
+
+    /**
+     * 设置合并增量日志的记录数
+     * @param records 增量记录数
+     * @return 当前存储
+     */
+    public synchronized ColumnarExpenseRepository mergeThreshold(int records) {
+        this.mergeThreshold = Math.max(1, records);
+        return this;
+    }
+
+    /**
+     * 获取增量日志中尚未合并的记录数
+     * @return 增量记录数
+     */
+    public synchronized int getDeltaSize() {
+        return delta.size();
+    }
+
+    @Override
+    public synchronized int size() {
+        return baseSize() + delta.size();
+    }
+
+    @Override
+    public synchronized ExpenseRecord get(int position) {
+        int baseSize = baseSize();
+        return position < baseSize ? base.get(position) : delta.get(position - baseSize);
+    }
+
+    @Override
+    public synchronized void insertAll(Collection<ExpenseRecord> records) throws IOException {
+        delta.append(records);
+        if (delta.size() >= mergeThreshold) {
+            rewrite(-1);
+        }
+    }
+
+    @Override
+    public synchronized void delete(int position) throws IOException {
+        int baseSize = baseSize();
+        if (position >= baseSize) {
+            delta.remove(position - baseSize);
+        } else {
+            // 列式文件不可修改，删除历史记录需要重写文件
+            rewrite(position);
+        }
+    }
+
+    @Override
+    public synchronized void replaceAll(List<ExpenseRecord> records) throws IOException {
+        ExpenseColumnFile.write(mergingFile, records);
+        finishMerge();
+    }
+
+    @Override
+    public synchronized Cursor query(LocalDate from, LocalDate to, String category) {
+        int[] rows = null;
+        if (base != null && (from != null || to != null || category != null)) {
+            rows = candidateRows(from, to, category);
+        }
+        return new ColumnarCursor(base, rows, baseSize(),
+                new ExpenseScanCursor(delta::get, 0, delta.size(), baseSize(), from, to, category));
+    }
+
+    /**
+     * 立即把增量日志合并到列式文件
+     * @throws IOException 写入失败时抛出
+     */
+    public synchronized void merge() throws IOException {
+        if (delta.size() > 0) {
+            rewrite(-1);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (base != null) {
+            base.close();
+        }
+    }
+
+    private int baseSize() {
+        return base != null ? base.size() : 0;
+    }
+
+    /**
+     * 把列式文件和增量日志写成新文件，跳过skipRow指定的历史记录
+     */
+    private void rewrite(int skipRow) throws IOException {
+        ExpenseColumnFile current = base;
+        int baseSize = baseSize();
+        int deltaSize = delta.size();
+        Iterable<ExpenseRecord> records = () -> new Iterator<>() {
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (position == skipRow) {
+                    position++;
+                }
+                return position < baseSize + deltaSize;
+            }
+
+            @Override
+            public ExpenseRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int row = position++;
+                return row < baseSize ? current.get(row) : delta.get(row - baseSize);
+            }
+        };
+        ExpenseColumnFile.write(mergingFile, records, baseSize + deltaSize);
+        finishMerge();
+    }
+
+    /**
+     * 新文件已完整写出：先清空增量日志，再替换列式文件
+     */
+    private void finishMerge() throws IOException {
+        delta.replaceAll(List.of());
+        delta.compact();
+        if (base != null) {
+            base.close();
+            base = null;
+        }
+        moveAtomically(mergingFile, columnFile);
+        base = ExpenseColumnFile.open(columnFile);
+        sortedDays = null;
+        rowsByDate = null;
+        rowsByCategory = null;
+    }
+
+    /**
+     * 处理上次中断的合并：增量日志已清空说明新文件包含全部记录，完成替换；否则新文件作废
+     */
+    private void recoverMerge() throws IOException {
+        if (!Files.exists(mergingFile)) {
+            return;
+        }
+        if (delta.size() == 0) {
+            System.out.println("完成上次中断的支出记录合并: " + columnFile);
+            moveAtomically(mergingFile, columnFile);
+        } else {
+            Files.delete(mergingFile);
+        }
+    }
+
+    /**
+     * 用索引找出列式文件中满足条件的行号，按行号排序
+     */
+    private int[] candidateRows(LocalDate from, LocalDate to, String category) {
+        ensureIndexes();
+        int fromDay = from != null ? (int) from.toEpochDay() : Integer.MIN_VALUE;
+        int toDay = to != null ? (int) to.toEpochDay() : Integer.MAX_VALUE;
+        if (category != null) {
+            int code = base.findCategoryCode(category);
+            if (code < 0) {
+                return new int[0];
+            }
+            int[] postings = rowsByCategory[code];
+            if (from == null && to == null) {
+                return postings;
+            }
+            int[] rows = new int[postings.length];
+            int count = 0;
+            for (int row : postings) {
+                int day = base.getEpochDay(row);
+                if (day != FieldDecoders.INVALID_DATE && day >= fromDay && day <= toDay) {
+                    rows[count++] = row;
+                }
+            }
+            return Arrays.copyOf(rows, count);
+        }
+        int start = lowerBound(sortedDays, fromDay);
+        int end = toDay == Integer.MAX_VALUE ? sortedDays.length : lowerBound(sortedDays, toDay + 1);
+        int[] rows = Arrays.copyOfRange(rowsByDate, start, Math.max(start, end));
+        Arrays.sort(rows);
+        return rows;
+    }
+
+    private void ensureIndexes() {
+        if (rowsByDate != null) {
+            return;
+        }
+        int rows = base.size();
+        long[] keys = new long[rows];
+        int dated = 0;
+        int[] categoryCounts = new int[base.getCategoryDictionary().length];
+        for (int row = 0; row < rows; row++) {
+            int day = base.getEpochDay(row);
+            if (day != FieldDecoders.INVALID_DATE) {
+                keys[dated++] = ((long) day << 32) | row;
+            }
+            categoryCounts[base.getCategoryCode(row)]++;
+        }
+        Arrays.sort(keys, 0, dated);
+        sortedDays = new int[dated];
+        rowsByDate = new int[dated];
+        for (int i = 0; i < dated; i++) {
+            sortedDays[i] = (int) (keys[i] >> 32);
+            rowsByDate[i] = (int) keys[i];
+        }
+        rowsByCategory = new int[categoryCounts.length][];
+        for (int code = 0; code < categoryCounts.length; code++) {
+            rowsByCategory[code] = new int[categoryCounts[code]];
+        }
+        int[] filled = new int[categoryCounts.length];
+        for (int row = 0; row < rows; row++) {
+            int code = base.getCategoryCode(row);
+            rowsByCategory[code][filled[code]++] = row;
+        }
+    }
+
+    private static int lowerBound(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 先返回列式文件中命中的行，再返回增量日志中的记录
+     */
+    private static class ColumnarCursor implements Cursor {
+        private final ExpenseColumnFile base;
+        // 为null时遍历列式文件的全部行
+        private final int[] rows;
+        private final int baseSize;
+        private final ExpenseScanCursor deltaCursor;
+        private int next;
+        private int position = -1;
+
+        ColumnarCursor(ExpenseColumnFile base, int[] rows, int baseSize, ExpenseScanCursor deltaCursor) {
+            this.base = base;
+            this.rows = rows;
+            this.baseSize = baseSize;
+            this.deltaCursor = deltaCursor;
+        }
+
+        private int baseCount() {
+            return rows != null ? rows.length : baseSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < baseCount() || deltaCursor.hasNext();
+        }
+
+        @Override
+        public ExpenseRecord next() {
+            if (next < baseCount()) {
+                position = rows != null ? rows[next] : next;
+                next++;
+                return base.get(position);
+            }
+            ExpenseRecord record = deltaCursor.next();
+            position = deltaCursor.position();
+            return record;
+        }
+
+        @Override
+        public int position() {
+            return position;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.coinue.util;
+
+import com.coinue.model.UserDataService;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按内容寻址的CSV备份存储
+ * 备份保存在用户数据目录的imported_csv_files/子目录中。文件按内容切分成块（块边界由滚动哈希决定，
+ * 在文件中间插入或删除几行只影响附近的块），每块以SHA-256命名保存在chunks/下，相同内容只保存一次；
+ * manifests/下以整个文件的SHA-256命名的清单按顺序列出文件的块。
+ * imports.idx按时间顺序追加每次导入的记录（时间、文件名、大小和清单哈希），重复导入同一文件只增加一条记录。
+ * 导入记录也可以加入{@link UserDataService.Transaction}，与导入产生的数据文件一起提交。
+ */
+public class CsvBackupStore {
+    /** 备份目录名 */
+    public static final String BACKUP_DIR = "imported_csv_files";
+    static final int MIN_CHUNK_SIZE = 2 * 1024;
+    static final int MAX_CHUNK_SIZE = 64 * 1024;
+    // 滚动哈希低13位为0时切分，平均块大小约为最小块加8KB
+    private static final long CHUNK_MASK = (1L << 13) - 1;
+    private static final long[] GEAR = new long[256];
+    private static final String CHUNK_DIR = "chunks";
+    private static final String MANIFEST_DIR = "manifests";
+    private static final String INDEX_FILE = "imports.idx";
+    private static final int MAGIC = 0x43424958; // "CBIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int HASH_SIZE = 32;
+    // 导入记录：时间(8) + 文件大小(8) + 清单哈希(32) + 文件名长度(2)，之后是文件名
+    private static final int RECORD_FIXED_SIZE = 8 + 8 + HASH_SIZE + 2;
+    private static final int MAX_NAME_BYTES = 1024;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final ExecutorService BACKUP_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "coinue-csv-backup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // 固定种子，块边界在不同版本间保持一致，已保存的块才能继续复用
+        SplittableRandom random = new SplittableRandom(0x436F696E7565L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final Path directory;
+    private long chunksWritten;
+    private long chunksReused;
+
+    /**
+     * 创建指定用户的备份存储
+     * @param username 用户名
+     */
+    public CsvBackupStore(String username) {
+        this(Paths.get(UserDataService.getInstance().getUserDataDirectory(username), BACKUP_DIR));
+    }
+
+    /**
+     * 创建使用指定目录的备份存储
+     * @param directory 备份目录
+     */
+    public CsvBackupStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 在后台线程备份文件，所有备份按提交顺序依次执行，不同页面同时导入时也不会交错写入索引
+     * @param file 要备份的文件
+     * @return 完成时给出导入记录，失败时以异常完成
+     */
+    public CompletableFuture<ImportEvent> backupInBackground(Path file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return backup(file);
+            } catch (IOException e) {
+                throw new IllegalStateException("备份CSV文件失败: " + file + " - " + e.getMessage(), e);
+            }
+        }, BACKUP_EXECUTOR);
+    }
+
+    /**
+     * 在后台线程备份文件，导入记录与事务中的其他文件一起提交
+     * 块和清单按内容命名，重复写入没有影响，先于事务写入；索引记录加入事务后提交事务。
+     * 备份失败时事务中的其他文件照常提交，只是没有导入记录，导入的数据不会因为备份失败而丢失。
+     * 与其他备份在同一个线程上依次执行，计算出的索引追加位置在提交前不会被其他备份改变。
+     * 程序退出前应调用{@link #awaitBackgroundBackups()}等待尚未提交的事务。
+     * @param file 要备份的文件
+     * @param transaction 用户数据事务，目录必须包含本备份目录
+     * @return 完成时给出导入记录；备份失败但事务已提交时给出null，提交失败时以异常完成
+     */
+    public CompletableFuture<ImportEvent> backupInBackground(Path file, UserDataService.Transaction transaction) {
+        return CompletableFuture.supplyAsync(() -> {
+            ImportEvent event;
+            try {
+                event = store(file);
+                recordImport(event, transaction);
+            } catch (IOException e) {
+                System.err.println("备份CSV文件失败，只提交事务中的数据: " + file + " - " + e.getMessage());
+                event = null;
+            }
+            if (!transaction.commit()) {
+                throw new IllegalStateException("提交事务失败: " + file);
+            }
+            return event;
+        }, BACKUP_EXECUTOR);
+    }
+
+    /**
+     * 等待已提交的后台备份和事务全部完成，程序退出时调用，之后不再接受新的后台备份
+     * 没有超时：备份线程是守护线程，不等待的话尚未提交的事务（包括导入的数据）会随进程退出而丢失
+     * @return 等待期间被中断时返回false
+     */
+    public static boolean awaitBackgroundBackups() {
+        BACKUP_EXECUTOR.shutdown();
+        try {
+            while (!BACKUP_EXECUTOR.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.out.println("等待CSV备份完成...");
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("等待CSV备份时被中断，未完成的备份和导入数据可能丢失");
+            return false;
+        }
+    }
+
+    /**
+     * 备份文件：切块保存尚未保存过的块，写出清单，追加一条导入记录
+     * @param file 要备份的文件
+     * @return 导入记录
+     * @throws IOException 读取或写入失败时抛出
+     */
+    public synchronized ImportEvent backup(Path file) throws IOException {
+        ImportEvent event = store(file);
+        appendImport(event);
+        return event;
+    }
+
+    /**
+     * 只保存文件内容：切块保存尚未保存过的块，写出清单，不追加导入记录
+     * @param file 要备份的文件
+     * @return 导入记录，需要再通过{@link #recordImport}写入索引
+     * @throws IOException 读取或写入失败时抛出
+     */
+    public synchronized ImportEvent store(Path file) throws IOException {
+        createDirectory(directory.resolve(CHUNK_DIR));
+        createDirectory(directory.resolve(MANIFEST_DIR));
+        MessageDigest fileDigest = sha256();
+        List<byte[]> chunkHashes = new ArrayList<>();
+        long size = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            byte[] buffer = new byte[MAX_CHUNK_SIZE];
+            int length;
+            while ((length = readChunk(in, buffer)) > 0) {
+                fileDigest.update(buffer, 0, length);
+                chunkHashes.add(storeChunk(buffer, length));
+                size += length;
+            }
+        }
+        byte[] fileHash = fileDigest.digest();
+        Path manifest = manifestFile(HEX.formatHex(fileHash));
+        ByteBuffer content = ByteBuffer.allocate(4 + chunkHashes.size() * HASH_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        content.putInt(chunkHashes.size());
+        for (byte[] hash : chunkHashes) {
+            content.put(hash);
+        }
+        // 已有的清单可能是崩溃时留下的空文件或不完整的文件，内容不同时重写
+        if (!hasContent(manifest, content.array())) {
+            PersistenceWorker.writeAtomically(manifest, content.array());
+        }
+        return new ImportEvent(System.currentTimeMillis(), file.getFileName().toString(),
+                size, HEX.formatHex(fileHash));
+    }
+
+    /**
+     * 把导入记录的追加加入事务，事务提交后记录才出现在索引中
+     * 追加位置按当前索引计算，同一备份目录在提交前不应再追加其他记录
+     * @param event {@link #store}返回的导入记录
+     * @param transaction 用户数据事务
+     * @throws IOException 读取索引失败时抛出
+     */
+    public synchronized void recordImport(ImportEvent event, UserDataService.Transaction transaction)
+            throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        long size = Files.exists(indexFile) ? Files.size(indexFile) : 0;
+        byte[] record = encodeImport(event);
+        if (size < HEADER_SIZE) {
+            ByteBuffer content = ByteBuffer.allocate(HEADER_SIZE + record.length).order(ByteOrder.LITTLE_ENDIAN);
+            content.putInt(MAGIC).putInt(VERSION).put(record);
+            transaction.writeAt(indexFile, 0, content.array());
+        } else {
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                transaction.writeAt(indexFile, validIndexSize(channel, size), record);
+            }
+        }
+    }
+
+    /**
+     * 读取全部导入记录，按导入时间排列
+     * @return 导入记录
+     * @throws IOException 读取失败时抛出
+     */
+    public synchronized List<ImportEvent> getImports() throws IOException {
+        List<ImportEvent> events = new ArrayList<>();
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (!Files.exists(indexFile)) {
+            return events;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(indexFile)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("CSV备份索引格式错误: " + indexFile);
+        }
+        byte[] hash = new byte[HASH_SIZE];
+        // 末尾不完整的记录是写入时中断留下的，忽略
+        while (buffer.remaining() >= RECORD_FIXED_SIZE) {
+            long time = buffer.getLong();
+            long size = buffer.getLong();
+            buffer.get(hash);
+            int nameLength = Short.toUnsignedInt(buffer.getShort());
+            if (buffer.remaining() < nameLength) {
+                break;
+            }
+            byte[] name = new byte[nameLength];
+            buffer.get(name);
+            events.add(new ImportEvent(time, new String(name, StandardCharsets.UTF_8), size, HEX.formatHex(hash)));
+        }
+        return events;
+    }
+
+    /**
+     * 按清单把备份的文件还原到指定位置
+     * @param event 导入记录
+     * @param target 目标文件
+     * @throws IOException 清单或块缺失、读取或写入失败时抛出
+     */
+    public synchronized void restore(ImportEvent event, Path target) throws IOException {
+        ByteBuffer manifest = ByteBuffer.wrap(Files.readAllBytes(manifestFile(event.getContentHash())))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int chunks = manifest.getInt();
+        byte[] hash = new byte[HASH_SIZE];
+        try (OutputStream out = Files.newOutputStream(target)) {
+            for (int i = 0; i < chunks; i++) {
+                manifest.get(hash);
+                out.write(Files.readAllBytes(chunkFile(HEX.formatHex(hash))));
+            }
+        }
+    }
+
+    /**
+     * 获取新写入的块数
+     * @return 块数
+     */
+    public synchronized long getChunksWritten() {
+        return chunksWritten;
+    }
+
+    /**
+     * 获取因内容已存在而没有重复写入的块数
+     * @return 块数
+     */
+    public synchronized long getChunksReused() {
+        return chunksReused;
+    }
+
+    /**
+     * 从输入流读取一个块：至少MIN_CHUNK_SIZE字节，之后在滚动哈希满足条件或达到MAX_CHUNK_SIZE时结束
+     * @return 块长度，流结束时返回0
+     */
+    static int readChunk(InputStream in, byte[] buffer) throws IOException {
+        long hash = 0;
+        int length = 0;
+        int b;
+        while (length < MAX_CHUNK_SIZE && (b = in.read()) >= 0) {
+            buffer[length++] = (byte) b;
+            hash = (hash << 1) + GEAR[b];
+            if (length >= MIN_CHUNK_SIZE && (hash & CHUNK_MASK) == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    private byte[] storeChunk(byte[] buffer, int length) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(buffer, 0, length);
+        byte[] hash = digest.digest();
+        Path chunk = chunkFile(HEX.formatHex(hash));
+        if (isStoredChunk(chunk, length, hash)) {
+            chunksReused++;
+        } else {
+            createDirectory(chunk.getParent());
+            PersistenceWorker.writeAtomically(chunk, Arrays.copyOf(buffer, length));
+            chunksWritten++;
+        }
+        return hash;
+    }
+
+    /**
+     * 判断块是否已完整保存：长度和SHA-256都与预期一致，崩溃留下的空文件或损坏的块需要重写
+     */
+    private static boolean isStoredChunk(Path chunk, int length, byte[] hash) throws IOException {
+        if (!Files.isRegularFile(chunk) || Files.size(chunk) != length) {
+            return false;
+        }
+        return MessageDigest.isEqual(hash, sha256().digest(Files.readAllBytes(chunk)));
+    }
+
+    private static boolean hasContent(Path file, byte[] content) throws IOException {
+        return Files.isRegularFile(file) && Files.size(file) == content.length
+                && Arrays.equals(Files.readAllBytes(file), content);
+    }
+
+    /**
+     * 创建目录，新建时把上级目录刷到磁盘，之后写入其中的文件在崩溃后才能找到
+     */
+    private static void createDirectory(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            Files.createDirectories(dir);
+            PersistenceWorker.syncDirectory(dir.toAbsolutePath().getParent());
+        }
+    }
+
+    private void appendImport(ImportEvent event) throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                size = HEADER_SIZE;
+            } else {
+                size = validIndexSize(channel, size);
+                channel.truncate(size);
+            }
+            ByteBuffer record = ByteBuffer.wrap(encodeImport(event));
+            while (record.hasRemaining()) {
+                size += channel.write(record, size);
+            }
+        }
+    }
+
+    private static byte[] encodeImport(ImportEvent event) {
+        byte[] name = event.getFileName().getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME_BYTES) {
+            name = Arrays.copyOf(name, MAX_NAME_BYTES);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_FIXED_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+        record.putLong(event.getTimestamp()).putLong(event.getSize()).put(HEX.parseHex(event.getContentHash()))
+                .putShort((short) name.length).put(name);
+        return record.array();
+    }
+
+    /**
+     * 找到最后一条完整记录的结尾，之后的内容是中断的写入
+     */
+    private static long validIndexSize(FileChannel channel, long size) throws IOException {
+        long position = HEADER_SIZE;
+        ByteBuffer fixed = ByteBuffer.allocate(RECORD_FIXED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (position + RECORD_FIXED_SIZE <= size) {
+            fixed.clear();
+            while (fixed.hasRemaining() && channel.read(fixed, position + fixed.position()) >= 0) {
+                // 读满记录头
+            }
+            long end = position + RECORD_FIXED_SIZE + Short.toUnsignedInt(fixed.getShort(RECORD_FIXED_SIZE - 2));
+            if (end > size) {
+                break;
+            }
+            position = end;
+        }
+        return position;
+    }
+
+    private Path chunkFile(String hash) {
+        return directory.resolve(CHUNK_DIR).resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path manifestFile(String hash) {
+        return directory.resolve(MANIFEST_DIR).resolve(hash);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    /**
+     * 一次导入的备份记录
+     */
+    public static class ImportEvent {
+        private final long timestamp;
+        private final String fileName;
+        private final long size;
+        private final String contentHash;
+
+        ImportEvent(long timestamp, String fileName, long size, String contentHash) {
+            this.timestamp = timestamp;
+            this.fileName = fileName;
+            this.size = size;
+            this.contentHash = contentHash;
+        }
+
+        /**
+         * 获取导入时间
+         * @return 毫秒时间戳
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * 获取本地时区的导入时间
+         * @return 导入时间
+         */
+        public LocalDateTime getImportTime() {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * 获取文件内容的SHA-256，也是清单的文件名
+         * @return 十六进制哈希
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+    }
+}
@@ -3,22 +3,48 @@ package com.coinue.util;
 import com.coinue.model.Budget;
 import com.coinue.model.ExpenseRecord;
 import com.coinue.model.PaymentReminder;
+import com.coinue.model.User;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.*;
 import com.google.gson.*;
 import java.time.LocalDate;
 import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 
+/**
+ * 支出记录、预算和还款提醒的存储
+ * 数据按登录用户分区保存在data/users/{username}/目录下，登录后第一次访问时才打开该用户的分区，
+ * 切换用户或注销时释放之前的分区，读写只涉及当前用户自己的文件。
+ * 没有用户登录时使用data/目录下的共享分区，也就是旧版本保存全部数据的位置。
+ * 旧版本的全局文件不带所属用户，无法判断属于谁，因此留在共享分区，由登录的用户通过{@link #claimLegacyData()}
+ * 明确认领后才移入其分区，只能认领一次。
+ */
 public class DataManager {
-    private static final String DATA_DIR = "data";
-    private static final String EXPENSE_FILE = DATA_DIR + "/expense.json";
-    private static final String BUDGET_FILE = DATA_DIR + "/budget.json";
-    private static final String REMINDER_FILE = DATA_DIR + "/reminder.json";
+    private static final String USERS_DIR = "users";
+    private static final String EXPENSE_FILE = "expense.json";
+    private static final String BUDGET_FILE = "budget.json";
+    private static final String REMINDER_FILE = "reminder.json";
+    private static final String EXPENSE_INDEX_FILE = "expense.fingerprints";
+    private static final String EXPENSE_COLUMN_FILE = "expense.cols";
+    private static final String EXPENSE_SEGMENT_DIR = "expense.segments";
+    // 旧版本全局文件（含日志、索引、列式存储和分段目录）的文件名前缀
+    private static final String[] LEGACY_PREFIXES = {"expense.", "budget.", "reminder."};
+    // 记录旧数据已被哪个用户认领，存在时不能再认领
+    private static final String LEGACY_MARKER_FILE = "legacy.owner";
+    // 用户已有数据时，合并过的旧文件保留在分区的这个目录下
+    private static final String LEGACY_BACKUP_DIR = "legacy";
+    /**
+     * 选择支出记录存储实现的系统属性
+     */
+    public static final String EXPENSE_BACKEND_PROPERTY = "coinue.expense.backend";
     private static final Gson gson = new GsonBuilder()
         .registerTypeAdapter(LocalDate.class, new JsonSerializer<LocalDate>() {
             @Override
@@ -35,110 +61,592 @@ public class DataManager {
         .setPrettyPrinting()
         .create();
 
-    static {
-        File dir = new File(DATA_DIR);
-        if (!dir.exists()) {
-            dir.mkdirs();
+    private static Path dataDir = Paths.get("data");
+    // 当前打开的分区，属于最近一次访问时登录的用户
+    private static Partition partition;
+
+    /**
+     * 切换数据根目录，之前打开的分区会被释放，仅供测试使用
+     * @param dir 数据根目录
+     */
+    static synchronized void setDataDirectory(Path dir) {
+        releasePartition();
+        dataDir = dir;
+    }
+
+    /**
+     * 释放当前分区，注销时调用；下次访问时按当时登录的用户重新打开
+     */
+    public static synchronized void releasePartition() {
+        if (partition != null) {
+            partition.close();
+            partition = null;
         }
     }
 
-    public static void saveExpenseRecords(List<ExpenseRecord> records) {
-        File file = new File(EXPENSE_FILE);
+    /**
+     * 获取当前登录用户的分区，用户变化时释放旧分区并打开新用户的分区
+     */
+    private static synchronized Partition currentPartition() {
+        User user = User.getCurrentUser();
+        String owner = user != null ? user.getUsername() : null;
+        if (partition == null || !Objects.equals(partition.owner, owner)) {
+            releasePartition();
+            partition = openPartition(owner);
+        }
+        return partition;
+    }
+
+    private static Partition openPartition(String owner) {
+        Path dir = owner != null ? dataDir.resolve(USERS_DIR).resolve(owner) : dataDir;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            System.err.println("准备用户数据目录失败: " + dir + ", " + e.getMessage());
+        }
+        return new Partition(owner, dir);
+    }
+
+    /**
+     * 判断共享分区中是否有尚未被认领的旧版本数据
+     * @return 有未认领的旧数据时返回true
+     */
+    public static synchronized boolean hasLegacyData() {
+        try {
+            return !listLegacyFiles().isEmpty();
+        } catch (IOException e) {
+            System.err.println("检查旧数据文件失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 把旧版本保存在数据根目录下的全局文件移入当前登录用户的分区
+     * 旧记录不带所属用户，无法按内容拆分，只能由用户确认后整体认领。
+     * 同一种数据（支出、预算或还款提醒）的快照、日志和索引总是一起处理：用户还没有这种数据时整组移入分区；
+     * 已经有时通过存储接口把旧记录追加到用户的记录之后，旧文件移到分区的legacy目录保留，不会让快照和日志来自不同的用户。
+     * 全部认领成功后才写入认领标记；部分数据认领失败时这些文件留在原处，{@link #hasLegacyData()}仍返回true，可以再次认领。
+     * @return 认领的旧文件和目录数量，没有用户登录、旧数据已被认领或全部认领失败时返回-1
+     */
+    public static synchronized int claimLegacyData() {
+        User user = User.getCurrentUser();
+        if (user == null) {
+            return -1;
+        }
+        String owner = user.getUsername();
+        // 先释放分区，认领过程中不会有打开的存储引用这些文件
+        releasePartition();
+        List<Path> legacyFiles;
         try {
-            if (!file.exists()) {
-                file.createNewFile();
+            legacyFiles = listLegacyFiles();
+        } catch (IOException e) {
+            System.err.println("认领旧数据文件失败: " + e.getMessage());
+            return -1;
+        }
+        if (legacyFiles.isEmpty()) {
+            return -1;
+        }
+        int claimed = 0;
+        boolean complete = true;
+        try {
+            Partition target = currentPartition();
+            for (String prefix : LEGACY_PREFIXES) {
+                List<Path> files = legacyFiles.stream()
+                        .filter(file -> file.getFileName().toString().startsWith(prefix))
+                        .toList();
+                if (files.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (hasStoreFiles(target.dir, prefix)) {
+                        mergeLegacyStore(target, prefix, files);
+                    } else {
+                        moveTogether(files, target.dir);
+                    }
+                    claimed += files.size();
+                } catch (IOException e) {
+                    System.err.println("认领旧数据 " + prefix + "* 失败，文件保留在原位置: " + e.getMessage());
+                    complete = false;
+                }
             }
-            try (Writer writer = new FileWriter(file)) {
-                gson.toJson(records, writer);
+            if (complete) {
+                Files.writeString(dataDir.resolve(LEGACY_MARKER_FILE), owner);
             }
+        } catch (IOException e) {
+            System.err.println("写入旧数据认领标记失败: " + e.getMessage());
+        } finally {
+            // 认领后按新的文件重新打开分区
+            releasePartition();
+        }
+        System.out.println("用户 " + owner + " 认领了 " + claimed + " 个旧数据文件" + (complete ? "" : "，部分认领失败"));
+        return claimed > 0 ? claimed : -1;
+    }
+
+    private static boolean hasStoreFiles(Path dir, String prefix) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (var files = Files.list(dir)) {
+            return files.anyMatch(file -> file.getFileName().toString().startsWith(prefix));
+        }
+    }
+
+    /**
+     * 把一组文件移入目录，中途失败时把已移动的文件移回原处
+     */
+    private static void moveTogether(List<Path> files, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        List<Path> moved = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                Path target = dir.resolve(file.getFileName());
+                if (Files.exists(target)) {
+                    throw new IOException("目标文件已存在: " + target);
+                }
+                Files.move(file, target);
+                moved.add(file);
+            }
+        } catch (IOException e) {
+            for (Path file : moved) {
+                try {
+                    Files.move(dir.resolve(file.getFileName()), file);
+                } catch (IOException rollback) {
+                    System.err.println("恢复旧数据文件失败: " + file + ", " + rollback.getMessage());
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 用户已有同一种数据时，把旧文件整组移到分区的legacy目录，再从那里读出旧记录追加到用户的存储
+     * 追加失败时把旧文件移回原处
+     */
+    private static void mergeLegacyStore(Partition target, String prefix, List<Path> files) throws IOException {
+        Path backupDir = target.file(LEGACY_BACKUP_DIR);
+        moveTogether(files, backupDir);
+        Partition legacy = new Partition(null, backupDir);
+        try {
+            switch (prefix) {
+                case "budget.":
+                    target.budgetStore.append(legacy.budgetStore.load());
+                    break;
+                case "reminder.":
+                    target.reminderStore.append(legacy.reminderStore.load());
+                    break;
+                default:
+                    String backend = System.getProperty(EXPENSE_BACKEND_PROPERTY, "journal");
+                    legacy.storage = openExpenseRepository(legacy, backend);
+                    List<ExpenseRecord> records = legacy.storage.findAll();
+                    getExpenseRepository().insertAll(records);
+                    System.out.println("已把 " + records.size() + " 条旧支出记录合并到用户 " + target.owner);
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            legacy.close();
+            List<Path> backups = files.stream().map(file -> backupDir.resolve(file.getFileName())).toList();
+            moveTogether(backups, dataDir);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        legacy.close();
+    }
+
+    private static List<Path> listLegacyFiles() throws IOException {
+        List<Path> legacyFiles = new ArrayList<>();
+        if (Files.exists(dataDir.resolve(LEGACY_MARKER_FILE)) || !Files.isDirectory(dataDir)) {
+            return legacyFiles;
+        }
+        try (var files = Files.list(dataDir)) {
+            files.filter(DataManager::isLegacyFile).forEach(legacyFiles::add);
+        }
+        return legacyFiles;
+    }
+
+    private static boolean isLegacyFile(Path file) {
+        String name = file.getFileName().toString();
+        for (String prefix : LEGACY_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取当前用户的支出记录存储，由系统属性{@value #EXPENSE_BACKEND_PROPERTY}选择实现：
+     * journal（默认，快照加日志）、json（单个JSON文件）、columnar（带索引的列式文件）
+     * 或segmented（按月份分段的文件）。切换到json、columnar或segmented时会从当前的支出记录迁移数据。
+     * 通过返回的存储修改记录时会同步维护指纹索引。
+     * 返回的存储属于调用时登录的用户，切换用户后需要重新获取。
+     * @return 支出记录存储
+     */
+    public static synchronized ExpenseRepository getExpenseRepository() {
+        Partition current = currentPartition();
+        if (current.expenseRepository == null) {
+            String backend = System.getProperty(EXPENSE_BACKEND_PROPERTY, "journal");
+            try {
+                current.storage = openExpenseRepository(current, backend);
+            } catch (IOException e) {
+                System.err.println("打开支出记录存储 " + backend + " 失败，改用日志存储: " + e.getMessage());
+                current.storage = new JournalExpenseRepository(current.expenseStore);
+            }
+            current.expenseRepository = new FingerprintedExpenseRepository(current, current.storage);
+        }
+        return current.expenseRepository;
+    }
+
+    private static ExpenseRepository openExpenseRepository(Partition partition, String backend) throws IOException {
+        switch (backend) {
+            case "journal":
+                return new JournalExpenseRepository(partition.expenseStore);
+            case "json":
+                // 把日志合并进快照，JSON存储可以直接读取快照
+                partition.expenseStore.compact();
+                return new JsonExpenseRepository(partition.file(EXPENSE_FILE), gson);
+            case "columnar":
+                Path columnFile = partition.file(EXPENSE_COLUMN_FILE);
+                if (!Files.exists(columnFile)) {
+                    List<ExpenseRecord> records = partition.expenseStore.load();
+                    ExpenseColumnFile.write(columnFile, records);
+                    System.out.println("已把 " + records.size() + " 条支出记录迁移到列式存储");
+                }
+                return new ColumnarExpenseRepository(columnFile, gson);
+            case "segmented":
+                Path segmentDir = partition.file(EXPENSE_SEGMENT_DIR);
+                boolean migrate = !Files.exists(segmentDir);
+                SegmentedExpenseRepository segmented = new SegmentedExpenseRepository(segmentDir, gson);
+                if (migrate) {
+                    List<ExpenseRecord> records = partition.expenseStore.load();
+                    segmented.replaceAll(records);
+                    System.out.println("已把 " + records.size() + " 条支出记录迁移到分段存储");
+                }
+                return segmented;
+            default:
+                System.err.println("未知的支出记录存储: " + backend + "，使用日志存储");
+                return new JournalExpenseRepository(partition.expenseStore);
+        }
+    }
+
+    /**
+     * 保存全部支出记录
+     * 日志存储会与已保存的内容比较，只把新增、修改和删除的记录追加到日志
+     * @param records 全部支出记录
+     */
+    public static void saveExpenseRecords(List<ExpenseRecord> records) {
+        try {
+            getExpenseRepository().replaceAll(records);
         } catch (IOException e) {
             System.err.println("保存支出记录失败: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
-    public static List<ExpenseRecord> loadExpenseRecords() {
-        File file = new File(EXPENSE_FILE);
-        if (!file.exists()) {
-            return new ArrayList<>();
+    /**
+     * 保存全部支出记录，其中appended是相对于上次保存新追加在末尾的记录
+     * 只向存储追加新记录，不需要与已有记录比较；指纹索引也只追加新记录的指纹
+     * @param records 全部支出记录
+     * @param appended 新追加的记录
+     */
+    public static void saveExpenseRecords(List<ExpenseRecord> records, Collection<ExpenseRecord> appended) {
+        ExpenseRepository repository = getExpenseRepository();
+        if (repository.size() != records.size() - appended.size()) {
+            // 已保存的内容与调用者的列表不一致，退回到完整比较
+            saveExpenseRecords(records);
+            return;
         }
-
-        try (Reader reader = new FileReader(file)) {
-            Type type = new TypeToken<List<ExpenseRecord>>(){}.getType();
-            List<ExpenseRecord> records = gson.fromJson(reader, type);
-            return records != null ? records : new ArrayList<>();
+        try {
+            repository.insertAll(appended);
         } catch (IOException e) {
-            System.err.println("加载支出记录失败: " + e.getMessage());
+            System.err.println("保存支出记录失败: " + e.getMessage());
             e.printStackTrace();
-            return new ArrayList<>();
         }
     }
 
-    public static void saveBudgets(List<Budget> budgets) {
-        File file = new File(BUDGET_FILE);
+    /**
+     * 把支出记录的变化增量写入指纹索引
+     * @param previousSize 修改前的记录数，索引的记录数与它不一致时不更新，下次查询时按记录重新同步；为-1时不检查
+     * @param update 对索引的修改
+     */
+    private static synchronized void updateExpenseIndex(Partition partition, int previousSize, IndexUpdate update) {
+        FingerprintIndex index = partition.expenseIndex != null
+                ? partition.expenseIndex : FingerprintIndex.open(partition.file(EXPENSE_INDEX_FILE));
+        if (previousSize >= 0 && index.size() != previousSize) {
+            invalidateExpenseIndex(partition);
+            return;
+        }
         try {
-            if (!file.exists()) {
-                file.createNewFile();
+            update.apply(index);
+            partition.expenseIndex = index;
+        } catch (IOException e) {
+            System.err.println("更新支出指纹索引失败: " + e.getMessage());
+            invalidateExpenseIndex(partition);
+        }
+    }
+
+    /**
+     * 对指纹索引的一次增量修改
+     */
+    private interface IndexUpdate {
+        void apply(FingerprintIndex index) throws IOException;
+    }
+
+    /**
+     * 获取支出记录的指纹索引，用于导入时检测重复记录
+     * 索引与支出记录不一致时（首次使用、增量更新失败或文件被外部修改）按当前记录重建
+     * @return 指纹索引
+     */
+    public static synchronized FingerprintIndex getExpenseIndex() {
+        ExpenseRepository repository = getExpenseRepository();
+        Partition current = currentPartition();
+        if (current.expenseIndex != null && current.expenseIndex.size() == repository.size()) {
+            return current.expenseIndex;
+        }
+        FingerprintIndex index = FingerprintIndex.open(current.file(EXPENSE_INDEX_FILE));
+        try {
+            if (index.syncWith(repository.findAll(), FingerprintIndex::fingerprint)) {
+                System.out.println("已重建支出指纹索引: " + index.size() + " 条记录");
             }
-            try (Writer writer = new FileWriter(file)) {
-                gson.toJson(budgets, writer);
+        } catch (IOException e) {
+            System.err.println("重建支出指纹索引失败: " + e.getMessage());
+        }
+        current.expenseIndex = index;
+        return index;
+    }
+
+    /**
+     * 丢弃内存中的指纹索引，只在增量更新失败或索引与记录对不上时使用；
+     * 下次查询时重新打开文件，记录数或校验和不一致才重建
+     */
+    private static synchronized void invalidateExpenseIndex(Partition partition) {
+        partition.expenseIndex = null;
+    }
+
+    /**
+     * 批量追加支出记录
+     * 新记录只追加到日志，不重写已有记录
+     * @param records 要追加的支出记录
+     * @return 追加后的全部支出记录
+     */
+    public static List<ExpenseRecord> appendExpenseRecords(Collection<ExpenseRecord> records) {
+        if (!records.isEmpty()) {
+            try {
+                getExpenseRepository().insertAll(records);
+            } catch (IOException e) {
+                System.err.println("保存支出记录失败: " + e.getMessage());
+                e.printStackTrace();
             }
+        }
+        return loadExpenseRecords();
+    }
+
+    public static List<ExpenseRecord> loadExpenseRecords() {
+        return getExpenseRepository().findAll();
+    }
+
+    public static void saveBudgets(List<Budget> budgets) {
+        try {
+            currentPartition().budgetStore.replaceAll(budgets);
         } catch (IOException e) {
             System.err.println("保存预算数据失败: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * 保存全部预算，其中added是相对于上次保存新追加在末尾的预算，只向日志追加新预算
+     * @param budgets 全部预算
+     * @param added 新追加的预算
+     */
+    public static void saveBudgets(List<Budget> budgets, Collection<Budget> added) {
+        saveAppended(currentPartition().budgetStore, budgets, added, "预算数据");
+    }
+
+    /**
+     * 保存删除一个预算后的全部预算，只向日志写一条删除操作
+     * @param budgets 删除后的全部预算
+     * @param removedIndex 被删除的预算在删除前的位置
+     */
+    public static void saveBudgets(List<Budget> budgets, int removedIndex) {
+        saveRemoved(currentPartition().budgetStore, budgets, removedIndex, "预算数据");
+    }
+
     public static List<Budget> loadBudgets() {
-        File file = new File(BUDGET_FILE);
-        if (!file.exists()) {
-            return new ArrayList<>();
-        }
+        return currentPartition().budgetStore.load();
+    }
 
-        try (Reader reader = new FileReader(file)) {
-            Type type = new TypeToken<List<Budget>>(){}.getType();
-            List<Budget> budgets = gson.fromJson(reader, type);
-            return budgets != null ? budgets : new ArrayList<>();
+    public static void saveReminders(List<PaymentReminder> reminders) {
+        try {
+            currentPartition().reminderStore.replaceAll(reminders);
         } catch (IOException e) {
-            System.err.println("加载预算数据失败: " + e.getMessage());
+            System.err.println("保存还款提醒失败: " + e.getMessage());
             e.printStackTrace();
-            return new ArrayList<>();
         }
     }
 
-    public static void saveReminders(List<PaymentReminder> reminders) {
-        File file = new File(REMINDER_FILE);
+    /**
+     * 保存全部还款提醒，其中added是相对于上次保存新追加在末尾的提醒，只向日志追加新提醒
+     * @param reminders 全部还款提醒
+     * @param added 新追加的提醒
+     */
+    public static void saveReminders(List<PaymentReminder> reminders, Collection<PaymentReminder> added) {
+        saveAppended(currentPartition().reminderStore, reminders, added, "还款提醒");
+    }
+
+    /**
+     * 保存删除一个还款提醒后的全部提醒，只向日志写一条删除操作
+     * @param reminders 删除后的全部还款提醒
+     * @param removedIndex 被删除的提醒在删除前的位置
+     */
+    public static void saveReminders(List<PaymentReminder> reminders, int removedIndex) {
+        saveRemoved(currentPartition().reminderStore, reminders, removedIndex, "还款提醒");
+    }
+
+    /**
+     * 只追加新元素；已保存的内容与调用者的列表不一致时退回到完整比较
+     */
+    private static <T> void saveAppended(JournalStore<T> store, List<T> items, Collection<T> added, String what) {
         try {
-            if (!file.exists()) {
-                file.createNewFile();
+            if (store.size() == items.size() - added.size()) {
+                store.append(added);
+            } else {
+                store.replaceAll(items);
             }
-            try (Writer writer = new FileWriter(file)) {
-                gson.toJson(reminders, writer);
+        } catch (IOException e) {
+            System.err.println("保存" + what + "失败: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 只删除一个元素；已保存的内容与调用者的列表不一致时退回到完整比较
+     */
+    private static <T> void saveRemoved(JournalStore<T> store, List<T> items, int removedIndex, String what) {
+        try {
+            if (store.size() == items.size() + 1 && removedIndex >= 0 && removedIndex < store.size()) {
+                store.remove(removedIndex);
+            } else {
+                store.replaceAll(items);
             }
         } catch (IOException e) {
-            System.err.println("保存还款提醒失败: " + e.getMessage());
+            System.err.println("保存" + what + "失败: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
     public static List<PaymentReminder> loadReminders() {
-        File file = new File(REMINDER_FILE);
-        if (!file.exists() || file.length() == 0) {
-            return new ArrayList<>();
+        return currentPartition().reminderStore.load();
+    }
+
+    /**
+     * 在支出记录存储外层维护指纹索引：追加、删除和整体替换都只把变化的指纹写入索引
+     */
+    private static class FingerprintedExpenseRepository implements ExpenseRepository {
+        private final Partition partition;
+        private final ExpenseRepository delegate;
+
+        FingerprintedExpenseRepository(Partition partition, ExpenseRepository delegate) {
+            this.partition = partition;
+            this.delegate = delegate;
         }
 
-        try (Reader reader = new FileReader(file)) {
-            String content = new String(java.nio.file.Files.readAllBytes(file.toPath()));
-            if (content.trim().isEmpty()) {
-                return new ArrayList<>();
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public ExpenseRecord get(int position) {
+            return delegate.get(position);
+        }
+
+        @Override
+        public List<ExpenseRecord> getAll(int[] positions) {
+            return delegate.getAll(positions);
+        }
+
+        @Override
+        public void insertAll(Collection<ExpenseRecord> records) throws IOException {
+            int previousSize = delegate.size();
+            try {
+                delegate.insertAll(records);
+            } catch (IOException e) {
+                invalidateExpenseIndex(partition);
+                throw e;
+            }
+            updateExpenseIndex(partition, previousSize, index -> index.addAll(records, FingerprintIndex::fingerprint));
+        }
+
+        @Override
+        public void delete(int position) throws IOException {
+            int previousSize = delegate.size();
+            ExpenseRecord removed = delegate.get(position);
+            try {
+                delegate.delete(position);
+            } catch (IOException e) {
+                invalidateExpenseIndex(partition);
+                throw e;
+            }
+            updateExpenseIndex(partition, previousSize,
+                    index -> index.removeAll(List.of(removed), FingerprintIndex::fingerprint));
+        }
+
+        @Override
+        public void replaceAll(List<ExpenseRecord> records) throws IOException {
+            try {
+                delegate.replaceAll(records);
+            } catch (IOException e) {
+                invalidateExpenseIndex(partition);
+                throw e;
+            }
+            // 与索引当前内容比较，只写入增加和减少的指纹，不依赖修改前的记录数
+            updateExpenseIndex(partition, -1, index -> index.replaceAll(records, FingerprintIndex::fingerprint));
+        }
+
+        @Override
+        public Cursor query(LocalDate from, LocalDate to, String category) {
+            return delegate.query(from, to, category);
+        }
+
+        @Override
+        public List<ExpenseRecord> findAll() {
+            return delegate.findAll();
+        }
+    }
+
+    /**
+     * 一个用户的数据分区，存储在第一次使用时才读取文件
+     */
+    private static class Partition {
+        final String owner;
+        final Path dir;
+        final JournalStore<ExpenseRecord> expenseStore;
+        final JournalStore<Budget> budgetStore;
+        final JournalStore<PaymentReminder> reminderStore;
+        ExpenseRepository storage;
+        ExpenseRepository expenseRepository;
+        FingerprintIndex expenseIndex;
+
+        Partition(String owner, Path dir) {
+            this.owner = owner;
+            this.dir = dir;
+            // 支出、预算和还款提醒都保存为快照加日志，保存时只追加变化的记录
+            this.expenseStore = new JournalStore<>(file(EXPENSE_FILE), gson, ExpenseRecord.class);
+            this.budgetStore = new JournalStore<>(file(BUDGET_FILE), gson, Budget.class);
+            this.reminderStore = new JournalStore<>(file(REMINDER_FILE), gson, PaymentReminder.class);
+        }
+
+        Path file(String name) {
+            return dir.resolve(name);
+        }
+
+        void close() {
+            if (storage instanceof Closeable) {
+                try {
+                    ((Closeable) storage).close();
+                } catch (IOException e) {
+                    System.err.println("关闭支出记录存储失败: " + e.getMessage());
+                }
             }
-            Type type = new TypeToken<List<PaymentReminder>>(){}.getType();
-            List<PaymentReminder> reminders = gson.fromJson(reader, type);
-            return reminders != null ? reminders : new ArrayList<>();
-        } catch (JsonSyntaxException | IOException e) {
-            System.err.println("加载还款提醒失败: " + e.getMessage());
-            e.printStackTrace();
-            return new ArrayList<>();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,769 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 支出记录的二进制列式文件
+ * 每个字段单独存成一列：日期为epoch day的int，金额为以分为单位的long，类别、币种和记录类型按字典编码，
+ * 名称和备注的UTF-8字节放在单独的字符串堆中，按行保存结束位置。
+ * 读取时每一列通过{@link FileChannel#map}映射到内存，按类别、日期汇总金额只访问需要的列，
+ * 不会为每条记录创建LocalDate、String或ExpenseRecord对象。
+ * 金额按分保存，超过两位小数的部分会被四舍五入。
+ */
+public class ExpenseColumnFile implements Closeable {
+    private static final int MAGIC = 0x43454346; // "CECF"
+    private static final int VERSION = 1;
+
+    // 各列在文件中的顺序，头部依次保存每一列的起始位置，最后是文件长度
+    private static final int DATES = 0;
+    private static final int AMOUNTS = 1;
+    private static final int CATEGORIES = 2;
+    private static final int CURRENCIES = 3;
+    private static final int RECORD_TYPES = 4;
+    private static final int FLAGS = 5;
+    private static final int NAME_ENDS = 6;
+    private static final int DESCRIPTION_ENDS = 7;
+    private static final int STRING_HEAP = 8;
+    private static final int DICTIONARIES = 9;
+    private static final int SECTION_COUNT = 10;
+    private static final int HEADER_SIZE = 16 + (SECTION_COUNT + 1) * 8;
+
+    // 名称和备注为null的标记位，区分null和空字符串
+    private static final int NAME_NULL = 1;
+    private static final int DESCRIPTION_NULL = 2;
+
+    private static final int MAX_CATEGORIES = 0xFFFF;
+    private static final int MAX_SMALL_DICTIONARY = 0xFF;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int rowCount;
+    private final IntBuffer dates;
+    private final LongBuffer amounts;
+    private final ShortBuffer categories;
+    private final ByteBuffer currencies;
+    private final ByteBuffer recordTypes;
+    private final ByteBuffer flags;
+    private final IntBuffer nameEnds;
+    private final IntBuffer descriptionEnds;
+    private final ByteBuffer heap;
+    // 字典的第0项固定为null
+    private final String[] categoryDictionary;
+    private final String[] currencyDictionary;
+    private final String[] recordTypeDictionary;
+
+    private ExpenseColumnFile(Path file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new IOException("不是支出列式文件: " + file);
+        }
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("不是支出列式文件: " + file);
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("不支持的支出列式文件版本: " + header.getInt(4));
+        }
+        long rows = header.getLong(8);
+        long[] offsets = new long[SECTION_COUNT + 1];
+        for (int i = 0; i <= SECTION_COUNT; i++) {
+            offsets[i] = header.getLong(16 + i * 8);
+        }
+        if (rows < 0 || rows > Integer.MAX_VALUE || offsets[SECTION_COUNT] != size) {
+            throw new IOException("支出列式文件已损坏: " + file);
+        }
+        this.rowCount = (int) rows;
+        this.dates = section(offsets, DATES, rows * 4).asIntBuffer();
+        this.amounts = section(offsets, AMOUNTS, rows * 8).asLongBuffer();
+        this.categories = section(offsets, CATEGORIES, rows * 2).asShortBuffer();
+        this.currencies = section(offsets, CURRENCIES, rows);
+        this.recordTypes = section(offsets, RECORD_TYPES, rows);
+        this.flags = section(offsets, FLAGS, rows);
+        this.nameEnds = section(offsets, NAME_ENDS, rows * 4).asIntBuffer();
+        this.descriptionEnds = section(offsets, DESCRIPTION_ENDS, rows * 4).asIntBuffer();
+        this.heap = section(offsets, STRING_HEAP, -1);
+
+        ByteBuffer dictionaries = section(offsets, DICTIONARIES, -1);
+        this.categoryDictionary = readDictionary(dictionaries);
+        this.currencyDictionary = readDictionary(dictionaries);
+        this.recordTypeDictionary = readDictionary(dictionaries);
+    }
+
+    /**
+     * 打开列式文件，各列按需映射到内存
+     * @param file 列式文件
+     * @return 只读的列式文件
+     * @throws IOException 文件不存在、格式不正确或已损坏时抛出
+     */
+    public static ExpenseColumnFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new ExpenseColumnFile(file, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 把支出记录写成列式文件，先写临时文件再原子替换
+     * @param file 目标文件
+     * @param records 支出记录
+     * @throws IOException 写入失败时抛出，目标文件保持原内容
+     */
+    public static void write(Path file, List<ExpenseRecord> records) throws IOException {
+        write(file, records, records.size());
+    }
+
+    /**
+     * 把逐条产生的支出记录写成列式文件，记录对象写入列后即可回收
+     * @param file 目标文件
+     * @param records 支出记录
+     * @param sizeHint 预计的记录数
+     * @throws IOException 写入失败时抛出，目标文件保持原内容
+     */
+    public static void write(Path file, Iterable<ExpenseRecord> records, int sizeHint) throws IOException {
+        Builder builder = new Builder(sizeHint);
+        for (ExpenseRecord record : records) {
+            builder.add(record);
+        }
+        builder.writeTo(file);
+    }
+
+    /**
+     * 从JSON导入为列式文件，支持记录数组和DataManager的快照格式（{"records":[...]}）
+     * 逐条解析，不会创建ExpenseRecord对象
+     * @param json JSON文件
+     * @param file 目标列式文件
+     * @return 导入的记录数
+     * @throws IOException 读取或写入失败时抛出
+     */
+    public static int importJson(Path json, Path file) throws IOException {
+        Builder builder = new Builder(1024);
+        try (Reader reader = Files.newBufferedReader(json, StandardCharsets.UTF_8)) {
+            readJson(new JsonReader(reader), builder);
+        }
+        builder.writeTo(file);
+        return builder.size;
+    }
+
+    /**
+     * 导出为JSON记录数组，格式与expense.json中的记录一致
+     * @param json 目标JSON文件
+     * @throws IOException 写入失败时抛出
+     */
+    public void exportJson(Path json) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(json, StandardCharsets.UTF_8);
+             JsonWriter out = new JsonWriter(writer)) {
+            out.setIndent("  ");
+            out.beginArray();
+            for (int row = 0; row < rowCount; row++) {
+                out.beginObject();
+                out.name("amount").value(getAmount(row));
+                writeString(out, "category", getCategory(row));
+                writeString(out, "name", getName(row));
+                LocalDate date = getDate(row);
+                writeString(out, "date", date != null ? date.toString() : null);
+                writeString(out, "description", getDescription(row));
+                writeString(out, "recordType", getRecordType(row));
+                writeString(out, "currency", getCurrency(row));
+                out.endObject();
+            }
+            out.endArray();
+        }
+    }
+
+    /**
+     * 获取记录数
+     * @return 记录数
+     */
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * 获取文件路径
+     * @return 文件路径
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * 获取某行的日期
+     * @param row 行号
+     * @return epoch day，日期为空时返回{@link FieldDecoders#INVALID_DATE}
+     */
+    public int getEpochDay(int row) {
+        return dates.get(row);
+    }
+
+    /**
+     * 获取某行的日期
+     * @param row 行号
+     * @return 日期，可能为null
+     */
+    public LocalDate getDate(int row) {
+        int day = dates.get(row);
+        return day == FieldDecoders.INVALID_DATE ? null : FieldDecoders.toLocalDate(day);
+    }
+
+    /**
+     * 获取某行以分为单位的金额
+     * @param row 行号
+     * @return 金额（分）
+     */
+    public long getAmountCents(int row) {
+        return amounts.get(row);
+    }
+
+    /**
+     * 获取某行的金额
+     * @param row 行号
+     * @return 金额
+     */
+    public double getAmount(int row) {
+        return FieldDecoders.centsToAmount(amounts.get(row));
+    }
+
+    /**
+     * 获取某行的类别编码，编码对应{@link #getCategoryDictionary()}中的位置
+     * @param row 行号
+     * @return 类别编码
+     */
+    public int getCategoryCode(int row) {
+        return categories.get(row) & 0xFFFF;
+    }
+
+    /**
+     * 获取某行的类别
+     * @param row 行号
+     * @return 类别，可能为null
+     */
+    public String getCategory(int row) {
+        return categoryDictionary[getCategoryCode(row)];
+    }
+
+    /**
+     * 获取某行的币种
+     * @param row 行号
+     * @return 币种，可能为null
+     */
+    public String getCurrency(int row) {
+        return currencyDictionary[currencies.get(row) & 0xFF];
+    }
+
+    /**
+     * 获取某行的记录类型
+     * @param row 行号
+     * @return 记录类型，可能为null
+     */
+    public String getRecordType(int row) {
+        return recordTypeDictionary[recordTypes.get(row) & 0xFF];
+    }
+
+    /**
+     * 获取某行的名称
+     * @param row 行号
+     * @return 名称，可能为null
+     */
+    public String getName(int row) {
+        if ((flags.get(row) & NAME_NULL) != 0) {
+            return null;
+        }
+        // 名称和备注在字符串堆中交替存放，名称从上一行备注的结束位置开始
+        return heapString(row == 0 ? 0 : descriptionEnds.get(row - 1), nameEnds.get(row));
+    }
+
+    /**
+     * 获取某行的备注
+     * @param row 行号
+     * @return 备注，可能为null
+     */
+    public String getDescription(int row) {
+        if ((flags.get(row) & DESCRIPTION_NULL) != 0) {
+            return null;
+        }
+        return heapString(nameEnds.get(row), descriptionEnds.get(row));
+    }
+
+    /**
+     * 获取类别字典，第0项为null
+     * @return 类别字典的副本
+     */
+    public String[] getCategoryDictionary() {
+        return categoryDictionary.clone();
+    }
+
+    /**
+     * 查找类别的编码
+     * @param category 类别
+     * @return 类别编码，文件中没有该类别时返回-1
+     */
+    public int findCategoryCode(String category) {
+        return category == null ? 0 : indexOf(categoryDictionary, category);
+    }
+
+    /**
+     * 读取某行为支出记录对象
+     * @param row 行号
+     * @return 支出记录
+     */
+    public ExpenseRecord get(int row) {
+        return new ExpenseRecord(getAmount(row), getCategory(row), getName(row), getDate(row),
+                getDescription(row), getRecordType(row), getCurrency(row));
+    }
+
+    /**
+     * 读取全部记录，用于需要完整对象的界面
+     * @return 支出记录列表
+     */
+    public List<ExpenseRecord> toRecords() {
+        List<ExpenseRecord> records = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            records.add(get(row));
+        }
+        return records;
+    }
+
+    /**
+     * 按类别汇总日期范围内的金额，只读取日期、金额、类别和记录类型四列
+     * @param fromEpochDay 起始日期（包含）
+     * @param toEpochDay 结束日期（包含）
+     * @param recordType 记录类型，为null时汇总所有类型
+     * @return 按类别编码索引的金额合计（分）
+     */
+    public long[] sumByCategoryCode(int fromEpochDay, int toEpochDay, String recordType) {
+        long[] totals = new long[categoryDictionary.length];
+        int typeCode = recordType == null ? -1 : indexOf(recordTypeDictionary, recordType);
+        if (recordType != null && typeCode < 0) {
+            return totals;
+        }
+        for (int row = 0; row < rowCount; row++) {
+            int day = dates.get(row);
+            if (day < fromEpochDay || day > toEpochDay) {
+                continue;
+            }
+            if (typeCode >= 0 && (recordTypes.get(row) & 0xFF) != typeCode) {
+                continue;
+            }
+            totals[categories.get(row) & 0xFFFF] += amounts.get(row);
+        }
+        return totals;
+    }
+
+    /**
+     * 按类别汇总日期范围内的金额
+     * @param from 起始日期（包含），为null时不限
+     * @param to 结束日期（包含），为null时不限
+     * @param recordType 记录类型，为null时汇总所有类型
+     * @return 类别-金额映射，不包含合计为0且没有记录的类别
+     */
+    public Map<String, Double> totalsByCategory(LocalDate from, LocalDate to, String recordType) {
+        long[] totals = sumByCategoryCode(toEpochDay(from, Integer.MIN_VALUE + 1),
+                toEpochDay(to, Integer.MAX_VALUE), recordType);
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int code = 0; code < totals.length; code++) {
+            if (totals[code] != 0) {
+                String category = categoryDictionary[code];
+                result.put(category != null ? category : "", FieldDecoders.centsToAmount(totals[code]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 汇总日期范围内的金额
+     * @param from 起始日期（包含），为null时不限
+     * @param to 结束日期（包含），为null时不限
+     * @param recordType 记录类型，为null时汇总所有类型
+     * @return 金额合计（分）
+     */
+    public long sumCents(LocalDate from, LocalDate to, String recordType) {
+        long total = 0;
+        for (long value : sumByCategoryCode(toEpochDay(from, Integer.MIN_VALUE + 1),
+                toEpochDay(to, Integer.MAX_VALUE), recordType)) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * 关闭文件通道，已映射的列在被回收前仍然可以访问
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer section(long[] offsets, int section, long expectedLength) throws IOException {
+        long start = offsets[section];
+        long length = offsets[section + 1] - start;
+        if (start < HEADER_SIZE || length < 0 || (expectedLength >= 0 && length < expectedLength)
+                || length > Integer.MAX_VALUE) {
+            throw new IOException("支出列式文件已损坏: " + file);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private String heapString(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        heap.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String[] readDictionary(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        String[] dictionary = new String[count + 1];
+        for (int i = 1; i <= count; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return dictionary;
+    }
+
+    private static int indexOf(String[] dictionary, String value) {
+        for (int i = 1; i < dictionary.length; i++) {
+            if (value.equals(dictionary[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int toEpochDay(LocalDate date, int unbounded) {
+        return date == null ? unbounded : (int) date.toEpochDay();
+    }
+
+    private static void writeString(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+
+    /**
+     * 流式解析JSON中的支出记录
+     */
+    private static void readJson(JsonReader in, Builder builder) throws IOException {
+        if (in.peek() == JsonToken.BEGIN_OBJECT) {
+            // DataManager的快照格式：{"seq":N,"records":[...]}
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("records")) {
+                    readRecordArray(in, builder);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+        } else {
+            readRecordArray(in, builder);
+        }
+    }
+
+    private static void readRecordArray(JsonReader in, Builder builder) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            double amount = 0;
+            String category = null;
+            String name = null;
+            int epochDay = FieldDecoders.INVALID_DATE;
+            String description = null;
+            // 缺少的字段与Gson反序列化一样取ExpenseRecord无参构造函数的默认值
+            String recordType = "支出";
+            String currency = "CNY";
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "amount" -> amount = in.peek() == JsonToken.NULL ? skipNull(in, 0) : in.nextDouble();
+                    case "category" -> category = nextString(in);
+                    case "name" -> name = nextString(in);
+                    case "date" -> {
+                        String date = nextString(in);
+                        epochDay = date == null ? FieldDecoders.INVALID_DATE
+                                : FieldDecoders.parseEpochDay(date, 0, date.length());
+                    }
+                    case "description" -> description = nextString(in);
+                    case "recordType" -> recordType = nextString(in);
+                    case "currency" -> currency = nextString(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            builder.add(epochDay, Math.round(amount * 100), category, currency, recordType, name, description);
+        }
+        in.endArray();
+    }
+
+    private static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static double skipNull(JsonReader in, double defaultValue) throws IOException {
+        in.nextNull();
+        return defaultValue;
+    }
+
+    /**
+     * 在内存中按列累积记录，最后一次性写出
+     */
+    private static class Builder {
+        private int size;
+        private int[] dates;
+        private long[] amounts;
+        private short[] categories;
+        private byte[] currencies;
+        private byte[] recordTypes;
+        private byte[] flags;
+        private int[] nameEnds;
+        private int[] descriptionEnds;
+        private final ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        private final Map<String, Integer> categoryCodes = new HashMap<>();
+        private final Map<String, Integer> currencyCodes = new HashMap<>();
+        private final Map<String, Integer> recordTypeCodes = new HashMap<>();
+        private final List<String> categoryValues = new ArrayList<>();
+        private final List<String> currencyValues = new ArrayList<>();
+        private final List<String> recordTypeValues = new ArrayList<>();
+
+        Builder(int capacity) {
+            capacity = Math.max(16, capacity);
+            dates = new int[capacity];
+            amounts = new long[capacity];
+            categories = new short[capacity];
+            currencies = new byte[capacity];
+            recordTypes = new byte[capacity];
+            flags = new byte[capacity];
+            nameEnds = new int[capacity];
+            descriptionEnds = new int[capacity];
+        }
+
+        void add(ExpenseRecord record) throws IOException {
+            LocalDate date = record.getDate();
+            add(date != null ? (int) date.toEpochDay() : FieldDecoders.INVALID_DATE,
+                    Math.round(record.getAmount() * 100), record.getCategory(), record.getCurrency(),
+                    record.getRecordType(), record.getName(), record.getDescription());
+        }
+
+        void add(int epochDay, long cents, String category, String currency, String recordType,
+                 String name, String description) throws IOException {
+            if (size == dates.length) {
+                grow();
+            }
+            dates[size] = epochDay;
+            amounts[size] = cents;
+            categories[size] = (short) code(categoryCodes, categoryValues, category, MAX_CATEGORIES, "类别");
+            currencies[size] = (byte) code(currencyCodes, currencyValues, currency, MAX_SMALL_DICTIONARY, "币种");
+            recordTypes[size] = (byte) code(recordTypeCodes, recordTypeValues, recordType, MAX_SMALL_DICTIONARY, "记录类型");
+            int flag = 0;
+            if (name == null) {
+                flag |= NAME_NULL;
+            } else {
+                heap.write(name.getBytes(StandardCharsets.UTF_8));
+            }
+            nameEnds[size] = checkedHeapSize();
+            if (description == null) {
+                flag |= DESCRIPTION_NULL;
+            } else {
+                heap.write(description.getBytes(StandardCharsets.UTF_8));
+            }
+            descriptionEnds[size] = checkedHeapSize();
+            flags[size] = (byte) flag;
+            size++;
+        }
+
+        private int checkedHeapSize() throws IOException {
+            int heapSize = heap.size();
+            if (heapSize < 0 || heapSize == Integer.MAX_VALUE) {
+                throw new IOException("名称和备注的总长度超过列式文件的上限");
+            }
+            return heapSize;
+        }
+
+        private static int code(Map<String, Integer> codes, List<String> values, String value, int max, String label)
+                throws IOException {
+            if (value == null) {
+                return 0;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                if (values.size() >= max) {
+                    throw new IOException(label + "种类超过列式文件的上限: " + max);
+                }
+                values.add(value);
+                code = values.size();
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        private void grow() {
+            int capacity = dates.length * 2;
+            dates = Arrays.copyOf(dates, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+            categories = Arrays.copyOf(categories, capacity);
+            currencies = Arrays.copyOf(currencies, capacity);
+            recordTypes = Arrays.copyOf(recordTypes, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            nameEnds = Arrays.copyOf(nameEnds, capacity);
+            descriptionEnds = Arrays.copyOf(descriptionEnds, capacity);
+        }
+
+        void writeTo(Path file) throws IOException {
+            Path absolute = file.toAbsolutePath();
+            Files.createDirectories(absolute.getParent());
+            Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString() + ".", ".tmp");
+            try {
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    write(out);
+                    out.force(true);
+                }
+                try {
+                    Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        private void write(FileChannel out) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            long[] offsets = new long[SECTION_COUNT + 1];
+            out.position(HEADER_SIZE);
+
+            offsets[DATES] = align(out);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(out, buffer, 4).putInt(dates[i]);
+            }
+            drain(out, buffer);
+            offsets[AMOUNTS] = align(out);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(out, buffer, 8).putLong(amounts[i]);
+            }
+            drain(out, buffer);
+            offsets[CATEGORIES] = align(out);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(out, buffer, 2).putShort(categories[i]);
+            }
+            drain(out, buffer);
+            offsets[CURRENCIES] = align(out);
+            writeBytes(out, buffer, currencies, size);
+            offsets[RECORD_TYPES] = align(out);
+            writeBytes(out, buffer, recordTypes, size);
+            offsets[FLAGS] = align(out);
+            writeBytes(out, buffer, flags, size);
+            offsets[NAME_ENDS] = align(out);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(out, buffer, 4).putInt(nameEnds[i]);
+            }
+            drain(out, buffer);
+            offsets[DESCRIPTION_ENDS] = align(out);
+            for (int i = 0; i < size; i++) {
+                buffer = ensure(out, buffer, 4).putInt(descriptionEnds[i]);
+            }
+            drain(out, buffer);
+            offsets[STRING_HEAP] = align(out);
+            writeFully(out, ByteBuffer.wrap(heap.toByteArray()));
+            offsets[DICTIONARIES] = align(out);
+            writeDictionary(out, buffer, categoryValues);
+            writeDictionary(out, buffer, currencyValues);
+            writeDictionary(out, buffer, recordTypeValues);
+            drain(out, buffer);
+            offsets[SECTION_COUNT] = out.position();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(size);
+            for (long offset : offsets) {
+                header.putLong(offset);
+            }
+            header.flip();
+            out.position(0);
+            writeFully(out, header);
+        }
+
+        private static void writeBytes(FileChannel out, ByteBuffer buffer, byte[] values, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                ensure(out, buffer, 1).put(values[i]);
+            }
+            drain(out, buffer);
+        }
+
+        private static void writeDictionary(FileChannel out, ByteBuffer buffer, List<String> values) throws IOException {
+            ensure(out, buffer, 4).putInt(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                ensure(out, buffer, 4).putInt(bytes.length);
+                drain(out, buffer);
+                writeFully(out, ByteBuffer.wrap(bytes));
+            }
+        }
+
+        private static ByteBuffer ensure(FileChannel out, ByteBuffer buffer, int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain(out, buffer);
+            }
+            return buffer;
+        }
+
+        private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            writeFully(out, buffer);
+            buffer.clear();
+        }
+
+        private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+
+        /**
+         * 每一列按8字节对齐，映射后可以直接按int/long视图访问
+         */
+        private static long align(FileChannel out) throws IOException {
+            long position = out.position();
+            long aligned = (position + 7) & ~7L;
+            if (aligned != position) {
+                writeFully(out, ByteBuffer.allocate((int) (aligned - position)));
+            }
+            return aligned;
+        }
+    }
+}
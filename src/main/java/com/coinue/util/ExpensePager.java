@@ -0,0 +1,271 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 分页读取支出记录
+ * 创建时扫描一遍满足条件的记录，只保留每行对应的存储位置（每行4字节），不保留记录本身；
+ * 之后按页从存储中读取记录，内存中只缓存最近访问的几页。
+ * 按存储顺序且没有过滤条件时连位置表也不需要，行号就是存储位置。
+ * 存储被修改后位置会变化，需要重新创建分页器。
+ * <p>
+ * 限制：分页器只控制自身的内存，总内存还取决于存储实现。默认的{@link JournalExpenseRepository}
+ * 在内存中保存全部记录的JSON，内存随历史记录增长；只有{@link ColumnarExpenseRepository}和
+ * {@link SegmentedExpenseRepository}按需从文件读取，此时内存才基本不随记录数变化。
+ * 排序和过滤没有使用索引，每次创建分页器都要扫描并解析全部满足条件的记录。
+ */
+public class ExpensePager {
+    // 内存中最多缓存的页数
+    private static final int MAX_CACHED_PAGES = 8;
+
+    /**
+     * 排序字段
+     */
+    public enum SortKey {
+        /** 存储顺序，也就是记录的插入顺序 */
+        POSITION,
+        /** 日期，没有日期的记录排在最前 */
+        DATE,
+        /** 金额 */
+        AMOUNT
+    }
+
+    private final ExpenseRepository repository;
+    private final int pageSize;
+    // 按排序后的行号排列的存储位置，为null时行号就是存储位置
+    private final int[] positions;
+    private final int size;
+    private final LinkedHashMap<Integer, List<ExpenseRecord>> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long pageLoads;
+
+    /**
+     * 按存储顺序分页读取全部记录
+     * @param repository 支出记录存储
+     * @param pageSize 每页记录数
+     */
+    public ExpensePager(ExpenseRepository repository, int pageSize) {
+        this(repository, null, null, null, SortKey.POSITION, false, pageSize);
+    }
+
+    /**
+     * 分页读取满足条件的记录
+     * @param repository 支出记录存储
+     * @param from 起始日期（包含），为null时不限
+     * @param to 结束日期（包含），为null时不限
+     * @param category 类别，为null时不限
+     * @param sortKey 排序字段
+     * @param descending 是否降序，相同的值保持存储顺序
+     * @param pageSize 每页记录数
+     */
+    public ExpensePager(ExpenseRepository repository, LocalDate from, LocalDate to, String category,
+                        SortKey sortKey, boolean descending, int pageSize) {
+        this.repository = repository;
+        this.pageSize = Math.max(1, pageSize);
+        if (sortKey == SortKey.POSITION && !descending && from == null && to == null && category == null) {
+            this.positions = null;
+            this.size = repository.size();
+        } else {
+            this.positions = buildPositions(repository, from, to, category, sortKey, descending);
+            this.size = positions.length;
+        }
+    }
+
+    private static int[] buildPositions(ExpenseRepository repository, LocalDate from, LocalDate to, String category,
+                                        SortKey sortKey, boolean descending) {
+        int[] positions = new int[Math.max(16, Math.min(repository.size(), 1 << 20))];
+        long[] keys = sortKey != SortKey.POSITION ? new long[positions.length] : null;
+        int count = 0;
+        try (ExpenseRepository.Cursor cursor = repository.query(from, to, category)) {
+            while (cursor.hasNext()) {
+                ExpenseRecord record = cursor.next();
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                    if (keys != null) {
+                        keys = Arrays.copyOf(keys, count * 2);
+                    }
+                }
+                positions[count] = cursor.position();
+                if (keys != null) {
+                    keys[count] = sortKey(record, sortKey);
+                }
+                count++;
+            }
+        }
+        positions = Arrays.copyOf(positions, count);
+        if (keys != null) {
+            keys = Arrays.copyOf(keys, count);
+            sortByKeys(positions, keys);
+        }
+        if (descending) {
+            reverse(positions, keys);
+        }
+        return positions;
+    }
+
+    /**
+     * 把排序字段转成可以按有符号整数比较的值
+     */
+    private static long sortKey(ExpenseRecord record, SortKey sortKey) {
+        if (sortKey == SortKey.DATE) {
+            LocalDate date = record.getDate();
+            return date != null ? date.toEpochDay() : Long.MIN_VALUE;
+        }
+        long bits = Double.doubleToLongBits(record.getAmount());
+        // 负数翻转其余位，使整数顺序与浮点数顺序一致
+        return bits >= 0 ? bits : bits ^ Long.MAX_VALUE;
+    }
+
+    /**
+     * 按键稳定排序位置，归并排序，同时移动键和位置
+     */
+    private static void sortByKeys(int[] positions, long[] keys) {
+        int n = positions.length;
+        int[] positionBuffer = new int[n];
+        long[] keyBuffer = new long[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int left = 0; left < n; left += 2 * width) {
+                int mid = Math.min(left + width, n);
+                int right = Math.min(left + 2 * width, n);
+                int i = left;
+                int j = mid;
+                int k = left;
+                while (i < mid && j < right) {
+                    if (keys[j] < keys[i]) {
+                        keyBuffer[k] = keys[j];
+                        positionBuffer[k++] = positions[j++];
+                    } else {
+                        keyBuffer[k] = keys[i];
+                        positionBuffer[k++] = positions[i++];
+                    }
+                }
+                while (i < mid) {
+                    keyBuffer[k] = keys[i];
+                    positionBuffer[k++] = positions[i++];
+                }
+                while (j < right) {
+                    keyBuffer[k] = keys[j];
+                    positionBuffer[k++] = positions[j++];
+                }
+            }
+            System.arraycopy(keyBuffer, 0, keys, 0, n);
+            System.arraycopy(positionBuffer, 0, positions, 0, n);
+        }
+    }
+
+    /**
+     * 降序：整体反转，再把相同键的区间反转回来，使相同的值仍按存储顺序排列
+     * @param keys 与positions一一对应的已排序键，按存储顺序排列时为null
+     */
+    private static void reverse(int[] positions, long[] keys) {
+        int n = positions.length;
+        reverseRange(positions, 0, n);
+        if (keys == null) {
+            return;
+        }
+        int start = 0;
+        for (int i = 1; i <= n; i++) {
+            // 反转后第i行的键是keys[n - 1 - i]
+            if (i == n || keys[n - 1 - i] != keys[n - 1 - start]) {
+                reverseRange(positions, start, i);
+                start = i;
+            }
+        }
+    }
+
+    private static void reverseRange(int[] values, int from, int to) {
+        for (int i = from, j = to - 1; i < j; i++, j--) {
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    /**
+     * 获取记录数
+     * @return 记录数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 获取每页记录数
+     * @return 每页记录数
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * 获取页数
+     * @return 页数
+     */
+    public int getPageCount() {
+        return (size + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * 读取指定行的记录，所在的页不在缓存中时读取整页
+     * @param row 行号
+     * @return 记录，所在的页仍在缓存中时多次读取返回同一个对象
+     */
+    public ExpenseRecord get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("行号超出范围: " + row + ", 记录数: " + size);
+        }
+        return page(row / pageSize).get(row % pageSize);
+    }
+
+    /**
+     * 读取一页记录
+     * @param pageIndex 页号，从0开始
+     * @return 该页的记录，不可修改
+     */
+    public synchronized List<ExpenseRecord> page(int pageIndex) {
+        List<ExpenseRecord> page = pages.get(pageIndex);
+        if (page != null) {
+            return page;
+        }
+        int start = pageIndex * pageSize;
+        int end = Math.min(size, start + pageSize);
+        if (start < 0 || start >= end) {
+            throw new IndexOutOfBoundsException("页号超出范围: " + pageIndex);
+        }
+        int[] rows = new int[end - start];
+        for (int row = start; row < end; row++) {
+            rows[row - start] = positions != null ? positions[row] : row;
+        }
+        // 整页一次读取，存储只需为这一页做一次准备
+        page = List.copyOf(repository.getAll(rows));
+        pageLoads++;
+        pages.put(pageIndex, page);
+        Iterator<Integer> eldest = pages.keySet().iterator();
+        while (pages.size() > MAX_CACHED_PAGES && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+        return page;
+    }
+
+    /**
+     * 获取从存储读取整页的次数
+     * @return 读取次数
+     */
+    public synchronized long getPageLoads() {
+        return pageLoads;
+    }
+
+    /**
+     * 获取缓存的页数
+     * @return 页数
+     */
+    public synchronized int getCachedPageCount() {
+        return pages.size();
+    }
+}
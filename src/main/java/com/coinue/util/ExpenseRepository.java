@@ -0,0 +1,200 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 支出记录存储
+ * 记录按插入顺序排列，位置从0开始；查询结果也按存储顺序返回。
+ * 查询通过{@link Cursor}逐条读取，不需要先把全部记录加载到内存。
+ * 实现：{@link JsonExpenseRepository}（单个JSON文件）、{@link JournalExpenseRepository}（快照加追加日志）、
+ * {@link ColumnarExpenseRepository}（带日期和类别索引的列式文件）、
+ * {@link SegmentedExpenseRepository}（按月份分段、历史段压缩封存的文件）。
+ */
+public interface ExpenseRepository {
+
+    /**
+     * 获取记录数
+     * @return 记录数
+     */
+    int size();
+
+    /**
+     * 读取指定位置的记录
+     * @param position 位置
+     * @return 新创建的记录对象，修改它不会影响存储
+     */
+    ExpenseRecord get(int position);
+
+    /**
+     * 批量读取指定位置的记录，实现可以一次完成整批读取共用的准备工作
+     * @param positions 位置
+     * @return 新创建的记录对象，顺序与positions一致
+     */
+    default List<ExpenseRecord> getAll(int[] positions) {
+        List<ExpenseRecord> records = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            records.add(get(position));
+        }
+        return records;
+    }
+
+    /**
+     * 在末尾追加一批记录
+     * @param records 新记录
+     * @throws IOException 写入失败时抛出
+     */
+    void insertAll(Collection<ExpenseRecord> records) throws IOException;
+
+    /**
+     * 删除指定位置的记录，之后的记录位置减一
+     * @param position 位置
+     * @throws IOException 写入失败时抛出
+     */
+    void delete(int position) throws IOException;
+
+    /**
+     * 用新列表替换全部记录
+     * @param records 全部记录
+     * @throws IOException 写入失败时抛出
+     */
+    void replaceAll(List<ExpenseRecord> records) throws IOException;
+
+    /**
+     * 按条件查询记录
+     * @param from 起始日期（包含），为null时不限
+     * @param to 结束日期（包含），为null时不限
+     * @param category 类别，为null时不限
+     * @return 游标，使用完后需要关闭
+     */
+    Cursor query(LocalDate from, LocalDate to, String category);
+
+    /**
+     * 在末尾追加一条记录
+     * @param record 新记录
+     * @throws IOException 写入失败时抛出
+     */
+    default void insert(ExpenseRecord record) throws IOException {
+        insertAll(List.of(record));
+    }
+
+    /**
+     * 删除第一条内容相同的记录
+     * @param record 要删除的记录
+     * @return 是否找到并删除
+     * @throws IOException 写入失败时抛出
+     */
+    default boolean delete(ExpenseRecord record) throws IOException {
+        try (Cursor cursor = query(record.getDate(), record.getDate(), record.getCategory())) {
+            while (cursor.hasNext()) {
+                if (sameRecord(cursor.next(), record)) {
+                    delete(cursor.position());
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 遍历全部记录
+     * @return 游标，使用完后需要关闭
+     */
+    default Cursor cursor() {
+        return query(null, null, null);
+    }
+
+    /**
+     * 读取全部记录
+     * @return 新创建的记录列表
+     */
+    default List<ExpenseRecord> findAll() {
+        return collect(cursor());
+    }
+
+    /**
+     * 查询日期范围内的记录
+     * @param from 起始日期（包含），为null时不限
+     * @param to 结束日期（包含），为null时不限
+     * @return 记录列表
+     */
+    default List<ExpenseRecord> findByDateRange(LocalDate from, LocalDate to) {
+        return collect(query(from, to, null));
+    }
+
+    /**
+     * 查询某个类别的记录
+     * @param category 类别
+     * @return 记录列表
+     */
+    default List<ExpenseRecord> findByCategory(String category) {
+        return collect(query(null, null, category));
+    }
+
+    private static List<ExpenseRecord> collect(Cursor cursor) {
+        List<ExpenseRecord> records = new ArrayList<>();
+        try (cursor) {
+            while (cursor.hasNext()) {
+                records.add(cursor.next());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 判断记录是否满足查询条件，日期为空的记录不满足任何日期条件
+     * @param record 记录
+     * @param from 起始日期，为null时不限
+     * @param to 结束日期，为null时不限
+     * @param category 类别，为null时不限
+     * @return 是否满足
+     */
+    static boolean matches(ExpenseRecord record, LocalDate from, LocalDate to, String category) {
+        if (category != null && !category.equals(record.getCategory())) {
+            return false;
+        }
+        if (from == null && to == null) {
+            return true;
+        }
+        LocalDate date = record.getDate();
+        return date != null && (from == null || !date.isBefore(from)) && (to == null || !date.isAfter(to));
+    }
+
+    /**
+     * 比较两条记录的全部字段
+     * @param a 记录
+     * @param b 记录
+     * @return 内容是否相同
+     */
+    static boolean sameRecord(ExpenseRecord a, ExpenseRecord b) {
+        return Double.compare(a.getAmount(), b.getAmount()) == 0
+                && Objects.equals(a.getCategory(), b.getCategory())
+                && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getDate(), b.getDate())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && Objects.equals(a.getRecordType(), b.getRecordType())
+                && Objects.equals(a.getCurrency(), b.getCurrency());
+    }
+
+    /**
+     * 查询结果游标，按存储顺序逐条返回记录
+     */
+    interface Cursor extends Iterator<ExpenseRecord>, Closeable {
+        /**
+         * 获取最近一次{@link #next()}返回的记录所在的位置
+         * @return 位置
+         */
+        int position();
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,157 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 支出记录CSV行结构
+ * 支持两种列布局：导入格式（类别,金额,日期,名称）和导出/分析格式（日期,消费名称,类别,金额）
+ */
+public class ExpenseRowSchema implements RowSchema<ExpenseRecord>, RecordCodec<ExpenseRecord> {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    private final int categoryColumn;
+    private final int amountColumn;
+    private final int dateColumn;
+    private final int nameColumn;
+    private final boolean normalizeCategories;
+    private final DateTimeFormatter dateFormatter;
+
+    /**
+     * 创建支出记录行结构
+     * @param categoryColumn 类别列下标
+     * @param amountColumn 金额列下标
+     * @param dateColumn 日期列下标
+     * @param nameColumn 名称列下标
+     * @param normalizeCategories 是否把类别统一为应用内置的支出类别
+     */
+    public ExpenseRowSchema(int categoryColumn, int amountColumn, int dateColumn, int nameColumn,
+                            boolean normalizeCategories) {
+        this(categoryColumn, amountColumn, dateColumn, nameColumn, normalizeCategories, DATE_FORMATTER);
+    }
+
+    /**
+     * 创建支出记录行结构
+     * @param categoryColumn 类别列下标，-1表示文件中没有类别列
+     * @param amountColumn 金额列下标
+     * @param dateColumn 日期列下标
+     * @param nameColumn 名称列下标，-1表示文件中没有名称列
+     * @param normalizeCategories 是否把类别统一为应用内置的支出类别
+     * @param dateFormatter 日期列的格式
+     */
+    public ExpenseRowSchema(int categoryColumn, int amountColumn, int dateColumn, int nameColumn,
+                            boolean normalizeCategories, DateTimeFormatter dateFormatter) {
+        this.categoryColumn = categoryColumn;
+        this.amountColumn = amountColumn;
+        this.dateColumn = dateColumn;
+        this.nameColumn = nameColumn;
+        this.normalizeCategories = normalizeCategories;
+        this.dateFormatter = dateFormatter;
+    }
+
+    /**
+     * 手动导入使用的布局：Type,Amount,Date,Additional
+     * @return 行结构
+     */
+    public static ExpenseRowSchema importLayout() {
+        return new ExpenseRowSchema(0, 1, 2, 3, true);
+    }
+
+    /**
+     * 导出文件和分析文件使用的布局：日期,消费名称,类别,金额，类别保持原样
+     * @return 行结构
+     */
+    public static ExpenseRowSchema exportLayout() {
+        return new ExpenseRowSchema(2, 3, 0, 1, false);
+    }
+
+    @Override
+    public String getName() {
+        return "expense";
+    }
+
+    @Override
+    public int getMinimumFieldCount() {
+        return Math.max(Math.max(categoryColumn, amountColumn), Math.max(dateColumn, nameColumn)) + 1;
+    }
+
+    @Override
+    public ExpenseRecord parse(CSVParser row) {
+        return new ExpenseRecord(
+                FieldDecoders.decodeAmount(row, amountColumn),                       // 金额
+                optionalField(row, categoryColumn),                                  // 类别
+                optionalField(row, nameColumn),                                      // 名称
+                FieldDecoders.decodeDate(row, dateColumn, dateFormatter)             // 日期
+        );
+    }
+
+    private static String optionalField(CSVParser row, int column) {
+        return column < 0 ? "" : row.getTrimmedField(column);
+    }
+
+    @Override
+    public boolean validate(ExpenseRecord record) {
+        return record.getDate() != null && record.getCategory() != null && !Double.isNaN(record.getAmount());
+    }
+
+    @Override
+    public ExpenseRecord normalize(ExpenseRecord record) {
+        if (normalizeCategories) {
+            record.setCategory(normalizeCategory(record.getCategory()));
+        }
+        return record;
+    }
+
+    @Override
+    public void write(DataOutput out, ExpenseRecord record) throws IOException {
+        out.writeDouble(record.getAmount());
+        RecordCodec.writeString(out, record.getCategory());
+        RecordCodec.writeString(out, record.getName());
+        out.writeLong(record.getDate().toEpochDay());
+        out.writeBoolean(record.getDescription() != null);
+        if (record.getDescription() != null) {
+            RecordCodec.writeString(out, record.getDescription());
+        }
+        RecordCodec.writeString(out, record.getRecordType());
+        RecordCodec.writeString(out, record.getCurrency());
+    }
+
+    @Override
+    public ExpenseRecord read(DataInput in) throws IOException {
+        double amount = in.readDouble();
+        String category = RecordCodec.readString(in);
+        String name = RecordCodec.readString(in);
+        LocalDate date = FieldDecoders.toLocalDate((int) in.readLong());
+        String description = in.readBoolean() ? RecordCodec.readString(in) : null;
+        return new ExpenseRecord(amount, category, name, date, description,
+                RecordCodec.readString(in), RecordCodec.readString(in));
+    }
+
+    /**
+     * 统一类别名称
+     * @param category 原始类别名称
+     * @return 统一后的类别名称
+     */
+    static String normalizeCategory(String category) {
+        switch (category) {
+            case "餐饮":
+                return "食品";
+            case "食品":
+            case "购物":
+            case "交通":
+            case "娱乐":
+            case "教育":
+            case "医疗":
+            case "住房":
+            case "其他":
+                return category;
+            default:
+                return "其他";
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+
+import java.time.LocalDate;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * 顺序扫描的查询游标，逐个位置读取记录并按条件过滤
+ */
+class ExpenseScanCursor implements ExpenseRepository.Cursor {
+    private final IntFunction<ExpenseRecord> reader;
+    private final int end;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final String category;
+    private final int offset;
+    private int next;
+    private int position = -1;
+    private ExpenseRecord pending;
+
+    /**
+     * 创建游标
+     * @param reader 按位置读取记录
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @param offset 返回的位置相对reader位置的偏移
+     * @param from 起始日期，为null时不限
+     * @param to 结束日期，为null时不限
+     * @param category 类别，为null时不限
+     */
+    ExpenseScanCursor(IntFunction<ExpenseRecord> reader, int start, int end, int offset,
+                      LocalDate from, LocalDate to, String category) {
+        this.reader = reader;
+        this.next = start;
+        this.end = end;
+        this.offset = offset;
+        this.from = from;
+        this.to = to;
+        this.category = category;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (pending == null && next < end) {
+            ExpenseRecord record = reader.apply(next++);
+            if (ExpenseRepository.matches(record, from, to, category)) {
+                pending = record;
+            }
+        }
+        return pending != null;
+    }
+
+    @Override
+    public ExpenseRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ExpenseRecord record = pending;
+        pending = null;
+        position = next - 1 + offset;
+        return record;
+    }
+
+    @Override
+    public int position() {
+        return position;
+    }
+
+    @Override
+    public void close() {
+    }
+}
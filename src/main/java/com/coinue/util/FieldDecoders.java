@@ -0,0 +1,401 @@
+package com.coinue.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * CSV字段解码工具类
+ * 直接从字符区间解析yyyy-MM-dd日期和十进制金额，首尾空白在原区间上跳过，不创建子串，是导入热路径上的专用解码器。
+ * 日期解码为纪元日（自1970-01-01起的天数），金额解码为以分为单位的long或与Double.parseDouble结果相同的double，
+ * 导入和统计的金额都由这里解析。
+ */
+public class FieldDecoders {
+    /**
+     * 日期格式不是yyyy-MM-dd或日期无效时返回的值
+     */
+    public static final int INVALID_DATE = Integer.MIN_VALUE;
+
+    /**
+     * 金额无法精确表示为分时返回的值
+     */
+    public static final long INVALID_AMOUNT = Long.MIN_VALUE;
+
+    // LocalDate缓存：按纪元日直接映射，导入数据的日期通常集中在几年之内
+    private static final int DATE_CACHE_SIZE = 4096;
+    private static final LocalDate[] DATE_CACHE = new LocalDate[DATE_CACHE_SIZE];
+
+    // 不超过2^53的整数除以这些10的幂时只有一次舍入，结果与Double.parseDouble相同
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final int DAYS_0000_TO_1970 = 719528;
+    private static final long MAX_CENTS_BEFORE_DIGIT = (Long.MAX_VALUE - 9) / 10;
+
+    private FieldDecoders() {
+    }
+
+    /**
+     * 解析yyyy-MM-dd格式的日期，忽略首尾空白
+     * @param chars 字符缓冲区
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @return 纪元日，格式不符或日期无效时返回{@link #INVALID_DATE}
+     */
+    public static int parseEpochDay(char[] chars, int start, int end) {
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        if (end - start != 10 || chars[start + 4] != '-' || chars[start + 7] != '-') {
+            return INVALID_DATE;
+        }
+        int year = digits(chars, start, 4);
+        int month = digits(chars, start + 5, 2);
+        int day = digits(chars, start + 8, 2);
+        return toEpochDay(year, month, day);
+    }
+
+    /**
+     * 解析yyyy-MM-dd格式的日期，忽略首尾空白
+     * @param text 字符序列
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @return 纪元日，格式不符或日期无效时返回{@link #INVALID_DATE}
+     */
+    public static int parseEpochDay(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - start != 10 || text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-') {
+            return INVALID_DATE;
+        }
+        int year = 0;
+        int month = 0;
+        int day = 0;
+        for (int i = 0; i < 10; i++) {
+            if (i == 4 || i == 7) {
+                continue;
+            }
+            int digit = text.charAt(start + i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID_DATE;
+            }
+            if (i < 4) {
+                year = year * 10 + digit;
+            } else if (i < 7) {
+                month = month * 10 + digit;
+            } else {
+                day = day * 10 + digit;
+            }
+        }
+        return toEpochDay(year, month, day);
+    }
+
+    /**
+     * 把纪元日转换为LocalDate，近期日期直接从缓存返回
+     * @param epochDay 纪元日
+     * @return 日期
+     */
+    public static LocalDate toLocalDate(int epochDay) {
+        int slot = epochDay & (DATE_CACHE_SIZE - 1);
+        LocalDate cached = DATE_CACHE[slot];
+        // LocalDate不可变，多线程下最坏情况只是重复创建
+        if (cached != null && cached.toEpochDay() == epochDay) {
+            return cached;
+        }
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        DATE_CACHE[slot] = date;
+        return date;
+    }
+
+    /**
+     * 解析十进制金额为分，忽略首尾空白
+     * 只接受可选符号、整数部分和最多两位小数，其余格式（科学计数法、更多小数位等）返回{@link #INVALID_AMOUNT}
+     * @param chars 字符缓冲区
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @return 以分为单位的金额
+     */
+    public static long tryParseCents(char[] chars, int start, int end) {
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        long cents = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                if (scale == 2 || cents > MAX_CENTS_BEFORE_DIGIT) {
+                    return INVALID_AMOUNT;
+                }
+                cents = cents * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return INVALID_AMOUNT;
+            }
+        }
+        return finishCents(cents, digits, scale, negative);
+    }
+
+    /**
+     * 解析十进制金额为分，忽略首尾空白
+     * 只接受可选符号、整数部分和最多两位小数，其余格式（科学计数法、更多小数位等）返回{@link #INVALID_AMOUNT}
+     * @param text 字符序列
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @return 以分为单位的金额
+     */
+    public static long tryParseCents(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        long cents = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (scale == 2 || cents > MAX_CENTS_BEFORE_DIGIT) {
+                    return INVALID_AMOUNT;
+                }
+                cents = cents * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return INVALID_AMOUNT;
+            }
+        }
+        return finishCents(cents, digits, scale, negative);
+    }
+
+    /**
+     * 解析十进制金额为分，忽略首尾空白
+     * 最多两位小数时不创建任何对象，更多小数位按四舍五入保留到分
+     * @param text 字符序列
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @return 以分为单位的金额
+     * @throws NumberFormatException 金额格式不正确时抛出
+     */
+    public static long parseCents(CharSequence text, int start, int end) {
+        long cents = tryParseCents(text, start, end);
+        if (cents != INVALID_AMOUNT) {
+            return cents;
+        }
+        return roundToCents(text.subSequence(start, end).toString());
+    }
+
+    /**
+     * 解析十进制金额为分，忽略首尾空白
+     * 最多两位小数时不创建任何对象，更多小数位按四舍五入保留到分
+     * @param chars 字符缓冲区
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @return 以分为单位的金额
+     * @throws NumberFormatException 金额格式不正确时抛出
+     */
+    public static long parseCents(char[] chars, int start, int end) {
+        long cents = tryParseCents(chars, start, end);
+        if (cents != INVALID_AMOUNT) {
+            return cents;
+        }
+        return roundToCents(new String(chars, start, end - start));
+    }
+
+    /**
+     * 把以分为单位的金额转换为元
+     * 分是精确整数（绝对值小于2^53时），除以100得到的double与直接解析原始十进制文本的结果相同
+     * @param cents 以分为单位的金额
+     * @return 以元为单位的金额
+     */
+    public static double centsToAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * 读取解析器当前行的日期字段
+     * yyyy-MM-dd格式走无分配的快速路径并复用缓存的LocalDate，其他格式使用给定的格式解析
+     * @param row 已定位到数据行的解析器
+     * @param column 日期列下标
+     * @param fallback 快速路径不适用时使用的日期格式
+     * @return 日期
+     */
+    static LocalDate decodeDate(CSVParser row, int column, DateTimeFormatter fallback) {
+        int epochDay = parseEpochDay(row.getRowBuffer(), row.getFieldStart(column), row.getFieldEnd(column));
+        if (epochDay != INVALID_DATE) {
+            return toLocalDate(epochDay);
+        }
+        return LocalDate.parse(row.getTrimmedField(column), fallback);
+    }
+
+    /**
+     * 解析十进制金额为元，忽略首尾空白，结果与Double.parseDouble相同
+     * 不超过18位有效数字的普通十进制数不创建任何对象，其余格式（科学计数法等）回退到Double.parseDouble
+     * @param chars 字符缓冲区
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @return 金额
+     * @throws NumberFormatException 金额格式不正确时抛出
+     */
+    public static double parseAmount(char[] chars, int start, int end) {
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                unscaled = unscaled * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                digits = -1;
+                break;
+            }
+        }
+        if (digits <= 0 || digits > 18 || scale > 22 || unscaled >= (1L << 53)) {
+            return Double.parseDouble(new String(chars, start, end - start));
+        }
+        double value = scale <= 0 ? unscaled : unscaled / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * 读取解析器当前行的金额字段，解析方式见{@link #parseAmount(char[], int, int)}
+     * @param row 已定位到数据行的解析器
+     * @param column 金额列下标
+     * @return 金额
+     * @throws NumberFormatException 金额格式不正确时抛出
+     */
+    static double decodeAmount(CSVParser row, int column) {
+        return parseAmount(row.getRowBuffer(), row.getFieldStart(column), row.getFieldEnd(column));
+    }
+
+    private static long finishCents(long cents, int digits, int scale, boolean negative) {
+        if (digits == 0) {
+            return INVALID_AMOUNT;
+        }
+        // 补齐到两位小数
+        for (int s = Math.max(scale, 0); s < 2; s++) {
+            if (cents > MAX_CENTS_BEFORE_DIGIT) {
+                return INVALID_AMOUNT;
+            }
+            cents *= 10;
+        }
+        return negative ? -cents : cents;
+    }
+
+    /**
+     * 慢速路径：按BigDecimal解析并四舍五入到分
+     */
+    private static long roundToCents(String text) {
+        String trimmed = text.trim();
+        try {
+            return new BigDecimal(trimmed).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("金额超出范围: " + trimmed);
+        }
+    }
+
+    private static int digits(char[] chars, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * 由年月日计算纪元日，算法与LocalDate.toEpochDay一致
+     */
+    private static int toEpochDay(int year, int month, int day) {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            return INVALID_DATE;
+        }
+        long total = 365L * year;
+        total += (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (!isLeapYear(year)) {
+                total--;
+            }
+        }
+        return (int) (total - DAYS_0000_TO_1970);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+}
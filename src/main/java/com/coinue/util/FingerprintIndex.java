@@ -0,0 +1,684 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.coinue.model.UserBillData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+
+/**
+ * 记录指纹索引，用于导入时的重复检测
+ * 每条历史记录按（日期、金额、规范化名称、币种）计算64位指纹，索引在内存中是指纹到出现次数的开放寻址哈希表，
+ * 查询为O(1)。磁盘上的索引文件是按追加顺序保存的变更序列：新记录的指纹直接追加（每条8字节），
+ * 删除的记录追加一个移除标记和它的指纹（16字节）；移除标记累积到一定数量后按当前内容重写文件。
+ * 删除和整体替换只写入变化的指纹，不需要按全部历史记录重建。
+ * 除记录数外还维护全部指纹的校验和（与顺序无关），记录数相同但内容被改过时也能发现索引已过期。
+ */
+public class FingerprintIndex {
+    private static final int MAGIC = 0x43465049; // "CFPI"
+    // 版本2增加了移除标记，版本1的文件只有追加的指纹，可以直接读取
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_REMOVALS = 1;
+    // 移除标记，之后的一个指纹从索引中移除。真实指纹恰好等于它的概率与指纹冲突相当，
+    // 即使出现，读出的记录数或校验和也会与历史记录不一致，索引随之重建
+    private static final long REMOVED = 0x5245_4D4F_5645_4421L;
+    // 文件中的条目超过记录数的两倍再加上这个数时重写文件
+    private static final long COMPACT_SLACK = 4096;
+    private static final int HEADER_BYTES = 8;
+    private static final int IO_BUFFER_BYTES = 64 * 1024;
+    private static final String DEFAULT_CURRENCY = "CNY";
+
+    private final Path file;
+    private final LongCounts counts = new LongCounts(16);
+    private long size;
+    private long checksum;
+    // 文件中文件头之后的条目数（包括移除标记）
+    private long fileEntries;
+    private int fileVersion = VERSION;
+
+    private FingerprintIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * 打开索引文件，文件不存在或已损坏时返回空索引
+     * @param file 索引文件
+     * @return 索引
+     */
+    public static FingerprintIndex open(Path file) {
+        FingerprintIndex index = new FingerprintIndex(file);
+        if (!Files.exists(file)) {
+            return index;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // 读满文件头
+            }
+            header.flip();
+            int version = header.remaining() < HEADER_BYTES || header.getInt() != MAGIC ? -1 : header.getInt();
+            if (version != VERSION && version != VERSION_WITHOUT_REMOVALS) {
+                System.err.println("指纹索引格式不正确，将重建: " + file);
+                return index;
+            }
+            index.fileVersion = version;
+            // 追加时程序中断可能留下不完整的指纹，截掉后再继续追加
+            long entries = (channel.size() - HEADER_BYTES) / Long.BYTES;
+            long aligned = HEADER_BYTES + entries * Long.BYTES;
+            if (aligned != channel.size()) {
+                channel.truncate(aligned);
+            }
+            index.counts.ensureCapacity(entries);
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES);
+            long read = 0;
+            boolean removal = false;
+            while (read < entries) {
+                if (channel.read(buffer) < 0 && buffer.position() < Long.BYTES) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.remaining() >= Long.BYTES && read < entries) {
+                    long fp = buffer.getLong();
+                    read++;
+                    if (removal) {
+                        index.remove(fp);
+                        removal = false;
+                    } else if (fp == REMOVED && version == VERSION) {
+                        removal = true;
+                    } else {
+                        index.add(fp);
+                    }
+                }
+                buffer.compact();
+            }
+            if (removal) {
+                // 移除标记之后的指纹没有写完
+                read--;
+                channel.truncate(HEADER_BYTES + read * Long.BYTES);
+            }
+            index.fileEntries = read;
+        } catch (IOException e) {
+            System.err.println("读取指纹索引失败: " + e.getMessage());
+            return new FingerprintIndex(file);
+        }
+        return index;
+    }
+
+    /**
+     * 计算记录指纹
+     * 名称忽略大小写和多余空白，金额精确到分，币种为空时视为CNY
+     * @param date 日期
+     * @param amount 金额
+     * @param name 名称
+     * @param currency 币种
+     * @return 64位指纹
+     */
+    public static long fingerprint(LocalDate date, double amount, String name, String currency) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mixLong(hash, date != null ? date.toEpochDay() : Long.MIN_VALUE);
+        hash = mixLong(hash, Math.round(amount * 100));
+        hash = mixNormalized(hash, name);
+        String code = currency == null || currency.isBlank() ? DEFAULT_CURRENCY : currency.trim();
+        hash = mixNormalized(hash, code);
+        return finish(hash);
+    }
+
+    /**
+     * 计算消费记录的指纹
+     * @param record 消费记录
+     * @return 64位指纹
+     */
+    public static long fingerprint(ExpenseRecord record) {
+        return fingerprint(record.getDate(), record.getAmount(), record.getName(), record.getCurrency());
+    }
+
+    /**
+     * 计算账单记录的指纹，账单没有币种字段，按CNY计算
+     * @param record 账单记录
+     * @return 64位指纹
+     */
+    public static long fingerprint(UserBillData.BillRecord record) {
+        return fingerprint(record.getDate(), record.getAmount(), record.getDescription(), null);
+    }
+
+    /**
+     * 获取索引覆盖的记录数
+     * @return 记录数
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * 查询指纹在历史记录中出现的次数
+     * @param fingerprint 指纹
+     * @return 出现次数
+     */
+    public synchronized int count(long fingerprint) {
+        return counts.get(fingerprint);
+    }
+
+    /**
+     * 把新持久化的记录追加到索引
+     * @param records 新记录
+     * @param fingerprinter 指纹函数
+     * @param <T> 记录类型
+     */
+    public synchronized <T> void addAll(Collection<? extends T> records, ToLongFunction<? super T> fingerprinter)
+            throws IOException {
+        applyChanges(new long[0], fingerprints(records, fingerprinter));
+    }
+
+    /**
+     * 从索引中移除已删除的记录，只向文件追加移除标记
+     * 索引中没有的指纹会被忽略，之后索引的记录数与历史记录不一致，下次同步时重建
+     * @param records 已删除的记录
+     * @param fingerprinter 指纹函数
+     * @param <T> 记录类型
+     */
+    public synchronized <T> void removeAll(Collection<? extends T> records, ToLongFunction<? super T> fingerprinter)
+            throws IOException {
+        applyChanges(fingerprints(records, fingerprinter), new long[0]);
+    }
+
+    /**
+     * 按整体替换后的全部记录更新索引
+     * 与索引当前内容比较出增加和减少的指纹，只把这些变化写入文件；需要计算全部记录的指纹，但不重写索引文件
+     * @param records 替换后的全部记录
+     * @param fingerprinter 指纹函数
+     * @param <T> 记录类型
+     */
+    public synchronized <T> void replaceAll(Collection<? extends T> records, ToLongFunction<? super T> fingerprinter)
+            throws IOException {
+        long[] fingerprints = fingerprints(records, fingerprinter);
+        LongCounts wanted = new LongCounts(fingerprints.length);
+        for (long fp : fingerprints) {
+            wanted.increment(fp);
+        }
+        LongStream.Builder removed = LongStream.builder();
+        counts.forEach((fp, count) -> {
+            for (int i = wanted.get(fp); i < count; i++) {
+                removed.add(fp);
+            }
+        });
+        LongStream.Builder added = LongStream.builder();
+        wanted.forEach((fp, count) -> {
+            for (int i = counts.get(fp); i < count; i++) {
+                added.add(fp);
+            }
+        });
+        applyChanges(removed.build().toArray(), added.build().toArray());
+    }
+
+    /**
+     * 按完整的历史记录重建索引
+     * @param records 全部历史记录
+     * @param fingerprinter 指纹函数
+     * @param <T> 记录类型
+     */
+    public synchronized <T> void rebuild(Collection<? extends T> records, ToLongFunction<? super T> fingerprinter)
+            throws IOException {
+        rebuild(fingerprints(records, fingerprinter));
+    }
+
+    /**
+     * 检查索引是否覆盖给定的历史记录，记录数或指纹校验和不一致时
+     * （例如记录被删除、被就地修改或文件被外部修改）重建索引
+     * 需要计算全部历史记录的指纹，但不读写索引文件
+     * @param history 全部历史记录
+     * @param fingerprinter 指纹函数
+     * @param <T> 记录类型
+     * @return 是否进行了重建
+     */
+    public synchronized <T> boolean syncWith(Collection<? extends T> history, ToLongFunction<? super T> fingerprinter)
+            throws IOException {
+        long[] fingerprints = fingerprints(history, fingerprinter);
+        if (size == fingerprints.length && checksum == checksum(fingerprints) && Files.exists(file)) {
+            return false;
+        }
+        rebuild(fingerprints);
+        return true;
+    }
+
+    /**
+     * 在内存中应用变化后追加到文件；文件不存在或移除标记过多时按当前内容重写
+     */
+    private void applyChanges(long[] removed, long[] added) throws IOException {
+        long[] entries = new long[removed.length * 2 + added.length];
+        int count = 0;
+        for (long fp : removed) {
+            if (remove(fp)) {
+                entries[count++] = REMOVED;
+                entries[count++] = fp;
+            }
+        }
+        for (long fp : added) {
+            add(fp);
+            entries[count++] = fp;
+        }
+        if (count == 0) {
+            return;
+        }
+        if (!Files.exists(file) || fileEntries + count > 2 * size + COMPACT_SLACK) {
+            writeFile(counts.toArray(size));
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (fileVersion != VERSION && removed.length > 0) {
+                channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(VERSION).flip(), Integer.BYTES);
+                fileVersion = VERSION;
+            }
+            channel.position(HEADER_BYTES + fileEntries * Long.BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES);
+            for (int i = 0; i < count; i++) {
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer);
+                }
+                buffer.putLong(entries[i]);
+            }
+            drain(channel, buffer);
+        }
+        fileEntries += count;
+    }
+
+    private void rebuild(long[] fingerprints) throws IOException {
+        counts.clear();
+        counts.ensureCapacity(fingerprints.length);
+        size = 0;
+        checksum = 0;
+        for (long fp : fingerprints) {
+            add(fp);
+        }
+        writeFile(fingerprints);
+    }
+
+    private void add(long fp) {
+        counts.increment(fp);
+        size++;
+        checksum += checksumTerm(fp);
+    }
+
+    private boolean remove(long fp) {
+        if (counts.decrement(fp) < 0) {
+            return false;
+        }
+        size--;
+        checksum -= checksumTerm(fp);
+        return true;
+    }
+
+    private static <T> long[] fingerprints(Collection<? extends T> records, ToLongFunction<? super T> fingerprinter) {
+        long[] fingerprints = new long[records.size()];
+        int i = 0;
+        for (T record : records) {
+            fingerprints[i++] = fingerprinter.applyAsLong(record);
+        }
+        return fingerprints;
+    }
+
+    private static long checksum(long[] fingerprints) {
+        long sum = 0;
+        for (long fp : fingerprints) {
+            sum += checksumTerm(fp);
+        }
+        return sum;
+    }
+
+    /**
+     * 校验和是各指纹再混淆一次后的和，与记录顺序无关，可以随追加增量更新
+     */
+    private static long checksumTerm(long fp) {
+        return finish(fp ^ 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * 创建一次导入使用的重复过滤器
+     * @param fingerprinter 指纹函数
+     * @param <T> 记录类型
+     * @return 重复过滤器
+     */
+    public <T> DuplicateFilter<T> newFilter(ToLongFunction<? super T> fingerprinter) {
+        return new DuplicateFilter<>(this, fingerprinter);
+    }
+
+    /**
+     * 获取索引文件路径
+     * @return 索引文件
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    private void writeFile(long[] fingerprints) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            for (long fp : fingerprints) {
+                if (!buffer.hasRemaining()) {
+                    drain(channel, buffer);
+                }
+                buffer.putLong(fp);
+            }
+            drain(channel, buffer);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        fileEntries = fingerprints.length;
+        fileVersion = VERSION;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static long mixLong(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 按字符混入规范化后的文本：去掉首尾空白，连续空白视为一个空格，忽略大小写
+     */
+    private static long mixNormalized(long hash, String text) {
+        if (text != null) {
+            boolean pendingSpace = false;
+            boolean started = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    pendingSpace = started;
+                    continue;
+                }
+                if (pendingSpace) {
+                    hash = mixChar(hash, ' ');
+                    pendingSpace = false;
+                }
+                hash = mixChar(hash, Character.toLowerCase(c));
+                started = true;
+            }
+        }
+        // 字段分隔符，避免("ab","c")与("a","bc")得到相同的指纹
+        return mixChar(hash, '\u0000');
+    }
+
+    private static long mixChar(long hash, char c) {
+        hash ^= c & 0xff;
+        hash *= 0x100000001b3L;
+        hash ^= c >>> 8;
+        hash *= 0x100000001b3L;
+        return hash;
+    }
+
+    /**
+     * 最终混淆，使低位分布均匀，便于开放寻址
+     */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * 单次导入的重复过滤器
+     * 同一指纹在本次导入中出现的次数不超过历史记录中的次数时视为重复，因此文件中本来就相同的多条记录
+     * （例如同一天两杯同价的咖啡）只会跳过历史中已有的那几条。
+     * @param <T> 记录类型
+     */
+    public static class DuplicateFilter<T> {
+        private final FingerprintIndex index;
+        private final ToLongFunction<? super T> fingerprinter;
+        // 只记录历史中存在的指纹的出现次数，新指纹不占用内存
+        private final LongCounts seen = new LongCounts(16);
+        private long duplicates;
+
+        DuplicateFilter(FingerprintIndex index, ToLongFunction<? super T> fingerprinter) {
+            this.index = index;
+            this.fingerprinter = fingerprinter;
+        }
+
+        /**
+         * 过滤一批记录
+         * @param batch 记录批次
+         * @return 不重复的记录，全部不重复时返回原列表
+         */
+        public List<T> filter(List<T> batch) {
+            List<T> accepted = null;
+            for (int i = 0; i < batch.size(); i++) {
+                T item = batch.get(i);
+                if (isDuplicate(item)) {
+                    if (accepted == null) {
+                        accepted = new ArrayList<>(batch.subList(0, i));
+                    }
+                } else if (accepted != null) {
+                    accepted.add(item);
+                }
+            }
+            return accepted != null ? accepted : batch;
+        }
+
+        /**
+         * 判断单条记录是否重复，并计入本次导入的出现次数
+         * @param item 记录
+         * @return 是否重复
+         */
+        public boolean isDuplicate(T item) {
+            long fp = fingerprinter.applyAsLong(item);
+            int existing = index.count(fp);
+            if (existing == 0) {
+                return false;
+            }
+            if (seen.increment(fp) <= existing) {
+                duplicates++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 获取已跳过的重复记录数
+         * @return 重复记录数
+         */
+        public long getDuplicateCount() {
+            return duplicates;
+        }
+    }
+
+    /**
+     * long到出现次数的开放寻址哈希表，每个条目占12字节，避免装箱
+     */
+    private static final class LongCounts {
+        private long[] keys;
+        private int[] values;
+        private int size;
+        private int zeroCount;
+
+        LongCounts(int capacity) {
+            allocate(tableSizeFor(capacity));
+        }
+
+        int get(long key) {
+            if (key == 0) {
+                return zeroCount;
+            }
+            int mask = keys.length - 1;
+            for (int slot = (int) key & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                if (keys[slot] == 0) {
+                    return 0;
+                }
+            }
+        }
+
+        int increment(long key) {
+            if (key == 0) {
+                return ++zeroCount;
+            }
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return ++values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = 1;
+            if (++size > keys.length * 3L / 4) {
+                resize(keys.length * 2);
+            }
+            return 1;
+        }
+
+        /**
+         * 次数减一，减到0时删除条目
+         * @return 减少后的次数，键不存在时返回-1
+         */
+        int decrement(long key) {
+            if (key == 0) {
+                return zeroCount > 0 ? --zeroCount : -1;
+            }
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != key) {
+                if (keys[slot] == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (--values[slot] > 0) {
+                return values[slot];
+            }
+            // 线性探测的删除：把后面探测序列中可以前移的条目移到空位，查找时不会因为空位提前结束
+            int hole = slot;
+            for (int next = (hole + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int home = (int) keys[next] & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys[hole] = keys[next];
+                    values[hole] = values[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = 0;
+            values[hole] = 0;
+            size--;
+            return 0;
+        }
+
+        /**
+         * 遍历次数大于0的键
+         */
+        void forEach(EntryConsumer consumer) {
+            if (zeroCount > 0) {
+                consumer.accept(0, zeroCount);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    consumer.accept(keys[i], values[i]);
+                }
+            }
+        }
+
+        /**
+         * 按次数展开成数组
+         * @param total 全部次数之和
+         */
+        long[] toArray(long total) {
+            long[] result = new long[Math.toIntExact(total)];
+            int n = 0;
+            for (int i = 0; i < zeroCount; i++) {
+                result[n++] = 0;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                for (int j = 0; j < values[i]; j++) {
+                    result[n++] = keys[i];
+                }
+            }
+            return result;
+        }
+
+        interface EntryConsumer {
+            void accept(long key, int count);
+        }
+
+        void ensureCapacity(long entries) {
+            int required = tableSizeFor(entries);
+            if (required > keys.length) {
+                resize(required);
+            }
+        }
+
+        void clear() {
+            allocate(16);
+            size = 0;
+            zeroCount = 0;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                long key = oldKeys[i];
+                if (key != 0) {
+                    int slot = (int) key & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = key;
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new int[capacity];
+        }
+
+        /**
+         * 负载因子不超过3/4的2的幂容量
+         */
+        private static int tableSizeFor(long entries) {
+            long needed = Math.max(16, entries * 4 / 3 + 1);
+            if (needed >= 1 << 30) {
+                return 1 << 30;
+            }
+            return Integer.highestOneBit((int) needed - 1) << 1;
+        }
+    }
+}
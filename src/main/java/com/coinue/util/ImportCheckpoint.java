@@ -0,0 +1,72 @@
+package com.coinue.util;
+
+/**
+ * 导入断点
+ * 记录一个CSV文件已经导入到的位置，以及对应的已暂存记录在暂存文件中的长度
+ */
+public class ImportCheckpoint {
+    /**
+     * 当前暂存文件的编码格式，2起文本字段是带4字节长度前缀的UTF-8字节；旧格式的暂存文件不能续传
+     */
+    public static final int STAGING_FORMAT = 2;
+
+    private String fingerprint;
+    private String sourceFile;
+    private long fileSize;
+    private long byteOffset;
+    private long rowsCommitted;
+    private long recordsStaged;
+    private long stagedBytes;
+    private String updatedAt;
+    private int stagingFormat;
+
+    public ImportCheckpoint() {
+    }
+
+    public ImportCheckpoint(String fingerprint, String sourceFile, long fileSize) {
+        this.fingerprint = fingerprint;
+        this.sourceFile = sourceFile;
+        this.fileSize = fileSize;
+        this.stagingFormat = STAGING_FORMAT;
+    }
+
+    /** 源文件指纹 */
+    public String getFingerprint() { return fingerprint; }
+    public void setFingerprint(String fingerprint) { this.fingerprint = fingerprint; }
+
+    /** 源文件路径，仅用于显示 */
+    public String getSourceFile() { return sourceFile; }
+    public void setSourceFile(String sourceFile) { this.sourceFile = sourceFile; }
+
+    public long getFileSize() { return fileSize; }
+    public void setFileSize(long fileSize) { this.fileSize = fileSize; }
+
+    /** 已提交数据在源文件中的结束字节位置 */
+    public long getByteOffset() { return byteOffset; }
+    public void setByteOffset(long byteOffset) { this.byteOffset = byteOffset; }
+
+    /** 截至断点读取的数据行数 */
+    public long getRowsCommitted() { return rowsCommitted; }
+    public void setRowsCommitted(long rowsCommitted) { this.rowsCommitted = rowsCommitted; }
+
+    /** 暂存文件中的记录数 */
+    public long getRecordsStaged() { return recordsStaged; }
+    public void setRecordsStaged(long recordsStaged) { this.recordsStaged = recordsStaged; }
+
+    /** 暂存文件中有效数据的长度，续传时超出部分会被截断 */
+    public long getStagedBytes() { return stagedBytes; }
+    public void setStagedBytes(long stagedBytes) { this.stagedBytes = stagedBytes; }
+
+    /** 暂存文件的编码格式，没有记录格式的旧断点为0 */
+    public int getStagingFormat() { return stagingFormat; }
+    public void setStagingFormat(int stagingFormat) { this.stagingFormat = stagingFormat; }
+
+    public String getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(String updatedAt) { this.updatedAt = updatedAt; }
+
+    @Override
+    public String toString() {
+        return "ImportCheckpoint{file=" + sourceFile + ", offset=" + byteOffset + "/" + fileSize
+                + ", rows=" + rowsCommitted + ", staged=" + recordsStaged + "}";
+    }
+}
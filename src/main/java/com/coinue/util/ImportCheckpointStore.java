@@ -0,0 +1,153 @@
+package com.coinue.util;
+
+import com.coinue.model.UserDataService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+
+/**
+ * 导入断点存储
+ * 断点和暂存记录保存在用户数据目录的import_checkpoints/子目录中，以源文件指纹命名：
+ * {指纹}.json为断点，{指纹}.staged为已持久化记录的二进制暂存文件。
+ */
+public class ImportCheckpointStore {
+    private static final String CHECKPOINT_DIR = "import_checkpoints";
+    private static final int FINGERPRINT_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path directory;
+
+    /**
+     * 创建指定用户的断点存储
+     * @param username 用户名
+     */
+    public ImportCheckpointStore(String username) {
+        this(Paths.get(UserDataService.getInstance().getUserDataDirectory(username), CHECKPOINT_DIR));
+    }
+
+    /**
+     * 创建使用指定目录的断点存储
+     * @param directory 断点目录
+     */
+    public ImportCheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 计算文件指纹：文件大小加全部内容的SHA-256
+     * 只要有一个字节不同指纹就不同，断点和暂存记录不会被用到改过的文件上；
+     * 计算时顺序流式读取整个文件，随后的导入能直接从页缓存读到这些数据
+     * @param file 文件
+     * @return 十六进制指纹
+     */
+    public static String fingerprint(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            digest.update(ByteBuffer.allocate(Long.BYTES).putLong(0, size));
+            updateDigest(digest, channel, 0, size);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 读取断点
+     * @param fingerprint 源文件指纹
+     * @return 断点，不存在或无法读取时返回null
+     */
+    public ImportCheckpoint load(String fingerprint) {
+        Path file = checkpointFile(fingerprint);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return JsonCodecs.reader(ImportCheckpoint.class).readValue(file.toFile());
+        } catch (IOException e) {
+            System.err.println("读取导入断点失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 保存断点，先写临时文件再原子替换，断点文件不会出现写了一半的状态
+     * @param checkpoint 断点
+     */
+    public void save(ImportCheckpoint checkpoint) throws IOException {
+        Files.createDirectories(directory);
+        checkpoint.setUpdatedAt(LocalDateTime.now().toString());
+        Path target = checkpointFile(checkpoint.getFingerprint());
+        Path temp = directory.resolve(checkpoint.getFingerprint() + ".json.tmp");
+        JsonCodecs.writer(ImportCheckpoint.class).writeValue(temp.toFile(), checkpoint);
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 删除断点及暂存文件，导入完成后调用
+     * @param fingerprint 源文件指纹
+     */
+    public void delete(String fingerprint) {
+        try {
+            Files.deleteIfExists(checkpointFile(fingerprint));
+            Files.deleteIfExists(stagingFile(fingerprint));
+        } catch (IOException e) {
+            System.err.println("删除导入断点失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 获取暂存文件路径
+     * @param fingerprint 源文件指纹
+     * @return 暂存文件路径
+     */
+    public Path stagingFile(String fingerprint) {
+        return directory.resolve(fingerprint + ".staged");
+    }
+
+    /**
+     * 获取断点目录
+     * @return 断点目录
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Path checkpointFile(String fingerprint) {
+        return directory.resolve(fingerprint + ".json");
+    }
+
+    private static void updateDigest(MessageDigest digest, FileChannel channel, long position, long length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.max(1, Math.min(length, FINGERPRINT_BUFFER_SIZE)));
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package com.coinue.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CSV导入管道
+ * 所有CSV导入共用的分阶段处理引擎：解析 → 校验 → 规范化 → 持久化。
+ * 解析、校验、规范化各自运行在独立的工作线程上，阶段之间通过有界队列按批次传递数据，
+ * 下游处理不过来时上游会被阻塞（背压）。持久化阶段运行在调用{@link #run}的线程上，
+ * 因此JavaFX线程调用时可以直接在输出回调中更新界面。设置了{@link FingerprintIndex.DuplicateFilter}时，
+ * 持久化阶段在输出之前跳过历史记录中已有的行。每个管道实例只能运行一次。
+ * @param <T> 行对应的对象类型
+ */
+public class ImportPipeline<T> {
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_QUEUE_CAPACITY = 4;
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    private final RowSchema<T> schema;
+    private final BatchSink<T> sink;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private boolean failOnError;
+    private ImportListener listener;
+    private FingerprintIndex.DuplicateFilter<T> duplicateFilter;
+
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsSkipped = new AtomicLong();
+    private final AtomicLong rowsRejected = new AtomicLong();
+    private long rowsAccepted;
+    private long rowsDuplicate;
+    private long totalBytes;
+    private long startNanos;
+    // 断点续传：起始字节位置和此前已读取的行数
+    private long startOffset;
+    private long startRows;
+    // 已持久化的数据在输入中的结束位置，以及截至该位置读取的行数
+    private long committedOffset;
+    private long rowsCommitted;
+
+    /**
+     * 持久化阶段的批量输出
+     * @param <T> 行对应的对象类型
+     */
+    @FunctionalInterface
+    public interface BatchSink<T> {
+        /**
+         * 接收一批已校验并规范化的对象
+         * @param batch 对象批次，调用返回后不再被管道使用
+         */
+        void accept(List<T> batch) throws IOException;
+    }
+
+    /**
+     * 导入进度监听器，每持久化一个批次后在调用线程上回调
+     */
+    @FunctionalInterface
+    public interface ImportListener {
+        void onProgress(ImportProgress progress);
+    }
+
+    /**
+     * 导入进度快照
+     */
+    public static class ImportProgress {
+        private final long rowsRead;
+        private final long rowsAccepted;
+        private final long rowsRejected;
+        private final long rowsSkipped;
+        private final long bytesRead;
+        private final long totalBytes;
+        private final long elapsedNanos;
+        private final long committedOffset;
+        private final long rowsCommitted;
+        private final long rowsDuplicate;
+
+        ImportProgress(long rowsRead, long rowsAccepted, long rowsRejected, long rowsSkipped,
+                       long bytesRead, long totalBytes, long elapsedNanos,
+                       long committedOffset, long rowsCommitted, long rowsDuplicate) {
+            this.rowsRead = rowsRead;
+            this.rowsAccepted = rowsAccepted;
+            this.rowsRejected = rowsRejected;
+            this.rowsSkipped = rowsSkipped;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+            this.elapsedNanos = elapsedNanos;
+            this.committedOffset = committedOffset;
+            this.rowsCommitted = rowsCommitted;
+            this.rowsDuplicate = rowsDuplicate;
+        }
+
+        /** 已读取的数据行数（不含标题行） */
+        public long getRowsRead() { return rowsRead; }
+        /** 已持久化的行数 */
+        public long getRowsAccepted() { return rowsAccepted; }
+        /** 解析失败或未通过校验的行数 */
+        public long getRowsRejected() { return rowsRejected; }
+        /** 字段数量不足而跳过的行数 */
+        public long getRowsSkipped() { return rowsSkipped; }
+        public long getBytesRead() { return bytesRead; }
+        public long getTotalBytes() { return totalBytes; }
+        public long getElapsedNanos() { return elapsedNanos; }
+        /** 已持久化的行在输入中的结束字节位置，从该位置继续导入不会遗漏或重复数据 */
+        public long getCommittedOffset() { return committedOffset; }
+        /** 截至已持久化位置读取的数据行数（含跳过和拒绝的行） */
+        public long getRowsCommitted() { return rowsCommitted; }
+        /** 与历史记录重复而跳过的行数 */
+        public long getRowsDuplicate() { return rowsDuplicate; }
+
+        /**
+         * 获取完成比例
+         * @return 0到1之间的比例，总大小未知时返回-1
+         */
+        public double getFraction() {
+            if (totalBytes <= 0) {
+                return -1;
+            }
+            return Math.min(1.0, bytesRead / (double) totalBytes);
+        }
+
+        /**
+         * 获取处理速度
+         * @return 每秒处理的行数
+         */
+        public double getRowsPerSecond() {
+            if (elapsedNanos <= 0) {
+                return 0;
+            }
+            return rowsRead / (elapsedNanos / 1e9);
+        }
+    }
+
+    /**
+     * 创建导入管道
+     * @param schema 行结构定义
+     * @param sink 持久化阶段的输出
+     */
+    public ImportPipeline(RowSchema<T> schema, BatchSink<T> sink) {
+        this.schema = schema;
+        this.sink = sink;
+    }
+
+    /**
+     * 设置批次大小
+     * @param batchSize 每批行数
+     * @return 当前管道
+     */
+    public ImportPipeline<T> batchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * 设置阶段之间队列可容纳的批次数
+     * @param queueCapacity 队列容量
+     * @return 当前管道
+     */
+    public ImportPipeline<T> queueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        return this;
+    }
+
+    /**
+     * 设置遇到格式错误的行时是否中止导入，默认跳过并计入拒绝数量
+     * @param failOnError 是否中止
+     * @return 当前管道
+     */
+    public ImportPipeline<T> failOnError(boolean failOnError) {
+        this.failOnError = failOnError;
+        return this;
+    }
+
+    /**
+     * 设置进度监听器
+     * @param listener 监听器
+     * @return 当前管道
+     */
+    public ImportPipeline<T> listener(ImportListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 设置重复过滤器，持久化阶段会跳过历史记录中已有的行并计入{@link ImportProgress#getRowsDuplicate()}
+     * @param filter 重复过滤器，为null时不检测重复
+     * @return 当前管道
+     */
+    public ImportPipeline<T> skipDuplicates(FingerprintIndex.DuplicateFilter<T> filter) {
+        this.duplicateFilter = filter;
+        return this;
+    }
+
+    /**
+     * 从断点继续导入：跳过文件开头到指定字节位置的内容（包括标题行）
+     * 字节位置应取自之前导入的{@link ImportProgress#getCommittedOffset()}，只对{@link #run(Path)}有效
+     * @param byteOffset 起始字节位置
+     * @param rowsAlreadyRead 断点之前已读取的数据行数
+     * @return 当前管道
+     */
+    public ImportPipeline<T> resumeFrom(long byteOffset, long rowsAlreadyRead) {
+        this.startOffset = Math.max(0, byteOffset);
+        this.startRows = Math.max(0, rowsAlreadyRead);
+        return this;
+    }
+
+    /**
+     * 请求取消导入，可以在任意线程调用
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * 是否已请求取消
+     * @return 是否已取消
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 获取当前进度，导入失败或取消后可以从中取得最后一个已持久化批次的断点
+     * @return 当前进度
+     */
+    public ImportProgress getProgress() {
+        return snapshot();
+    }
+
+    /**
+     * 导入文件，阻塞直到全部数据持久化完成
+     * @param file CSV文件
+     * @return 最终的导入进度
+     * @throws CancellationException 导入被取消时抛出
+     */
+    public ImportProgress run(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            channel.position(Math.min(startOffset, size));
+            return run(Channels.newInputStream(channel), size);
+        }
+    }
+
+    /**
+     * 从输入流导入，阻塞直到全部数据持久化完成
+     * @param in UTF-8编码的CSV输入流，由调用者负责关闭
+     * @param totalBytes 输入总字节数，未知时传-1
+     * @return 最终的导入进度
+     * @throws CancellationException 导入被取消时抛出
+     */
+    public ImportProgress run(InputStream in, long totalBytes) throws IOException {
+        this.totalBytes = totalBytes;
+        this.startNanos = System.nanoTime();
+        bytesRead.set(startOffset);
+        rowsRead.set(startRows);
+        committedOffset = startOffset;
+        rowsCommitted = startRows;
+        BlockingQueue<Batch<T>> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch<T>> validated = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Batch<T>> normalized = new ArrayBlockingQueue<>(queueCapacity);
+
+        CSVParser parser = new CSVParser(new InputStreamReader(new CountingInputStream(in), StandardCharsets.UTF_8));
+        List<Thread> workers = List.of(
+                startStage("parse", () -> parseStage(parser, parsed)),
+                startStage("validate", () -> transformStage(parsed, validated, true)),
+                startStage("normalize", () -> transformStage(validated, normalized, false)));
+        try {
+            persistStage(normalized);
+        } catch (RuntimeException | IOException e) {
+            fail(e);
+        } finally {
+            // 持久化阶段结束（正常、取消或失败）后等待所有工作线程退出
+            for (Thread worker : workers) {
+                joinQuietly(worker);
+            }
+        }
+
+        Throwable error = failure;
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        if (cancelled) {
+            throw new CancellationException(schema.getName() + " 导入已取消");
+        }
+        return snapshot();
+    }
+
+    private void parseStage(CSVParser parser, BlockingQueue<Batch<T>> out) throws IOException, InterruptedException {
+        if (startOffset == 0) {
+            // 跳过标题行，断点续传时输入从数据行开始
+            parser.nextRow();
+        }
+        List<T> batch = new ArrayList<>(batchSize);
+        int rowsInBatch = 0;
+        while (!cancelled && parser.nextRow()) {
+            rowsRead.incrementAndGet();
+            rowsInBatch++;
+            if (parser.getFieldCount() < schema.getMinimumFieldCount()) {
+                rowsSkipped.incrementAndGet();
+            } else {
+                try {
+                    batch.add(schema.parse(parser));
+                } catch (RuntimeException e) {
+                    if (failOnError) {
+                        throw e;
+                    }
+                    rowsRejected.incrementAndGet();
+                }
+            }
+            // 按读取的行数分批，即使整批都被跳过也能推进断点位置
+            if (rowsInBatch >= batchSize) {
+                put(out, new Batch<>(batch, startOffset + parser.getByteOffset(), rowsRead.get(), false));
+                batch = new ArrayList<>(batchSize);
+                rowsInBatch = 0;
+            }
+        }
+        put(out, new Batch<>(batch, startOffset + parser.getByteOffset(), rowsRead.get(), true));
+    }
+
+    private void transformStage(BlockingQueue<Batch<T>> in, BlockingQueue<Batch<T>> out, boolean validate)
+            throws InterruptedException {
+        while (true) {
+            Batch<T> batch = take(in);
+            if (batch == null) {
+                return;
+            }
+            List<T> result = new ArrayList<>(batch.items.size());
+            for (T item : batch.items) {
+                if (validate) {
+                    if (schema.validate(item)) {
+                        result.add(item);
+                    } else {
+                        rowsRejected.incrementAndGet();
+                    }
+                } else {
+                    result.add(schema.normalize(item));
+                }
+            }
+            put(out, new Batch<>(result, batch.endOffset, batch.rowsRead, batch.last));
+            if (batch.last) {
+                return;
+            }
+        }
+    }
+
+    private void persistStage(BlockingQueue<Batch<T>> in) throws IOException {
+        while (true) {
+            Batch<T> batch;
+            try {
+                batch = take(in);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+            List<T> items = batch.items;
+            if (duplicateFilter != null && !items.isEmpty()) {
+                items = duplicateFilter.filter(items);
+                rowsDuplicate += batch.items.size() - items.size();
+            }
+            if (!items.isEmpty()) {
+                sink.accept(items);
+                rowsAccepted += items.size();
+            }
+            committedOffset = batch.endOffset;
+            rowsCommitted = batch.rowsRead;
+            if (listener != null && (!batch.items.isEmpty() || batch.last)) {
+                listener.onProgress(snapshot());
+            }
+            if (batch.last) {
+                return;
+            }
+        }
+    }
+
+    private ImportProgress snapshot() {
+        return new ImportProgress(rowsRead.get(), rowsAccepted, rowsRejected.get(), rowsSkipped.get(),
+                bytesRead.get(), totalBytes, System.nanoTime() - startNanos, committedOffset, rowsCommitted,
+                rowsDuplicate);
+    }
+
+    /**
+     * 阶段之间传递的数据批次，附带该批次最后一行在输入中的结束位置
+     */
+    private static final class Batch<T> {
+        final List<T> items;
+        final long endOffset;
+        final long rowsRead;
+        final boolean last;
+
+        Batch(List<T> items, long endOffset, long rowsRead, boolean last) {
+            this.items = items;
+            this.endOffset = endOffset;
+            this.rowsRead = rowsRead;
+            this.last = last;
+        }
+    }
+
+    private void put(BlockingQueue<Batch<T>> queue, Batch<T> batch) throws InterruptedException {
+        while (!queue.offer(batch, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    /**
+     * 从队列取出一批数据
+     * @return 数据批次，管道被取消时返回null
+     */
+    private Batch<T> take(BlockingQueue<Batch<T>> queue) throws InterruptedException {
+        // 取消后不再处理队列中剩余的批次
+        while (!cancelled) {
+            Batch<T> batch = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch != null) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private Thread startStage(String name, Stage stage) {
+        Thread thread = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (CancellationException e) {
+                // 已取消，直接退出
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }, "coinue-import-" + schema.getName() + "-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        cancelled = true;
+    }
+
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 统计已读取字节数的输入流
+     */
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                bytesRead.addAndGet(n);
+            }
+            return n;
+        }
+    }
+}
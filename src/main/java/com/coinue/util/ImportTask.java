@@ -0,0 +1,137 @@
+package com.coinue.util;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * 后台CSV导入任务
+ * 在工作线程上运行{@link ImportPipeline}，每持久化一个批次就把该批次交给JavaFX线程，
+ * 使界面可以边导入边显示数据。进度以已读取字节数计算，消息中包含已导入行数和每秒行数。
+ * 调用{@link #cancel()}会同时停止底层导入管道。
+ * 使用断点存储创建的任务通过{@link ResumableImport}导入，中断后再次导入同一文件会从断点继续。
+ * @param <T> 行对应的对象类型
+ */
+public class ImportTask<T> extends Task<ImportPipeline.ImportProgress> {
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    // 最多同时排在界面线程上的批次数
+    private static final int MAX_BATCHES_ON_FX_THREAD = 2;
+
+    private final Path file;
+    private final ImportPipeline<T> pipeline;
+    private final ResumableImport<T> resumable;
+    private final ImportPipeline.BatchSink<T> fxSink;
+
+    /**
+     * 创建导入任务
+     * @param schema 行结构定义
+     * @param file CSV文件
+     * @param batchConsumer 在JavaFX线程上接收每个批次的回调
+     * @param failOnError 遇到格式错误的行时是否中止导入
+     */
+    public ImportTask(RowSchema<T> schema, Path file, Consumer<List<T>> batchConsumer, boolean failOnError) {
+        this.file = file;
+        this.fxSink = fxSink(batchConsumer);
+        this.pipeline = new ImportPipeline<>(schema, fxSink)
+                .batchSize(DEFAULT_BATCH_SIZE)
+                .failOnError(failOnError);
+        this.resumable = null;
+    }
+
+    /**
+     * 创建可断点续传的导入任务
+     * @param schema 行结构定义
+     * @param codec 暂存记录使用的编解码器
+     * @param checkpoints 断点存储
+     * @param file CSV文件
+     * @param batchConsumer 在JavaFX线程上接收每个批次的回调，续传时先收到断点之前的记录
+     * @param failOnError 遇到格式错误的行时是否中止导入
+     */
+    public ImportTask(RowSchema<T> schema, RecordCodec<T> codec, ImportCheckpointStore checkpoints,
+                      Path file, Consumer<List<T>> batchConsumer, boolean failOnError) {
+        this.file = file;
+        this.fxSink = fxSink(batchConsumer);
+        this.pipeline = null;
+        this.resumable = new ResumableImport<>(schema, codec, checkpoints)
+                .batchSize(DEFAULT_BATCH_SIZE)
+                .failOnError(failOnError);
+    }
+
+    /**
+     * 把批次交给界面线程的输出
+     * 界面线程的事件队列没有上限，排队的批次达到上限后工作线程等待界面处理完，
+     * 界面跟不上时导入随之变慢，管道的有界队列才能限制内存
+     * 批次在输出回调返回后不再被管道使用，可以直接交给界面线程
+     */
+    private static <T> ImportPipeline.BatchSink<T> fxSink(Consumer<List<T>> batchConsumer) {
+        Semaphore slots = new Semaphore(MAX_BATCHES_ON_FX_THREAD);
+        return batch -> {
+            try {
+                slots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待界面处理导入批次时被中断");
+            }
+            Platform.runLater(() -> {
+                try {
+                    batchConsumer.accept(batch);
+                } finally {
+                    slots.release();
+                }
+            });
+        };
+    }
+
+    /**
+     * 设置重复过滤器，历史记录中已有的行不会交给界面
+     * @param filter 重复过滤器
+     * @return 当前任务
+     */
+    public ImportTask<T> skipDuplicates(FingerprintIndex.DuplicateFilter<T> filter) {
+        if (resumable != null) {
+            resumable.skipDuplicates(filter);
+        } else {
+            pipeline.skipDuplicates(filter);
+        }
+        return this;
+    }
+
+    @Override
+    protected ImportPipeline.ImportProgress call() throws Exception {
+        updateMessage("Importing " + file.getFileName() + "...");
+        // 进度回调在这里而不是构造方法中挂上，避免构造完成前泄漏this
+        ImportPipeline.ImportProgress result;
+        if (resumable != null) {
+            result = resumable.listener(this::reportProgress).run(file, fxSink);
+        } else {
+            result = pipeline.listener(this::reportProgress).run(file);
+        }
+        reportProgress(result);
+        return result;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (resumable != null) {
+            resumable.cancel();
+        } else {
+            pipeline.cancel();
+        }
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    private void reportProgress(ImportPipeline.ImportProgress progress) {
+        if (progress.getTotalBytes() > 0) {
+            updateProgress(progress.getBytesRead(), progress.getTotalBytes());
+        }
+        updateMessage(String.format("%d rows (%.0f%%, %.0f rows/s)",
+                progress.getRowsAccepted(),
+                Math.max(0, progress.getFraction()) * 100,
+                progress.getRowsPerSecond()));
+    }
+}
@@ -0,0 +1,66 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 基于{@link JournalStore}的支出记录存储
+ * 插入和删除只向日志追加对应的操作，写盘量与修改的记录数成正比
+ */
+public class JournalExpenseRepository implements ExpenseRepository {
+    private final JournalStore<ExpenseRecord> store;
+
+    /**
+     * 创建存储
+     * @param store 保存支出记录的日志存储
+     */
+    public JournalExpenseRepository(JournalStore<ExpenseRecord> store) {
+        this.store = store;
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public ExpenseRecord get(int position) {
+        return store.get(position);
+    }
+
+    @Override
+    public List<ExpenseRecord> getAll(int[] positions) {
+        return store.getAll(positions);
+    }
+
+    @Override
+    public void insertAll(Collection<ExpenseRecord> records) throws IOException {
+        store.append(records);
+    }
+
+    @Override
+    public void delete(int position) throws IOException {
+        store.remove(position);
+    }
+
+    @Override
+    public void replaceAll(List<ExpenseRecord> records) throws IOException {
+        store.replaceAll(records);
+    }
+
+    @Override
+    public List<ExpenseRecord> findAll() {
+        return store.load();
+    }
+
+    @Override
+    public Cursor query(LocalDate from, LocalDate to, String category) {
+        // 整个查询只检查一次文件状态，而不是每读一条记录检查一次
+        List<ExpenseRecord> records = store.view();
+        return new ExpenseScanCursor(records::get, 0, records.size(), 0, from, to, category);
+    }
+}
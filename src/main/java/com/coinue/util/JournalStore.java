@@ -0,0 +1,562 @@
+package com.coinue.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基于日志的列表存储
+ * 数据由快照文件和追加写入的日志文件组成：快照是某一时刻的完整列表，日志按顺序记录之后的每次插入、修改和删除，
+ * 每条操作只占一行。保存时只向日志追加变化的部分，写盘量与变化的行数成正比，与历史总量无关；
+ * 加载时读取快照并重放日志。日志超过阈值后在后台线程把当前内容写成新快照并截掉已合并的日志。
+ * 每条日志带有递增序号，快照记录它包含的最后一个序号，合并过程中程序退出也不会重复应用日志。
+ * 一次调用产生的全部操作作为一组追加并刷到磁盘后才返回，返回后的修改在崩溃后不会丢失。
+ * 调用方知道变化的位置时应使用{@link #append}、{@link #remove}或{@link #set}，只序列化变化的元素；
+ * {@link #replaceAll}需要序列化并比较全部元素。
+ * 快照兼容旧版本直接保存的JSON数组。
+ * @param <T> 元素类型
+ */
+public class JournalStore<T> {
+    // 日志至少达到该大小才合并，实际阈值还会随快照大小增长
+    static final long DEFAULT_COMPACT_THRESHOLD_BYTES = 256 * 1024;
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "coinue-journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final Gson gson;
+    private final Type elementType;
+    private long compactThresholdBytes = DEFAULT_COMPACT_THRESHOLD_BYTES;
+
+    // 当前内容，每个元素保存为紧凑JSON，既用于比较变化也避免调用者修改对象后影响缓存。
+    // 新元素经过JsonElement再转成字符串，与从文件解析出的元素格式一致，相同内容的比较结果才会相等
+    private List<String> elements;
+    private long lastSeq;
+    private long snapshotSeq;
+    private long snapshotBytes;
+    private long journalBytes;
+    // 最后一次由本实例写入后两个文件的状态，文件被外部修改或删除时重新加载
+    private long diskStamp;
+    private boolean compacting;
+
+    /**
+     * 创建存储，日志文件与快照文件同名，扩展名为.journal
+     * @param snapshotFile 快照文件
+     * @param gson 元素序列化使用的Gson
+     * @param elementType 元素类型
+     */
+    public JournalStore(Path snapshotFile, Gson gson, Type elementType) {
+        this.snapshotFile = snapshotFile;
+        String name = snapshotFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        this.journalFile = snapshotFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + JOURNAL_SUFFIX);
+        this.gson = gson;
+        this.elementType = elementType;
+    }
+
+    /**
+     * 设置触发后台合并的日志大小
+     * @param bytes 日志字节数
+     * @return 当前存储
+     */
+    public synchronized JournalStore<T> compactThreshold(long bytes) {
+        this.compactThresholdBytes = bytes;
+        return this;
+    }
+
+    /**
+     * 读取全部元素
+     * @return 新创建的元素列表，修改它不会影响存储
+     */
+    public synchronized List<T> load() {
+        ensureLoaded();
+        List<T> result = new ArrayList<>(elements.size());
+        for (String json : elements) {
+            result.add(gson.fromJson(json, elementType));
+        }
+        return result;
+    }
+
+    /**
+     * 获取元素数量
+     * @return 元素数量
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return elements.size();
+    }
+
+    /**
+     * 读取单个元素
+     * @param index 位置
+     * @return 新创建的元素
+     */
+    public synchronized T get(int index) {
+        ensureLoaded();
+        return gson.fromJson(elements.get(index), elementType);
+    }
+
+    /**
+     * 批量读取指定位置的元素，只检查一次文件是否被外部修改
+     * @param indexes 位置
+     * @return 新创建的元素，顺序与indexes一致
+     */
+    public synchronized List<T> getAll(int[] indexes) {
+        ensureLoaded();
+        List<T> result = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            result.add(gson.fromJson(elements.get(index), elementType));
+        }
+        return result;
+    }
+
+    /**
+     * 获取当前内容的只读视图，用于顺序扫描
+     * 只在创建时检查一次文件是否被外部修改，元素在访问时才解析；之后对存储的修改不会反映到视图中
+     * @return 不可修改的列表，每次读取返回新创建的元素
+     */
+    public synchronized List<T> view() {
+        ensureLoaded();
+        List<String> snapshot = List.copyOf(elements);
+        return new AbstractList<>() {
+            @Override
+            public T get(int index) {
+                return gson.fromJson(snapshot.get(index), elementType);
+            }
+
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+        };
+    }
+
+    /**
+     * 删除单个元素，只写入一条删除日志
+     * @param index 位置
+     */
+    public synchronized void remove(int index) throws IOException {
+        ensureLoaded();
+        Objects.checkIndex(index, elements.size());
+        StringBuilder ops = new StringBuilder();
+        appendOp(ops, "DEL", index, null);
+        elements.remove(index);
+        writeJournal(ops);
+    }
+
+    /**
+     * 替换单个元素，只写入一条修改日志
+     * @param index 位置
+     * @param item 新元素
+     */
+    public synchronized void set(int index, T item) throws IOException {
+        ensureLoaded();
+        Objects.checkIndex(index, elements.size());
+        String json = gson.toJsonTree(item, elementType).toString();
+        if (elements.get(index).equals(json)) {
+            return;
+        }
+        StringBuilder ops = new StringBuilder();
+        appendOp(ops, "SET", index, json);
+        elements.set(index, json);
+        writeJournal(ops);
+    }
+
+    /**
+     * 在末尾追加元素，只写入新元素对应的日志
+     * @param items 新元素
+     */
+    public synchronized void append(Collection<? extends T> items) throws IOException {
+        ensureLoaded();
+        if (items.isEmpty()) {
+            return;
+        }
+        StringBuilder ops = new StringBuilder();
+        for (T item : items) {
+            String json = gson.toJsonTree(item, elementType).toString();
+            appendOp(ops, "INS", elements.size(), json);
+            elements.add(json);
+        }
+        writeJournal(ops);
+    }
+
+    /**
+     * 保存完整列表
+     * 与当前内容比较后只把变化的元素写入日志；变化超过一半时直接写新快照。
+     * 需要序列化全部元素，知道变化位置的调用方应使用append、remove或set
+     * @param items 完整的新列表
+     */
+    public synchronized void replaceAll(List<? extends T> items) throws IOException {
+        ensureLoaded();
+        List<String> updated = new ArrayList<>(items.size());
+        for (T item : items) {
+            updated.add(gson.toJsonTree(item, elementType).toString());
+        }
+
+        int oldSize = elements.size();
+        int newSize = updated.size();
+        int prefix = 0;
+        while (prefix < oldSize && prefix < newSize && elements.get(prefix).equals(updated.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && elements.get(oldSize - 1 - suffix).equals(updated.get(newSize - 1 - suffix))) {
+            suffix++;
+        }
+        int oldMiddle = oldSize - prefix - suffix;
+        int newMiddle = newSize - prefix - suffix;
+        if (oldMiddle == 0 && newMiddle == 0) {
+            return;
+        }
+        if (Math.max(oldMiddle, newMiddle) > Math.max(16, newSize / 2)) {
+            // 大部分内容都变了，日志不会比快照小
+            elements = updated;
+            writeSnapshotNow();
+            return;
+        }
+
+        StringBuilder ops = new StringBuilder();
+        if (oldMiddle == newMiddle) {
+            for (int i = prefix; i < prefix + newMiddle; i++) {
+                if (!elements.get(i).equals(updated.get(i))) {
+                    appendOp(ops, "SET", i, updated.get(i));
+                }
+            }
+        } else {
+            for (int i = 0; i < oldMiddle; i++) {
+                appendOp(ops, "DEL", prefix, null);
+            }
+            for (int i = prefix; i < prefix + newMiddle; i++) {
+                appendOp(ops, "INS", i, updated.get(i));
+            }
+        }
+        elements = updated;
+        writeJournal(ops);
+    }
+
+    /**
+     * 立即把当前内容写成快照并清空日志，在调用线程上执行
+     */
+    public synchronized void compact() throws IOException {
+        ensureLoaded();
+        writeSnapshotNow();
+    }
+
+    /**
+     * 获取当前日志大小
+     * @return 日志字节数
+     */
+    public synchronized long getJournalBytes() {
+        ensureLoaded();
+        return journalBytes;
+    }
+
+    /**
+     * 是否有后台合并正在进行
+     * @return 是否正在合并
+     */
+    public synchronized boolean isCompacting() {
+        return compacting;
+    }
+
+    /**
+     * 获取日志文件路径
+     * @return 日志文件
+     */
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    private void ensureLoaded() {
+        if (elements != null && diskStamp == currentStamp()) {
+            return;
+        }
+        elements = new ArrayList<>();
+        lastSeq = 0;
+        snapshotSeq = 0;
+        snapshotBytes = 0;
+        journalBytes = 0;
+        try {
+            readSnapshot();
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            System.err.println("读取快照失败: " + snapshotFile + " - " + e.getMessage());
+            elements.clear();
+        }
+        lastSeq = snapshotSeq;
+        try {
+            replayJournal();
+        } catch (IOException e) {
+            System.err.println("读取日志失败: " + journalFile + " - " + e.getMessage());
+        }
+        diskStamp = currentStamp();
+    }
+
+    private void readSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        snapshotBytes = Files.size(snapshotFile);
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8))) {
+            JsonToken token = reader.peek();
+            if (token == JsonToken.END_DOCUMENT) {
+                return;
+            }
+            if (token == JsonToken.BEGIN_ARRAY) {
+                // 旧版本直接保存的JSON数组
+                readElements(reader);
+                return;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("seq".equals(name)) {
+                    snapshotSeq = reader.nextLong();
+                } else if ("records".equals(name)) {
+                    readElements(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+    }
+
+    private void readElements(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            elements.add(JsonParser.parseReader(reader).toString());
+        }
+        reader.endArray();
+    }
+
+    private void replayJournal() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        long validBytes = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject op;
+                try {
+                    op = JsonParser.parseString(line).getAsJsonObject();
+                } catch (JsonParseException | IllegalStateException e) {
+                    // 最后一行可能在写入时被中断，忽略它和之后的内容
+                    System.err.println("日志在第 " + (lastSeq + 1) + " 条操作处不完整，已忽略后续内容: " + journalFile);
+                    break;
+                }
+                validBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                long seq = op.get("seq").getAsLong();
+                if (seq <= snapshotSeq) {
+                    // 已经包含在快照中
+                    continue;
+                }
+                try {
+                    apply(op);
+                } catch (RuntimeException e) {
+                    System.err.println("日志操作 " + seq + " 无法应用，已忽略后续内容: " + e.getMessage());
+                    break;
+                }
+                lastSeq = seq;
+            }
+        }
+        if (validBytes < Files.size(journalFile)) {
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validBytes);
+            }
+        }
+        journalBytes = validBytes;
+    }
+
+    private void apply(JsonObject op) {
+        String type = op.get("op").getAsString();
+        int index = op.get("index").getAsInt();
+        switch (type) {
+            case "INS":
+                elements.add(index, op.get("value").toString());
+                break;
+            case "SET":
+                elements.set(index, op.get("value").toString());
+                break;
+            case "DEL":
+                elements.remove(index);
+                break;
+            default:
+                throw new IllegalStateException("未知的日志操作: " + type);
+        }
+    }
+
+    private void appendOp(StringBuilder ops, String type, int index, String value) {
+        ops.append("{\"seq\":").append(++lastSeq)
+                .append(",\"op\":\"").append(type)
+                .append("\",\"index\":").append(index);
+        if (value != null) {
+            ops.append(",\"value\":").append(value);
+        }
+        ops.append("}\n");
+    }
+
+    private void writeJournal(CharSequence ops) throws IOException {
+        if (ops.length() == 0) {
+            return;
+        }
+        Path parent = journalFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        byte[] bytes = ops.toString().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // 一次调用的所有操作一起刷盘，相当于按调用分组提交
+            channel.force(false);
+        }
+        journalBytes += bytes.length;
+        diskStamp = currentStamp();
+        maybeCompact();
+    }
+
+    /**
+     * 日志超过阈值时提交后台合并，阈值至少为快照大小的一半，避免频繁重写大快照
+     */
+    private void maybeCompact() {
+        if (compacting || journalBytes < Math.max(compactThresholdBytes, snapshotBytes / 2)) {
+            return;
+        }
+        compacting = true;
+        List<String> copy = new ArrayList<>(elements);
+        long seq = lastSeq;
+        long journalLength = journalBytes;
+        COMPACTOR.execute(() -> compactInBackground(copy, seq, journalLength));
+    }
+
+    private void compactInBackground(List<String> copy, long seq, long journalLength) {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".compact.tmp");
+        try {
+            long bytes = writeSnapshotFile(temp, copy, seq);
+            synchronized (this) {
+                if (snapshotSeq >= seq || diskStamp != currentStamp()) {
+                    // 合并期间已经写入了更新的快照，或者文件被外部修改
+                    Files.deleteIfExists(temp);
+                    return;
+                }
+                moveAtomically(temp, snapshotFile);
+                snapshotSeq = seq;
+                snapshotBytes = bytes;
+                dropJournalPrefix(journalLength);
+                diskStamp = currentStamp();
+            }
+        } catch (IOException e) {
+            System.err.println("合并日志失败: " + journalFile + " - " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * 去掉日志中已合并到快照的前缀，保留合并期间新追加的操作
+     */
+    private void dropJournalPrefix(long length) throws IOException {
+        Path temp = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try (FileChannel source = FileChannel.open(journalFile, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = length;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            target.force(false);
+            journalBytes = target.size();
+        }
+        moveAtomically(temp, journalFile);
+    }
+
+    private void writeSnapshotNow() throws IOException {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        snapshotBytes = writeSnapshotFile(temp, elements, lastSeq);
+        moveAtomically(temp, snapshotFile);
+        snapshotSeq = lastSeq;
+        Files.deleteIfExists(journalFile);
+        journalBytes = 0;
+        diskStamp = currentStamp();
+    }
+
+    private static long writeSnapshotFile(Path file, List<String> elements, long seq) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+                    StandardCharsets.UTF_8), 64 * 1024);
+            writer.write("{\"seq\":" + seq + ",\"records\":[");
+            for (int i = 0; i < elements.size(); i++) {
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write(elements.get(i));
+            }
+            writer.write("\n]}\n");
+            writer.flush();
+            channel.force(true);
+            return channel.size();
+        }
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private long currentStamp() {
+        return stamp(snapshotFile) * 31 + stamp(journalFile);
+    }
+
+    private static long stamp(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() * 31 + Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.coinue.model.User;
+import com.coinue.model.UserAnalysisData;
+import com.coinue.model.UserBillData;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 共享的JSON编解码器
+ * 整个应用只配置一个ObjectMapper（支持Java 8日期、日期写成字符串、忽略未知字段），
+ * 并为每种类型缓存预先构建好的ObjectReader和ObjectWriter，避免每次调用重新查找类型信息。
+ * 常用的模型类型在类加载时预先构建，大列表可以用流式API逐条读写，不需要把整个列表放在内存中。
+ */
+public final class JsonCodecs {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private static final ConcurrentHashMap<JavaType, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<JavaType, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<JavaType, ObjectWriter> PRETTY_WRITERS = new ConcurrentHashMap<>();
+
+    /** 用户数组，用户分片和旧的users.json使用 */
+    public static final JavaType USER_ARRAY = MAPPER.getTypeFactory().constructArrayType(User.class);
+    /** 支出记录列表 */
+    public static final JavaType EXPENSE_LIST = listOf(ExpenseRecord.class);
+    /** 分析数据 */
+    public static final JavaType ANALYSIS_DATA = MAPPER.constructType(UserAnalysisData.class);
+    /** 账单数据 */
+    public static final JavaType BILL_DATA = MAPPER.constructType(UserBillData.class);
+
+    static {
+        for (JavaType type : new JavaType[]{USER_ARRAY, EXPENSE_LIST, ANALYSIS_DATA, BILL_DATA}) {
+            reader(type);
+            writer(type);
+        }
+    }
+
+    private JsonCodecs() {
+    }
+
+    /**
+     * 获取共享的ObjectMapper，只用于构建读写器，不要修改配置
+     * @return ObjectMapper
+     */
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    /**
+     * 构造列表类型
+     * @param elementType 元素类型
+     * @return 列表类型
+     */
+    public static JavaType listOf(Class<?> elementType) {
+        return MAPPER.getTypeFactory().constructCollectionType(List.class, elementType);
+    }
+
+    /**
+     * 获取类型的读取器
+     * @param type 类型
+     * @return 缓存的ObjectReader
+     */
+    public static ObjectReader reader(JavaType type) {
+        return READERS.computeIfAbsent(type, MAPPER::readerFor);
+    }
+
+    /**
+     * 获取类型的读取器
+     * @param type 类型
+     * @return 缓存的ObjectReader
+     */
+    public static ObjectReader reader(Class<?> type) {
+        return reader(MAPPER.constructType(type));
+    }
+
+    /**
+     * 获取类型的紧凑格式写入器
+     * @param type 类型
+     * @return 缓存的ObjectWriter
+     */
+    public static ObjectWriter writer(JavaType type) {
+        return WRITERS.computeIfAbsent(type, MAPPER::writerFor);
+    }
+
+    /**
+     * 获取类型的紧凑格式写入器
+     * @param type 类型
+     * @return 缓存的ObjectWriter
+     */
+    public static ObjectWriter writer(Class<?> type) {
+        return writer(MAPPER.constructType(type));
+    }
+
+    /**
+     * 获取类型的缩进格式写入器，用于需要手工查看的文件
+     * @param type 类型
+     * @return 缓存的ObjectWriter
+     */
+    public static ObjectWriter prettyWriter(JavaType type) {
+        return PRETTY_WRITERS.computeIfAbsent(type, t -> MAPPER.writerFor(t).withDefaultPrettyPrinter());
+    }
+
+    /**
+     * 获取类型的缩进格式写入器，用于需要手工查看的文件
+     * @param type 类型
+     * @return 缓存的ObjectWriter
+     */
+    public static ObjectWriter prettyWriter(Class<?> type) {
+        return prettyWriter(MAPPER.constructType(type));
+    }
+
+    /**
+     * 按对象的运行时类型选择写入器，用于参数类型是Object的保存方法
+     * @param value 对象
+     * @param pretty 是否缩进
+     * @return 缓存的ObjectWriter
+     */
+    public static ObjectWriter writerFor(Object value, boolean pretty) {
+        Class<?> type = value != null ? value.getClass() : Object.class;
+        return pretty ? prettyWriter(type) : writer(type);
+    }
+
+    /**
+     * 深拷贝对象，先写成内存中的令牌序列再绑定成新对象，不经过JSON文本的编码和解析
+     * 只复制会被序列化的字段，与写入文件再读回得到的对象相同
+     * @param value 对象
+     * @param type 类型
+     * @param <T> 类型
+     * @return 新的对象
+     * @throws IOException 序列化或绑定失败时抛出
+     */
+    public static <T> T copy(T value, Class<T> type) throws IOException {
+        TokenBuffer tokens = new TokenBuffer(MAPPER, false);
+        writer(type).writeValue(tokens, value);
+        try (JsonParser parser = tokens.asParser(MAPPER)) {
+            return reader(type).readValue(parser);
+        }
+    }
+
+    /**
+     * 流式写出列表，逐条序列化，写出的是普通JSON数组
+     * @param out 输出流，不会被关闭
+     * @param elementType 元素类型
+     * @param elements 元素
+     * @param <T> 元素类型
+     * @throws IOException 写入失败时抛出
+     */
+    public static <T> void writeList(OutputStream out, Class<T> elementType, Iterable<? extends T> elements)
+            throws IOException {
+        ObjectWriter elementWriter = writer(elementType);
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            for (T element : elements) {
+                elementWriter.writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * 流式读取JSON数组，每解析出一个元素就交给consumer，不保留整个列表
+     * @param in 输入流，不会被关闭
+     * @param elementType 元素类型
+     * @param consumer 元素处理
+     * @param <T> 元素类型
+     * @return 读取的元素数
+     * @throws IOException 读取失败或内容不是数组时抛出
+     */
+    public static <T> int readList(InputStream in, Class<T> elementType, Consumer<? super T> consumer)
+            throws IOException {
+        ObjectReader elementReader = reader(elementType);
+        int count = 0;
+        try (JsonParser parser = MAPPER.getFactory().createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return 0;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new IOException("期望JSON数组，实际是" + token);
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                T element = elementReader.readValue(parser);
+                consumer.accept(element);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 流式读取JSON数组到列表
+     * @param in 输入流，不会被关闭
+     * @param elementType 元素类型
+     * @param <T> 元素类型
+     * @return 列表
+     * @throws IOException 读取失败时抛出
+     */
+    public static <T> List<T> readList(InputStream in, Class<T> elementType) throws IOException {
+        List<T> result = new ArrayList<>();
+        readList(in, elementType, result::add);
+        return result;
+    }
+}
@@ -0,0 +1,112 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 保存为单个JSON数组文件的支出记录存储
+ * 全部记录保存在内存中，每次修改后把完整数组交给{@link PersistenceWorker}在后台原子替换文件。
+ * 读取时兼容{@link JournalStore}快照的{"records":[...]}格式。
+ */
+public class JsonExpenseRepository implements ExpenseRepository {
+    private static final Type LIST_TYPE = new TypeToken<List<ExpenseRecord>>() {}.getType();
+
+    private final Path file;
+    private final Gson gson;
+    private final PersistenceWorker persistence;
+    private final List<ExpenseRecord> records;
+
+    /**
+     * 打开JSON文件，文件不存在时从空列表开始
+     * @param file JSON文件
+     * @param gson 序列化使用的Gson，需要能处理LocalDate
+     * @throws IOException 文件存在但无法读取或解析时抛出
+     */
+    public JsonExpenseRepository(Path file, Gson gson) throws IOException {
+        this.file = file;
+        this.gson = gson;
+        this.persistence = PersistenceWorker.getInstance();
+        this.records = read();
+    }
+
+    private List<ExpenseRecord> read() throws IOException {
+        byte[] pending = persistence.getPending(file);
+        if (pending == null && !Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        try (Reader reader = pending != null
+                ? new StringReader(new String(pending, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonElement root = JsonParser.parseReader(reader);
+            if (root.isJsonObject() && root.getAsJsonObject().has("records")) {
+                root = root.getAsJsonObject().get("records");
+            }
+            List<ExpenseRecord> loaded = root.isJsonNull() ? null : gson.fromJson(root, LIST_TYPE);
+            return loaded != null ? new ArrayList<>(loaded) : new ArrayList<>();
+        } catch (JsonParseException e) {
+            throw new IOException("支出记录文件格式错误: " + file, e);
+        }
+    }
+
+    private void write() {
+        persistence.write(file, gson.toJson(records, LIST_TYPE).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ExpenseRecord copy(ExpenseRecord record) {
+        return gson.fromJson(gson.toJsonTree(record), ExpenseRecord.class);
+    }
+
+    @Override
+    public synchronized int size() {
+        return records.size();
+    }
+
+    @Override
+    public synchronized ExpenseRecord get(int position) {
+        return copy(records.get(position));
+    }
+
+    @Override
+    public synchronized void insertAll(Collection<ExpenseRecord> added) {
+        for (ExpenseRecord record : added) {
+            records.add(copy(record));
+        }
+        write();
+    }
+
+    @Override
+    public synchronized void delete(int position) {
+        records.remove(position);
+        write();
+    }
+
+    @Override
+    public synchronized void replaceAll(List<ExpenseRecord> updated) {
+        records.clear();
+        for (ExpenseRecord record : updated) {
+            records.add(copy(record));
+        }
+        write();
+    }
+
+    @Override
+    public synchronized Cursor query(LocalDate from, LocalDate to, String category) {
+        return new ExpenseScanCursor(this::get, 0, records.size(), 0, from, to, category);
+    }
+}
@@ -0,0 +1,253 @@
+package com.coinue.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 大文件CSV分块工具类
+ * 通过FileChannel.map将文件映射到内存，并把文件切分为按行对齐的数据块，供多个线程并行解析。
+ * 切分时按与{@link CSVParser}相同的规则跟踪引号状态：只有字段开头的双引号开始引号字段，
+ * 引号字段内连续两个双引号是转义的引号，字段中间的双引号（例如{@code 5" screen}）只是普通字符。
+ * 每个原始区间并行计算从各个起始状态出发扫描到区间末尾时的状态，依次组合得到每个区间开始时的真实状态，
+ * 从而保证块边界不会落在引号字段内的换行符上。
+ */
+public class MappedCSVChunker {
+    /**
+     * 默认的块大小（字节）
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 32L * 1024 * 1024;
+
+    // 单次映射的最大窗口，避免超过MappedByteBuffer的int寻址上限
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    // 扫描状态：字段开头、未加引号的字段中间、引号字段内、引号字段内刚遇到一个双引号（转义或字段结束）
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+    private static final int STATE_COUNT = 4;
+
+    private MappedCSVChunker() {
+    }
+
+    /**
+     * 文件中的一个按行对齐的数据块
+     */
+    public static class Chunk {
+        private final int index;
+        private final long offset;
+        private final long length;
+
+        Chunk(int index, long offset, long length) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getIndex() { return index; }
+        public long getOffset() { return offset; }
+        public long getLength() { return length; }
+
+        /**
+         * 打开读取该数据块的输入流，底层按窗口逐段映射文件
+         * @param channel 文件通道
+         * @return 数据块输入流
+         */
+        public InputStream openStream(FileChannel channel) {
+            return new MappedInputStream(channel, offset, offset + length);
+        }
+    }
+
+    /**
+     * 将文件切分为按行对齐的数据块
+     * @param channel 文件通道
+     * @param chunkSize 期望的块大小
+     * @param pool 用于并行扫描的线程池
+     * @return 按文件顺序排列的数据块列表
+     */
+    public static List<Chunk> plan(FileChannel channel, long chunkSize, ForkJoinPool pool) throws IOException {
+        long size = channel.size();
+        List<Chunk> chunks = new ArrayList<>();
+        if (size == 0) {
+            return chunks;
+        }
+        int rawCount = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        if (rawCount == 1) {
+            chunks.add(new Chunk(0, 0, size));
+            return chunks;
+        }
+
+        // 第一步：并行计算每个原始区间从各个起始状态出发的结束状态，再从文件开头依次组合
+        List<ForkJoinTask<int[]>> transitionTasks = new ArrayList<>(rawCount);
+        for (int i = 0; i < rawCount; i++) {
+            long start = i * chunkSize;
+            long end = Math.min(size, start + chunkSize);
+            transitionTasks.add(pool.submit(() -> scanTransitions(channel, start, end)));
+        }
+        int[] stateAt = new int[rawCount];
+        int state = FIELD_START;
+        for (int i = 0; i < rawCount; i++) {
+            stateAt[i] = state;
+            state = join(transitionTasks.get(i))[state];
+        }
+
+        // 第二步：并行地从每个原始边界向后查找第一个位于引号字段之外的换行符
+        List<ForkJoinTask<Long>> boundaryTasks = new ArrayList<>(rawCount - 1);
+        for (int i = 1; i < rawCount; i++) {
+            long start = i * chunkSize;
+            int startState = stateAt[i];
+            boundaryTasks.add(pool.submit(() -> findRowBoundary(channel, start, size, startState)));
+        }
+
+        long previous = 0;
+        for (ForkJoinTask<Long> task : boundaryTasks) {
+            long boundary = join(task);
+            // 超长的引号字段可能跨越多个原始区间，此时合并相邻块
+            if (boundary > previous && boundary < size) {
+                chunks.add(new Chunk(chunks.size(), previous, boundary - previous));
+                previous = boundary;
+            }
+        }
+        chunks.add(new Chunk(chunks.size(), previous, size - previous));
+        return chunks;
+    }
+
+    /**
+     * 扫描区间，计算从每个起始状态出发到区间末尾时的状态
+     * @return 下标是起始状态、值是结束状态的数组
+     */
+    private static int[] scanTransitions(FileChannel channel, long start, long end) throws IOException {
+        int[] states = new int[STATE_COUNT];
+        for (int s = 0; s < STATE_COUNT; s++) {
+            states[s] = s;
+        }
+        for (long windowStart = start; windowStart < end; windowStart += MAP_WINDOW_SIZE) {
+            long windowEnd = Math.min(end, windowStart + MAP_WINDOW_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            int limit = buffer.limit();
+            for (int i = 0; i < limit; i++) {
+                byte b = buffer.get(i);
+                for (int s = 0; s < STATE_COUNT; s++) {
+                    states[s] = nextState(states[s], b);
+                }
+            }
+        }
+        return states;
+    }
+
+    private static long findRowBoundary(FileChannel channel, long start, long size, int state) throws IOException {
+        for (long windowStart = start; windowStart < size; windowStart += MAP_WINDOW_SIZE) {
+            long windowEnd = Math.min(size, windowStart + MAP_WINDOW_SIZE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            int limit = buffer.limit();
+            for (int i = 0; i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' && state != QUOTED) {
+                    return windowStart + i + 1;
+                }
+                state = nextState(state, b);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 按字节推进扫描状态，规则与{@link CSVParser#nextRow()}一致；UTF-8多字节字符的字节不会等于这些ASCII字符
+     */
+    private static int nextState(int state, byte b) {
+        if (state == QUOTED) {
+            return b == '"' ? QUOTE_IN_QUOTED : QUOTED;
+        }
+        if (state == QUOTE_IN_QUOTED && b == '"') {
+            // 转义的双引号，仍在引号字段内
+            return QUOTED;
+        }
+        if (b == ',' || b == '\n' || b == '\r') {
+            return FIELD_START;
+        }
+        if (b == '"' && state == FIELD_START) {
+            return QUOTED;
+        }
+        return UNQUOTED;
+    }
+
+    /**
+     * 等待任务完成，并把任务中抛出的IO异常还原为IOException
+     * @param task 并行任务
+     * @return 任务结果
+     */
+    static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            // ForkJoinTask可能在调用线程上重新创建同类型的异常，原始异常（带有出错内容的消息）是它的cause
+            if (e.getCause() != null && e.getCause().getClass() == e.getClass()) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 基于内存映射的输入流，按窗口依次映射[start, end)区间
+     */
+    private static class MappedInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.windowStart = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureWindow()) {
+                return -1;
+            }
+            return window.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureWindow()) {
+                return -1;
+            }
+            int n = Math.min(len, window.remaining());
+            window.get(b, off, n);
+            return n;
+        }
+
+        private boolean ensureWindow() throws IOException {
+            if (window != null && window.hasRemaining()) {
+                return true;
+            }
+            if (window != null) {
+                windowStart += window.limit();
+            }
+            if (windowStart >= end) {
+                return false;
+            }
+            long length = Math.min(MAP_WINDOW_SIZE, end - windowStart);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+            return true;
+        }
+    }
+}
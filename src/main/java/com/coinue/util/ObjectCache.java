@@ -0,0 +1,165 @@
+package com.coinue.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * 按权重限制大小的LRU对象缓存
+ * 每个条目记录值的类型、来源版本和权重（通常是来源文件的字节数，用来近似对象占用的内存），
+ * 总权重超过上限时逐出最久没有访问的条目。
+ * 读取时类型或版本不一致视为未命中，调用方用版本判断来源文件是否已被修改。
+ * @param <K> 键类型
+ */
+public class ObjectCache<K> {
+    private final long maxWeight;
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * 创建缓存
+     * @param maxWeight 总权重上限
+     */
+    public ObjectCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * 读取缓存的对象
+     * @param key 键
+     * @param type 期望的类型，必须和放入时的类型相同
+     * @param version 来源的当前版本
+     * @param <T> 对象类型
+     * @return 缓存的对象，未命中时返回null
+     */
+    public synchronized <T> T get(K key, Class<T> type, Object version) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.type != type || !Objects.equals(entry.version, version)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return type.cast(entry.value);
+    }
+
+    /**
+     * 放入对象，权重超过上限的对象不缓存
+     * @param key 键
+     * @param type 对象的类型
+     * @param value 对象
+     * @param version 来源版本
+     * @param entryWeight 权重
+     * @param <T> 对象类型
+     */
+    public synchronized <T> void put(K key, Class<T> type, T value, Object version, long entryWeight) {
+        remove(key);
+        if (value == null || entryWeight > maxWeight) {
+            return;
+        }
+        entries.put(key, new Entry(type, value, version, entryWeight));
+        weight += entryWeight;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * 使一个条目失效
+     * @param key 键
+     */
+    public synchronized void invalidate(K key) {
+        remove(key);
+    }
+
+    /**
+     * 使满足条件的条目失效
+     * @param filter 键的条件
+     */
+    public synchronized void invalidateAll(Predicate<? super K> filter) {
+        Iterator<Map.Entry<K, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry> entry = iterator.next();
+            if (filter.test(entry.getKey())) {
+                weight -= entry.getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 清空缓存，计数器保留
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    private void remove(K key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    /**
+     * 获取条目数
+     * @return 条目数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 获取当前总权重
+     * @return 总权重
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * 获取命中次数
+     * @return 命中次数
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * 获取未命中次数
+     * @return 未命中次数
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * 获取因超过权重上限被逐出的条目数
+     * @return 逐出次数
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static class Entry {
+        final Class<?> type;
+        final Object value;
+        final Object version;
+        final long weight;
+
+        Entry(Class<?> type, Object value, Object version, long weight) {
+            this.type = type;
+            this.value = value;
+            this.version = version;
+            this.weight = weight;
+        }
+    }
+}
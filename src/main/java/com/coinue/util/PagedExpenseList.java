@@ -0,0 +1,40 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import javafx.collections.ObservableListBase;
+
+/**
+ * 按需分页加载的只读支出记录列表，供表格等控件直接使用
+ * 控件只读取可见的行，列表按行所在的页从{@link ExpensePager}加载，列表本身不保留全部记录；
+ * 存储是否把全部记录留在内存中取决于存储实现，见{@link ExpensePager}。
+ * 存储被修改后创建新的列表替换原来的列表。
+ */
+public class PagedExpenseList extends ObservableListBase<ExpenseRecord> {
+    private final ExpensePager pager;
+
+    /**
+     * 创建列表
+     * @param pager 分页器
+     */
+    public PagedExpenseList(ExpensePager pager) {
+        this.pager = pager;
+    }
+
+    /**
+     * 获取分页器
+     * @return 分页器
+     */
+    public ExpensePager getPager() {
+        return pager;
+    }
+
+    @Override
+    public ExpenseRecord get(int index) {
+        return pager.get(index);
+    }
+
+    @Override
+    public int size() {
+        return pager.size();
+    }
+}
@@ -0,0 +1,477 @@
+package com.coinue.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台持久化线程
+ * 调用方在自己的线程上把数据序列化成字节后提交，同一个文件在延迟时间内的多次提交只保留最后一次，
+ * 由后台线程写入同目录下的临时文件、刷到磁盘后原子替换目标文件。写入过程中崩溃时目标文件保持旧内容，
+ * 不会出现写了一半的文件。
+ * 尚未落盘的内容可以通过{@link #getPending(Path)}读到，程序退出时会自动调用{@link #flush()}。
+ * 提交返回的future在内容落盘后完成；重试后仍然失败的内容不会丢弃，继续可以通过getPending读到，
+ * 直到被新的提交替换、{@link #retryFailed()}重试成功或{@link #discard(Path)}明确丢弃。
+ */
+public class PersistenceWorker {
+    private static final long DEFAULT_DELAY_MILLIS = 200;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 2000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static PersistenceWorker instance;
+
+    private final long delayNanos;
+    private final long maxDelayNanos;
+    private final Object lock = new Object();
+    // 等待写入的内容，按文件合并
+    private final Map<Path, PendingWrite> pending = new LinkedHashMap<>();
+    // 正在写入的内容，写入完成前仍然可以读到
+    private final Map<Path, PendingWrite> inFlight = new HashMap<>();
+    // 重试后仍然失败的内容，保留到被替换、重试成功或明确丢弃
+    private final Map<Path, PendingWrite> failed = new LinkedHashMap<>();
+    private final Thread thread;
+    // 正在等待flush完成的线程数，大于0时所有写入立即到期
+    private int flushWaiters;
+
+    private final AtomicLong writesSubmitted = new AtomicLong();
+    private final AtomicLong writesCompleted = new AtomicLong();
+    private final AtomicLong writesCoalesced = new AtomicLong();
+    private final AtomicLong writesFailed = new AtomicLong();
+
+    /**
+     * 获取单例实例
+     * @return PersistenceWorker实例
+     */
+    public static synchronized PersistenceWorker getInstance() {
+        if (instance == null) {
+            instance = new PersistenceWorker(DEFAULT_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+            PersistenceWorker worker = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread(worker::flush, "coinue-persistence-shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * 创建后台持久化线程
+     * @param delayMillis 最后一次提交之后等待的时间，期间的新提交会合并
+     * @param maxDelayMillis 第一次提交之后最多等待的时间，防止持续提交时一直不落盘
+     */
+    PersistenceWorker(long delayMillis, long maxDelayMillis) {
+        this.delayNanos = Math.max(0, delayMillis) * 1_000_000L;
+        this.maxDelayNanos = Math.max(delayMillis, maxDelayMillis) * 1_000_000L;
+        this.thread = new Thread(this::runLoop, "coinue-persistence");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 提交一次写入，尚未落盘或写入失败的同一文件的旧内容会被替换
+     * @param target 目标文件
+     * @param content 完整的文件内容，提交后不应再修改
+     * @return 这次提交的内容（或合并了它的更新内容）落盘后完成；重试后仍然失败时以IOException异常完成，
+     *         被丢弃时取消
+     */
+    public CompletableFuture<Void> write(Path target, byte[] content) {
+        Path key = target.toAbsolutePath().normalize();
+        long now = System.nanoTime();
+        writesSubmitted.incrementAndGet();
+        synchronized (lock) {
+            failed.remove(key);
+            PendingWrite previous = pending.get(key);
+            CompletableFuture<Void> completion;
+            if (previous != null) {
+                writesCoalesced.incrementAndGet();
+                previous.content = content;
+                previous.attempts = 0;
+                previous.dueAt = Math.min(previous.firstSubmittedAt + maxDelayNanos, now + delayNanos);
+                completion = previous.completion;
+            } else {
+                PendingWrite write = new PendingWrite(content, now, now + delayNanos);
+                pending.put(key, write);
+                completion = write.completion;
+            }
+            lock.notifyAll();
+            return completion;
+        }
+    }
+
+    /**
+     * 获取尚未落盘的文件内容，读取文件前先调用以读到最新提交的数据
+     * @param target 目标文件
+     * @return 等待写入、正在写入或写入失败的内容，没有时返回null
+     */
+    public byte[] getPending(Path target) {
+        Path key = target.toAbsolutePath().normalize();
+        synchronized (lock) {
+            PendingWrite write = pending.get(key);
+            if (write != null) {
+                return write.content;
+            }
+            PendingWrite writing = inFlight.get(key);
+            if (writing != null) {
+                return writing.content;
+            }
+            PendingWrite failedWrite = failed.get(key);
+            return failedWrite != null ? failedWrite.content : null;
+        }
+    }
+
+    /**
+     * 获取重试后仍然失败、内容还保留着的文件
+     * @return 文件的绝对路径
+     */
+    public Set<Path> getFailedFiles() {
+        synchronized (lock) {
+            return Set.copyOf(failed.keySet());
+        }
+    }
+
+    /**
+     * 判断文件最近一次写入是否重试后仍然失败
+     * @param target 目标文件
+     * @return 失败的内容还保留着时返回true
+     */
+    public boolean isFailed(Path target) {
+        Path key = target.toAbsolutePath().normalize();
+        synchronized (lock) {
+            return failed.containsKey(key);
+        }
+    }
+
+    /**
+     * 把写入失败的内容重新排队，例如磁盘空间释放后调用
+     * @return 重新排队的文件数
+     */
+    public int retryFailed() {
+        long now = System.nanoTime();
+        synchronized (lock) {
+            int retried = failed.size();
+            for (Map.Entry<Path, PendingWrite> entry : failed.entrySet()) {
+                PendingWrite previous = entry.getValue();
+                PendingWrite write = new PendingWrite(previous.content, now, now);
+                pending.putIfAbsent(entry.getKey(), write);
+            }
+            failed.clear();
+            lock.notifyAll();
+            return retried;
+        }
+    }
+
+    /**
+     * 丢弃某个文件或目录下所有文件尚未落盘或写入失败的内容，删除文件之前调用，避免之后又被写回
+     * 正在写入的文件会等待其写完，被丢弃的写入的future被取消
+     * @param target 文件或目录
+     * @return 丢弃的写入数
+     */
+    public int discard(Path target) {
+        Path key = target.toAbsolutePath().normalize();
+        int discarded = 0;
+        List<CompletableFuture<Void>> cancelled = new ArrayList<>();
+        synchronized (lock) {
+            Iterator<Map.Entry<Path, PendingWrite>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, PendingWrite> entry = it.next();
+                if (entry.getKey().startsWith(key)) {
+                    cancelled.add(entry.getValue().completion);
+                    it.remove();
+                    discarded++;
+                }
+            }
+            Iterator<Path> failedPaths = failed.keySet().iterator();
+            while (failedPaths.hasNext()) {
+                if (failedPaths.next().startsWith(key)) {
+                    failedPaths.remove();
+                    discarded++;
+                }
+            }
+            while (inFlight.keySet().stream().anyMatch(path -> path.startsWith(key))) {
+                if (!awaitQuietly()) {
+                    break;
+                }
+            }
+        }
+        cancelled.forEach(completion -> completion.cancel(false));
+        return discarded;
+    }
+
+    /**
+     * 取走某个文件尚未落盘或写入失败的内容，由调用方自己写入；正在写入的文件会等待其写完
+     * 取走的写入的future视为已完成，写入结果由调用方负责
+     * @param target 目标文件
+     * @return 取走的内容；没有等待写入的内容时返回刚写完的内容，都没有时返回null
+     */
+    public byte[] take(Path target) {
+        Path key = target.toAbsolutePath().normalize();
+        PendingWrite write;
+        PendingWrite failedWrite;
+        PendingWrite writing;
+        synchronized (lock) {
+            write = pending.remove(key);
+            failedWrite = failed.remove(key);
+            writing = inFlight.get(key);
+            while (inFlight.containsKey(key)) {
+                if (!awaitQuietly()) {
+                    break;
+                }
+            }
+        }
+        if (write != null) {
+            write.completion.complete(null);
+            return write.content;
+        }
+        if (writing != null) {
+            return writing.content;
+        }
+        return failedWrite != null ? failedWrite.content : null;
+    }
+
+    /**
+     * 立即写入所有尚未落盘的内容并等待完成
+     */
+    public void flush() {
+        synchronized (lock) {
+            if (Thread.currentThread() == thread) {
+                return;
+            }
+            flushWaiters++;
+            try {
+                lock.notifyAll();
+                while (!pending.isEmpty() || !inFlight.isEmpty()) {
+                    if (!awaitQuietly()) {
+                        break;
+                    }
+                }
+            } finally {
+                flushWaiters--;
+            }
+        }
+    }
+
+    /**
+     * 获取等待写入和正在写入的文件数
+     * @return 队列深度
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return pending.size() + inFlight.size();
+        }
+    }
+
+    /**
+     * 获取提交的写入次数
+     * @return 提交次数
+     */
+    public long getWritesSubmitted() {
+        return writesSubmitted.get();
+    }
+
+    /**
+     * 获取实际完成的文件写入次数
+     * @return 完成次数
+     */
+    public long getWritesCompleted() {
+        return writesCompleted.get();
+    }
+
+    /**
+     * 获取被后续提交合并掉的写入次数
+     * @return 合并次数
+     */
+    public long getWritesCoalesced() {
+        return writesCoalesced.get();
+    }
+
+    /**
+     * 获取重试后仍然失败的写入次数，失败的内容保留在{@link #getFailedFiles()}中
+     * @return 失败次数
+     */
+    public long getWritesFailed() {
+        return writesFailed.get();
+    }
+
+    /**
+     * 原子替换文件内容：写入同目录下的临时文件并刷到磁盘，再重命名覆盖目标文件，最后把目录刷到磁盘，
+     * 返回后即使崩溃，目标文件也是完整的新内容
+     * @param target 目标文件
+     * @param content 文件内容
+     * @throws IOException 写入失败时抛出，目标文件保持原内容
+     */
+    public static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path directory = absolute.getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, absolute.getFileName().toString() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(directory);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 把目录项刷到磁盘，使目录中新建或重命名的文件在崩溃后仍然存在
+     * 不支持打开目录的平台（Windows）上由文件系统自己保证，直接跳过
+     * @param directory 目录
+     */
+    public static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 目录不能以只读方式打开或不支持force
+        }
+    }
+
+    private void runLoop() {
+        while (true) {
+            Map<Path, PendingWrite> batch = takeDue();
+            if (batch == null) {
+                return;
+            }
+            for (Map.Entry<Path, PendingWrite> entry : batch.entrySet()) {
+                Path target = entry.getKey();
+                PendingWrite write = entry.getValue();
+                IOException error = null;
+                try {
+                    writeAtomically(target, write.content);
+                    writesCompleted.incrementAndGet();
+                    // 在移出正在写入的集合之前、锁外完成，flush返回时回调已经执行完
+                    write.completion.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("写入文件失败: " + target + ": " + e.getMessage());
+                    error = e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                boolean gaveUp = false;
+                synchronized (lock) {
+                    inFlight.remove(target);
+                    if (error != null) {
+                        gaveUp = retry(target, write);
+                    }
+                    lock.notifyAll();
+                }
+                if (gaveUp) {
+                    write.completion.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * 等待到有写入到期，把到期的写入移到正在写入的集合中
+     */
+    private Map<Path, PendingWrite> takeDue() {
+        synchronized (lock) {
+            while (true) {
+                long now = System.nanoTime();
+                long nextDue = Long.MAX_VALUE;
+                Map<Path, PendingWrite> due = new LinkedHashMap<>();
+                Iterator<Map.Entry<Path, PendingWrite>> it = pending.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Path, PendingWrite> entry = it.next();
+                    PendingWrite write = entry.getValue();
+                    if (flushWaiters > 0 || write.dueAt - now <= 0) {
+                        due.put(entry.getKey(), write);
+                        it.remove();
+                    } else {
+                        nextDue = Math.min(nextDue, write.dueAt - now);
+                    }
+                }
+                if (!due.isEmpty()) {
+                    inFlight.putAll(due);
+                    return due;
+                }
+                try {
+                    if (nextDue == Long.MAX_VALUE) {
+                        lock.wait();
+                    } else {
+                        lock.wait(Math.max(1, nextDue / 1_000_000L));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入失败时重新排队；期间已经有更新的内容时随更新的内容一起完成，
+     * 重试次数用完时保留内容
+     * @return 是否已放弃重试
+     */
+    private boolean retry(Path target, PendingWrite write) {
+        PendingWrite newer = pending.get(target);
+        if (newer != null) {
+            newer.completion.whenComplete((result, e) -> {
+                if (e != null) {
+                    write.completion.completeExceptionally(e);
+                } else {
+                    write.completion.complete(null);
+                }
+            });
+            return false;
+        }
+        if (++write.attempts >= MAX_ATTEMPTS) {
+            writesFailed.incrementAndGet();
+            failed.put(target, write);
+            System.err.println("多次写入文件失败，内容保留等待重试: " + target);
+            return true;
+        }
+        write.dueAt = System.nanoTime() + delayNanos;
+        pending.put(target, write);
+        return false;
+    }
+
+    private boolean awaitQuietly() {
+        try {
+            lock.wait(100);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 等待写入的内容
+     */
+    private static class PendingWrite {
+        byte[] content;
+        final CompletableFuture<Void> completion = new CompletableFuture<>();
+        final long firstSubmittedAt;
+        long dueAt;
+        int attempts;
+
+        PendingWrite(byte[] content, long firstSubmittedAt, long dueAt) {
+            this.content = content;
+            this.firstSubmittedAt = firstSubmittedAt;
+            this.dueAt = dueAt;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.coinue.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 记录的二进制编解码器
+ * 用于把导入过程中已持久化的记录写入暂存文件，断点续传时可以直接读回，无需重新解析CSV
+ * 文本字段用{@link #writeString}写成带长度前缀的UTF-8字节，不使用DataOutput.writeUTF：
+ * 后者的长度前缀只有两个字节，导入的长描述编码后超过65535字节时会让整个写入失败
+ * @param <T> 记录类型
+ */
+public interface RecordCodec<T> {
+
+    /**
+     * 写出一条记录
+     * @param out 输出
+     * @param item 记录
+     */
+    void write(DataOutput out, T item) throws IOException;
+
+    /**
+     * 读取一条记录
+     * @param in 输入
+     * @return 记录
+     */
+    T read(DataInput in) throws IOException;
+
+    /**
+     * 写出文本字段：4字节的UTF-8字节数加上UTF-8字节，null按空串写出
+     * @param out 输出
+     * @param value 文本
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 读取{@link #writeString}写出的文本字段
+     * @param in 输入
+     * @return 文本
+     * @throws IOException 长度无效或数据不完整时抛出
+     */
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("文本字段长度无效: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,55 @@
+package com.coinue.util;
+
+/**
+ * 主页还款提醒/预算CSV行结构
+ * 列布局：Type,Amount,Date,Additional，所有字段按原样保留为文本
+ */
+public class ReminderRowSchema implements RowSchema<ReminderRowSchema.Row> {
+
+    /**
+     * 还款提醒或预算的一行数据
+     */
+    public static class Row {
+        private final String type;
+        private final String amount;
+        private final String date;
+        private final String additional;
+
+        public Row(String type, String amount, String date, String additional) {
+            this.type = type;
+            this.amount = amount;
+            this.date = date;
+            this.additional = additional;
+        }
+
+        public String getType() { return type; }
+        public String getAmount() { return amount; }
+        public String getDate() { return date; }
+        public String getAdditional() { return additional; }
+    }
+
+    @Override
+    public String getName() {
+        return "reminder";
+    }
+
+    @Override
+    public int getMinimumFieldCount() {
+        return 4;
+    }
+
+    @Override
+    public Row parse(CSVParser row) {
+        return new Row(
+                row.getTrimmedField(0),
+                row.getTrimmedField(1),
+                row.getTrimmedField(2),
+                row.getTrimmedField(3)
+        );
+    }
+
+    @Override
+    public boolean validate(Row row) {
+        return !row.getType().isEmpty();
+    }
+}
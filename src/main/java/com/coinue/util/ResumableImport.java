@@ -0,0 +1,361 @@
+package com.coinue.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 可断点续传的CSV导入
+ * 在{@link ImportPipeline}的持久化阶段把每批记录追加到暂存文件，并定期把断点（源文件位置、已读取行数、
+ * 暂存文件长度）写入{@link ImportCheckpointStore}。导入失败、取消或程序退出后，再次导入同一个文件时
+ * 先从暂存文件读回已处理的记录，然后从断点位置继续解析，无需从头重新解析整个文件。
+ * 导入成功后断点和暂存文件会被删除。
+ * 开启{@link #failOnError(boolean)}时，某一行无法解析而中止的导入不保留断点：断点停在出错的行之前，
+ * 保留的话每次续传都会在同一行失败，而修正后的文件指纹不同，也用不上这个断点。
+ * 暂存文件保存的是去重之前的记录，续传时读回的记录重新经过重复过滤器，保证过滤器统计的出现次数与从头导入一致。
+ * @param <T> 记录类型
+ */
+public class ResumableImport<T> {
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 1000;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final RowSchema<T> schema;
+    private final RecordCodec<T> codec;
+    private final ImportCheckpointStore store;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean failOnError;
+    private long checkpointIntervalMillis = DEFAULT_CHECKPOINT_INTERVAL_MILLIS;
+    private ImportPipeline.ImportListener listener;
+    private FingerprintIndex.DuplicateFilter<T> duplicateFilter;
+
+    private volatile boolean cancelled;
+    private volatile ImportPipeline<T> pipeline;
+    private volatile boolean rowRejected;
+    private long recordsReplayed;
+
+    /**
+     * 创建可断点续传的导入
+     * @param schema 行结构定义
+     * @param codec 暂存记录使用的编解码器
+     * @param store 断点存储
+     */
+    public ResumableImport(RowSchema<T> schema, RecordCodec<T> codec, ImportCheckpointStore store) {
+        this.schema = schema;
+        this.codec = codec;
+        this.store = store;
+    }
+
+    /**
+     * 设置批次大小
+     * @param batchSize 每批行数
+     * @return 当前导入
+     */
+    public ResumableImport<T> batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * 设置遇到格式错误的行时是否中止导入
+     * @param failOnError 是否中止
+     * @return 当前导入
+     */
+    public ResumableImport<T> failOnError(boolean failOnError) {
+        this.failOnError = failOnError;
+        return this;
+    }
+
+    /**
+     * 设置写断点的最小时间间隔，0表示每个批次都写
+     * @param millis 间隔毫秒数
+     * @return 当前导入
+     */
+    public ResumableImport<T> checkpointInterval(long millis) {
+        this.checkpointIntervalMillis = Math.max(0, millis);
+        return this;
+    }
+
+    /**
+     * 设置进度监听器
+     * @param listener 监听器
+     * @return 当前导入
+     */
+    public ResumableImport<T> listener(ImportPipeline.ImportListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 设置重复过滤器，历史记录中已有的行不会交给输出
+     * @param filter 重复过滤器，为null时不检测重复
+     * @return 当前导入
+     */
+    public ResumableImport<T> skipDuplicates(FingerprintIndex.DuplicateFilter<T> filter) {
+        this.duplicateFilter = filter;
+        return this;
+    }
+
+    /**
+     * 请求取消导入，已持久化的部分会保留断点
+     */
+    public void cancel() {
+        cancelled = true;
+        ImportPipeline<T> current = pipeline;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * 获取本次导入从暂存文件读回的记录数
+     * @return 读回的记录数，从头导入时为0
+     */
+    public long getRecordsReplayed() {
+        return recordsReplayed;
+    }
+
+    /**
+     * 导入文件，如果存在该文件的断点则从断点继续
+     * @param file CSV文件
+     * @param output 记录输出，续传时会先收到暂存文件中的记录
+     * @return 最终的导入进度，已接受行数包含从暂存文件读回的记录
+     * @throws CancellationException 导入被取消时抛出
+     * @throws IllegalArgumentException 开启failOnError且某一行无法解析时抛出，此时断点已被删除
+     */
+    public ImportPipeline.ImportProgress run(Path file, ImportPipeline.BatchSink<T> output) throws IOException {
+        ImportPipeline.BatchSink<T> sink = duplicateFilter == null ? output : batch -> {
+            List<T> accepted = duplicateFilter.filter(batch);
+            if (!accepted.isEmpty()) {
+                output.accept(accepted);
+            }
+        };
+        String fingerprint = ImportCheckpointStore.fingerprint(file);
+        Path staging = store.stagingFile(fingerprint);
+        ImportCheckpoint checkpoint = store.load(fingerprint);
+        long fileSize = Files.size(file);
+        if (checkpoint != null && checkpoint.getFileSize() == fileSize
+                && checkpoint.getStagingFormat() == ImportCheckpoint.STAGING_FORMAT && Files.exists(staging)
+                && Files.size(staging) >= checkpoint.getStagedBytes()) {
+            recordsReplayed = replay(staging, checkpoint, sink);
+        } else {
+            checkpoint = new ImportCheckpoint(fingerprint, file.toString(), fileSize);
+            recordsReplayed = 0;
+            Files.createDirectories(store.getDirectory());
+        }
+
+        ImportCheckpoint current = checkpoint;
+        ImportPipeline.ImportProgress result;
+        try (FileChannel stagingChannel = FileChannel.open(staging,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // 丢弃上次断点之后写入的不完整数据
+            stagingChannel.truncate(current.getStagedBytes());
+            stagingChannel.position(current.getStagedBytes());
+            OutputStream stagingOut = Channels.newOutputStream(stagingChannel);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(64 * 1024);
+            DataOutputStream encoder = new DataOutputStream(encoded);
+            long[] staged = {current.getRecordsStaged(), current.getStagedBytes()};
+            long[] lastCheckpointAt = {System.currentTimeMillis()};
+
+            rowRejected = false;
+            ImportPipeline<T> pipeline = new ImportPipeline<>(trackRejectedRows(), batch -> {
+                encoded.reset();
+                for (T item : batch) {
+                    codec.write(encoder, item);
+                }
+                encoder.flush();
+                // 下游接受后再写入暂存文件，保证暂存内容与管道的断点位置一致
+                sink.accept(batch);
+                encoded.writeTo(stagingOut);
+                staged[0] += batch.size();
+                staged[1] += encoded.size();
+            }).batchSize(batchSize)
+                    .failOnError(failOnError)
+                    .resumeFrom(current.getByteOffset(), current.getRowsCommitted())
+                    .listener(progress -> {
+                        long now = System.currentTimeMillis();
+                        if (now - lastCheckpointAt[0] >= checkpointIntervalMillis) {
+                            // 断点写入失败不影响导入本身，只是中断后需要从更早的位置继续
+                            try {
+                                commit(current, progress, stagingChannel, staged);
+                            } catch (IOException e) {
+                                System.err.println("保存导入断点失败: " + e.getMessage());
+                            }
+                            lastCheckpointAt[0] = now;
+                        }
+                        if (listener != null) {
+                            listener.onProgress(adjust(progress));
+                        }
+                    });
+            this.pipeline = pipeline;
+            if (cancelled) {
+                pipeline.cancel();
+            }
+
+            try {
+                result = pipeline.run(file);
+            } catch (IOException | RuntimeException | Error e) {
+                if (rowRejected) {
+                    // 数据错误时续传必然在同一行再次失败，放弃断点，文件修正后从头导入
+                    long row = pipeline.getProgress().getRowsRead();
+                    stagingChannel.close();
+                    store.delete(fingerprint);
+                    throw new IllegalArgumentException("第 " + row + " 行数据无法解析，已放弃导入断点，修正文件后将从头导入: "
+                            + e.getMessage(), e);
+                }
+                // 失败或取消时保存最后一个已持久化批次的断点，下次从这里继续
+                try {
+                    commit(current, pipeline.getProgress(), stagingChannel, staged);
+                } catch (IOException saveError) {
+                    System.err.println("保存导入断点失败: " + saveError.getMessage());
+                }
+                throw e;
+            }
+        }
+        store.delete(fingerprint);
+        return adjust(result);
+    }
+
+    /**
+     * 包装行结构，记录导入是否因为某一行无法解析而中止
+     */
+    private RowSchema<T> trackRejectedRows() {
+        return new RowSchema<T>() {
+            @Override
+            public String getName() {
+                return schema.getName();
+            }
+
+            @Override
+            public int getMinimumFieldCount() {
+                return schema.getMinimumFieldCount();
+            }
+
+            @Override
+            public T parse(CSVParser row) {
+                try {
+                    return schema.parse(row);
+                } catch (RuntimeException e) {
+                    if (failOnError) {
+                        rowRejected = true;
+                    }
+                    throw e;
+                }
+            }
+
+            @Override
+            public boolean validate(T item) {
+                return schema.validate(item);
+            }
+
+            @Override
+            public T normalize(T item) {
+                return schema.normalize(item);
+            }
+        };
+    }
+
+    /**
+     * 从暂存文件读回断点之前的记录
+     */
+    private long replay(Path staging, ImportCheckpoint checkpoint, ImportPipeline.BatchSink<T> sink) throws IOException {
+        long count = 0;
+        try (InputStream raw = Files.newInputStream(staging);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(
+                     new BoundedInputStream(raw, checkpoint.getStagedBytes()), 64 * 1024))) {
+            List<T> batch = new ArrayList<>(batchSize);
+            while (count < checkpoint.getRecordsStaged()) {
+                try {
+                    batch.add(codec.read(in));
+                } catch (EOFException e) {
+                    throw new IOException("暂存文件已损坏: " + staging, e);
+                }
+                count++;
+                if (batch.size() >= batchSize) {
+                    sink.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                sink.accept(batch);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 写断点：先把暂存数据刷到磁盘，再原子替换断点文件，保证断点指向的数据一定已经落盘
+     */
+    private void commit(ImportCheckpoint checkpoint, ImportPipeline.ImportProgress progress,
+                        FileChannel stagingChannel, long[] staged) throws IOException {
+        stagingChannel.force(false);
+        checkpoint.setByteOffset(progress.getCommittedOffset());
+        checkpoint.setRowsCommitted(progress.getRowsCommitted());
+        checkpoint.setRecordsStaged(staged[0]);
+        checkpoint.setStagedBytes(staged[1]);
+        store.save(checkpoint);
+    }
+
+    /**
+     * 把读回的记录和重复过滤的结果计入管道报告的进度
+     */
+    private ImportPipeline.ImportProgress adjust(ImportPipeline.ImportProgress progress) {
+        long duplicates = duplicateFilter != null ? duplicateFilter.getDuplicateCount() : 0;
+        if (recordsReplayed == 0 && duplicates == 0) {
+            return progress;
+        }
+        return new ImportPipeline.ImportProgress(progress.getRowsRead(),
+                progress.getRowsAccepted() + recordsReplayed - duplicates,
+                progress.getRowsRejected(), progress.getRowsSkipped(), progress.getBytesRead(),
+                progress.getTotalBytes(), progress.getElapsedNanos(),
+                progress.getCommittedOffset(), progress.getRowsCommitted(), duplicates);
+    }
+
+    /**
+     * 只读取前limit个字节的输入流
+     */
+    private static class BoundedInputStream extends java.io.FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
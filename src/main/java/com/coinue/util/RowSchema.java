@@ -0,0 +1,48 @@
+package com.coinue.util;
+
+/**
+ * CSV行结构定义
+ * 描述一种CSV文件（支出、账单、还款提醒等）如何从一行字段解析为对象，
+ * 以及导入管道在校验和规范化阶段对该对象执行的处理。
+ * @param <T> 行对应的对象类型
+ */
+public interface RowSchema<T> {
+
+    /**
+     * 获取结构名称，用于日志和错误信息
+     * @return 结构名称
+     */
+    String getName();
+
+    /**
+     * 获取一行至少需要的字段数量，字段不足的行会被跳过
+     * @return 最少字段数量
+     */
+    int getMinimumFieldCount();
+
+    /**
+     * 解析阶段：把解析器当前行转换为对象
+     * @param row 已定位到数据行的解析器
+     * @return 解析得到的对象
+     * @throws RuntimeException 字段格式不正确时抛出
+     */
+    T parse(CSVParser row);
+
+    /**
+     * 校验阶段：检查对象是否有效
+     * @param item 解析得到的对象
+     * @return 有效返回true，无效的行会被计入拒绝数量
+     */
+    default boolean validate(T item) {
+        return true;
+    }
+
+    /**
+     * 规范化阶段：统一对象中的取值（如类别名称）
+     * @param item 已通过校验的对象
+     * @return 规范化后的对象
+     */
+    default T normalize(T item) {
+        return item;
+    }
+}
@@ -0,0 +1,296 @@
+package com.coinue.util;
+
+import com.coinue.model.UserAnalysisData;
+import com.coinue.model.UserBillData;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonAppend;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 持久化JSON文档的格式版本和迁移步骤
+ * 带版本的模型类用{@code @JsonAppend(attrs = @JsonAppend.Attr(VERSION_FIELD), prepend = true)}声明版本字段，
+ * 通过{@link #write}保存时版本号写在文档的第一个字段，没有版本字段的旧文档视为版本0。
+ * 每个类型按顺序注册从版本n升到n+1的步骤，当前版本就是步骤数。
+ * 读取时只解析第一个字段判断版本，已是当前版本的文档直接绑定；旧文档按步骤在JSON树上逐级升级，
+ * 由调用方把升级后的内容写回，每个文件只在第一次读取时迁移一次。
+ * 也可以用{@link #migrateAll}或main方法离线并行迁移整个用户目录。
+ */
+public final class SchemaMigrations {
+    /** 版本字段名 */
+    public static final String VERSION_FIELD = "schemaVersion";
+
+    /**
+     * 一个迁移步骤，把文档从版本n升到n+1
+     */
+    @FunctionalInterface
+    public interface Step {
+        /**
+         * 就地修改文档
+         * @param document 文档，不包含版本字段
+         */
+        void apply(ObjectNode document);
+    }
+
+    private static final Map<Class<?>, List<Step>> STEPS = new ConcurrentHashMap<>();
+    // 用户目录下带版本的数据文件及其类型，离线迁移时使用
+    private static final Map<String, Class<?>> DOCUMENTS = new LinkedHashMap<>();
+
+    static {
+        // 版本1：引入版本字段，字段布局与之前相同
+        register(UserAnalysisData.class, 0, document -> { });
+        register(UserBillData.class, 0, document -> { });
+        DOCUMENTS.put("analysis_data.json", UserAnalysisData.class);
+        DOCUMENTS.put("bill_data.json", UserBillData.class);
+    }
+
+    private SchemaMigrations() {
+    }
+
+    /**
+     * 注册迁移步骤，同一类型的步骤必须从版本0开始依次注册
+     * @param type 带版本字段声明的模型类
+     * @param fromVersion 步骤升级前的版本
+     * @param step 迁移步骤
+     */
+    public static synchronized void register(Class<?> type, int fromVersion, Step step) {
+        JsonAppend append = type.getAnnotation(JsonAppend.class);
+        if (append == null || !append.prepend() || append.attrs().length == 0
+                || !VERSION_FIELD.equals(append.attrs()[0].value())) {
+            throw new IllegalArgumentException(type.getName() + " 没有声明版本字段");
+        }
+        List<Step> steps = STEPS.computeIfAbsent(type, t -> new ArrayList<>());
+        if (fromVersion != steps.size()) {
+            throw new IllegalArgumentException(type.getName() + " 的下一个迁移步骤应从版本 " + steps.size()
+                    + " 开始，实际是 " + fromVersion);
+        }
+        steps.add(step);
+    }
+
+    /**
+     * 获取类型的当前版本
+     * @param type 类型
+     * @return 当前版本，没有注册迁移的类型返回0
+     */
+    public static int currentVersion(Class<?> type) {
+        List<Step> steps = STEPS.get(type);
+        return steps != null ? steps.size() : 0;
+    }
+
+    /**
+     * 按对象的运行时类型序列化，带版本的类型写入当前版本号
+     * @param value 对象
+     * @param pretty 是否缩进
+     * @return JSON内容
+     * @throws IOException 序列化失败时抛出
+     */
+    public static byte[] write(Object value, boolean pretty) throws IOException {
+        int version = value != null ? currentVersion(value.getClass()) : 0;
+        return JsonCodecs.writerFor(value, pretty).withAttribute(VERSION_FIELD, version > 0 ? version : null)
+                .writeValueAsBytes(value);
+    }
+
+    /**
+     * 读取文档的版本，只解析到第一个字段
+     * @param content JSON内容
+     * @return 版本，没有版本字段时返回0
+     * @throws IOException 内容不是合法JSON时抛出
+     */
+    public static int readVersion(byte[] content) throws IOException {
+        try (JsonParser parser = JsonCodecs.mapper().getFactory().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME
+                    || !VERSION_FIELD.equals(parser.currentName())) {
+                return 0;
+            }
+            return parser.nextToken() == JsonToken.VALUE_NUMBER_INT ? parser.getIntValue() : 0;
+        }
+    }
+
+    /**
+     * 判断文档是否需要迁移
+     * @param content JSON内容
+     * @param type 文档类型
+     * @return 版本低于类型的当前版本时返回true
+     * @throws IOException 内容不是合法JSON时抛出
+     */
+    public static boolean needsMigration(byte[] content, Class<?> type) throws IOException {
+        int current = currentVersion(type);
+        if (current == 0) {
+            return false;
+        }
+        int version = readVersion(content);
+        if (version > current) {
+            System.err.println(type.getSimpleName() + " 文档的版本 " + version + " 比程序支持的版本 " + current
+                    + " 新，按当前格式读取");
+        }
+        return version < current;
+    }
+
+    /**
+     * 把旧版本的文档升级到当前版本
+     * @param content 旧版本的JSON内容
+     * @param type 文档类型
+     * @param pretty 升级后是否缩进
+     * @return 升级后带当前版本号的JSON内容
+     * @throws IOException 解析或序列化失败时抛出
+     */
+    public static byte[] migrate(byte[] content, Class<?> type, boolean pretty) throws IOException {
+        JsonNode tree = JsonCodecs.mapper().readTree(content);
+        if (!(tree instanceof ObjectNode document)) {
+            throw new IOException(type.getSimpleName() + " 文档不是JSON对象");
+        }
+        JsonNode versionNode = document.remove(VERSION_FIELD);
+        int version = versionNode != null ? versionNode.asInt() : 0;
+        List<Step> steps = STEPS.getOrDefault(type, List.of());
+        for (int v = version; v < steps.size(); v++) {
+            steps.get(v).apply(document);
+        }
+        Object value = JsonCodecs.reader(type).readValue(document);
+        return write(value, pretty);
+    }
+
+    /**
+     * 并行迁移用户目录下所有用户的数据文件，已是当前版本的文件只读取第一个字段
+     * 写回使用临时文件加原子替换；应用运行时调用前应先让后台持久化线程写完
+     * @param usersDirectory 用户数据根目录，每个子目录是一个用户
+     * @param threads 并行线程数
+     * @return 迁移统计
+     * @throws IOException 列出用户目录失败时抛出，单个文件失败只计入统计
+     */
+    public static Report migrateAll(Path usersDirectory, int threads) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(usersDirectory)) {
+            try (DirectoryStream<Path> users = Files.newDirectoryStream(usersDirectory, Files::isDirectory)) {
+                for (Path user : users) {
+                    for (String name : DOCUMENTS.keySet()) {
+                        Path file = user.resolve(name);
+                        if (Files.isRegularFile(file)) {
+                            files.add(file);
+                        }
+                    }
+                }
+            }
+        }
+        Report report = new Report();
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> migrateFile(file, report)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    throw new IOException("迁移被中断", e);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private static void migrateFile(Path file, Report report) {
+        try {
+            byte[] content = Files.readAllBytes(file);
+            Class<?> type = DOCUMENTS.get(file.getFileName().toString());
+            report.filesScanned.increment();
+            report.bytesScanned.add(content.length);
+            if (needsMigration(content, type)) {
+                PersistenceWorker.writeAtomically(file, migrate(content, type, true));
+                report.filesMigrated.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            report.filesFailed.increment();
+            System.err.println("迁移数据文件失败: " + file + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * 离线迁移全部用户数据
+     * @param args 可选：用户数据根目录（默认data/users）、线程数（默认CPU核数）
+     * @throws IOException 列出用户目录失败时抛出
+     */
+    public static void main(String[] args) throws IOException {
+        Path usersDirectory = Paths.get(args.length > 0 ? args[0] : "data/users");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        System.out.println(migrateAll(usersDirectory, threads));
+    }
+
+    /**
+     * 一次离线迁移的统计
+     */
+    public static class Report {
+        private final LongAdder filesScanned = new LongAdder();
+        private final LongAdder filesMigrated = new LongAdder();
+        private final LongAdder filesFailed = new LongAdder();
+        private final LongAdder bytesScanned = new LongAdder();
+        private long elapsedNanos;
+
+        public long getFilesScanned() {
+            return filesScanned.sum();
+        }
+
+        public long getFilesMigrated() {
+            return filesMigrated.sum();
+        }
+
+        public long getFilesFailed() {
+            return filesFailed.sum();
+        }
+
+        public long getBytesScanned() {
+            return bytesScanned.sum();
+        }
+
+        /**
+         * 获取耗时
+         * @return 纳秒
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * 获取每秒处理的文件数
+         * @return 文件数
+         */
+        public double getFilesPerSecond() {
+            return elapsedNanos > 0 ? getFilesScanned() * 1e9 / elapsedNanos : 0;
+        }
+
+        /**
+         * 获取每秒处理的数据量
+         * @return MB
+         */
+        public double getMegabytesPerSecond() {
+            return elapsedNanos > 0 ? getBytesScanned() * 1e9 / elapsedNanos / (1024 * 1024) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("扫描 %d 个文件（%.1f KB），迁移 %d 个，失败 %d 个，耗时 %.1f ms，%.0f 文件/秒，%.2f MB/秒",
+                    getFilesScanned(), getBytesScanned() / 1024.0, getFilesMigrated(), getFilesFailed(),
+                    elapsedNanos / 1e6, getFilesPerSecond(), getMegabytesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,596 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 按月份分段保存的支出记录存储
+ * 每个月的记录保存为一个段文件，清单文件记录每段的日期范围、记录数和收支合计。
+ * 按日期查询时根据清单跳过不相交的段，只读取需要的月份；按月汇总可以直接读取清单，不需要打开任何段。
+ * 最近几个月的段是活动段，保存为{@link JournalStore}快照加日志；更早的段封存为只读的gzip压缩文件，
+ * 之后补录或删除历史记录时整段重写成新的压缩文件。没有日期的记录放在单独的活动段中。
+ * 记录按段的月份排列，同一段内按插入顺序排列，位置也按这个顺序计算。
+ * 清单只是缓存：打开时以目录中的段文件为准，活动段的统计重新计算，封存段的统计在文件大小不一致时重新计算。
+ */
+public class SegmentedExpenseRepository implements ExpenseRepository {
+    static final int DEFAULT_ACTIVE_MONTHS = 2;
+    private static final String MANIFEST_FILE = "manifest.json";
+    private static final String UNDATED = "undated";
+    private static final String ACTIVE_SUFFIX = ".json";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String SEALED_SUFFIX = ".json.gz";
+    private static final Pattern SEGMENT_FILE = Pattern.compile("(\\d{4}-\\d{2}|" + UNDATED + ")(\\.json|\\.journal|\\.json\\.gz)");
+    // 内存中最多保留的封存段数
+    private static final int MAX_CACHED_SEALED = 12;
+    private static final Type LIST_TYPE = new TypeToken<List<ExpenseRecord>>() {}.getType();
+    private static final Type MANIFEST_TYPE = new TypeToken<List<SegmentInfo>>() {}.getType();
+
+    private final Path dir;
+    private final Gson gson;
+    private final TreeMap<String, Segment> segments = new TreeMap<>();
+    private final LinkedHashMap<String, List<ExpenseRecord>> sealedCache = new LinkedHashMap<>(16, 0.75f, true);
+    private int activeMonths = DEFAULT_ACTIVE_MONTHS;
+    private int size;
+    private long segmentLoads;
+
+    /**
+     * 打开存储，目录不存在时从空存储开始
+     * 只读取清单和活动段，封存段在查询需要时才读取
+     * @param dir 段文件所在目录
+     * @param gson 序列化使用的Gson，需要能处理LocalDate
+     * @throws IOException 目录或段文件无法读取时抛出
+     */
+    public SegmentedExpenseRepository(Path dir, Gson gson) throws IOException {
+        this.dir = dir;
+        this.gson = gson;
+        Files.createDirectories(dir);
+        open();
+    }
+
+    /**
+     * 设置保持为活动段的月份数，包括当前月份；更早的段会被封存
+     * @param months 月份数
+     * @return 当前存储
+     * @throws IOException 封存段写入失败时抛出
+     */
+    public synchronized SegmentedExpenseRepository activeMonths(int months) throws IOException {
+        this.activeMonths = Math.max(1, months);
+        sealOldSegments();
+        writeManifest();
+        return this;
+    }
+
+    /**
+     * 获取各段的统计信息，按月份排列，没有日期的段排在最后
+     * @return 统计信息的副本
+     */
+    public synchronized List<SegmentInfo> getSegments() {
+        List<SegmentInfo> result = new ArrayList<>(segments.size());
+        for (Segment segment : segments.values()) {
+            result.add(segment.info.copy());
+        }
+        return result;
+    }
+
+    /**
+     * 获取从磁盘读取段文件的次数，用于确认查询只打开了需要的段
+     * @return 读取次数
+     */
+    public synchronized long getSegmentLoads() {
+        return segmentLoads;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized ExpenseRecord get(int position) {
+        checkPosition(position);
+        for (Segment segment : segments.values()) {
+            if (position < segment.info.rows) {
+                return read(segment, position);
+            }
+            position -= segment.info.rows;
+        }
+        throw new IndexOutOfBoundsException("位置超出范围: " + position);
+    }
+
+    @Override
+    public synchronized void insertAll(Collection<ExpenseRecord> records) throws IOException {
+        for (Map.Entry<String, List<ExpenseRecord>> group : groupByMonth(records).entrySet()) {
+            Segment segment = segments.computeIfAbsent(group.getKey(), key -> newSegment(key, isSealable(key)));
+            if (segment.info.sealed) {
+                List<ExpenseRecord> updated = segment.info.rows > 0
+                        ? new ArrayList<>(sealedRecords(segment)) : new ArrayList<>();
+                updated.addAll(group.getValue());
+                writeSealed(segment, updated);
+            } else {
+                segment.store.append(group.getValue());
+            }
+            for (ExpenseRecord record : group.getValue()) {
+                segment.info.add(record);
+            }
+            size += group.getValue().size();
+        }
+        sealOldSegments();
+        writeManifest();
+    }
+
+    @Override
+    public synchronized void delete(int position) throws IOException {
+        checkPosition(position);
+        for (Segment segment : segments.values()) {
+            if (position >= segment.info.rows) {
+                position -= segment.info.rows;
+                continue;
+            }
+            List<ExpenseRecord> remaining;
+            if (segment.info.sealed) {
+                remaining = new ArrayList<>(sealedRecords(segment));
+                remaining.remove(position);
+            } else {
+                segment.store.remove(position);
+                remaining = segment.store.load();
+            }
+            if (remaining.isEmpty()) {
+                removeSegment(segment);
+            } else {
+                if (segment.info.sealed) {
+                    writeSealed(segment, remaining);
+                }
+                segment.info = SegmentInfo.summarize(segment.info.month, segment.info.sealed, remaining);
+                segment.info.bytes = segment.info.sealed ? Files.size(sealedFile(segment.info.month)) : 0;
+            }
+            size--;
+            writeManifest();
+            return;
+        }
+    }
+
+    @Override
+    public synchronized void replaceAll(List<ExpenseRecord> records) throws IOException {
+        // 逐段替换，每段的写入都是原子的；最后删除新列表中没有的段
+        Map<String, List<ExpenseRecord>> groups = groupByMonth(records);
+        for (Map.Entry<String, List<ExpenseRecord>> group : groups.entrySet()) {
+            Segment segment = segments.computeIfAbsent(group.getKey(), key -> newSegment(key, isSealable(key)));
+            if (segment.info.sealed) {
+                writeSealed(segment, group.getValue());
+            } else {
+                segment.store.replaceAll(group.getValue());
+            }
+            segment.info = SegmentInfo.summarize(segment.info.month, segment.info.sealed, group.getValue());
+            segment.info.bytes = segment.info.sealed ? Files.size(sealedFile(segment.info.month)) : 0;
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (!groups.containsKey(segment.info.month)) {
+                removeSegment(segment);
+            }
+        }
+        size = records.size();
+        sealOldSegments();
+        writeManifest();
+    }
+
+    @Override
+    public synchronized Cursor query(LocalDate from, LocalDate to, String category) {
+        List<Cursor> parts = new ArrayList<>();
+        int offset = 0;
+        for (Segment segment : segments.values()) {
+            if (segment.info.overlaps(from, to)) {
+                parts.add(new ExpenseScanCursor(reader(segment), 0, segment.info.rows, offset, from, to, category));
+            }
+            offset += segment.info.rows;
+        }
+        return new ChainedCursor(parts);
+    }
+
+    /**
+     * 读取目录中的段文件，用清单中仍然有效的统计，其余的重新计算
+     */
+    private void open() throws IOException {
+        Map<String, SegmentInfo> manifest = readManifest();
+        TreeSet<String> sealedKeys = new TreeSet<>();
+        TreeSet<String> activeKeys = new TreeSet<>();
+        try (var files = Files.list(dir)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    (SEALED_SUFFIX.equals(matcher.group(2)) ? sealedKeys : activeKeys).add(matcher.group(1));
+                }
+            });
+        }
+        for (String key : sealedKeys) {
+            if (activeKeys.remove(key)) {
+                // 封存时压缩文件先原子写出，之后才删除活动段，两者同时存在说明删除前中断
+                deleteActiveFiles(key);
+            }
+            Segment segment = newSegment(key, true);
+            SegmentInfo cached = manifest.get(key);
+            long bytes = Files.size(sealedFile(key));
+            if (cached != null && cached.sealed && cached.bytes == bytes) {
+                segment.info = cached;
+            } else {
+                segment.info = SegmentInfo.summarize(key, true, sealedRecords(segment));
+                segment.info.bytes = bytes;
+            }
+            segments.put(key, segment);
+        }
+        for (String key : activeKeys) {
+            Segment segment = newSegment(key, false);
+            List<ExpenseRecord> records = segment.store.load();
+            segmentLoads++;
+            if (records.isEmpty()) {
+                deleteActiveFiles(key);
+                continue;
+            }
+            segment.info = SegmentInfo.summarize(key, false, records);
+            segments.put(key, segment);
+        }
+        for (Segment segment : segments.values()) {
+            size += segment.info.rows;
+        }
+        sealOldSegments();
+        writeManifest();
+    }
+
+    private Map<String, SegmentInfo> readManifest() {
+        Path file = dir.resolve(MANIFEST_FILE);
+        Map<String, SegmentInfo> manifest = new HashMap<>();
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<SegmentInfo> entries = gson.fromJson(reader, MANIFEST_TYPE);
+            if (entries != null) {
+                for (SegmentInfo entry : entries) {
+                    if (entry != null && entry.month != null) {
+                        manifest.put(entry.month, entry);
+                    }
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            System.err.println("读取支出分段清单失败，重新统计: " + e.getMessage());
+        }
+        return manifest;
+    }
+
+    private void writeManifest() throws IOException {
+        List<SegmentInfo> entries = new ArrayList<>(segments.size());
+        for (Segment segment : segments.values()) {
+            entries.add(segment.info);
+        }
+        Path temp = dir.resolve(MANIFEST_FILE + ".tmp");
+        Files.writeString(temp, gson.toJson(entries, MANIFEST_TYPE), StandardCharsets.UTF_8);
+        moveAtomically(temp, dir.resolve(MANIFEST_FILE));
+    }
+
+    /**
+     * 把超出活动月份范围的活动段封存为压缩文件
+     */
+    private void sealOldSegments() throws IOException {
+        for (Segment segment : segments.values()) {
+            if (segment.info.sealed || !isSealable(segment.info.month)) {
+                continue;
+            }
+            List<ExpenseRecord> records = segment.store.load();
+            segment.info.sealed = true;
+            writeSealed(segment, records);
+            deleteActiveFiles(segment.info.month);
+            segment.store = null;
+        }
+    }
+
+    private boolean isSealable(String key) {
+        if (UNDATED.equals(key)) {
+            return false;
+        }
+        YearMonth oldestActive = YearMonth.now().minusMonths(activeMonths - 1);
+        return YearMonth.parse(key).isBefore(oldestActive);
+    }
+
+    private Segment newSegment(String key, boolean sealed) {
+        Segment segment = new Segment(new SegmentInfo(key, sealed));
+        if (!sealed) {
+            segment.store = new JournalStore<>(dir.resolve(key + ACTIVE_SUFFIX), gson, ExpenseRecord.class);
+        }
+        return segment;
+    }
+
+    private void removeSegment(Segment segment) throws IOException {
+        String key = segment.info.month;
+        if (segment.info.sealed) {
+            sealedCache.remove(key);
+            Files.deleteIfExists(sealedFile(key));
+        } else {
+            deleteActiveFiles(key);
+        }
+        segments.remove(key);
+    }
+
+    private void deleteActiveFiles(String key) throws IOException {
+        Segment segment = segments.get(key);
+        // 持有日志存储的锁删除，后台合并发现文件变化后会放弃写入
+        Object lock = segment != null && segment.store != null ? segment.store : this;
+        synchronized (lock) {
+            Files.deleteIfExists(dir.resolve(key + ACTIVE_SUFFIX));
+            Files.deleteIfExists(dir.resolve(key + JOURNAL_SUFFIX));
+        }
+    }
+
+    private Path sealedFile(String key) {
+        return dir.resolve(key + SEALED_SUFFIX);
+    }
+
+    private List<ExpenseRecord> sealedRecords(Segment segment) {
+        String key = segment.info.month;
+        List<ExpenseRecord> records = sealedCache.get(key);
+        if (records != null) {
+            return records;
+        }
+        Path file = sealedFile(key);
+        try (Reader reader = new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)),
+                StandardCharsets.UTF_8)) {
+            List<ExpenseRecord> loaded = gson.fromJson(reader, LIST_TYPE);
+            records = loaded != null ? loaded : new ArrayList<>();
+        } catch (IOException | JsonParseException e) {
+            throw new IllegalStateException("读取支出分段失败: " + file, e);
+        }
+        segmentLoads++;
+        cacheSealed(key, records);
+        return records;
+    }
+
+    private void writeSealed(Segment segment, List<ExpenseRecord> records) throws IOException {
+        String key = segment.info.month;
+        Path target = sealedFile(key);
+        Path temp = dir.resolve(key + SEALED_SUFFIX + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(temp)),
+                StandardCharsets.UTF_8)) {
+            gson.toJson(records, LIST_TYPE, writer);
+        }
+        moveAtomically(temp, target);
+        segment.info.bytes = Files.size(target);
+        // 缓存的列表不再被修改，读取时返回副本
+        cacheSealed(key, new ArrayList<>(records));
+    }
+
+    private void cacheSealed(String key, List<ExpenseRecord> records) {
+        sealedCache.put(key, records);
+        Iterator<String> eldest = sealedCache.keySet().iterator();
+        while (sealedCache.size() > MAX_CACHED_SEALED && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private synchronized ExpenseRecord read(Segment segment, int index) {
+        if (!segment.info.sealed) {
+            return segment.store.get(index);
+        }
+        ExpenseRecord record = sealedRecords(segment).get(index);
+        return gson.fromJson(gson.toJsonTree(record), ExpenseRecord.class);
+    }
+
+    private IntFunction<ExpenseRecord> reader(Segment segment) {
+        return index -> read(segment, index);
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("位置超出范围: " + position + ", 记录数: " + size);
+        }
+    }
+
+    private static Map<String, List<ExpenseRecord>> groupByMonth(Collection<ExpenseRecord> records) {
+        Map<String, List<ExpenseRecord>> groups = new LinkedHashMap<>();
+        for (ExpenseRecord record : records) {
+            groups.computeIfAbsent(keyOf(record.getDate()), key -> new ArrayList<>()).add(record);
+        }
+        return groups;
+    }
+
+    private static String keyOf(LocalDate date) {
+        return date != null ? YearMonth.from(date).toString() : UNDATED;
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 一个段的统计信息，保存在清单中
+     */
+    public static class SegmentInfo {
+        private String month;
+        private boolean sealed;
+        private int rows;
+        private LocalDate minDate;
+        private LocalDate maxDate;
+        private double expenseTotal;
+        private double incomeTotal;
+        // 封存段压缩文件的字节数，用来判断清单是否过期
+        private long bytes;
+
+        SegmentInfo(String month, boolean sealed) {
+            this.month = month;
+            this.sealed = sealed;
+        }
+
+        static SegmentInfo summarize(String month, boolean sealed, List<ExpenseRecord> records) {
+            SegmentInfo info = new SegmentInfo(month, sealed);
+            for (ExpenseRecord record : records) {
+                info.add(record);
+            }
+            return info;
+        }
+
+        void add(ExpenseRecord record) {
+            rows++;
+            LocalDate date = record.getDate();
+            if (date != null) {
+                minDate = minDate == null || date.isBefore(minDate) ? date : minDate;
+                maxDate = maxDate == null || date.isAfter(maxDate) ? date : maxDate;
+            }
+            if ("收入".equals(record.getRecordType())) {
+                incomeTotal += record.getAmount();
+            } else {
+                expenseTotal += record.getAmount();
+            }
+        }
+
+        boolean overlaps(LocalDate from, LocalDate to) {
+            if (from == null && to == null) {
+                return true;
+            }
+            if (minDate == null) {
+                return false;
+            }
+            return (to == null || !minDate.isAfter(to)) && (from == null || !maxDate.isBefore(from));
+        }
+
+        SegmentInfo copy() {
+            SegmentInfo copy = new SegmentInfo(month, sealed);
+            copy.rows = rows;
+            copy.minDate = minDate;
+            copy.maxDate = maxDate;
+            copy.expenseTotal = expenseTotal;
+            copy.incomeTotal = incomeTotal;
+            copy.bytes = bytes;
+            return copy;
+        }
+
+        /**
+         * 获取段的月份
+         * @return 月份，没有日期的段返回null
+         */
+        public YearMonth getMonth() {
+            return UNDATED.equals(month) ? null : YearMonth.parse(month);
+        }
+
+        /**
+         * 是否已封存为只读的压缩文件
+         * @return 是否封存
+         */
+        public boolean isSealed() {
+            return sealed;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public LocalDate getMinDate() {
+            return minDate;
+        }
+
+        public LocalDate getMaxDate() {
+            return maxDate;
+        }
+
+        /**
+         * 获取支出合计，记录类型不是收入的都计为支出
+         * @return 支出合计
+         */
+        public double getExpenseTotal() {
+            return expenseTotal;
+        }
+
+        public double getIncomeTotal() {
+            return incomeTotal;
+        }
+    }
+
+    private static class Segment {
+        SegmentInfo info;
+        // 活动段的日志存储，封存段为null
+        JournalStore<ExpenseRecord> store;
+
+        Segment(SegmentInfo info) {
+            this.info = info;
+        }
+    }
+
+    /**
+     * 依次返回各段游标的记录
+     */
+    private static class ChainedCursor implements Cursor {
+        private final List<Cursor> parts;
+        private int current;
+        private int position = -1;
+
+        ChainedCursor(List<Cursor> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current < parts.size()) {
+                if (parts.get(current).hasNext()) {
+                    return true;
+                }
+                current++;
+            }
+            return false;
+        }
+
+        @Override
+        public ExpenseRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Cursor part = parts.get(current);
+            ExpenseRecord record = part.next();
+            position = part.position();
+            return record;
+        }
+
+        @Override
+        public int position() {
+            return position;
+        }
+
+        @Override
+        public void close() {
+            for (Cursor part : parts) {
+                part.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.coinue.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 目录级的重做日志，把对同一目录下多个文件的写入作为一个整体提交
+ * 提交时先把全部写入内容连同校验和写入日志并刷到磁盘，再逐个写入目标文件，全部完成后删除日志。
+ * 写入目标文件的过程中崩溃时，下次启动调用{@link #recover()}按日志重做全部写入；
+ * 日志本身没有写完整（校验和不匹配）说明事务尚未提交，直接丢弃，目标文件都还是旧内容。
+ * 每种写入重复执行的结果都相同，重做可以安全地执行多次。
+ * 同一目录的事务依次提交，不同目录各有自己的日志，可以同时提交。
+ */
+public class TransactionLog {
+    /** 日志文件名 */
+    public static final String LOG_FILE = "transaction.log";
+    private static final int MAGIC = 0x43545854; // "CTXT"
+    private static final byte OP_REPLACE = 1;
+    private static final byte OP_WRITE_AT = 2;
+
+    private final Path directory;
+    private final Path logFile;
+    private final PersistenceWorker persistence;
+    private long commits;
+    private long recoveries;
+
+    /**
+     * 创建日志
+     * @param directory 事务涉及的文件所在的目录，日志也保存在这里
+     */
+    public TransactionLog(Path directory) {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.logFile = this.directory.resolve(LOG_FILE);
+        this.persistence = PersistenceWorker.getInstance();
+    }
+
+    /**
+     * 开始一个事务，提交之前不会写任何文件
+     * @return 事务
+     */
+    public Transaction begin() {
+        return new Transaction();
+    }
+
+    /**
+     * 按上次没有完成的日志重做写入
+     * @return 是否重做了一个事务
+     * @throws IOException 读取日志或写入文件失败时抛出，日志保留，下次继续重做
+     */
+    public synchronized boolean recover() throws IOException {
+        if (!Files.exists(logFile)) {
+            return false;
+        }
+        List<Operation> operations = readLog(Files.readAllBytes(logFile));
+        if (operations == null) {
+            System.err.println("丢弃未提交完成的事务日志: " + logFile);
+        } else {
+            apply(operations);
+            recoveries++;
+            System.out.println("已按事务日志重做 " + operations.size() + " 个文件写入: " + directory);
+        }
+        Files.deleteIfExists(logFile);
+        return operations != null;
+    }
+
+    /**
+     * 获取提交的事务数
+     * @return 事务数
+     */
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    /**
+     * 获取启动时重做的事务数
+     * @return 事务数
+     */
+    public synchronized long getRecoveries() {
+        return recoveries;
+    }
+
+    private synchronized void commit(List<Operation> operations) throws IOException {
+        if (operations.isEmpty()) {
+            return;
+        }
+        // 上次的事务没有完成时先重做，保证按提交顺序生效
+        recover();
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            if (operation.type != OP_REPLACE) {
+                continue;
+            }
+            // 由事务自己写入，尚未落盘的内容不能在事务之后再写回；
+            // 记录之后又经后台线程保存过的内容比事务中的新，改为提交那份内容
+            byte[] saved = persistence.take(directory.resolve(operation.path));
+            if (saved != null && saved != operation.baseline) {
+                operations.set(i, new Operation(OP_REPLACE, operation.path, 0, saved, null));
+            }
+        }
+        writeLog(operations);
+        apply(operations);
+        Files.deleteIfExists(logFile);
+        commits++;
+    }
+
+    private void apply(List<Operation> operations) throws IOException {
+        for (Operation operation : operations) {
+            Path target = directory.resolve(operation.path);
+            if (operation.type == OP_REPLACE) {
+                PersistenceWorker.writeAtomically(target, operation.content);
+            } else {
+                Files.createDirectories(target.getParent());
+                try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    channel.truncate(operation.offset);
+                    ByteBuffer buffer = ByteBuffer.wrap(operation.content);
+                    long position = operation.offset;
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    channel.force(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * 日志格式：MAGIC、操作数，每个操作为类型、路径、偏移和内容，最后是之前全部内容的CRC32
+     */
+    private void writeLog(List<Operation> operations) throws IOException {
+        int length = 8;
+        List<byte[]> paths = new ArrayList<>(operations.size());
+        for (Operation operation : operations) {
+            byte[] path = operation.path.getBytes(StandardCharsets.UTF_8);
+            paths.add(path);
+            length += 1 + 2 + path.length + 8 + 4 + operation.content.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length + 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            buffer.put(operation.type).putShort((short) paths.get(i).length).put(paths.get(i))
+                    .putLong(operation.offset).putInt(operation.content.length).put(operation.content);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, length);
+        buffer.putLong(crc.getValue()).flip();
+        Files.createDirectories(directory);
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 解析日志
+     * @return 操作列表，日志不完整或校验和不匹配时返回null
+     */
+    private static List<Operation> readLog(byte[] content) {
+        if (content.length < 16) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - 8);
+        ByteBuffer buffer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getLong(content.length - 8) != crc.getValue() || buffer.getInt() != MAGIC) {
+            return null;
+        }
+        int count = buffer.getInt();
+        List<Operation> operations = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = buffer.get();
+            byte[] path = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(path);
+            long offset = buffer.getLong();
+            byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            operations.add(new Operation(type, new String(path, StandardCharsets.UTF_8), offset, data, null));
+        }
+        return operations;
+    }
+
+    /**
+     * 一个事务，记录要写入的文件，提交时一起生效
+     */
+    public class Transaction {
+        private final List<Operation> operations = new ArrayList<>();
+        private boolean committed;
+
+        /**
+         * 用新内容替换整个文件
+         * 提交前又通过{@link PersistenceWorker}保存了同一文件时，提交较新的那份内容
+         * @param file 目标文件，必须在日志所在的目录下
+         * @param content 文件内容，提交前不应再修改
+         * @return 当前事务
+         */
+        public Transaction replace(Path file, byte[] content) {
+            String path = relativize(file);
+            operations.add(new Operation(OP_REPLACE, path, 0, content,
+                    persistence.getPending(directory.resolve(path))));
+            return this;
+        }
+
+        /**
+         * 截断文件到offset，再在offset处写入内容；用于追加，重做时不会重复追加
+         * @param file 目标文件，必须在日志所在的目录下，不存在时创建
+         * @param offset 写入位置
+         * @param content 写入的内容，提交前不应再修改
+         * @return 当前事务
+         */
+        public Transaction writeAt(Path file, long offset, byte[] content) {
+            operations.add(new Operation(OP_WRITE_AT, relativize(file), offset, content, null));
+            return this;
+        }
+
+        /**
+         * 获取事务涉及的文件
+         * @return 文件的绝对路径
+         */
+        public List<Path> getFiles() {
+            List<Path> files = new ArrayList<>(operations.size());
+            for (Operation operation : operations) {
+                files.add(directory.resolve(operation.path));
+            }
+            return files;
+        }
+
+        /**
+         * 提交事务，返回时所有写入都已落盘
+         * @throws IOException 写入失败时抛出；日志已写完整时下次恢复会重做
+         */
+        public void commit() throws IOException {
+            if (committed) {
+                throw new IllegalStateException("事务已经提交");
+            }
+            committed = true;
+            TransactionLog.this.commit(operations);
+        }
+
+        /**
+         * 只写入日志不写目标文件，相当于提交时在日志落盘后崩溃，用于测试恢复
+         * @throws IOException 写入日志失败时抛出
+         */
+        void prepare() throws IOException {
+            committed = true;
+            synchronized (TransactionLog.this) {
+                writeLog(operations);
+            }
+        }
+
+        private String relativize(Path file) {
+            Path target = file.toAbsolutePath().normalize();
+            if (!target.startsWith(directory) || target.equals(directory) || target.equals(logFile)) {
+                throw new IllegalArgumentException("文件不在事务目录中: " + file);
+            }
+            return directory.relativize(target).toString().replace('\\', '/');
+        }
+    }
+
+    private static class Operation {
+        final byte type;
+        final String path;
+        final long offset;
+        final byte[] content;
+        // 记录操作时后台线程中该文件尚未落盘的内容，只用于提交时判断之后是否又保存过，不写入日志
+        final byte[] baseline;
+
+        Operation(byte type, String path, long offset, byte[] content, byte[] baseline) {
+            this.type = type;
+            this.path = path;
+            this.offset = offset;
+            this.content = content;
+            this.baseline = baseline;
+        }
+    }
+}
@@ -1,41 +1,33 @@
 package com.coinue.util;
 
 import com.coinue.model.User;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-// 需要在pom.xml中添加以下依赖:
-// <dependency>
-//     <groupId>com.fasterxml.jackson.datatype</groupId>
-//     <artifactId>jackson-datatype-jsr310</artifactId>
-//     <version>2.15.2</version>
-// </dependency>
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 用户数据管理类
- * 负责用户数据的JSON格式存储和管理
+ * 负责用户数据的JSON格式存储和管理，用户按分片保存在{@link UserStore}中
+ * 可以被多个线程同时调用：查找不加锁，注册、修改时按用户名和邮箱加分段锁，保证唯一性检查和写入是原子的
  */
 public class UserDataManager {
     // 数据存储目录
     private static final String DATA_DIR = "data";
     // 用户数据文件
     private static final String USERS_FILE = DATA_DIR + File.separator + "users.json";
-    // Jackson ObjectMapper用于JSON序列化和反序列化
-    private final ObjectMapper objectMapper;
-    // 用户数据缓存，用户名作为键
-    private Map<String, User> userCache;
-    // 用户数据缓存，邮箱作为键
-    private Map<String, User> emailCache;
+    // 分片用户存储目录
+    private static final String USER_STORE_DIR = DATA_DIR + File.separator + "user_store";
+    // 按用户名哈希分片的用户存储，启动时只加载索引
+    private UserStore userStore;
+    // 用户名和邮箱的分段锁数量
+    private static final int RESERVATION_STRIPES = 64;
+    // 按用户名或邮箱的哈希选择的分段锁，同一用户名或邮箱的检查和写入在同一把锁下进行
+    private final ReentrantLock[] reservationLocks = new ReentrantLock[RESERVATION_STRIPES];
 
     /**
      * 单例实例
@@ -54,21 +46,17 @@ public class UserDataManager {
     }
 
     /**
-     * 私有构造函数，初始化ObjectMapper和用户缓存
+     * 私有构造函数，打开用户存储
      */
     private UserDataManager() {
-        objectMapper = new ObjectMapper();
-        // 注册JavaTimeModule以支持Java 8日期/时间类型
-        objectMapper.registerModule(new JavaTimeModule());
-        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-        
-        userCache = new HashMap<>();
-        emailCache = new HashMap<>();
+        for (int i = 0; i < reservationLocks.length; i++) {
+            reservationLocks[i] = new ReentrantLock();
+        }
         
         // 确保数据目录存在
         ensureDataDirectoryExists();
-        // 加载现有用户数据
-        loadUsers();
+        // 打开用户存储，首次运行时从users.json迁移
+        openUserStore();
     }
 
     /**
@@ -86,36 +74,82 @@ public class UserDataManager {
     }
 
     /**
-     * 加载用户数据
+     * 打开分片用户存储
+     * 存储尚不存在时把旧的users.json导入存储，users.json保留不动，之后不再读取
      */
-    private void loadUsers() {
-        File usersFile = new File(USERS_FILE);
-        if (usersFile.exists()) {
-            try {
-                User[] users = objectMapper.readValue(usersFile, User[].class);
-                for (User user : users) {
-                    userCache.put(user.getUsername(), user);
-                    if (user.getEmail() != null) {
-                        emailCache.put(user.getEmail(), user);
-                    }
-                }
-                System.out.println("成功加载" + users.length + "个用户数据");
-            } catch (IOException e) {
-                System.err.println("加载用户数据失败: " + e.getMessage());
+    private void openUserStore() {
+        Path storeDir = Paths.get(USER_STORE_DIR);
+        boolean migrate = !UserStore.exists(storeDir);
+        try {
+            userStore = new UserStore(storeDir);
+            if (migrate && userStore.size() == 0) {
+                migrateUsersFile();
             }
+            System.out.println("成功加载" + userStore.size() + "个用户索引");
+        } catch (IOException e) {
+            System.err.println("加载用户数据失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把users.json中的用户导入分片存储
+     */
+    private void migrateUsersFile() throws IOException {
+        File usersFile = new File(USERS_FILE);
+        byte[] pending = PersistenceWorker.getInstance().getPending(usersFile.toPath());
+        if (pending == null && !usersFile.exists()) {
+            return;
         }
+        // 尚未落盘的内容比文件中的更新
+        User[] users = pending != null
+                ? JsonCodecs.reader(JsonCodecs.USER_ARRAY).readValue(pending)
+                : JsonCodecs.reader(JsonCodecs.USER_ARRAY).readValue(usersFile);
+        userStore.putAll(Arrays.asList(users));
+        System.out.println("已将" + users.length + "个用户从users.json迁移到分片存储");
     }
 
     /**
-     * 保存用户数据
+     * 保存单个用户，只重写该用户所在的分片
+     * @param user 用户对象
+     * @return 是否保存成功
      */
-    private void saveUsers() {
+    private boolean saveUser(User user) {
+        if (userStore == null) {
+            System.err.println("保存用户数据失败: 用户存储未打开");
+            return false;
+        }
         try {
-            List<User> users = new ArrayList<>(userCache.values());
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(USERS_FILE), users);
-            System.out.println("成功保存" + users.size() + "个用户数据");
+            userStore.put(user);
+            return true;
         } catch (IOException e) {
             System.err.println("保存用户数据失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 锁住给定用户名和邮箱对应的分段锁，按编号顺序加锁避免死锁
+     * @param keys 用户名或邮箱，可以为null
+     * @return 已加锁的分段编号，需要传给unlockReservations释放
+     */
+    private int[] lockReservations(String... keys) {
+        int[] stripes = new int[keys.length];
+        int count = 0;
+        for (String key : keys) {
+            if (key != null) {
+                stripes[count++] = (key.hashCode() & 0x7fffffff) % RESERVATION_STRIPES;
+            }
+        }
+        stripes = Arrays.stream(stripes, 0, count).sorted().distinct().toArray();
+        for (int stripe : stripes) {
+            reservationLocks[stripe].lock();
+        }
+        return stripes;
+    }
+
+    private void unlockReservations(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            reservationLocks[stripes[i]].unlock();
         }
     }
 
@@ -130,27 +164,25 @@ public class UserDataManager {
             return false;
         }
         
-        // 检查用户名是否已存在
-        if (userCache.containsKey(user.getUsername())) {
-            System.out.println("用户名已存在: " + user.getUsername());
-            return false;
-        }
-        
-        // 检查邮箱是否已存在
-        if (user.getEmail() != null && emailCache.containsKey(user.getEmail())) {
-            System.out.println("邮箱已存在: " + user.getEmail());
-            return false;
-        }
-        
-        // 添加到缓存
-        userCache.put(user.getUsername(), user);
-        if (user.getEmail() != null) {
-            emailCache.put(user.getEmail(), user);
+        int[] stripes = lockReservations(user.getUsername(), user.getEmail());
+        try {
+            // 检查用户名是否已存在
+            if (getUserByUsername(user.getUsername()) != null) {
+                System.out.println("用户名已存在: " + user.getUsername());
+                return false;
+            }
+
+            // 检查邮箱是否已存在
+            if (user.getEmail() != null && getUserByEmail(user.getEmail()) != null) {
+                System.out.println("邮箱已存在: " + user.getEmail());
+                return false;
+            }
+
+            // 保存数据
+            return saveUser(user);
+        } finally {
+            unlockReservations(stripes);
         }
-        
-        // 保存数据
-        saveUsers();
-        return true;
     }
 
     /**
@@ -199,7 +231,7 @@ public class UserDataManager {
      * @return 用户对象，如果不存在则返回null
      */
     public User getUserByUsername(String username) {
-        return userCache.get(username);
+        return userStore != null ? userStore.findByUsername(username) : null;
     }
 
     /**
@@ -208,7 +240,7 @@ public class UserDataManager {
      * @return 用户对象，如果不存在则返回null
      */
     public User getUserByEmail(String email) {
-        return emailCache.get(email);
+        return userStore != null ? userStore.findByEmail(email) : null;
     }
 
     /**
@@ -244,37 +276,28 @@ public class UserDataManager {
             return false;
         }
 
-        User currentUserInCache = userCache.get(userWithChanges.getUsername());
-        if (currentUserInCache == null) {
-            return false;
-        }
-
-        String emailAsItWasInCache = currentUserInCache.getEmail();
         String emailProposedInUpdate = userWithChanges.getEmail();
+        int[] stripes = lockReservations(userWithChanges.getUsername(), emailProposedInUpdate);
+        try {
+            User currentUserInCache = getUserByUsername(userWithChanges.getUsername());
+            if (currentUserInCache == null) {
+                return false;
+            }
 
-        boolean isEmailActuallyChanging = !java.util.Objects.equals(emailAsItWasInCache, emailProposedInUpdate);
-
-        if (isEmailActuallyChanging && emailProposedInUpdate != null) {
-            User occupantOfProposedEmail = emailCache.get(emailProposedInUpdate);
-            if (occupantOfProposedEmail != null) {
-                if (!occupantOfProposedEmail.getUsername().equals(userWithChanges.getUsername())) {
-                    return false; // Conflict with another user
+            // 传入的对象可能就是缓存中被直接修改过的对象，所以不和缓存中的邮箱比较，总是检查新邮箱的归属
+            if (emailProposedInUpdate != null) {
+                User occupantOfProposedEmail = getUserByEmail(emailProposedInUpdate);
+                if (occupantOfProposedEmail != null) {
+                    if (!occupantOfProposedEmail.getUsername().equals(userWithChanges.getUsername())) {
+                        return false; // Conflict with another user
+                    }
                 }
             }
-        }
-
-        if (isEmailActuallyChanging && emailAsItWasInCache != null) {
-            emailCache.remove(emailAsItWasInCache);
-        }
-
-        userCache.put(userWithChanges.getUsername(), userWithChanges);
 
-        if (emailProposedInUpdate != null) {
-            emailCache.put(emailProposedInUpdate, userWithChanges);
+            return saveUser(userWithChanges);
+        } finally {
+            unlockReservations(stripes);
         }
-
-        saveUsers();
-        return true;
     }
 
     /**
@@ -320,11 +343,15 @@ public class UserDataManager {
             return false;
         }
         
-        // 更新密码
-        user.setPassword(newPassword);
-        
-        // 保存数据
-        saveUsers();
-        return true;
+        int[] stripes = lockReservations(user.getUsername());
+        try {
+            // 更新密码
+            user.setPassword(newPassword);
+
+            // 保存数据
+            return saveUser(user);
+        } finally {
+            unlockReservations(stripes);
+        }
     }
 }
\ No newline at end of file
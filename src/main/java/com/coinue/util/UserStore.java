@@ -0,0 +1,659 @@
+package com.coinue.util;
+
+import com.coinue.model.User;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 分片的用户存储，使用{@link JsonCodecs}中预先构建的User[]读写器
+ * 用户按用户名哈希分到固定数量的分片文件中，每次修改只重写所在的分片（通过{@link PersistenceWorker}原子替换）。
+ * 启动时只加载紧凑索引：用户名哈希到邮箱哈希、邮箱哈希到用户名哈希的两张原始类型哈希表，每个用户约占32字节；
+ * 完整的User对象按分片在需要时加载，最近使用的分片保留在LRU缓存中。
+ * 索引文件只追加16字节的记录，写分片之前先写索引，中断后索引最多多出尚未落盘的用户，查找时总会用分片内容确认。
+ * 查找不加锁：索引表用{@link StampedLock}乐观读，缓存的分片是不可变快照，修改时在分片锁内复制后整体替换。
+ */
+public class UserStore {
+    static final int DEFAULT_SHARD_COUNT = 256;
+    static final int DEFAULT_CACHED_SHARDS = 64;
+
+    private static final int MAGIC = 0x43555349; // "CUSI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 16;
+    private static final String INDEX_FILE = "index.bin";
+
+    private final Path directory;
+    private final Path indexFile;
+    private final PersistenceWorker persistence;
+    private final int shardCount;
+    private final int maxCachedShards;
+
+    // 用户名哈希 -> 邮箱哈希（没有邮箱时为0）
+    private final LongTable usernames = new LongTable();
+    // 邮箱哈希 -> 用户名哈希
+    private final LongTable emails = new LongTable();
+    // 保护两张索引表和索引文件，读取使用乐观读
+    private final StampedLock indexLock = new StampedLock();
+    private long indexRecords;
+    // 已加载的分片，按最近访问时间近似LRU逐出
+    private final ConcurrentHashMap<Integer, CachedShard> shards = new ConcurrentHashMap<>();
+    // 每个分片一把锁，加载和修改分片时持有，读取已缓存的分片不需要
+    private final Object[] shardLocks;
+    private final AtomicLong accessClock = new AtomicLong();
+    private final LongAdder shardLoads = new LongAdder();
+
+    /**
+     * 打开用户存储，目录不存在时创建空存储
+     * @param directory 存储目录
+     */
+    public UserStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SHARD_COUNT, DEFAULT_CACHED_SHARDS);
+    }
+
+    UserStore(Path directory, int shardCount, int maxCachedShards) throws IOException {
+        this.directory = directory;
+        this.indexFile = directory.resolve(INDEX_FILE);
+        this.persistence = PersistenceWorker.getInstance();
+        this.maxCachedShards = Math.max(1, maxCachedShards);
+        Files.createDirectories(directory);
+        this.shardCount = loadIndex(shardCount);
+        this.shardLocks = new Object[this.shardCount];
+        for (int i = 0; i < shardLocks.length; i++) {
+            shardLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * 存储是否已经有索引文件，用于判断是否需要从旧格式迁移
+     * @param directory 存储目录
+     * @return 是否存在索引
+     */
+    public static boolean exists(Path directory) {
+        return Files.exists(directory.resolve(INDEX_FILE));
+    }
+
+    /**
+     * 获取用户数
+     * @return 用户数
+     */
+    public int size() {
+        long stamp = indexLock.readLock();
+        try {
+            return usernames.size();
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 根据用户名查找用户
+     * @param username 用户名
+     * @return 用户对象，不存在时返回null
+     */
+    public User findByUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        long usernameHash = hash(username);
+        if (!containsUsername(usernameHash)) {
+            return null;
+        }
+        return shard(shardOf(usernameHash)).get(username);
+    }
+
+    /**
+     * 根据邮箱查找用户
+     * @param email 邮箱
+     * @return 用户对象，不存在时返回null
+     */
+    public User findByEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        long usernameHash = emailOwner(hash(email));
+        if (usernameHash == 0) {
+            return null;
+        }
+        for (User user : shard(shardOf(usernameHash)).values()) {
+            if (email.equals(user.getEmail())) {
+                return user;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 新增或替换用户，只重写该用户所在的分片
+     * 不同分片的修改可以并发进行，同一分片的修改按顺序排队；用户名和邮箱的唯一性由调用方保证
+     * @param user 用户对象
+     * @throws IOException 写索引或序列化失败时抛出
+     */
+    public void put(User user) throws IOException {
+        long usernameHash = hash(user.getUsername());
+        long emailHash = user.getEmail() != null ? hash(user.getEmail()) : 0;
+        int shardIndex = shardOf(usernameHash);
+        synchronized (shardLocks[shardIndex]) {
+            CachedShard cached = loadShard(shardIndex);
+            updateIndex(usernameHash, emailHash);
+            Map<String, User> updated = new LinkedHashMap<>(cached.users);
+            updated.put(user.getUsername(), user);
+            cached.users = Collections.unmodifiableMap(updated);
+            // 在分片锁内提交写入，之后重新加载这个分片的线程一定能读到新内容
+            writeShard(shardIndex, updated);
+        }
+    }
+
+    /**
+     * 批量写入用户，用于从旧格式迁移，每个分片只写一次，最后重写索引
+     * @param users 用户
+     * @throws IOException 写入失败时抛出
+     */
+    public void putAll(Collection<User> users) throws IOException {
+        Map<Integer, List<User>> byShard = new LinkedHashMap<>();
+        long stamp = indexLock.writeLock();
+        try {
+            for (User user : users) {
+                long usernameHash = hash(user.getUsername());
+                byShard.computeIfAbsent(shardOf(usernameHash), k -> new ArrayList<>()).add(user);
+                applyIndex(usernameHash, user.getEmail() != null ? hash(user.getEmail()) : 0);
+            }
+            rewriteIndex(shardCount);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+        for (Map.Entry<Integer, List<User>> entry : byShard.entrySet()) {
+            int shardIndex = entry.getKey();
+            synchronized (shardLocks[shardIndex]) {
+                CachedShard cached = loadShard(shardIndex);
+                Map<String, User> updated = new LinkedHashMap<>(cached.users);
+                for (User user : entry.getValue()) {
+                    updated.put(user.getUsername(), user);
+                }
+                cached.users = Collections.unmodifiableMap(updated);
+                writeShard(shardIndex, updated);
+            }
+        }
+    }
+
+    /**
+     * 获取分片数
+     * @return 分片数
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * 获取缓存中的分片数
+     * @return 已加载的分片数
+     */
+    public int getCachedShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * 获取从磁盘加载分片的次数
+     * @return 加载次数
+     */
+    public long getShardLoads() {
+        return shardLoads.sum();
+    }
+
+    /**
+     * 获取分片文件路径
+     * @param shard 分片编号
+     * @return 分片文件
+     */
+    Path shardFile(int shard) {
+        return directory.resolve(String.format("shard-%04d.json", shard));
+    }
+
+    /**
+     * 获取用户所在的分片编号
+     * @param username 用户名
+     * @return 分片编号
+     */
+    int shardOf(String username) {
+        return shardOf(hash(username));
+    }
+
+    private int shardOf(long usernameHash) {
+        return (int) Long.remainderUnsigned(usernameHash, shardCount);
+    }
+
+    /**
+     * 获取分片的当前快照，已缓存时不加锁
+     */
+    private Map<String, User> shard(int shardIndex) {
+        CachedShard cached = shards.get(shardIndex);
+        if (cached == null) {
+            synchronized (shardLocks[shardIndex]) {
+                cached = loadShard(shardIndex);
+            }
+        }
+        cached.lastAccess = accessClock.incrementAndGet();
+        return cached.users;
+    }
+
+    /**
+     * 获取缓存中的分片，不在缓存中时从磁盘加载，调用时必须持有分片锁
+     */
+    private CachedShard loadShard(int shardIndex) {
+        CachedShard cached = shards.get(shardIndex);
+        if (cached == null) {
+            cached = new CachedShard(readShard(shardIndex), accessClock.incrementAndGet());
+            shards.put(shardIndex, cached);
+            evictShards();
+        }
+        return cached;
+    }
+
+    /**
+     * 逐出最久没有访问的分片，直到缓存不超过上限
+     * 被逐出的分片如果正在被修改，修改在分片锁内提交到持久化线程，重新加载时会读到
+     */
+    private void evictShards() {
+        while (shards.size() > maxCachedShards) {
+            Map.Entry<Integer, CachedShard> eldest = null;
+            for (Map.Entry<Integer, CachedShard> entry : shards.entrySet()) {
+                if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            shards.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private Map<String, User> readShard(int shardIndex) {
+        Map<String, User> shard = new LinkedHashMap<>();
+        Path file = shardFile(shardIndex);
+        // 分片被逐出缓存时可能还没有落盘
+        byte[] content = persistence.getPending(file);
+        try {
+            if (content == null && Files.exists(file)) {
+                content = Files.readAllBytes(file);
+            }
+            if (content != null) {
+                shardLoads.increment();
+                User[] users = JsonCodecs.reader(JsonCodecs.USER_ARRAY).readValue(content);
+                for (User user : users) {
+                    shard.put(user.getUsername(), user);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("加载用户分片失败: " + file + ": " + e.getMessage());
+        }
+        return Collections.unmodifiableMap(shard);
+    }
+
+    private void writeShard(int shardIndex, Map<String, User> shard) throws IOException {
+        User[] users = shard.values().toArray(new User[0]);
+        persistence.write(shardFile(shardIndex), JsonCodecs.writer(JsonCodecs.USER_ARRAY).writeValueAsBytes(users));
+    }
+
+    private boolean containsUsername(long usernameHash) {
+        long stamp = indexLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean found = usernames.contains(usernameHash);
+                if (indexLock.validate(stamp)) {
+                    return found;
+                }
+            } catch (RuntimeException e) {
+                // 读到了扩容中途的数组，下面加读锁重试
+            }
+        }
+        stamp = indexLock.readLock();
+        try {
+            return usernames.contains(usernameHash);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 查找邮箱所属用户的用户名哈希
+     * @return 用户名哈希，邮箱不存在时返回0
+     */
+    private long emailOwner(long emailHash) {
+        long stamp = indexLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                long owner = emails.get(emailHash);
+                if (indexLock.validate(stamp)) {
+                    return owner;
+                }
+            } catch (RuntimeException e) {
+                // 读到了扩容中途的数组，下面加读锁重试
+            }
+        }
+        stamp = indexLock.readLock();
+        try {
+            return emails.get(emailHash);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 索引内容有变化时先追加索引记录再更新内存中的索引
+     */
+    private void updateIndex(long usernameHash, long emailHash) throws IOException {
+        long stamp = indexLock.writeLock();
+        try {
+            // 传入的可能就是缓存中被修改过的对象，所以和索引比较而不是和分片中的旧对象比较
+            if (!usernames.contains(usernameHash) || usernames.get(usernameHash) != emailHash) {
+                appendIndex(usernameHash, emailHash);
+                applyIndex(usernameHash, emailHash);
+            }
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    private void applyIndex(long usernameHash, long emailHash) {
+        if (usernames.contains(usernameHash)) {
+            long previousEmail = usernames.get(usernameHash);
+            if (previousEmail != 0 && previousEmail != emailHash
+                    && emails.contains(previousEmail) && emails.get(previousEmail) == usernameHash) {
+                emails.remove(previousEmail);
+            }
+        }
+        usernames.put(usernameHash, emailHash);
+        if (emailHash != 0) {
+            emails.put(emailHash, usernameHash);
+        }
+    }
+
+    /**
+     * 读取索引并重放，返回索引记录的分片数；末尾不完整的记录会被截掉，记录过多时重写。
+     * 索引丢失时扫描已有的分片文件重建
+     */
+    private int loadIndex(int defaultShardCount) throws IOException {
+        if (!Files.exists(indexFile)) {
+            if (rebuildIndex()) {
+                rewriteIndex(defaultShardCount);
+            } else {
+                writeIndexHeader(indexFile, defaultShardCount);
+            }
+            return defaultShardCount;
+        }
+        int storedShardCount;
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // 读满头部
+            }
+            header.flip();
+            if (size < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("用户索引文件格式错误: " + indexFile);
+            }
+            storedShardCount = header.getInt();
+            long records = (size - HEADER_SIZE) / RECORD_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096).order(ByteOrder.LITTLE_ENDIAN);
+            long remaining = records;
+            channel.position(HEADER_SIZE);
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining * RECORD_SIZE));
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // 读满一批
+                }
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    applyIndex(buffer.getLong(), buffer.getLong());
+                    remaining--;
+                }
+            }
+            long validSize = HEADER_SIZE + records * RECORD_SIZE;
+            if (validSize != size) {
+                channel.truncate(validSize);
+            }
+            indexRecords = records;
+        }
+        if (indexRecords > 2L * usernames.size() + 1024) {
+            rewriteIndex(storedShardCount);
+        }
+        return storedShardCount;
+    }
+
+    /**
+     * 从分片文件重建内存中的索引
+     * @return 是否找到了分片文件
+     */
+    private boolean rebuildIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "shard-*.json")) {
+            stream.forEach(files::add);
+        }
+        for (Path file : files) {
+            byte[] content = persistence.getPending(file);
+            User[] users = JsonCodecs.reader(JsonCodecs.USER_ARRAY)
+                    .readValue(content != null ? content : Files.readAllBytes(file));
+            for (User user : users) {
+                applyIndex(hash(user.getUsername()), user.getEmail() != null ? hash(user.getEmail()) : 0);
+            }
+        }
+        if (!files.isEmpty()) {
+            System.out.println("用户索引缺失，已从" + files.size() + "个分片重建");
+        }
+        return !files.isEmpty();
+    }
+
+    private void appendIndex(long usernameHash, long emailHash) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        record.putLong(usernameHash).putLong(emailHash).flip();
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+        indexRecords++;
+    }
+
+    /**
+     * 用当前索引内容重写索引文件，每个用户一条记录
+     */
+    private void rewriteIndex(int shards) throws IOException {
+        Path temp = Files.createTempFile(directory, INDEX_FILE + ".", ".tmp");
+        try {
+            writeIndexHeader(temp, shards);
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096).order(ByteOrder.LITTLE_ENDIAN);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                long[] records = usernames.entries();
+                for (int i = 0; i < records.length; i += 2) {
+                    if (!buffer.hasRemaining()) {
+                        drain(channel, buffer);
+                    }
+                    buffer.putLong(records[i]).putLong(records[i + 1]);
+                }
+                drain(channel, buffer);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            indexRecords = usernames.size();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeIndexHeader(Path file, int shards) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(shards).flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 字符串的64位哈希，索引中用它代替字符串本身
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        // 0用作空槽和“没有邮箱”的标记
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * 已加载的分片，users是不可变快照
+     */
+    private static class CachedShard {
+        volatile Map<String, User> users;
+        volatile long lastAccess;
+
+        CachedShard(Map<String, User> users, long lastAccess) {
+            this.users = users;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * long到long的开放寻址哈希表，键不能为0，删除时后移后续元素，不使用墓碑
+     */
+    private static class LongTable {
+        private long[] keys = new long[16];
+        private long[] values = new long[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(long key) {
+            return keys[slot(key)] == key;
+        }
+
+        long get(long key) {
+            int slot = slot(key);
+            return keys[slot] == key ? values[slot] : 0;
+        }
+
+        void put(long key, long value) {
+            int slot = slot(key);
+            if (keys[slot] != key) {
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] = value;
+            if (size * 2 > keys.length) {
+                resize();
+            }
+        }
+
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int slot = slot(key);
+            if (keys[slot] != key) {
+                return;
+            }
+            keys[slot] = 0;
+            size--;
+            int next = (slot + 1) & mask;
+            while (keys[next] != 0) {
+                long moved = keys[next];
+                int home = home(moved, mask);
+                // 如果当前空位在moved的探测路径上，就把它移过来
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    keys[slot] = moved;
+                    values[slot] = values[next];
+                    keys[next] = 0;
+                    slot = next;
+                }
+                next = (next + 1) & mask;
+            }
+        }
+
+        /**
+         * 返回全部键值对，按键、值交替排列
+         */
+        long[] entries() {
+            long[] result = new long[size * 2];
+            int count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    result[count++] = keys[i];
+                    result[count++] = values[i];
+                }
+            }
+            return result;
+        }
+
+        private int slot(long key) {
+            long[] keys = this.keys;
+            int mask = keys.length - 1;
+            int slot = home(key, mask);
+            // 乐观读时表可能正在被修改，最多探测一圈
+            for (int probes = 0; probes < keys.length && keys[slot] != 0 && keys[slot] != key; probes++) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private static int home(long key, int mask) {
+            return (int) (key ^ (key >>> 32)) & mask;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldValues.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
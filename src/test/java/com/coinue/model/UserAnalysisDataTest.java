@@ -252,4 +252,23 @@ class UserAnalysisDataTest {
         String expected = "UserAnalysisData{lastAnalysisDate=" + testDate + ", totalExpenses=100.0, totalIncome=200.0, categoryCount=2, savingsRate=50.00%}";
         assertEquals(expected, analysisData.toString());
     }
-} 
\ No newline at end of file
+
+    @Test
+    void dirtyTracking_onlyRealChangesMarkDirty() {
+        Map<String, Double> expenses = new HashMap<>();
+        expenses.put("餐饮", 50.0);
+        analysisData.setCategoryExpenses(expenses);
+        analysisData.updateBudgetUsage("总预算", 1000.0, 50.0);
+        analysisData.markClean();
+
+        analysisData.setCategoryExpenses(new HashMap<>(expenses));
+        analysisData.updateBudgetUsage("总预算", 1000.0, 50.0);
+        analysisData.setTotalExpenses(analysisData.getTotalExpenses());
+        assertFalse(analysisData.isDirty(), "Setting equal values should not mark the data dirty.");
+
+        Map<String, Double> current = analysisData.getCategoryExpenses();
+        current.put("交通", 10.0);
+        analysisData.setCategoryExpenses(current);
+        assertTrue(analysisData.isDirty(), "Passing the same map instance again counts as a change.");
+    }
+}
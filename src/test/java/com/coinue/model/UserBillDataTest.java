@@ -247,4 +247,27 @@ class UserBillDataTest {
                                 '}';
         assertEquals(expectedString, userBillData.toString());
     }
-} 
\ No newline at end of file
+
+    @Test
+    void dirtyTracking_onlyRealChangesMarkDirty() {
+        List<UserBillData.BillRecord> records = new ArrayList<>();
+        records.add(new UserBillData.BillRecord(LocalDate.of(2024, 1, 15), "Card", 100.0, "Pending"));
+        userBillData.setBillRecords(records);
+        userBillData.markClean();
+
+        userBillData.setCreditLimit(userBillData.getCreditLimit());
+        userBillData.setBillRecords(List.of(new UserBillData.BillRecord(LocalDate.of(2024, 1, 15), "Card", 100.0, "Pending")));
+        userBillData.setLastImportedFile(null);
+        assertFalse(userBillData.isDirty(), "Setting equal values should not mark the data dirty.");
+
+        userBillData.setCreditLimit(5000.0);
+        assertTrue(userBillData.isDirty());
+
+        // 修改getter返回的列表后再传回同一个列表，也算修改
+        userBillData.markClean();
+        List<UserBillData.BillRecord> current = userBillData.getBillRecords();
+        current.add(new UserBillData.BillRecord(LocalDate.of(2024, 2, 1), "Loan", 50.0, "Pending"));
+        userBillData.setBillRecords(current);
+        assertTrue(userBillData.isDirty(), "Passing back the same modified list should mark the data dirty.");
+    }
+}
@@ -1,5 +1,8 @@
 package com.coinue.model;
 
+import com.coinue.util.CsvBackupStore;
+import com.coinue.util.PersistenceWorker;
+import com.coinue.util.TransactionLog;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -14,11 +17,14 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -92,6 +98,8 @@ class UserDataServiceTest {
 
     @AfterEach
     void tearDown() throws IOException {
+        PersistenceWorker.getInstance().discard(USER_TEST_DATA_DIR);
+        PersistenceWorker.getInstance().discard(OTHER_USER_TEST_DATA_DIR);
         cleanupDirectory(USER_TEST_DATA_DIR);
         cleanupDirectory(OTHER_USER_TEST_DATA_DIR); // Ensure this is also cleaned up
 
@@ -193,6 +201,7 @@ class UserDataServiceTest {
         TestMockObject originalData = new TestMockObject("TestData", 123, LocalDate.now());
 
         assertTrue(userDataService.saveData(TEST_USERNAME, fileName, originalData), "saveData should return true on success.");
+        PersistenceWorker.getInstance().flush();
         assertTrue(Files.exists(USER_TEST_DATA_DIR.resolve(fileName)), "Data file should be created.");
 
         TestMockObject loadedData = userDataService.loadData(TEST_USERNAME, fileName, TestMockObject.class);
@@ -214,6 +223,7 @@ class UserDataServiceTest {
         originalData.addCategoryExpense("Food", 200.25);
 
         assertTrue(userDataService.saveAnalysisData(TEST_USERNAME, originalData));
+        PersistenceWorker.getInstance().flush();
         assertTrue(Files.exists(USER_TEST_DATA_DIR.resolve(ANALYSIS_DATA_FILE)));
 
         UserAnalysisData loadedData = userDataService.loadAnalysisData(TEST_USERNAME, UserAnalysisData.class);
@@ -234,6 +244,7 @@ class UserDataServiceTest {
         originalData.put("categories", List.of("Shopping", "Entertainment"));
 
         assertTrue(userDataService.saveBudgetData(TEST_USERNAME, originalData));
+        PersistenceWorker.getInstance().flush();
         assertTrue(Files.exists(USER_TEST_DATA_DIR.resolve(BUDGET_DATA_FILE)));
 
         Map<String, Object> loadedData = userDataService.loadBudgetData(TEST_USERNAME, Map.class);
@@ -254,6 +265,7 @@ class UserDataServiceTest {
         originalRecords.add(new ExpenseRecord(50.0, "Food", "Lunch", LocalDate.now(), "Work lunch", "Expense", "USD"));
 
         assertTrue(userDataService.saveExpenseData(TEST_USERNAME, originalRecords));
+        PersistenceWorker.getInstance().flush();
         assertTrue(Files.exists(USER_TEST_DATA_DIR.resolve(EXPENSE_DATA_FILE)));
 
         // Jackson deserializes list of objects into List<LinkedHashMap<String, Object>> by default if just List.class is given.
@@ -279,6 +291,7 @@ class UserDataServiceTest {
         originalSettings.put("language", "en");
 
         assertTrue(userDataService.saveUserSettings(TEST_USERNAME, originalSettings));
+        PersistenceWorker.getInstance().flush();
         assertTrue(Files.exists(USER_TEST_DATA_DIR.resolve(SETTINGS_FILE)));
 
         Map<String, Object> loadedSettings = userDataService.loadUserSettings(TEST_USERNAME);
@@ -299,6 +312,7 @@ class UserDataServiceTest {
     void deleteData_existingFile_deletesSuccessfully() {
         String fileName = "delete_test.json";
         userDataService.saveData(TEST_USERNAME, fileName, new TestMockObject("delete_me", 1, LocalDate.now()));
+        PersistenceWorker.getInstance().flush();
         assertTrue(Files.exists(USER_TEST_DATA_DIR.resolve(fileName)), "File should exist before deletion.");
 
         assertTrue(userDataService.deleteData(TEST_USERNAME, fileName), "deleteData should return true for existing file.");
@@ -329,9 +343,159 @@ class UserDataServiceTest {
         Files.createDirectories(OTHER_USER_TEST_DATA_DIR); // Ensure dir exists for this test user
         userDataService.saveData(OTHER_TEST_USERNAME, "file1.json", new TestMockObject("file1", 1, LocalDate.now()));
         userDataService.saveData(OTHER_TEST_USERNAME, "file2.json", new TestMockObject("file2", 2, LocalDate.now()));
+        PersistenceWorker.getInstance().flush();
         assertTrue(Files.exists(OTHER_USER_TEST_DATA_DIR.resolve("file1.json")), "File1 should exist before cleanup.");
 
         assertTrue(userDataService.cleanupUserData(OTHER_TEST_USERNAME), "cleanupUserData should return true on success.");
         assertFalse(Files.exists(OTHER_USER_TEST_DATA_DIR), "User directory should be removed after cleanup.");
     }
-} 
\ No newline at end of file
+
+    @Test
+    void loadData_repeatedLoadsHitCacheUntilSaved() {
+        String fileName = "cached_object.json";
+        userDataService.saveData(TEST_USERNAME, fileName, new TestMockObject("first", 1, LocalDate.now()));
+        PersistenceWorker.getInstance().flush();
+
+        TestMockObject first = userDataService.loadData(TEST_USERNAME, fileName, TestMockObject.class);
+        long hits = userDataService.getCacheHits();
+        long misses = userDataService.getCacheMisses();
+        first.name = "unsaved edit";
+        TestMockObject second = userDataService.loadData(TEST_USERNAME, fileName, TestMockObject.class);
+        assertNotSame(first, second, "Each load should bind a fresh object from the cached content.");
+        assertEquals("first", second.name, "Unsaved edits must not leak into later loads.");
+        assertEquals(hits + 1, userDataService.getCacheHits());
+        assertEquals(misses, userDataService.getCacheMisses());
+
+        userDataService.saveData(TEST_USERNAME, fileName, new TestMockObject("second", 2, LocalDate.now()));
+        PersistenceWorker.getInstance().flush();
+        TestMockObject afterSave = userDataService.loadData(TEST_USERNAME, fileName, TestMockObject.class);
+        assertEquals("second", afterSave.name, "Saving should invalidate the cached object.");
+        assertEquals(misses + 1, userDataService.getCacheMisses());
+    }
+
+    @Test
+    void loadData_fileChangedOutsideServiceIsReloaded() throws IOException {
+        String fileName = "external_change.json";
+        userDataService.saveData(TEST_USERNAME, fileName, new TestMockObject("before", 1, LocalDate.now()));
+        PersistenceWorker.getInstance().flush();
+        assertEquals("before", userDataService.loadData(TEST_USERNAME, fileName, TestMockObject.class).name);
+
+        Files.writeString(USER_TEST_DATA_DIR.resolve(fileName), "{\"name\":\"after, edited by hand\",\"value\":2}");
+        assertEquals("after, edited by hand", userDataService.loadData(TEST_USERNAME, fileName, TestMockObject.class).name);
+
+        Files.delete(USER_TEST_DATA_DIR.resolve(fileName));
+        assertNull(userDataService.loadData(TEST_USERNAME, fileName, TestMockObject.class));
+    }
+
+    @Test
+    void transaction_commitsDataFileWithBackupIndex() throws Exception {
+        Path csv = Files.writeString(tempDir.resolve("statement.csv"), "日期,金额\n2024-01-01,10.00\n");
+        CsvBackupStore backups = new CsvBackupStore(TEST_USERNAME);
+        userDataService.loadData(TEST_USERNAME, "bill_data.json", TestMockObject.class);
+
+        UserDataService.Transaction transaction = userDataService.beginTransaction(TEST_USERNAME)
+                .write("bill_data.json", new TestMockObject("imported", 3, LocalDate.now()));
+        assertFalse(userDataService.dataExists(TEST_USERNAME, "bill_data.json"), "提交前不写任何文件");
+        CsvBackupStore.ImportEvent event = backups.backupInBackground(csv, transaction).get(10, TimeUnit.SECONDS);
+
+        assertEquals("imported", userDataService.loadData(TEST_USERNAME, "bill_data.json", TestMockObject.class).name);
+        List<CsvBackupStore.ImportEvent> imports = backups.getImports();
+        assertEquals(1, imports.size());
+        assertEquals(event.getContentHash(), imports.get(0).getContentHash());
+        assertFalse(Files.exists(USER_TEST_DATA_DIR.resolve(TransactionLog.LOG_FILE)));
+    }
+
+    @Test
+    void transaction_isCommittedEvenWhenBackupFails() throws Exception {
+        Path missing = tempDir.resolve("deleted.csv");
+        CsvBackupStore backups = new CsvBackupStore(TEST_USERNAME);
+
+        UserDataService.Transaction transaction = userDataService.beginTransaction(TEST_USERNAME)
+                .write("bill_data.json", new TestMockObject("imported", 3, LocalDate.now()));
+        assertNull(backups.backupInBackground(missing, transaction).get(10, TimeUnit.SECONDS));
+
+        // 备份失败不影响导入的数据，只是没有导入记录
+        assertEquals("imported", userDataService.loadData(TEST_USERNAME, "bill_data.json", TestMockObject.class).name);
+        assertTrue(backups.getImports().isEmpty());
+    }
+
+    @Test
+    void loadData_legacyDocumentIsMigratedOnFirstReadAndWrittenBack() throws Exception {
+        Path file = USER_TEST_DATA_DIR.resolve("bill_data.json");
+        Files.writeString(file, "{\"creditLimit\":800.0,\"billRecords\":[],\"lastImportedFile\":\"old.csv\"}");
+
+        UserBillData data = userDataService.loadData(TEST_USERNAME, "bill_data.json", UserBillData.class);
+        assertEquals(800.0, data.getCreditLimit());
+        assertEquals("old.csv", data.getLastImportedFile());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Files.readString(file).startsWith("{\n  \"schemaVersion\" : 1,")) {
+            assertTrue(System.currentTimeMillis() < deadline, "升级后的内容应在后台写回");
+            Thread.sleep(10);
+        }
+        assertEquals(800.0, userDataService.loadData(TEST_USERNAME, "bill_data.json", UserBillData.class)
+                .getCreditLimit());
+    }
+
+    @Test
+    void saveData_identicalContentIsNotWrittenAgain() throws IOException {
+        String fileName = "bill_data.json";
+        UserBillData data = new UserBillData();
+        data.setCreditLimit(1200.0);
+        assertTrue(data.isDirty());
+        assertTrue(userDataService.saveData(TEST_USERNAME, fileName, data));
+        assertFalse(data.isDirty(), "Saving should mark the data clean.");
+        PersistenceWorker.getInstance().flush();
+
+        long skipped = userDataService.getSkippedWrites();
+        long submitted = PersistenceWorker.getInstance().getWritesSubmitted();
+        assertTrue(userDataService.saveData(TEST_USERNAME, fileName, data));
+        assertEquals(skipped + 1, userDataService.getSkippedWrites());
+        assertEquals(submitted, PersistenceWorker.getInstance().getWritesSubmitted());
+
+        UserBillData loaded = userDataService.loadData(TEST_USERNAME, fileName, UserBillData.class);
+        assertFalse(loaded.isDirty(), "Freshly loaded data should be clean.");
+        assertTrue(userDataService.saveData(TEST_USERNAME, fileName, loaded));
+        assertEquals(skipped + 2, userDataService.getSkippedWrites());
+
+        Files.delete(USER_TEST_DATA_DIR.resolve(fileName));
+        assertTrue(userDataService.saveData(TEST_USERNAME, fileName, loaded));
+        assertEquals(skipped + 2, userDataService.getSkippedWrites(), "A deleted file must be written again.");
+        PersistenceWorker.getInstance().flush();
+        assertTrue(Files.exists(USER_TEST_DATA_DIR.resolve(fileName)));
+
+        // 外部改成大小相同的其他内容后，修改时间不同，照常写入
+        Path file = USER_TEST_DATA_DIR.resolve(fileName);
+        String original = Files.readString(file);
+        Files.writeString(file, original.replace("1200.0", "9900.0"));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        assertTrue(userDataService.saveData(TEST_USERNAME, fileName, loaded));
+        assertEquals(skipped + 2, userDataService.getSkippedWrites(), "A file changed in place must be written again.");
+        PersistenceWorker.getInstance().flush();
+        assertEquals(original, Files.readString(file));
+    }
+
+    @Test
+    void saveData_backgroundFailureIsReportedAndContentKept() throws Exception {
+        String fileName = "blocked.json";
+        // 目标路径是一个非空目录，后台写入一定失败
+        Files.createDirectories(USER_TEST_DATA_DIR.resolve(fileName).resolve("child"));
+        CompletableFuture<Path> failedFile = new CompletableFuture<>();
+        UserDataService.SaveFailureListener listener = (file, error) -> failedFile.complete(file);
+        userDataService.addSaveFailureListener(listener);
+        try {
+            Map<String, Object> data = Map.of("key", "value");
+            assertTrue(userDataService.saveData(TEST_USERNAME, fileName, data));
+            PersistenceWorker.getInstance().flush();
+            assertEquals(fileName, failedFile.get(5, TimeUnit.SECONDS).getFileName().toString());
+            assertEquals("value", userDataService.loadData(TEST_USERNAME, fileName, Map.class).get("key"),
+                    "Content that failed to write should still be readable.");
+
+            long submitted = PersistenceWorker.getInstance().getWritesSubmitted();
+            assertTrue(userDataService.saveData(TEST_USERNAME, fileName, data));
+            assertEquals(submitted + 1, PersistenceWorker.getInstance().getWritesSubmitted(),
+                    "Content that failed to write must not be skipped as unchanged.");
+        } finally {
+            userDataService.removeSaveFailureListener(listener);
+        }
+    }
+}
@@ -3,13 +3,18 @@ package com.coinue.util;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.AfterEach;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -78,6 +83,204 @@ class CSVHandlerTest {
         assertTrue(records.stream().anyMatch(r -> r.getName().equals("晚餐")));
     }
 
+    @Test
+    @Order(3)
+    @DisplayName("测试带引号字段的CSV文件导入")
+    void testQuotedFieldImport() throws IOException {
+        File quotedFile = tempDir.resolve("quoted.csv").toFile();
+        try (FileWriter writer = new FileWriter(quotedFile)) {
+            writer.write("Type,Amount,Date,Additional\n");
+            writer.write("餐饮,100.0,2024-03-20,\"午餐, 加饮料\"\n");
+            writer.write("购物,20.5,2024-03-21,\"书店 \"\"新华\"\"\r\n第二行\"\r\n");
+        }
+
+        List<ExpenseRecord> records = CSVHandler.readExpenseRecords(quotedFile.getPath());
+
+        assertEquals(2, records.size());
+        assertEquals("午餐, 加饮料", records.get(0).getName());
+        assertEquals("书店 \"新华\"\r\n第二行", records.get(1).getName());
+        assertEquals(20.5, records.get(1).getAmount());
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("测试以流的方式读取消费记录")
+    void testStreamExpenseRecords() throws IOException {
+        File testFile = tempDir.resolve("stream.csv").toFile();
+        try (FileWriter writer = new FileWriter(testFile)) {
+            writer.write("Type,Amount,Date,Additional\n");
+            for (int i = 0; i < 1000; i++) {
+                writer.write("交通," + i + ",2024-03-20,地铁" + i + "\n");
+            }
+        }
+
+        double total;
+        try (Stream<ExpenseRecord> stream = CSVHandler.streamExpenseRecords(testFile.getPath())) {
+            total = stream.mapToDouble(ExpenseRecord::getAmount).sum();
+        }
+        assertEquals(999 * 1000 / 2.0, total);
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("测试导出时对特殊字符加引号")
+    void testWriteQuotesSpecialCharacters() throws IOException {
+        File outFile = tempDir.resolve("out.csv").toFile();
+        List<ExpenseRecord> records = List.of(
+                new ExpenseRecord(12.5, "食品", "午餐, \"套餐\"", LocalDate.parse("2024-03-20")));
+
+        CSVHandler.writeExpenseRecords(records, outFile.getPath());
+
+        List<String> lines = Files.readAllLines(outFile.toPath());
+        assertEquals("日期,消费名称,类别,金额", lines.get(0));
+        assertEquals("2024-03-20,\"午餐, \"\"套餐\"\"\",食品,12.50", lines.get(1));
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("测试导出的文件可以重新导入")
+    void testExportedFileCanBeImported() throws IOException {
+        File outFile = tempDir.resolve("roundtrip.csv").toFile();
+        List<ExpenseRecord> records = List.of(
+                new ExpenseRecord(12.5, "食品", "午餐, \"套餐\"", LocalDate.parse("2024-03-20")),
+                new ExpenseRecord(6, "交通", "地铁", LocalDate.parse("2024-03-21")));
+
+        CSVHandler.writeExpenseRecords(records, outFile.getPath());
+        List<ExpenseRecord> imported = CSVHandler.readExpenseRecords(outFile.getPath());
+
+        assertEquals(2, imported.size());
+        assertEquals("午餐, \"套餐\"", imported.get(0).getName());
+        assertEquals("食品", imported.get(0).getCategory());
+        assertEquals(12.5, imported.get(0).getAmount());
+        assertEquals(LocalDate.parse("2024-03-21"), imported.get(1).getDate());
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("测试并行分块导入与顺序导入结果一致")
+    void testParallelImportMatchesSequential() throws IOException {
+        File largeFile = tempDir.resolve("large.csv").toFile();
+        try (FileWriter writer = new FileWriter(largeFile)) {
+            writer.write("Type,Amount,Date,Additional\n");
+            for (int i = 0; i < 5000; i++) {
+                if (i % 7 == 0) {
+                    writer.write("购物," + i + ".5,2024-03-20,\"多行\n备注 " + i + "\"\n");
+                } else {
+                    writer.write("餐饮," + i + ",2024-03-21,午餐" + i + "\n");
+                }
+            }
+        }
+
+        List<ExpenseRecord> sequential = CSVHandler.readExpenseRecords(largeFile.getPath(), CSVHandler.ImportMode.SEQUENTIAL);
+        // 使用很小的块大小，确保块边界会落在引号字段附近
+        List<ExpenseRecord> parallel = CSVHandler.readExpenseRecordsParallel(largeFile.getPath(), 1024, ForkJoinPool.commonPool());
+
+        assertEquals(5000, sequential.size());
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i).getName(), parallel.get(i).getName());
+            assertEquals(sequential.get(i).getAmount(), parallel.get(i).getAmount());
+        }
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("测试并行分块导入把字段中间的双引号当作普通字符")
+    void testParallelImportWithMidFieldQuotes() throws IOException {
+        File quotedFile = tempDir.resolve("mid_quotes.csv").toFile();
+        try (FileWriter writer = new FileWriter(quotedFile)) {
+            writer.write("Type,Amount,Date,Additional\n");
+            for (int i = 0; i < 5000; i++) {
+                if (i % 11 == 0) {
+                    // 字段中间的引号不开始引号字段，按奇偶统计会把之后的引号状态全部弄反
+                    writer.write("购物," + i + ",2024-03-20,显示器 27\" 屏幕" + i + "\n");
+                } else if (i % 7 == 0) {
+                    writer.write("购物," + i + ".5,2024-03-20,\"多行\n备注 \"\"" + i + "\"\"\"\n");
+                } else {
+                    writer.write("餐饮," + i + ",2024-03-21,午餐" + i + "\n");
+                }
+            }
+        }
+
+        List<ExpenseRecord> sequential = CSVHandler.readExpenseRecords(quotedFile.getPath(), CSVHandler.ImportMode.SEQUENTIAL);
+        List<ExpenseRecord> parallel = CSVHandler.readExpenseRecordsParallel(quotedFile.getPath(), 1024, ForkJoinPool.commonPool());
+
+        assertEquals(5000, sequential.size());
+        assertEquals("显示器 27\" 屏幕0", sequential.get(0).getName());
+        assertEquals("多行\n备注 \"7\"", sequential.get(7).getName());
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i).getName(), parallel.get(i).getName());
+            assertEquals(sequential.get(i).getAmount(), parallel.get(i).getAmount());
+        }
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("测试并行分块导入对错误行的处理与顺序导入一致")
+    void testParallelImportHandlesInvalidRowsLikeSequential() throws IOException {
+        StringBuilder content = new StringBuilder("日期,消费名称,类别,金额\n");
+        for (int i = 0; i < 200; i++) {
+            content.append("2024-01-02,午饭").append(i).append(",餐饮,").append(i).append('\n');
+            if (i == 50) {
+                content.append("2024-01-02,缺列\n");
+            } else if (i == 120) {
+                content.append("2024-01-02,无效金额,餐饮,NaN\n");
+            }
+        }
+        Path dropped = Files.writeString(tempDir.resolve("dropped_rows.csv"), content);
+        List<ExpenseRecord> sequential = CSVHandler.readExpenseRecords(dropped.toString(), CSVHandler.ImportMode.SEQUENTIAL);
+        List<ExpenseRecord> parallel = CSVHandler.readExpenseRecordsParallel(dropped.toString(), 256, ForkJoinPool.commonPool());
+        assertEquals(200, sequential.size());
+        assertEquals(sequential.size(), parallel.size());
+
+        content.append("2024-01-03,坏金额,餐饮,abc\n");
+        Path broken = Files.writeString(tempDir.resolve("broken_row.csv"), content);
+        RuntimeException sequentialError = assertThrows(RuntimeException.class,
+                () -> CSVHandler.readExpenseRecords(broken.toString(), CSVHandler.ImportMode.SEQUENTIAL));
+        RuntimeException parallelError = assertThrows(RuntimeException.class,
+                () -> CSVHandler.readExpenseRecordsParallel(broken.toString(), 256, ForkJoinPool.commonPool()));
+        assertEquals(sequentialError.getClass(), parallelError.getClass());
+        assertEquals(sequentialError.getMessage(), parallelError.getMessage());
+    }
+
+    @Test
+    @Order(7)
+    @DisplayName("测试根据文件大小选择导入模式")
+    void testChooseImportMode() {
+        assertEquals(CSVHandler.ImportMode.SEQUENTIAL, CSVHandler.chooseImportMode(1024));
+        CSVHandler.ImportMode largeFileMode = CSVHandler.chooseImportMode(CSVHandler.PARALLEL_THRESHOLD_BYTES);
+        if (Runtime.getRuntime().availableProcessors() > 1) {
+            assertEquals(CSVHandler.ImportMode.PARALLEL, largeFileMode);
+        }
+    }
+
+    @Test
+    @Order(8)
+    @DisplayName("测试按类别统计金额（顺序与并行）")
+    void testReadCategoryStatistics() throws IOException {
+        File statsFile = tempDir.resolve("stats.csv").toFile();
+        try (FileWriter writer = new FileWriter(statsFile)) {
+            writer.write("日期,消费名称,类别,金额\n");
+            for (int i = 0; i < 3000; i++) {
+                String category = i % 3 == 0 ? "食品" : i % 3 == 1 ? "交通" : "购物";
+                writer.write("2024-03-20,\"商户, " + i + "\"," + category + ",1.25\n");
+            }
+            writer.write("2024-03-21,残缺行,食品\n");
+        }
+
+        Map<String, Double> sequential = CSVHandler.readCategoryStatistics(statsFile.getPath(), CSVHandler.ImportMode.SEQUENTIAL);
+        Map<String, Double> parallel = CSVHandler.readCategoryStatisticsParallel(statsFile.getPath(), 2048, ForkJoinPool.commonPool());
+
+        assertEquals(3, sequential.size());
+        assertEquals(1250.0, sequential.get("食品"), 1e-9);
+        assertEquals(1250.0, sequential.get("交通"), 1e-9);
+        assertEquals(sequential.keySet(), parallel.keySet());
+        for (String category : sequential.keySet()) {
+            assertEquals(sequential.get(category), parallel.get(category), 1e-9);
+        }
+    }
+
     @AfterEach
     void tearDown() {
     }
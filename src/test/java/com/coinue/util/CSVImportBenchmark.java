@@ -0,0 +1,78 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * CSV导入吞吐量基准测试
+ * 比较顺序导入与内存映射并行导入的吞吐量，不属于单元测试，需要手动运行：
+ * mvn test-compile exec:java -Dexec.mainClass=com.coinue.util.CSVImportBenchmark -Dexec.classpathScope=test
+ * 可选参数：数据行数（默认2000000）
+ */
+public class CSVImportBenchmark {
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int MEASURE_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Path file = Files.createTempFile("coinue-bench", ".csv");
+        try {
+            generate(file, rows);
+            long bytes = Files.size(file);
+            System.out.printf("数据文件: %d 行, %.1f MB, %d 个处理器%n",
+                    rows, bytes / 1024.0 / 1024.0, Runtime.getRuntime().availableProcessors());
+
+            run("SEQUENTIAL", file, bytes, CSVHandler.ImportMode.SEQUENTIAL);
+            run("PARALLEL", file, bytes, CSVHandler.ImportMode.PARALLEL);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(String label, Path file, long bytes, CSVHandler.ImportMode mode) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            CSVHandler.readExpenseRecords(file.toString(), mode);
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        int count = 0;
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            long start = System.nanoTime();
+            List<ExpenseRecord> records = CSVHandler.readExpenseRecords(file.toString(), mode);
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+            count = records.size();
+        }
+        double avgSeconds = total / (double) MEASURE_ROUNDS / 1e9;
+        System.out.printf("%-10s 平均 %.3f s, 最快 %.3f s, %.0f 行/秒, %.1f MB/秒 (%d 条记录)%n",
+                label, avgSeconds, best / 1e9, count / avgSeconds, bytes / 1024.0 / 1024.0 / avgSeconds, count);
+    }
+
+    static void generate(Path file, int rows) throws IOException {
+        String[] categories = {"餐饮", "购物", "交通", "娱乐", "教育", "医疗", "住房", "其他"};
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("Type,Amount,Date,Additional\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write(categories[i % categories.length]);
+                writer.write(',');
+                writer.write(Integer.toString(i % 5000));
+                writer.write('.');
+                writer.write(Integer.toString(10 + i % 90));
+                writer.write(",2024-");
+                int month = 1 + i % 12;
+                int day = 1 + i % 28;
+                writer.write(month < 10 ? "0" + month : Integer.toString(month));
+                writer.write('-');
+                writer.write(day < 10 ? "0" + day : Integer.toString(day));
+                writer.write(i % 10 == 0 ? ",\"商户, 分店 " + i + "\"\n" : ",商户" + i + "\n");
+            }
+        }
+    }
+}
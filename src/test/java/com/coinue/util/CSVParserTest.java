@@ -0,0 +1,127 @@
+package com.coinue.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVParserTest {
+
+    @Test
+    void nextRow_plainFields() throws IOException {
+        try (CSVParser parser = new CSVParser(new StringReader("a,b,c\n1,2,3\n"))) {
+            assertTrue(parser.nextRow());
+            assertEquals(3, parser.getFieldCount());
+            assertEquals("a", parser.getField(0));
+            assertTrue(parser.nextRow());
+            assertEquals("3", parser.getField(2));
+            assertFalse(parser.nextRow());
+            assertEquals(2, parser.getRowNumber());
+        }
+    }
+
+    @Test
+    void nextRow_quotedFieldsWithSeparatorsQuotesAndNewlines() throws IOException {
+        String csv = "\"x,y\",\"he said \"\"hi\"\"\",\"line1\nline2\"\r\nlast,,\n";
+        try (CSVParser parser = new CSVParser(new StringReader(csv))) {
+            assertTrue(parser.nextRow());
+            assertEquals(3, parser.getFieldCount());
+            assertEquals("x,y", parser.getField(0));
+            assertEquals("he said \"hi\"", parser.getField(1));
+            assertEquals("line1\nline2", parser.getField(2));
+
+            assertTrue(parser.nextRow());
+            assertEquals(3, parser.getFieldCount());
+            assertEquals("last", parser.getField(0));
+            assertEquals("", parser.getField(1));
+            assertEquals("", parser.getField(2));
+            assertFalse(parser.nextRow());
+        }
+    }
+
+    @Test
+    void nextRow_lastLineWithoutNewlineAndBom() throws IOException {
+        try (CSVParser parser = new CSVParser(new StringReader("\uFEFFh1,h2\n a , b "))) {
+            assertTrue(parser.nextRow());
+            assertEquals("h1", parser.getField(0));
+            assertTrue(parser.nextRow());
+            assertEquals(" a ", parser.getField(0));
+            assertEquals("a", parser.getTrimmedField(0));
+            assertEquals("b", parser.getTrimmedField(1));
+            char[] buffer = parser.getRowBuffer();
+            assertEquals('b', buffer[parser.getFieldStart(1)]);
+            assertEquals(1, parser.getFieldEnd(1) - parser.getFieldStart(1));
+            assertFalse(parser.nextRow());
+        }
+    }
+
+    @Test
+    void nextRow_longRowsGrowBuffers() throws IOException {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            row.append("field-value-").append(i);
+        }
+        try (CSVParser parser = new CSVParser(new StringReader(row + "\n" + row + "\n"))) {
+            for (int r = 0; r < 2; r++) {
+                assertTrue(parser.nextRow());
+                assertEquals(100, parser.getFieldCount());
+                assertEquals("field-value-99", parser.getField(99));
+            }
+        }
+    }
+
+    @Test
+    void setProjection_skipsUnselectedFieldsButKeepsFieldCount() throws IOException {
+        String csv = "\"x,\"\"y\"\"\",skip\"me,keep,\"multi\nline\",7\n";
+        try (CSVParser parser = new CSVParser(new StringReader(csv))) {
+            parser.setProjection(2, 4);
+            assertTrue(parser.nextRow());
+            assertEquals(5, parser.getFieldCount());
+            assertEquals("", parser.getField(0));
+            assertEquals("", parser.getField(1));
+            assertEquals("keep", parser.getField(2));
+            assertEquals("", parser.getField(3));
+            assertEquals("7", parser.getField(4));
+            assertFalse(parser.nextRow());
+        }
+    }
+
+    @Test
+    void writeRow_roundTripsThroughParser() throws IOException {
+        StringWriter out = new StringWriter();
+        CSVParser.writeRow(out, "plain", "with,comma", "with \"quote\"", "multi\nline", null);
+
+        try (CSVParser parser = new CSVParser(new StringReader(out.toString()))) {
+            assertTrue(parser.nextRow());
+            assertEquals(5, parser.getFieldCount());
+            assertEquals("plain", parser.getField(0));
+            assertEquals("with,comma", parser.getField(1));
+            assertEquals("with \"quote\"", parser.getField(2));
+            assertEquals("multi\nline", parser.getField(3));
+            assertEquals("", parser.getField(4));
+        }
+    }
+
+    @Test
+    void getByteOffset_countsUtf8BytesOfConsumedRows() throws IOException {
+        String csv = "\uFEFF类别,金额\r\n餐饮,\"1\"\"2\"\n😀,3\n";
+        byte[] bytes = csv.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        try (CSVParser parser = new CSVParser(new StringReader(csv))) {
+            assertEquals(0, parser.getByteOffset());
+            assertTrue(parser.nextRow());
+            int firstRowEnd = "\uFEFF类别,金额\r\n".getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
+            assertEquals(firstRowEnd, parser.getByteOffset());
+            assertTrue(parser.nextRow());
+            assertEquals("1\"2", parser.getField(1));
+            assertTrue(parser.nextRow());
+            assertEquals(bytes.length, parser.getByteOffset());
+            assertFalse(parser.nextRow());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.coinue.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import com.coinue.model.ExpenseRecord;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVSchemaDetectorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        CSVSchemaDetector.clearCache();
+    }
+
+    @AfterEach
+    void tearDown() {
+        CSVSchemaDetector.clearCache();
+    }
+
+    @Test
+    void detect_legacyImportHeader() {
+        CSVSchemaDetector.ColumnMapping mapping = CSVSchemaDetector.detect(
+                List.of("Type", "Amount", "Date", "Additional"),
+                List.of(List.of("餐饮", "100.0", "2024-03-20", "午餐")));
+
+        assertEquals(0, mapping.getCategoryColumn());
+        assertEquals(1, mapping.getAmountColumn());
+        assertEquals(2, mapping.getDateColumn());
+        assertEquals(3, mapping.getNameColumn());
+    }
+
+    @Test
+    void detect_exportHeader() {
+        CSVSchemaDetector.ColumnMapping mapping = CSVSchemaDetector.detect(
+                List.of("日期", "消费名称", "类别", "金额"),
+                List.of(List.of("2024-03-20", "午餐", "食品", "12.50")));
+
+        assertEquals(0, mapping.getDateColumn());
+        assertEquals(1, mapping.getNameColumn());
+        assertEquals(2, mapping.getCategoryColumn());
+        assertEquals(3, mapping.getAmountColumn());
+    }
+
+    @Test
+    void detect_bankStatementWithExtraColumn() throws IOException {
+        Path file = tempDir.resolve("bank.csv");
+        Files.writeString(file, "项目,金额,类别,公司,时间\n"
+                + "KFC午餐,45.50,食品,支付宝,2024-01-15\n"
+                + "地铁费用,6.00,交通,微信支付,2024-01-15\n", StandardCharsets.UTF_8);
+
+        List<ExpenseRecord> records = CSVHandler.readExpenseRecords(file.toString());
+
+        assertEquals(2, records.size());
+        assertEquals("KFC午餐", records.get(0).getName());
+        assertEquals(45.50, records.get(0).getAmount());
+        assertEquals("食品", records.get(0).getCategory());
+        assertEquals(LocalDate.of(2024, 1, 15), records.get(0).getDate());
+    }
+
+    @Test
+    void detect_inferColumnsAndDateFormatFromSamples() {
+        CSVSchemaDetector.ColumnMapping mapping = CSVSchemaDetector.detect(
+                List.of("c1", "c2", "c3", "c4"),
+                List.of(List.of("15/01/2024", "星巴克", "食品", "32"),
+                        List.of("16/01/2024", "地铁", "交通", "6.5"),
+                        List.of("31/01/2024", "超市", "食品", "88.1")));
+
+        assertEquals(0, mapping.getDateColumn());
+        assertEquals(3, mapping.getAmountColumn());
+        assertEquals(2, mapping.getCategoryColumn());
+        assertEquals(1, mapping.getNameColumn());
+        assertEquals("dd/MM/uuuu", mapping.getDatePattern());
+    }
+
+    @Test
+    void detect_unrecognizedFileFallsBackToLegacyLayout() {
+        CSVSchemaDetector.ColumnMapping mapping = CSVSchemaDetector.detect(
+                List.of("Invalid", "Format", "Data"),
+                List.of(List.of("无效类别", "abc", "2024-03-20")));
+
+        assertSame(CSVSchemaDetector.LEGACY_MAPPING, mapping);
+        assertEquals(0, CSVSchemaDetector.getCacheSize());
+    }
+
+    @Test
+    void detect_reusesCachedMappingForSameHeader() {
+        List<String> header = List.of("日期", "消费名称", "类别", "金额");
+        CSVSchemaDetector.ColumnMapping first = CSVSchemaDetector.detect(
+                header, List.of(List.of("2024/03/20", "午餐", "食品", "12.50")));
+        // 第二次导入的数据无法推断出日期格式，但标题相同，应直接使用缓存的映射
+        CSVSchemaDetector.ColumnMapping second = CSVSchemaDetector.detect(
+                List.of(" 日期", "消费名称", "类别", "金额 "), List.of());
+
+        assertSame(first, second);
+        assertEquals("uuuu/MM/dd", second.getDatePattern());
+        assertEquals(1, CSVSchemaDetector.getCacheSize());
+    }
+
+    @Test
+    void detect_reinfersWhenCachedDateFormatNoLongerMatches() {
+        List<String> header = List.of("日期", "消费名称", "类别", "金额");
+        CSVSchemaDetector.detect(header, List.of(List.of("2024/03/20", "午餐", "食品", "12.50")));
+
+        CSVSchemaDetector.ColumnMapping mapping = CSVSchemaDetector.detect(
+                header, List.of(List.of("2024-03-20", "午餐", "食品", "12.50")));
+
+        assertEquals("uuuu-MM-dd", mapping.getDatePattern());
+    }
+}
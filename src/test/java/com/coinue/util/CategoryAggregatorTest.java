@@ -0,0 +1,54 @@
+package com.coinue.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategoryAggregatorTest {
+
+    @Test
+    void add_accumulatesPerCategoryFromCharRanges() {
+        CategoryAggregator aggregator = new CategoryAggregator();
+        char[] row = "xx食品yy交通".toCharArray();
+        aggregator.add(row, 2, 4, 10.0);
+        aggregator.add(row, 6, 8, 2.5);
+        aggregator.add(row, 2, 4, 5.0);
+
+        Map<String, Double> result = aggregator.toMap();
+        assertEquals(2, aggregator.size());
+        assertEquals(15.0, result.get("食品"));
+        assertEquals(2.5, result.get("交通"));
+    }
+
+    @Test
+    void add_growsBeyondInitialCapacity() {
+        CategoryAggregator aggregator = new CategoryAggregator();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 500; i++) {
+                aggregator.add("category-" + i, i);
+            }
+        }
+        Map<String, Double> result = aggregator.toMap();
+        assertEquals(500, result.size());
+        assertEquals(3 * 499.0, result.get("category-499"));
+    }
+
+    @Test
+    void merge_combinesTotals() {
+        CategoryAggregator first = new CategoryAggregator();
+        first.add("食品", 1.0);
+        first.add("交通", 2.0);
+        CategoryAggregator second = new CategoryAggregator();
+        second.add("交通", 3.0);
+        second.add("住房", 4.0);
+
+        first.merge(second);
+
+        Map<String, Double> result = first.toMap();
+        assertEquals(3, result.size());
+        assertEquals(5.0, result.get("交通"));
+        assertEquals(4.0, result.get("住房"));
+    }
+}
@@ -0,0 +1,113 @@
+package com.coinue.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvBackupStoreTest {
+    @TempDir
+    Path dir;
+
+    private static String statement(int rows, int insertAt) {
+        StringBuilder csv = new StringBuilder("日期,金额,类别,名称\n");
+        for (int i = 0; i < rows; i++) {
+            if (i == insertAt) {
+                csv.append("2024-06-30,1.00,其他,补录\n");
+            }
+            csv.append("2024-").append(String.format("%02d", i % 12 + 1)).append("-15,")
+                    .append(i * 7 % 1000).append(".50,餐饮,记录").append(i).append('\n');
+        }
+        return csv.toString();
+    }
+
+    @Test
+    void backup_sameFileTwiceStoresChunksOnce() throws IOException {
+        Path csv = Files.writeString(dir.resolve("statement.csv"), statement(5000, -1));
+        CsvBackupStore store = new CsvBackupStore(dir.resolve("backup"));
+
+        CsvBackupStore.ImportEvent first = store.backup(csv);
+        long written = store.getChunksWritten();
+        assertTrue(written > 1, "大文件应切成多个块");
+        CsvBackupStore.ImportEvent second = store.backup(csv);
+        assertEquals(written, store.getChunksWritten(), "相同内容不应再写入块");
+        assertEquals(first.getContentHash(), second.getContentHash());
+
+        List<CsvBackupStore.ImportEvent> imports = store.getImports();
+        assertEquals(2, imports.size());
+        assertEquals("statement.csv", imports.get(1).getFileName());
+        assertEquals(Files.size(csv), imports.get(1).getSize());
+
+        Path restored = dir.resolve("restored.csv");
+        store.restore(imports.get(0), restored);
+        assertArrayEquals(Files.readAllBytes(csv), Files.readAllBytes(restored));
+    }
+
+    @Test
+    void backup_editedFileReusesUnchangedChunks() throws IOException {
+        CsvBackupStore store = new CsvBackupStore(dir.resolve("backup"));
+        store.backup(Files.writeString(dir.resolve("a.csv"), statement(5000, -1)));
+        long written = store.getChunksWritten();
+
+        Path edited = Files.writeString(dir.resolve("b.csv"), statement(5000, 2500));
+        CsvBackupStore.ImportEvent event = store.backup(edited);
+        long newChunks = store.getChunksWritten() - written;
+        assertTrue(newChunks <= 3, "中间插入一行只影响附近的块: " + newChunks);
+        assertTrue(store.getChunksReused() >= written - 3);
+
+        Path restored = dir.resolve("restored.csv");
+        store.restore(event, restored);
+        assertArrayEquals(Files.readAllBytes(edited), Files.readAllBytes(restored));
+    }
+
+    @Test
+    void backup_rewritesTornChunksAndManifest() throws IOException {
+        Path csv = Files.writeString(dir.resolve("statement.csv"), statement(2000, -1));
+        CsvBackupStore store = new CsvBackupStore(dir.resolve("backup"));
+        CsvBackupStore.ImportEvent event = store.backup(csv);
+
+        // 模拟崩溃：一个块被截成空文件，另一个块和清单只写了一半
+        List<Path> chunks;
+        try (var files = Files.walk(dir.resolve("backup/chunks"))) {
+            chunks = files.filter(Files::isRegularFile).sorted().toList();
+        }
+        assertTrue(chunks.size() > 1);
+        Files.write(chunks.get(0), new byte[0]);
+        byte[] torn = Files.readAllBytes(chunks.get(1));
+        Files.write(chunks.get(1), Arrays.copyOf(torn, torn.length / 2));
+        Path manifest = dir.resolve("backup/manifests").resolve(event.getContentHash());
+        byte[] manifestBytes = Files.readAllBytes(manifest);
+        Files.write(manifest, Arrays.copyOf(manifestBytes, 4));
+
+        long written = store.getChunksWritten();
+        store.backup(csv);
+        assertEquals(written + 2, store.getChunksWritten(), "损坏的块应重写");
+
+        Path restored = dir.resolve("restored.csv");
+        store.restore(event, restored);
+        assertArrayEquals(Files.readAllBytes(csv), Files.readAllBytes(restored));
+    }
+
+    @Test
+    void getImports_ignoresTornRecordAndAppendsAfterIt() throws Exception {
+        Path csv = Files.writeString(dir.resolve("small.csv"), statement(10, -1));
+        CsvBackupStore store = new CsvBackupStore(dir.resolve("backup"));
+        store.backupInBackground(csv).get(10, TimeUnit.SECONDS);
+
+        Files.write(dir.resolve("backup/imports.idx"), new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+        assertEquals(1, store.getImports().size());
+
+        store.backup(csv);
+        List<CsvBackupStore.ImportEvent> imports = store.getImports();
+        assertEquals(2, imports.size());
+        assertEquals(imports.get(0).getContentHash(), imports.get(1).getContentHash());
+    }
+}
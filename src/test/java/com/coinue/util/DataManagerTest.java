@@ -4,9 +4,11 @@ import com.coinue.model.Budget;
 import com.coinue.model.Category;
 import com.coinue.model.ExpenseRecord;
 import com.coinue.model.PaymentReminder;
+import com.coinue.model.User;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -25,6 +27,9 @@ class DataManagerTest {
     private static final Path EXPENSE_FILE_PATH = Paths.get(DATA_DIR_PATH, "expense.json");
     private static final Path BUDGET_FILE_PATH = Paths.get(DATA_DIR_PATH, "budget.json");
     private static final Path REMINDER_FILE_PATH = Paths.get(DATA_DIR_PATH, "reminder.json");
+    private static final Path EXPENSE_INDEX_PATH = Paths.get(DATA_DIR_PATH, "expense.fingerprints");
+    private static final List<Path> JOURNAL_PATHS = List.of(Paths.get(DATA_DIR_PATH, "expense.journal"),
+            Paths.get(DATA_DIR_PATH, "budget.journal"), Paths.get(DATA_DIR_PATH, "reminder.journal"));
     private static final Path DATA_DIR = Paths.get(DATA_DIR_PATH);
 
 
@@ -34,6 +39,10 @@ class DataManagerTest {
         Files.deleteIfExists(EXPENSE_FILE_PATH);
         Files.deleteIfExists(BUDGET_FILE_PATH);
         Files.deleteIfExists(REMINDER_FILE_PATH);
+        Files.deleteIfExists(EXPENSE_INDEX_PATH);
+        for (Path journal : JOURNAL_PATHS) {
+            Files.deleteIfExists(journal);
+        }
     }
 
     @AfterEach
@@ -41,6 +50,10 @@ class DataManagerTest {
         Files.deleteIfExists(EXPENSE_FILE_PATH);
         Files.deleteIfExists(BUDGET_FILE_PATH);
         Files.deleteIfExists(REMINDER_FILE_PATH);
+        Files.deleteIfExists(EXPENSE_INDEX_PATH);
+        for (Path journal : JOURNAL_PATHS) {
+            Files.deleteIfExists(journal);
+        }
         // Attempt to delete data directory if empty, but don't fail test if it can't
         try {
             if (Files.isDirectory(DATA_DIR) && Files.list(DATA_DIR).findAny().isEmpty()) {
@@ -91,6 +104,81 @@ class DataManagerTest {
         assertEquals(record2.getDescription(), loadedRecord2.getDescription());
     }
 
+    @Test
+    void appendExpenseRecords_addsBatchAfterExistingRecords() {
+        DataManager.saveExpenseRecords(List.of(
+                new ExpenseRecord(10.0, "食品", "Breakfast", LocalDate.of(2024, 1, 1))));
+
+        List<ExpenseRecord> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new ExpenseRecord(i, "交通", "Ride " + i, LocalDate.of(2024, 1, 2)));
+        }
+        List<ExpenseRecord> merged = DataManager.appendExpenseRecords(batch);
+
+        assertEquals(1001, merged.size());
+        List<ExpenseRecord> loaded = DataManager.loadExpenseRecords();
+        assertEquals(1001, loaded.size());
+        assertEquals("Breakfast", loaded.get(0).getName());
+        assertEquals("Ride 999", loaded.get(1000).getName());
+    }
+
+    @Test
+    void saveExpenseRecords_appendsOnlyNewRecordsToJournal() throws IOException {
+        List<ExpenseRecord> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(new ExpenseRecord(i, "交通", "Ride " + i, LocalDate.of(2024, 1, 2)));
+        }
+        DataManager.saveExpenseRecords(records);
+        long snapshotSize = Files.exists(EXPENSE_FILE_PATH) ? Files.size(EXPENSE_FILE_PATH) : 0;
+        long journalSize = Files.exists(JOURNAL_PATHS.get(0)) ? Files.size(JOURNAL_PATHS.get(0)) : 0;
+
+        ExpenseRecord lunch = new ExpenseRecord(25.0, "食品", "Lunch", LocalDate.of(2024, 1, 3));
+        records.add(lunch);
+        DataManager.saveExpenseRecords(records, List.of(lunch));
+
+        assertEquals(snapshotSize, Files.exists(EXPENSE_FILE_PATH) ? Files.size(EXPENSE_FILE_PATH) : 0);
+        long appendedBytes = Files.size(JOURNAL_PATHS.get(0)) - journalSize;
+        assertTrue(appendedBytes > 0 && appendedBytes < 200, "只追加一条记录: " + appendedBytes);
+
+        records.remove(0);
+        records.get(10).setAmount(99.0);
+        DataManager.saveExpenseRecords(records);
+        List<ExpenseRecord> loaded = DataManager.loadExpenseRecords();
+        assertEquals(100, loaded.size());
+        assertEquals("Ride 1", loaded.get(0).getName());
+        assertEquals(99.0, loaded.get(10).getAmount());
+        assertEquals("Lunch", loaded.get(99).getName());
+    }
+
+    @Test
+    void expenseIndex_tracksAppendedAndRewrittenRecords() throws IOException {
+        ExpenseRecord breakfast = new ExpenseRecord(10.0, "食品", "Breakfast", LocalDate.of(2024, 1, 1));
+        ExpenseRecord ride = new ExpenseRecord(4.0, "交通", "Ride", LocalDate.of(2024, 1, 2));
+        DataManager.saveExpenseRecords(List.of(breakfast));
+        FingerprintIndex index = DataManager.getExpenseIndex();
+        assertEquals(1, index.size());
+        assertEquals(1, index.count(FingerprintIndex.fingerprint(breakfast)));
+
+        DataManager.appendExpenseRecords(List.of(ride));
+        assertSame(index, DataManager.getExpenseIndex());
+        assertEquals(2, index.size());
+        assertEquals(1, index.count(FingerprintIndex.fingerprint(ride)));
+
+        // 整体改写和删除只把变化写入索引，不重建
+        DataManager.saveExpenseRecords(List.of(ride));
+        assertSame(index, DataManager.getExpenseIndex());
+        assertEquals(1, index.size());
+        assertEquals(0, index.count(FingerprintIndex.fingerprint(breakfast)));
+
+        DataManager.appendExpenseRecords(List.of(breakfast));
+        assertTrue(DataManager.getExpenseRepository().delete(ride));
+        assertSame(index, DataManager.getExpenseIndex());
+        assertEquals(0, index.count(FingerprintIndex.fingerprint(ride)));
+        assertEquals(1, index.count(FingerprintIndex.fingerprint(breakfast)));
+        assertFalse(FingerprintIndex.open(index.getFile()).syncWith(DataManager.loadExpenseRecords(),
+                FingerprintIndex::fingerprint), "索引文件与记录一致");
+    }
+
     @Test
     void loadExpenseRecords_fileNotExists() {
         List<ExpenseRecord> loadedRecords = DataManager.loadExpenseRecords();
@@ -138,6 +226,27 @@ class DataManagerTest {
         assertEquals(budget2.getCurrency(), loadedBudget2.getCurrency());
     }
 
+    @Test
+    void saveBudgets_deltasMatchFullSave() {
+        List<Budget> budgets = new ArrayList<>(List.of(
+                new Budget("Food", 500.0, "USD"), new Budget("Rent", 1200.0, "USD")));
+        DataManager.saveBudgets(List.copyOf(budgets));
+
+        Budget travel = new Budget("Travel", 300.0, "USD");
+        budgets.add(travel);
+        DataManager.saveBudgets(List.copyOf(budgets), List.of(travel));
+        budgets.remove(0);
+        DataManager.saveBudgets(List.copyOf(budgets), 0);
+
+        List<Budget> loaded = DataManager.loadBudgets();
+        assertEquals(List.of("Rent", "Travel"), loaded.stream().map(Budget::getCategory).toList());
+
+        // 与已保存内容对不上的增量退回到完整保存
+        DataManager.saveBudgets(List.of(new Budget("Other", 1.0, "USD")), 5);
+        assertEquals("Other", DataManager.loadBudgets().get(0).getCategory());
+        assertEquals(1, DataManager.loadBudgets().size());
+    }
+
     @Test
     void loadBudgets_fileNotExists() {
         List<Budget> loadedBudgets = DataManager.loadBudgets();
@@ -215,4 +324,107 @@ class DataManagerTest {
         assertNotNull(loadedReminders);
         assertTrue(loadedReminders.isEmpty(), "Loading from a file with only whitespace should result in an empty list.");
     }
-} 
\ No newline at end of file
+
+    // --- Per-user partition Tests ---
+
+    @Test
+    void partitions_keepEachUsersDataSeparate(@TempDir Path root) {
+        DataManager.setDataDirectory(root);
+        try {
+            User.setCurrentUser(new User("alice", "alice@example.com", "Pass1"));
+            DataManager.saveBudgets(List.of(new Budget("Food", 500.0, "USD")));
+            DataManager.appendExpenseRecords(List.of(new ExpenseRecord(10.0, "食品", "Breakfast", LocalDate.of(2024, 1, 1))));
+            assertTrue(Files.exists(root.resolve("users/alice/budget.json"))
+                    || Files.exists(root.resolve("users/alice/budget.journal")));
+
+            User.setCurrentUser(new User("bob", "bob@example.com", "Pass1"));
+            assertTrue(DataManager.loadBudgets().isEmpty());
+            assertTrue(DataManager.loadExpenseRecords().isEmpty());
+            assertEquals(0, DataManager.getExpenseIndex().size());
+            DataManager.saveReminders(List.of(new PaymentReminder("Rent", 1200.0, LocalDate.of(2024, 2, 1))));
+
+            User.logout();
+            User.setCurrentUser(new User("alice", "alice@example.com", "Pass1"));
+            assertEquals(1, DataManager.loadBudgets().size());
+            assertEquals("Breakfast", DataManager.loadExpenseRecords().get(0).getName());
+            assertEquals(1, DataManager.getExpenseIndex().size());
+            assertTrue(DataManager.loadReminders().isEmpty());
+        } finally {
+            User.logout();
+            DataManager.setDataDirectory(DATA_DIR);
+        }
+    }
+
+    @Test
+    void legacyGlobalFiles_staySharedUntilClaimed(@TempDir Path root) throws IOException {
+        Files.writeString(root.resolve("budget.json"), "[{\"category\":\"Food\",\"amount\":300.0,\"currency\":\"CNY\"}]");
+        Files.writeString(root.resolve("expense.json"),
+                "[{\"amount\":8.0,\"category\":\"交通\",\"name\":\"Ride\",\"date\":\"2024-01-02\"}]");
+        Files.createDirectories(root.resolve("expense.segments"));
+        Files.writeString(root.resolve("expense.segments").resolve("2024-01.json"), "[]");
+        DataManager.setDataDirectory(root);
+        try {
+            assertEquals(-1, DataManager.claimLegacyData(), "没有用户登录时不能认领");
+
+            // 登录不会自动迁移，旧数据留在共享分区
+            User.setCurrentUser(new User("alice", "alice@example.com", "Pass1"));
+            assertTrue(DataManager.loadBudgets().isEmpty());
+            assertTrue(DataManager.loadExpenseRecords().isEmpty());
+            assertTrue(Files.exists(root.resolve("budget.json")));
+            assertTrue(DataManager.hasLegacyData());
+
+            User.setCurrentUser(new User("bob", "bob@example.com", "Pass1"));
+            assertEquals(3, DataManager.claimLegacyData());
+            assertEquals(300.0, DataManager.loadBudgets().get(0).getAmount());
+            assertEquals("Ride", DataManager.loadExpenseRecords().get(0).getName());
+            assertFalse(Files.exists(root.resolve("expense.json")));
+            assertTrue(Files.exists(root.resolve("users/bob/expense.segments/2024-01.json")));
+            assertFalse(DataManager.hasLegacyData());
+
+            // 认领之后写到共享位置的文件不能再被认领
+            Files.writeString(root.resolve("budget.json"), "[]");
+            User.setCurrentUser(new User("alice", "alice@example.com", "Pass1"));
+            assertEquals(-1, DataManager.claimLegacyData());
+            assertTrue(DataManager.loadBudgets().isEmpty());
+            assertTrue(Files.exists(root.resolve("budget.json")));
+        } finally {
+            User.logout();
+            DataManager.setDataDirectory(DATA_DIR);
+        }
+    }
+
+    @Test
+    void claimLegacyData_mergesIntoExistingJournalInsteadOfMixingFiles(@TempDir Path root) throws IOException {
+        Files.writeString(root.resolve("expense.json"),
+                "[{\"amount\":8.0,\"category\":\"交通\",\"name\":\"Ride\",\"date\":\"2024-01-02\"},"
+                        + "{\"amount\":30.0,\"category\":\"餐饮\",\"name\":\"Dinner\",\"date\":\"2024-01-03\"}]");
+        Files.writeString(root.resolve("budget.json"), "[{\"category\":\"Food\",\"amount\":300.0,\"currency\":\"CNY\"}]");
+        DataManager.setDataDirectory(root);
+        try {
+            User.setCurrentUser(new User("bob", "bob@example.com", "Pass1"));
+            DataManager.appendExpenseRecords(List.of(
+                    new ExpenseRecord(12.0, "餐饮", "Lunch", LocalDate.of(2024, 2, 1))));
+            assertTrue(Files.exists(root.resolve("users/bob/expense.journal")));
+            assertFalse(Files.exists(root.resolve("users/bob/expense.json")));
+
+            assertEquals(2, DataManager.claimLegacyData());
+
+            // 用户自己的记录保留，旧记录追加在后面，而不是把用户的日志重放到旧快照上
+            List<String> names = DataManager.loadExpenseRecords().stream().map(ExpenseRecord::getName).toList();
+            assertEquals(List.of("Lunch", "Ride", "Dinner"), names);
+            assertEquals(3, DataManager.getExpenseIndex().size());
+            // 用户还没有预算，预算文件整组移入
+            assertEquals(300.0, DataManager.loadBudgets().get(0).getAmount());
+            assertTrue(Files.exists(root.resolve("users/bob/budget.json")));
+            assertTrue(Files.exists(root.resolve("users/bob/legacy/expense.json")));
+            assertFalse(Files.exists(root.resolve("expense.json")));
+            assertFalse(DataManager.hasLegacyData());
+
+            DataManager.releasePartition();
+            assertEquals(names, DataManager.loadExpenseRecords().stream().map(ExpenseRecord::getName).toList());
+        } finally {
+            User.logout();
+            DataManager.setDataDirectory(DATA_DIR);
+        }
+    }
+}
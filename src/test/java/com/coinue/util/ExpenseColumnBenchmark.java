@@ -0,0 +1,68 @@
+package com.coinue.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.coinue.model.ExpenseRecord;
+
+/**
+ * 列式支出文件的汇总基准测试
+ * 生成指定行数的列式文件，测量按类别汇总一年金额的耗时和堆内存分配，
+ * 不属于单元测试，需要手动运行（默认1000万行，可通过第一个参数指定）：
+ * mvn test-compile exec:java -Dexec.mainClass=com.coinue.util.ExpenseColumnBenchmark -Dexec.classpathScope=test
+ */
+public class ExpenseColumnBenchmark {
+    private static final int DEFAULT_ROWS = 10_000_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+
+    private static long sink;
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        Path file = Files.createTempFile("expense-bench", ".cols");
+        try {
+            String[] categories = {"餐饮", "交通", "购物", "娱乐", "住房", "医疗", "教育", "其他"};
+            List<ExpenseRecord> records = new ArrayList<>(rows);
+            LocalDate start = LocalDate.of(2015, 1, 1);
+            for (int i = 0; i < rows; i++) {
+                records.add(new ExpenseRecord(i % 1000 + 0.5, categories[i % categories.length], "记录",
+                        start.plusDays(i % 3650), null, i % 10 == 0 ? "收入" : "支出", "CNY"));
+            }
+            long writeStart = System.nanoTime();
+            ExpenseColumnFile.write(file, records);
+            System.out.printf("写入 %d 行: %.0f ms, 文件 %.1f MB%n", rows,
+                    (System.nanoTime() - writeStart) / 1e6, Files.size(file) / 1048576.0);
+            records = null;
+
+            LocalDate from = LocalDate.of(2020, 1, 1);
+            LocalDate to = LocalDate.of(2020, 12, 31);
+            try (ExpenseColumnFile columns = ExpenseColumnFile.open(file)) {
+                com.sun.management.ThreadMXBean threads =
+                        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+                long threadId = Thread.currentThread().getId();
+                for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                    sink += columns.totalsByCategory(from, to, "支出").size();
+                }
+                long best = Long.MAX_VALUE;
+                long allocated = 0;
+                for (int i = 0; i < MEASURE_ROUNDS; i++) {
+                    long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+                    long begin = System.nanoTime();
+                    sink += columns.totalsByCategory(from, to, "支出").size();
+                    best = Math.min(best, System.nanoTime() - begin);
+                    allocated += threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+                }
+                System.out.printf("按类别汇总 %d 行: %.1f ms, %.2f ns/行, 每次汇总分配 %d 字节%n", rows,
+                        best / 1e6, best / (double) rows, allocated / MEASURE_ROUNDS);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
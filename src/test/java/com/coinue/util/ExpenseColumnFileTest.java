@@ -0,0 +1,150 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpenseColumnFileTest {
+    @TempDir
+    Path dir;
+
+    private static List<ExpenseRecord> records(int count) {
+        String[] categories = {"餐饮", "交通", "购物", "娱乐"};
+        List<ExpenseRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new ExpenseRecord(i % 100 + 0.25, categories[i % categories.length], "记录" + i,
+                    LocalDate.of(2024, 1, 1).plusDays(i % 366), i % 3 == 0 ? null : "备注" + i,
+                    i % 5 == 0 ? "收入" : "支出", i % 7 == 0 ? "USD" : "CNY"));
+        }
+        return records;
+    }
+
+    @Test
+    void write_and_open_roundTripsAllFields() throws IOException {
+        List<ExpenseRecord> records = records(1000);
+        records.add(new ExpenseRecord(12.5, null, null, null, "", null, null));
+        Path file = dir.resolve("expense.cols");
+        ExpenseColumnFile.write(file, records);
+
+        try (ExpenseColumnFile columns = ExpenseColumnFile.open(file)) {
+            assertEquals(records.size(), columns.size());
+            for (int row = 0; row < records.size(); row++) {
+                ExpenseRecord expected = records.get(row);
+                ExpenseRecord actual = columns.get(row);
+                assertEquals(expected.getAmount(), actual.getAmount(), 1e-9);
+                assertEquals(expected.getCategory(), actual.getCategory());
+                assertEquals(expected.getName(), actual.getName());
+                assertEquals(expected.getDate(), actual.getDate());
+                assertEquals(expected.getDescription(), actual.getDescription());
+                assertEquals(expected.getRecordType(), actual.getRecordType());
+                assertEquals(expected.getCurrency(), actual.getCurrency());
+            }
+            assertEquals(FieldDecoders.INVALID_DATE, columns.getEpochDay(records.size() - 1));
+            assertEquals(1250, columns.getAmountCents(records.size() - 1));
+        }
+    }
+
+    @Test
+    void totalsByCategory_matchesRecordByRecordAggregation() throws IOException {
+        List<ExpenseRecord> records = records(5000);
+        Path file = dir.resolve("expense.cols");
+        ExpenseColumnFile.write(file, records);
+        LocalDate from = LocalDate.of(2024, 3, 1);
+        LocalDate to = LocalDate.of(2024, 6, 30);
+
+        Map<String, Long> expected = new HashMap<>();
+        for (ExpenseRecord record : records) {
+            if ("支出".equals(record.getRecordType())
+                    && !record.getDate().isBefore(from) && !record.getDate().isAfter(to)) {
+                expected.merge(record.getCategory(), Math.round(record.getAmount() * 100), Long::sum);
+            }
+        }
+
+        try (ExpenseColumnFile columns = ExpenseColumnFile.open(file)) {
+            Map<String, Double> totals = columns.totalsByCategory(from, to, "支出");
+            assertEquals(expected.size(), totals.size());
+            for (Map.Entry<String, Long> entry : expected.entrySet()) {
+                assertEquals(entry.getValue() / 100.0, totals.get(entry.getKey()), 1e-6);
+            }
+            long all = 0;
+            for (ExpenseRecord record : records) {
+                all += Math.round(record.getAmount() * 100);
+            }
+            assertEquals(all, columns.sumCents(null, null, null));
+            assertEquals(0, columns.sumCents(null, null, "不存在的类型"));
+        }
+    }
+
+    @Test
+    void importJson_acceptsArrayAndSnapshotFormats() throws IOException {
+        Path array = dir.resolve("array.json");
+        Files.writeString(array, "[{\"amount\":10.5,\"category\":\"餐饮\",\"name\":\"午饭\",\"date\":\"2024-05-01\","
+                + "\"description\":\"同事\",\"recordType\":\"支出\",\"currency\":\"CNY\"},"
+                + "{\"amount\":3,\"category\":\"交通\",\"date\":\"2024-05-02\",\"extra\":[1,2]}]");
+        Path snapshot = dir.resolve("snapshot.json");
+        Files.writeString(snapshot, "{\"seq\":7,\"records\":[{\"amount\":1.25,\"name\":null,\"date\":\"2024-01-01\"}]}");
+
+        Path file = dir.resolve("expense.cols");
+        assertEquals(2, ExpenseColumnFile.importJson(array, file));
+        try (ExpenseColumnFile columns = ExpenseColumnFile.open(file)) {
+            assertEquals("午饭", columns.getName(0));
+            assertEquals(LocalDate.of(2024, 5, 1), columns.getDate(0));
+            assertNull(columns.getName(1));
+            assertEquals("支出", columns.getRecordType(1), "缺少的字段取ExpenseRecord的默认值");
+            assertEquals("CNY", columns.getCurrency(1));
+        }
+
+        assertEquals(1, ExpenseColumnFile.importJson(snapshot, file));
+        try (ExpenseColumnFile columns = ExpenseColumnFile.open(file)) {
+            assertEquals(125, columns.getAmountCents(0));
+            assertNull(columns.getName(0));
+        }
+    }
+
+    @Test
+    void exportJson_thenImport_preservesRecords() throws IOException {
+        List<ExpenseRecord> records = records(200);
+        Path file = dir.resolve("expense.cols");
+        ExpenseColumnFile.write(file, records);
+        Path json = dir.resolve("expense.json");
+        try (ExpenseColumnFile columns = ExpenseColumnFile.open(file)) {
+            columns.exportJson(json);
+        }
+
+        Path reimported = dir.resolve("reimported.cols");
+        assertEquals(200, ExpenseColumnFile.importJson(json, reimported));
+        try (ExpenseColumnFile original = ExpenseColumnFile.open(file);
+             ExpenseColumnFile copy = ExpenseColumnFile.open(reimported)) {
+            for (int row = 0; row < 200; row++) {
+                assertEquals(original.getAmountCents(row), copy.getAmountCents(row));
+                assertEquals(original.getCategory(row), copy.getCategory(row));
+                assertEquals(original.getDescription(row), copy.getDescription(row));
+                assertEquals(original.getEpochDay(row), copy.getEpochDay(row));
+            }
+        }
+    }
+
+    @Test
+    void open_rejectsOtherFiles() throws IOException {
+        Path json = dir.resolve("expense.json");
+        Files.writeString(json, "[]".repeat(100));
+        assertThrows(IOException.class, () -> ExpenseColumnFile.open(json));
+
+        Path file = dir.resolve("expense.cols");
+        ExpenseColumnFile.write(file, records(10));
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> ExpenseColumnFile.open(file), "截断的文件应被识别为已损坏");
+    }
+}
@@ -0,0 +1,97 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpensePagerTest {
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDate.class,
+                    (JsonSerializer<LocalDate>) (date, type, context) -> new JsonPrimitive(date.toString()))
+            .registerTypeAdapter(LocalDate.class,
+                    (JsonDeserializer<LocalDate>) (json, type, context) -> LocalDate.parse(json.getAsString()))
+            .create();
+
+    @TempDir
+    Path dir;
+
+    private ExpenseRepository repository(int count) throws IOException {
+        ExpenseRepository repository = new JournalExpenseRepository(
+                new JournalStore<>(dir.resolve("expense.json"), GSON, ExpenseRecord.class));
+        String[] categories = {"餐饮", "交通", "购物"};
+        List<ExpenseRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // 日期倒序插入，金额按7取模重复
+            records.add(new ExpenseRecord(i % 7, categories[i % 3], "记录" + i,
+                    LocalDate.of(2024, 1, 1).plusDays(count - i)));
+        }
+        repository.insertAll(records);
+        return repository;
+    }
+
+    private static List<String> names(ExpensePager pager) {
+        List<String> names = new ArrayList<>();
+        for (int row = 0; row < pager.size(); row++) {
+            names.add(pager.get(row).getName());
+        }
+        return names;
+    }
+
+    @Test
+    void get_loadsOnlyPagesThatAreRead() throws IOException {
+        ExpensePager pager = new ExpensePager(repository(1000), 50);
+        assertEquals(1000, pager.size());
+        assertEquals(20, pager.getPageCount());
+        assertEquals(0, pager.getPageLoads());
+
+        assertEquals("记录0", pager.get(0).getName());
+        assertEquals("记录49", pager.get(49).getName());
+        assertEquals("记录999", pager.get(999).getName());
+        assertEquals(2, pager.getPageLoads());
+        assertSame(pager.get(10), pager.get(10));
+
+        for (int row = 0; row < pager.size(); row++) {
+            pager.get(row);
+        }
+        assertTrue(pager.getCachedPageCount() <= 8, "只缓存最近访问的几页");
+        assertThrows(IndexOutOfBoundsException.class, () -> pager.get(1000));
+    }
+
+    @Test
+    void sortAndRange_orderRowsAndKeepStorageOrderForTies() throws IOException {
+        ExpenseRepository repository = repository(30);
+        ExpensePager byDate = new ExpensePager(repository, null, null, null, ExpensePager.SortKey.DATE, false, 7);
+        assertEquals("记录29", byDate.get(0).getName());
+        assertEquals("记录0", byDate.get(29).getName());
+
+        ExpensePager byAmount = new ExpensePager(repository, null, null, null, ExpensePager.SortKey.AMOUNT, true, 7);
+        assertEquals(List.of("记录6", "记录13", "记录20", "记录27", "记录5"), names(byAmount).subList(0, 5));
+        assertEquals("记录28", byAmount.get(29).getName());
+
+        ExpensePager ranged = new ExpensePager(repository, LocalDate.of(2024, 1, 2), LocalDate.of(2024, 1, 11),
+                "交通", ExpensePager.SortKey.POSITION, true, 2);
+        assertEquals(List.of("记录28", "记录25", "记录22"), names(ranged));
+    }
+
+    @Test
+    void pagedList_exposesPagerRows() throws IOException {
+        PagedExpenseList list = new PagedExpenseList(new ExpensePager(repository(120), 25));
+        assertEquals(120, list.size());
+        assertEquals("记录60", list.get(60).getName());
+        assertEquals(1, list.getPager().getPageLoads());
+        assertThrows(UnsupportedOperationException.class, () -> list.add(list.get(0)));
+    }
+}
@@ -0,0 +1,231 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpenseRepositoryTest {
+    @TempDir
+    Path dir;
+
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(LocalDate.class, new TypeAdapter<LocalDate>() {
+                @Override
+                public void write(JsonWriter out, LocalDate value) throws IOException {
+                    out.value(value.toString());
+                }
+
+                @Override
+                public LocalDate read(JsonReader in) throws IOException {
+                    return LocalDate.parse(in.nextString());
+                }
+            }.nullSafe())
+            .create();
+
+    private interface Backend {
+        ExpenseRepository open(Path dir) throws IOException;
+    }
+
+    private static final List<Backend> BACKENDS = List.of(
+            dir -> new JsonExpenseRepository(dir.resolve("expense.json"), GSON),
+            dir -> new JournalExpenseRepository(new JournalStore<>(dir.resolve("expense.json"), GSON, ExpenseRecord.class)),
+            dir -> new ColumnarExpenseRepository(dir.resolve("expense.cols"), GSON).mergeThreshold(8),
+            dir -> new SegmentedExpenseRepository(dir.resolve("segments"), GSON),
+            dir -> new SegmentedExpenseRepository(dir.resolve("segments"), GSON).activeMonths(1200));
+
+    private static List<ExpenseRecord> records(int count) {
+        String[] categories = {"餐饮", "交通", "购物"};
+        List<ExpenseRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new ExpenseRecord(i + 0.5, categories[i % 3], "记录" + i,
+                    LocalDate.of(2024, 1, 1).plusDays(i), null, "支出", "CNY"));
+        }
+        return records;
+    }
+
+    private static List<String> names(List<ExpenseRecord> records) {
+        List<String> names = new ArrayList<>();
+        for (ExpenseRecord record : records) {
+            names.add(record.getName());
+        }
+        return names;
+    }
+
+    @Test
+    void insertAndQuery_behaveTheSameOnEveryBackend() throws IOException {
+        for (int b = 0; b < BACKENDS.size(); b++) {
+            Path backendDir = Files.createDirectories(dir.resolve("backend" + b));
+            ExpenseRepository repository = BACKENDS.get(b).open(backendDir);
+            List<ExpenseRecord> records = records(30);
+            repository.insertAll(records.subList(0, 20));
+            for (ExpenseRecord record : records.subList(20, 30)) {
+                repository.insert(record);
+            }
+
+            assertEquals(30, repository.size(), "backend " + b);
+            assertEquals(names(records), names(repository.findAll()), "backend " + b);
+            assertEquals("记录7", repository.get(7).getName());
+            assertEquals(List.of("记录9", "记录2", "记录29"), names(repository.getAll(new int[]{9, 2, 29})),
+                    "backend " + b);
+
+            List<ExpenseRecord> january = repository.findByDateRange(LocalDate.of(2024, 1, 5), LocalDate.of(2024, 1, 10));
+            assertEquals(List.of("记录4", "记录5", "记录6", "记录7", "记录8", "记录9"), names(january), "backend " + b);
+            List<ExpenseRecord> transport = repository.findByCategory("交通");
+            assertEquals(10, transport.size(), "backend " + b);
+            assertTrue(transport.stream().allMatch(r -> "交通".equals(r.getCategory())));
+            assertEquals(0, repository.findByCategory("不存在").size());
+
+            try (ExpenseRepository.Cursor cursor = repository.query(LocalDate.of(2024, 1, 20), null, "购物")) {
+                List<Integer> positions = new ArrayList<>();
+                while (cursor.hasNext()) {
+                    ExpenseRecord record = cursor.next();
+                    assertEquals(record.getName(), "记录" + cursor.position());
+                    positions.add(cursor.position());
+                }
+                assertEquals(List.of(20, 23, 26, 29), positions, "backend " + b);
+            }
+        }
+    }
+
+    @Test
+    void delete_removesRecordsAndShiftsPositions() throws IOException {
+        for (int b = 0; b < BACKENDS.size(); b++) {
+            Path backendDir = Files.createDirectories(dir.resolve("backend" + b));
+            ExpenseRepository repository = BACKENDS.get(b).open(backendDir);
+            List<ExpenseRecord> records = records(12);
+            repository.insertAll(records);
+
+            repository.delete(0);
+            assertTrue(repository.delete(records.get(10)));
+            assertFalse(repository.delete(records.get(10)), "backend " + b);
+            List<String> expected = names(records.subList(1, 12));
+            expected.remove("记录10");
+            assertEquals(expected, names(repository.findAll()), "backend " + b);
+
+            repository.replaceAll(records.subList(3, 5));
+            assertEquals(List.of("记录3", "记录4"), names(repository.findAll()), "backend " + b);
+        }
+    }
+
+    @Test
+    void reopen_seesPersistedRecords() throws IOException {
+        for (int b = 0; b < BACKENDS.size(); b++) {
+            Path backendDir = Files.createDirectories(dir.resolve("backend" + b));
+            ExpenseRepository repository = BACKENDS.get(b).open(backendDir);
+            repository.insertAll(records(10));
+            repository.delete(4);
+            if (repository instanceof ColumnarExpenseRepository columnar) {
+                columnar.close();
+            }
+            PersistenceWorker.getInstance().flush();
+
+            ExpenseRepository reopened = BACKENDS.get(b).open(backendDir);
+            assertEquals(9, reopened.size(), "backend " + b);
+            assertEquals("记录5", reopened.get(4).getName(), "backend " + b);
+        }
+    }
+
+    @Test
+    void columnar_mergesDeltaAndUsesIndexes() throws IOException {
+        ColumnarExpenseRepository repository = new ColumnarExpenseRepository(dir.resolve("expense.cols"), GSON)
+                .mergeThreshold(100);
+        List<ExpenseRecord> records = records(250);
+        repository.insertAll(records.subList(0, 150));
+        assertEquals(0, repository.getDeltaSize(), "超过阈值后增量应合并到列式文件");
+        repository.insertAll(records.subList(150, 250));
+        assertEquals(0, repository.getDeltaSize());
+        repository.insert(new ExpenseRecord(1, "餐饮", "增量", LocalDate.of(2024, 3, 1)));
+        assertEquals(1, repository.getDeltaSize());
+
+        List<ExpenseRecord> march = repository.findByDateRange(LocalDate.of(2024, 3, 1), LocalDate.of(2024, 3, 1));
+        assertEquals(List.of("记录60", "增量"), names(march));
+        List<ExpenseRecord> food = repository.findByCategory("餐饮");
+        assertEquals(84 + 1, food.size());
+        assertEquals("增量", food.get(food.size() - 1).getName());
+        repository.close();
+    }
+
+    @Test
+    void columnar_recoversInterruptedMerge() throws IOException {
+        Path file = dir.resolve("expense.cols");
+        ColumnarExpenseRepository repository = new ColumnarExpenseRepository(file, GSON);
+        repository.insertAll(records(5));
+        repository.merge();
+        repository.insert(new ExpenseRecord(1, "餐饮", "未合并", LocalDate.of(2024, 3, 1)));
+        repository.close();
+
+        // 新文件写完但增量尚未清空时中断：新文件作废，增量保留
+        ExpenseColumnFile.write(dir.resolve("expense.cols.merging"), records(2));
+        ColumnarExpenseRepository reopened = new ColumnarExpenseRepository(file, GSON);
+        assertEquals(6, reopened.size());
+        assertFalse(Files.exists(dir.resolve("expense.cols.merging")));
+        reopened.close();
+    }
+
+    @Test
+    void segmented_rangeQueryOpensOnlyOverlappingSegments() throws IOException {
+        Path segmentDir = dir.resolve("segments");
+        SegmentedExpenseRepository repository = new SegmentedExpenseRepository(segmentDir, GSON);
+        repository.insertAll(records(120));
+        repository.insert(new ExpenseRecord(100, "工资", "收入", LocalDate.of(2024, 2, 10), null, "收入", "CNY"));
+        assertTrue(Files.exists(segmentDir.resolve("2024-03.json.gz")), "历史月份应封存为压缩文件");
+        assertFalse(Files.exists(segmentDir.resolve("2024-03.json")));
+
+        SegmentedExpenseRepository reopened = new SegmentedExpenseRepository(segmentDir, GSON);
+        assertEquals(121, reopened.size());
+        assertEquals(0, reopened.getSegmentLoads(), "清单有效时打开不应读取封存段");
+        List<SegmentedExpenseRepository.SegmentInfo> segments = reopened.getSegments();
+        assertEquals(4, segments.size());
+        SegmentedExpenseRepository.SegmentInfo february = segments.get(1);
+        assertEquals(YearMonth.of(2024, 2), february.getMonth());
+        assertEquals(30, february.getRows());
+        assertEquals(LocalDate.of(2024, 2, 1), february.getMinDate());
+        assertEquals(LocalDate.of(2024, 2, 29), february.getMaxDate());
+        assertEquals(100.0, february.getIncomeTotal());
+        // 记录31到59，金额为i + 0.5
+        assertEquals((31 + 59) * 29 / 2.0 + 29 * 0.5, february.getExpenseTotal(), 1e-9);
+
+        List<ExpenseRecord> march = reopened.findByDateRange(LocalDate.of(2024, 3, 5), LocalDate.of(2024, 3, 6));
+        assertEquals(List.of("记录64", "记录65"), names(march));
+        assertEquals(1, reopened.getSegmentLoads());
+    }
+
+    @Test
+    void segmented_sealsOldSegmentsAndRebuildsManifest() throws IOException {
+        Path segmentDir = dir.resolve("segments");
+        SegmentedExpenseRepository repository = new SegmentedExpenseRepository(segmentDir, GSON).activeMonths(1200);
+        repository.insertAll(records(60));
+        repository.insert(new ExpenseRecord(3, "餐饮", "无日期", null));
+        assertTrue(Files.exists(segmentDir.resolve("2024-01.journal")), "活动段保存为日志存储");
+
+        repository.activeMonths(1);
+        assertTrue(Files.exists(segmentDir.resolve("2024-01.json.gz")));
+        assertFalse(Files.exists(segmentDir.resolve("2024-01.journal")));
+        assertTrue(Files.exists(segmentDir.resolve("undated.journal")), "没有日期的段不会封存");
+        repository.delete(0);
+
+        Files.delete(segmentDir.resolve("manifest.json"));
+        SegmentedExpenseRepository reopened = new SegmentedExpenseRepository(segmentDir, GSON);
+        assertEquals(60, reopened.size());
+        assertEquals(30, reopened.getSegments().get(0).getRows());
+        assertEquals("记录1", reopened.get(0).getName());
+        assertEquals("无日期", reopened.get(59).getName());
+        assertEquals(0, reopened.findByDateRange(null, LocalDate.of(2030, 1, 1)).stream()
+                .filter(r -> r.getDate() == null).count());
+    }
+}
@@ -0,0 +1,84 @@
+package com.coinue.util;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 日期和金额字段解码基准测试
+ * 比较原来的LocalDate.parse/Double.parseDouble（先创建子串再trim）与FieldDecoders的吞吐量和每次调用的内存分配，
+ * 不属于单元测试，需要手动运行：
+ * mvn test-compile exec:java -Dexec.mainClass=com.coinue.util.FieldDecoderBenchmark -Dexec.classpathScope=test
+ * 项目没有引入JMH，这里用预热加多轮测量的方式近似，分配量通过HotSpot的线程分配计数器统计
+ */
+public class FieldDecoderBenchmark {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final int FIELDS = 1 << 16;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        // 模拟一行CSV中的字段：字段两侧带一个空格，和原来代码里需要trim的情况一致
+        char[][] dates = new char[FIELDS][];
+        char[][] amounts = new char[FIELDS][];
+        for (int i = 0; i < FIELDS; i++) {
+            dates[i] = (" " + LocalDate.of(2020, 1, 1).plusDays(i % 1500) + " ").toCharArray();
+            amounts[i] = (" " + (i % 5000) + "." + (10 + i % 90) + " ").toCharArray();
+        }
+
+        run("date  LocalDate.parse(substring.trim)", () -> {
+            long total = 0;
+            for (char[] field : dates) {
+                total += LocalDate.parse(new String(field, 0, field.length).trim(), DATE_FORMATTER).getDayOfMonth();
+            }
+            return total;
+        });
+        run("date  FieldDecoders.parseEpochDay", () -> {
+            long total = 0;
+            for (char[] field : dates) {
+                total += FieldDecoders.toLocalDate(FieldDecoders.parseEpochDay(field, 0, field.length)).getDayOfMonth();
+            }
+            return total;
+        });
+        run("amount Double.parseDouble(substring.trim)", () -> {
+            long total = 0;
+            for (char[] field : amounts) {
+                total += (long) Double.parseDouble(new String(field, 0, field.length).trim());
+            }
+            return total;
+        });
+        run("amount FieldDecoders.tryParseCents", () -> {
+            long total = 0;
+            for (char[] field : amounts) {
+                total += FieldDecoders.tryParseCents(field, 0, field.length) / 100;
+            }
+            return total;
+        });
+    }
+
+    private interface Workload {
+        long run();
+    }
+
+    private static void run(String label, Workload workload) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += workload.run();
+        }
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            sink += workload.run();
+            long elapsed = System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+            best = Math.min(best, elapsed);
+        }
+        System.out.printf("%-42s %7.1f ns/字段, %6.1f 字节/字段%n",
+                label, best / (double) FIELDS, allocated / (double) MEASURE_ROUNDS / FIELDS);
+    }
+}
@@ -0,0 +1,115 @@
+package com.coinue.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FieldDecodersTest {
+
+    private static int epochDay(String text) {
+        return FieldDecoders.parseEpochDay(text.toCharArray(), 0, text.length());
+    }
+
+    private static long cents(String text) {
+        return FieldDecoders.tryParseCents(text.toCharArray(), 0, text.length());
+    }
+
+    @Test
+    void parseEpochDay_matchesLocalDate() {
+        LocalDate date = LocalDate.of(1999, 12, 31);
+        for (int i = 0; i < 20000; i += 7) {
+            LocalDate expected = date.plusDays(i);
+            assertEquals(expected.toEpochDay(), epochDay(expected.toString()));
+        }
+        assertEquals(LocalDate.of(2024, 2, 29).toEpochDay(), epochDay(" 2024-02-29 "));
+        assertEquals(LocalDate.of(1969, 12, 31).toEpochDay(), epochDay("1969-12-31"));
+    }
+
+    @Test
+    void parseEpochDay_rejectsOtherFormatsAndInvalidDates() {
+        assertEquals(FieldDecoders.INVALID_DATE, epochDay("2024/03/20"));
+        assertEquals(FieldDecoders.INVALID_DATE, epochDay("2024-3-20"));
+        assertEquals(FieldDecoders.INVALID_DATE, epochDay("2023-02-29"));
+        assertEquals(FieldDecoders.INVALID_DATE, epochDay("2024-13-01"));
+        assertEquals(FieldDecoders.INVALID_DATE, epochDay("2024-0a-01"));
+        assertEquals(FieldDecoders.INVALID_DATE, epochDay(""));
+    }
+
+    @Test
+    void parseEpochDay_charSequenceRange() {
+        String line = "x,2024-03-20,y";
+        assertEquals(LocalDate.of(2024, 3, 20).toEpochDay(), FieldDecoders.parseEpochDay(line, 2, 12));
+        assertEquals(FieldDecoders.INVALID_DATE, FieldDecoders.parseEpochDay(line, 0, 10));
+    }
+
+    @Test
+    void toLocalDate_reusesCachedInstances() {
+        int day = (int) LocalDate.of(2024, 3, 20).toEpochDay();
+        LocalDate first = FieldDecoders.toLocalDate(day);
+        assertEquals(LocalDate.of(2024, 3, 20), first);
+        assertSame(first, FieldDecoders.toLocalDate(day));
+    }
+
+    @Test
+    void tryParseCents_exactMinorUnits() {
+        assertEquals(1250, cents("12.5"));
+        assertEquals(1250, cents(" 12.50 "));
+        assertEquals(1200, cents("12"));
+        assertEquals(1200, cents("12."));
+        assertEquals(5, cents(".05"));
+        assertEquals(-799, cents("-7.99"));
+        assertEquals(10, cents("+0.1"));
+        assertEquals(FieldDecoders.INVALID_AMOUNT, cents("1.005"));
+        assertEquals(FieldDecoders.INVALID_AMOUNT, cents("1e3"));
+        assertEquals(FieldDecoders.INVALID_AMOUNT, cents("abc"));
+        assertEquals(FieldDecoders.INVALID_AMOUNT, cents("-"));
+        assertEquals(FieldDecoders.INVALID_AMOUNT, cents("99999999999999999999"));
+        assertEquals(1250, FieldDecoders.tryParseCents("a,12.50,b", 2, 7));
+    }
+
+    @Test
+    void parseCents_roundsExtraDecimalsAndRejectsGarbage() {
+        assertEquals(101, FieldDecoders.parseCents("1.005".toCharArray(), 0, 5));
+        assertEquals(100000, FieldDecoders.parseCents("1e3", 0, 3));
+        assertThrows(NumberFormatException.class, () -> FieldDecoders.parseCents("abc", 0, 3));
+    }
+
+    @Test
+    void centsToAmount_matchesParseDouble() {
+        for (int i = -100000; i <= 100000; i += 37) {
+            String text = String.format("%d.%02d", i / 100, Math.abs(i % 100));
+            if (i < 0 && i > -100) {
+                text = "-" + text;
+            }
+            assertEquals(Double.parseDouble(text), FieldDecoders.centsToAmount(cents(text)), text);
+        }
+    }
+
+    @Test
+    void parseAmount_matchesParseDouble() {
+        for (String value : new String[]{"0", "12", "12.", "12.5", "-3.75", "+8.10", "0.1", "123456789.123", "1e3",
+                "99999999999999999.99", " 7.25 "}) {
+            char[] chars = value.toCharArray();
+            assertEquals(Double.parseDouble(value), FieldDecoders.parseAmount(chars, 0, chars.length), value);
+        }
+        char[] invalid = "abc".toCharArray();
+        assertThrows(NumberFormatException.class, () -> FieldDecoders.parseAmount(invalid, 0, invalid.length));
+    }
+
+    @Test
+    void decodeFields_fromParserRow() throws IOException {
+        try (CSVParser parser = new CSVParser(new StringReader("2024-03-20, 12.34 ,20/03/2024,1e2\n"))) {
+            assertTrue(parser.nextRow());
+            DateTimeFormatter slashes = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+            assertEquals(LocalDate.of(2024, 3, 20), FieldDecoders.decodeDate(parser, 0, slashes));
+            assertEquals(LocalDate.of(2024, 3, 20), FieldDecoders.decodeDate(parser, 2, slashes));
+            assertEquals(12.34, FieldDecoders.decodeAmount(parser, 1));
+            assertEquals(100.0, FieldDecoders.decodeAmount(parser, 3));
+        }
+    }
+}
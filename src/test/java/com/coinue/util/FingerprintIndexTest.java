@@ -0,0 +1,176 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.coinue.model.UserBillData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FingerprintIndexTest {
+    @TempDir
+    Path dir;
+
+    private static ExpenseRecord expense(String name, double amount, int day) {
+        return new ExpenseRecord(amount, "食品", name, LocalDate.of(2024, 1, day));
+    }
+
+    @Test
+    void fingerprint_normalizesNameAndCurrency() {
+        LocalDate date = LocalDate.of(2024, 1, 5);
+        long base = FingerprintIndex.fingerprint(date, 12.5, "Coffee  Shop", "CNY");
+        assertEquals(base, FingerprintIndex.fingerprint(date, 12.50, "  coffee shop ", null));
+        assertEquals(base, FingerprintIndex.fingerprint(date, 12.5, "COFFEE\tSHOP", "cny"));
+        assertNotEquals(base, FingerprintIndex.fingerprint(date, 12.51, "Coffee Shop", "CNY"));
+        assertNotEquals(base, FingerprintIndex.fingerprint(date.plusDays(1), 12.5, "Coffee Shop", "CNY"));
+        assertNotEquals(base, FingerprintIndex.fingerprint(date, 12.5, "Coffee Shop", "USD"));
+        assertNotEquals(base, FingerprintIndex.fingerprint(date, 12.5, "CoffeeShop", "CNY"));
+    }
+
+    @Test
+    void addAll_persistsIncrementallyAndReopens() throws IOException {
+        Path file = dir.resolve("expense.fingerprints");
+        FingerprintIndex index = FingerprintIndex.open(file);
+        index.addAll(List.of(expense("午餐", 25, 1), expense("午餐", 25, 1)), FingerprintIndex::fingerprint);
+        index.addAll(List.of(expense("地铁", 4, 2)), FingerprintIndex::fingerprint);
+        assertEquals(8 + 3 * Long.BYTES, Files.size(file));
+
+        FingerprintIndex reopened = FingerprintIndex.open(file);
+        assertEquals(3, reopened.size());
+        assertEquals(2, reopened.count(FingerprintIndex.fingerprint(expense("午餐", 25, 1))));
+        assertEquals(1, reopened.count(FingerprintIndex.fingerprint(expense("地铁", 4, 2))));
+        assertEquals(0, reopened.count(FingerprintIndex.fingerprint(expense("地铁", 4, 3))));
+    }
+
+    @Test
+    void open_dropsPartiallyWrittenEntry() throws IOException {
+        Path file = dir.resolve("bill.idx");
+        FingerprintIndex.open(file).addAll(List.of(expense("房租", 1200, 1)), FingerprintIndex::fingerprint);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(java.nio.ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        }
+
+        FingerprintIndex index = FingerprintIndex.open(file);
+        assertEquals(1, index.size());
+        index.addAll(List.of(expense("水费", 80, 2)), FingerprintIndex::fingerprint);
+        assertEquals(2, FingerprintIndex.open(file).size());
+    }
+
+    @Test
+    void syncWith_rebuildsWhenHistoryChanged() throws IOException {
+        Path file = dir.resolve("expense.fingerprints");
+        List<ExpenseRecord> history = new ArrayList<>(List.of(expense("午餐", 25, 1), expense("晚餐", 40, 1)));
+        FingerprintIndex index = FingerprintIndex.open(file);
+        assertTrue(index.syncWith(history, FingerprintIndex::fingerprint));
+        assertFalse(index.syncWith(history, FingerprintIndex::fingerprint));
+
+        history.remove(1);
+        assertTrue(index.syncWith(history, FingerprintIndex::fingerprint));
+        assertEquals(0, index.count(FingerprintIndex.fingerprint(expense("晚餐", 40, 1))));
+        assertEquals(1, FingerprintIndex.open(file).size());
+
+        // 记录数不变但内容被就地修改，重新打开的索引也能通过校验和发现
+        history.set(0, expense("早餐", 12, 1));
+        FingerprintIndex reopened = FingerprintIndex.open(file);
+        assertTrue(reopened.syncWith(history, FingerprintIndex::fingerprint));
+        assertEquals(0, reopened.count(FingerprintIndex.fingerprint(expense("午餐", 25, 1))));
+        assertEquals(1, reopened.count(FingerprintIndex.fingerprint(expense("早餐", 12, 1))));
+        assertFalse(FingerprintIndex.open(file).syncWith(history, FingerprintIndex::fingerprint));
+    }
+
+    @Test
+    void removeAndReplace_writeOnlyChangedFingerprints() throws IOException {
+        Path file = dir.resolve("expense.fingerprints");
+        List<ExpenseRecord> history = new ArrayList<>();
+        for (int i = 0; i < 6000; i++) {
+            history.add(expense("记录" + i, i, i % 28 + 1));
+        }
+        FingerprintIndex index = FingerprintIndex.open(file);
+        index.addAll(history, FingerprintIndex::fingerprint);
+        long fileSize = Files.size(file);
+
+        // 删除一条只追加移除标记和指纹
+        index.removeAll(List.of(history.remove(10)), FingerprintIndex::fingerprint);
+        assertEquals(fileSize + 2 * Long.BYTES, Files.size(file));
+        assertEquals(0, index.count(FingerprintIndex.fingerprint(expense("记录10", 10, 11))));
+
+        // 整体替换时只写入变化：修改一条等于删除一条再追加一条
+        history.set(500, expense("修改", 1, 1));
+        index.replaceAll(history, FingerprintIndex::fingerprint);
+        assertEquals(fileSize + 5 * Long.BYTES, Files.size(file));
+
+        FingerprintIndex reopened = FingerprintIndex.open(file);
+        assertEquals(5999, reopened.size());
+        assertEquals(1, reopened.count(FingerprintIndex.fingerprint(expense("修改", 1, 1))));
+        assertEquals(1, reopened.count(FingerprintIndex.fingerprint(history.get(0))));
+        assertFalse(reopened.syncWith(history, FingerprintIndex::fingerprint), "增量更新后的索引与历史记录一致");
+
+        // 删除的记录足够多时按当前内容重写文件
+        index.replaceAll(history.subList(0, 100), FingerprintIndex::fingerprint);
+        assertEquals(8 + 100 * Long.BYTES, Files.size(file));
+        assertFalse(FingerprintIndex.open(file).syncWith(history.subList(0, 100), FingerprintIndex::fingerprint));
+    }
+
+    @Test
+    void removeAll_keepsOtherFingerprintsReachable() throws IOException {
+        FingerprintIndex index = FingerprintIndex.open(dir.resolve("expense.fingerprints"));
+        List<ExpenseRecord> history = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            history.add(expense("记录" + i, i % 100, i % 28 + 1));
+        }
+        index.addAll(history, FingerprintIndex::fingerprint);
+        // 删掉一半，哈希表中剩下的指纹仍然都能找到
+        for (int i = 0; i < history.size(); i += 2) {
+            index.removeAll(List.of(history.get(i)), FingerprintIndex::fingerprint);
+        }
+        for (int i = 0; i < history.size(); i++) {
+            assertEquals(i % 2, index.count(FingerprintIndex.fingerprint(history.get(i))), "记录" + i);
+        }
+        assertEquals(2500, index.size());
+    }
+
+    @Test
+    void duplicateFilter_skipsOnlyOccurrencesAlreadyInHistory() throws IOException {
+        FingerprintIndex index = FingerprintIndex.open(dir.resolve("expense.fingerprints"));
+        index.addAll(List.of(expense("咖啡", 18, 3), expense("咖啡", 18, 3), expense("午餐", 25, 3)),
+                FingerprintIndex::fingerprint);
+        FingerprintIndex.DuplicateFilter<ExpenseRecord> filter = index.newFilter(FingerprintIndex::fingerprint);
+
+        List<ExpenseRecord> accepted = filter.filter(List.of(
+                expense("咖啡", 18, 3), expense("咖啡", 18, 3), expense("咖啡", 18, 3),
+                expense("午餐", 25, 3), expense("晚餐", 40, 3)));
+
+        assertEquals(3, filter.getDuplicateCount());
+        assertEquals(2, accepted.size());
+        assertEquals("咖啡", accepted.get(0).getName());
+        assertEquals("晚餐", accepted.get(1).getName());
+    }
+
+    @Test
+    void index_handlesLargeHistories() throws IOException {
+        Path file = dir.resolve("bill.idx");
+        List<UserBillData.BillRecord> bills = new ArrayList<>();
+        LocalDate start = LocalDate.of(2020, 1, 1);
+        for (int i = 0; i < 200_000; i++) {
+            bills.add(new UserBillData.BillRecord(start.plusDays(i % 1500), "bill " + i, i % 997, "Paid"));
+        }
+        FingerprintIndex index = FingerprintIndex.open(file);
+        index.rebuild(bills, FingerprintIndex::fingerprint);
+
+        assertEquals(8 + 200_000L * Long.BYTES, Files.size(file));
+        FingerprintIndex reopened = FingerprintIndex.open(file);
+        assertEquals(200_000, reopened.size());
+        for (int i = 0; i < bills.size(); i += 997) {
+            assertEquals(1, reopened.count(FingerprintIndex.fingerprint(bills.get(i))));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImportPipelineTest {
+
+    private static InputStream csv(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void run_keepsRowOrderAcrossBatches() throws IOException {
+        StringBuilder content = new StringBuilder("Type,Amount,Date,Additional\n");
+        for (int i = 0; i < 2500; i++) {
+            content.append("餐饮,").append(i).append(",2024-01-01,item").append(i).append('\n');
+        }
+        List<ExpenseRecord> records = new ArrayList<>();
+
+        ImportPipeline.ImportProgress progress = new ImportPipeline<>(ExpenseRowSchema.importLayout(), records::addAll)
+                .batchSize(100)
+                .queueCapacity(1)
+                .run(csv(content.toString()), -1);
+
+        assertEquals(2500, progress.getRowsRead());
+        assertEquals(2500, progress.getRowsAccepted());
+        assertEquals(2500, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals("item" + i, records.get(i).getName());
+            assertEquals(i, records.get(i).getAmount(), 0.001);
+        }
+        // 规范化阶段统一类别名称
+        assertEquals("食品", records.get(0).getCategory());
+    }
+
+    @Test
+    void run_countsSkippedAndRejectedRows() throws IOException {
+        String content = "Type,Amount,Date,Additional\n"
+                + "交通,2.00,2024-01-01,公交\n"
+                + "too,short\n"
+                + "交通,abc,2024-01-01,坏金额\n"
+                + "交通,3.00,2024/01/01,坏日期\n"
+                + "娱乐,50,2024-01-02,电影\n";
+        List<ExpenseRecord> records = new ArrayList<>();
+
+        ImportPipeline.ImportProgress progress = new ImportPipeline<>(ExpenseRowSchema.importLayout(), records::addAll)
+                .run(csv(content), -1);
+
+        assertEquals(5, progress.getRowsRead());
+        assertEquals(2, progress.getRowsAccepted());
+        assertEquals(1, progress.getRowsSkipped());
+        assertEquals(2, progress.getRowsRejected());
+        assertEquals("公交", records.get(0).getName());
+        assertEquals("电影", records.get(1).getName());
+    }
+
+    @Test
+    void run_failOnErrorRethrowsParseException() {
+        String content = "Type,Amount,Date,Additional\n交通,2.00,not-a-date,公交\n";
+
+        ImportPipeline<ExpenseRecord> pipeline = new ImportPipeline<>(ExpenseRowSchema.importLayout(), batch -> { })
+                .failOnError(true);
+
+        assertThrows(DateTimeParseException.class, () -> pipeline.run(csv(content), -1));
+    }
+
+    @Test
+    void run_sinkExceptionStopsImport() {
+        String content = "Type,Amount,Date,Additional\n交通,2.00,2024-01-01,公交\n";
+
+        ImportPipeline<ExpenseRecord> pipeline = new ImportPipeline<>(ExpenseRowSchema.importLayout(), batch -> {
+            throw new IOException("disk full");
+        });
+
+        IOException e = assertThrows(IOException.class, () -> pipeline.run(csv(content), -1));
+        assertEquals("disk full", e.getMessage());
+    }
+
+    @Test
+    void run_reportsProgressAfterEachBatch() throws IOException {
+        StringBuilder content = new StringBuilder("Date,Description,Category,Amount\n");
+        for (int i = 0; i < 10; i++) {
+            content.append("2024-01-01,item,交通,1.00\n");
+        }
+        byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+        List<ImportPipeline.ImportProgress> updates = new ArrayList<>();
+
+        new ImportPipeline<>(ExpenseRowSchema.exportLayout(), batch -> { })
+                .batchSize(3)
+                .listener(updates::add)
+                .run(new ByteArrayInputStream(bytes), bytes.length);
+
+        assertEquals(4, updates.size());
+        assertEquals(3, updates.get(0).getRowsAccepted());
+        ImportPipeline.ImportProgress last = updates.get(updates.size() - 1);
+        assertEquals(10, last.getRowsAccepted());
+        assertEquals(1.0, last.getFraction(), 0.0001);
+    }
+
+    @Test
+    void cancel_stopsImportWithCancellationException() {
+        StringBuilder content = new StringBuilder("Date,Description,Category,Amount\n");
+        for (int i = 0; i < 10000; i++) {
+            content.append("2024-01-01,item,交通,1.00\n");
+        }
+        List<ExpenseRecord> records = new ArrayList<>();
+        ImportPipeline<ExpenseRecord> pipeline = new ImportPipeline<>(ExpenseRowSchema.exportLayout(), records::addAll);
+        pipeline.batchSize(10).listener(progress -> pipeline.cancel());
+
+        assertThrows(CancellationException.class, () -> pipeline.run(csv(content.toString()), -1));
+        assertTrue(pipeline.isCancelled());
+        assertEquals(10, records.size());
+    }
+
+    @Test
+    void resumeFrom_continuesAtCommittedOffset(@TempDir Path dir) throws IOException {
+        StringBuilder content = new StringBuilder("Type,Amount,Date,Additional\n");
+        for (int i = 0; i < 10; i++) {
+            content.append("交通,").append(i).append(",2024-01-01,车票").append(i).append('\n');
+        }
+        Path file = dir.resolve("expenses.csv");
+        Files.writeString(file, content.toString());
+        List<ImportPipeline.ImportProgress> updates = new ArrayList<>();
+        new ImportPipeline<>(ExpenseRowSchema.importLayout(), batch -> { })
+                .batchSize(4)
+                .listener(updates::add)
+                .run(file);
+        ImportPipeline.ImportProgress afterFirstBatch = updates.get(0);
+        assertEquals(4, afterFirstBatch.getRowsCommitted());
+
+        List<ExpenseRecord> records = new ArrayList<>();
+        ImportPipeline.ImportProgress progress = new ImportPipeline<>(ExpenseRowSchema.importLayout(), records::addAll)
+                .resumeFrom(afterFirstBatch.getCommittedOffset(), afterFirstBatch.getRowsCommitted())
+                .run(file);
+
+        assertEquals(6, records.size());
+        assertEquals("车票4", records.get(0).getName());
+        assertEquals(10, progress.getRowsRead());
+        assertEquals(Files.size(file), progress.getCommittedOffset());
+    }
+
+    @Test
+    void skipDuplicates_dropsRowsAlreadyInHistory(@TempDir Path dir) throws IOException {
+        FingerprintIndex index = FingerprintIndex.open(dir.resolve("expense.fingerprints"));
+        index.addAll(List.of(new ExpenseRecord(2.00, "交通", "公交", LocalDate.of(2024, 1, 1))),
+                FingerprintIndex::fingerprint);
+        String content = "Type,Amount,Date,Additional\n"
+                + "交通,2.00,2024-01-01,公交\n"
+                + "交通,2.00,2024-01-01,公交\n"
+                + "娱乐,50,2024-01-02,电影\n";
+        List<ExpenseRecord> records = new ArrayList<>();
+
+        ImportPipeline.ImportProgress progress = new ImportPipeline<>(ExpenseRowSchema.importLayout(), records::addAll)
+                .skipDuplicates(index.newFilter(FingerprintIndex::fingerprint))
+                .run(csv(content), -1);
+
+        assertEquals(1, progress.getRowsDuplicate());
+        assertEquals(2, progress.getRowsAccepted());
+        assertEquals("公交", records.get(0).getName());
+        assertEquals("电影", records.get(1).getName());
+    }
+
+    @Test
+    void billSchema_parsesBillRows() throws IOException {
+        String content = "date,description,amount,status\n2024-03-01,\"Rent, March\",1200.50,Paid\n";
+        List<com.coinue.model.UserBillData.BillRecord> bills = new ArrayList<>();
+
+        new ImportPipeline<>(new BillRowSchema(), bills::addAll).failOnError(true).run(csv(content), -1);
+
+        assertEquals(1, bills.size());
+        assertEquals(LocalDate.of(2024, 3, 1), bills.get(0).getDate());
+        assertEquals("Rent, March", bills.get(0).getDescription());
+        assertEquals(1200.50, bills.get(0).getAmount(), 0.001);
+    }
+}
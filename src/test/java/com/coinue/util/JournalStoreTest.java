@@ -0,0 +1,169 @@
+package com.coinue.util;
+
+import com.coinue.model.Budget;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalStoreTest {
+    @TempDir
+    Path dir;
+
+    private final Gson gson = new Gson();
+
+    private JournalStore<Budget> newStore() {
+        return new JournalStore<>(dir.resolve("budget.json"), gson, Budget.class);
+    }
+
+    private static List<Budget> budgets(int count) {
+        List<Budget> budgets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            budgets.add(new Budget("类别" + i, i * 10.0, "CNY"));
+        }
+        return budgets;
+    }
+
+    @Test
+    void replaceAll_journalsOnlyChangedElements() throws IOException {
+        JournalStore<Budget> store = newStore();
+        List<Budget> budgets = budgets(50);
+        store.replaceAll(budgets);
+        long journalBytes = store.getJournalBytes();
+
+        // 界面上的修改、删除、插入每次只写入一条操作
+        budgets.get(20).addExpense(999);
+        store.replaceAll(budgets);
+        budgets.remove(30);
+        store.replaceAll(budgets);
+        budgets.add(10, new Budget("新增", 1, "USD"));
+        store.replaceAll(budgets);
+
+        assertEquals(3, Files.readAllLines(store.getJournalFile()).size());
+        assertTrue(store.getJournalBytes() - journalBytes < 400);
+        List<Budget> reloaded = newStore().load();
+        assertEquals(50, reloaded.size());
+        assertEquals("新增", reloaded.get(10).getCategory());
+        assertEquals(999, reloaded.get(21).getSpentAmount());
+        assertEquals("类别29", reloaded.get(30).getCategory());
+        assertEquals("类别31", reloaded.get(31).getCategory());
+    }
+
+    @Test
+    void set_journalsOnlyTheReplacedElement() throws IOException {
+        JournalStore<Budget> store = newStore();
+        store.replaceAll(budgets(50));
+
+        store.set(20, new Budget("修改", 5, "USD"));
+        store.set(20, new Budget("修改", 5, "USD"));
+
+        assertEquals(1, Files.readAllLines(store.getJournalFile()).size());
+        List<Budget> reloaded = newStore().load();
+        assertEquals(50, reloaded.size());
+        assertEquals("修改", reloaded.get(20).getCategory());
+        assertThrows(IndexOutOfBoundsException.class, () -> store.set(50, new Budget("越界", 1, "USD")));
+    }
+
+    @Test
+    void view_isUnaffectedByLaterWrites() throws IOException {
+        JournalStore<Budget> store = newStore();
+        store.replaceAll(budgets(5));
+
+        List<Budget> view = store.view();
+        store.remove(0);
+        store.append(List.of(new Budget("新增", 1, "USD")));
+
+        assertEquals(5, view.size());
+        assertEquals("类别0", view.get(0).getCategory());
+        assertNotSame(view.get(1), view.get(1), "每次读取返回新创建的元素");
+        assertEquals(List.of("新增", "类别1"),
+                store.getAll(new int[]{4, 0}).stream().map(Budget::getCategory).toList());
+    }
+
+    @Test
+    void append_isIndependentOfHistorySize() throws IOException {
+        JournalStore<Budget> store = newStore();
+        store.replaceAll(budgets(5000));
+        store.compact();
+        long snapshotBytes = Files.size(dir.resolve("budget.json"));
+
+        store.append(List.of(new Budget("午餐", 25, "CNY")));
+
+        assertEquals(snapshotBytes, Files.size(dir.resolve("budget.json")));
+        assertTrue(store.getJournalBytes() < 200);
+        assertEquals(5001, newStore().size());
+    }
+
+    @Test
+    void load_readsLegacyJsonArrayAndIgnoresTornJournalLine() throws IOException {
+        Files.writeString(dir.resolve("budget.json"),
+                "[\n  {\"category\": \"食品\", \"amount\": 500.0, \"currency\": \"CNY\"}\n]");
+        JournalStore<Budget> store = newStore();
+        store.append(List.of(new Budget("交通", 100, "CNY")));
+        Files.writeString(store.getJournalFile(), "{\"seq\":2,\"op\":\"INS\",\"ind", StandardOpenOption.APPEND);
+
+        JournalStore<Budget> reopened = newStore();
+        List<Budget> budgets = reopened.load();
+        assertEquals(2, budgets.size());
+        assertEquals("食品", budgets.get(0).getCategory());
+        assertEquals("交通", budgets.get(1).getCategory());
+
+        // 截掉不完整的行之后可以继续追加
+        reopened.append(List.of(new Budget("娱乐", 50, "CNY")));
+        assertEquals(3, newStore().load().size());
+    }
+
+    @Test
+    void compact_skipsJournalEntriesAlreadyInSnapshot() throws IOException {
+        JournalStore<Budget> store = newStore();
+        store.append(budgets(3));
+        String journal = Files.readString(store.getJournalFile());
+        store.compact();
+        assertFalse(Files.exists(store.getJournalFile()));
+
+        // 模拟合并后删除日志之前程序退出：旧日志仍在，但其中的操作已包含在快照中
+        Files.writeString(store.getJournalFile(), journal);
+        assertEquals(3, newStore().load().size());
+    }
+
+    @Test
+    void backgroundCompaction_keepsConcurrentAppends() throws Exception {
+        JournalStore<Budget> store = newStore().compactThreshold(4 * 1024);
+        for (int i = 0; i < 400; i++) {
+            store.append(List.of(new Budget("类别" + i, i, "CNY")));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.isCompacting() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // 日志阈值随快照增长，合并后日志远小于400次追加写入的总量
+        assertTrue(Files.exists(dir.resolve("budget.json")));
+        assertTrue(store.getJournalBytes() < 16 * 1024, "日志已合并: " + store.getJournalBytes());
+        List<Budget> budgets = newStore().load();
+        assertEquals(400, budgets.size());
+        for (int i = 0; i < budgets.size(); i++) {
+            assertEquals("类别" + i, budgets.get(i).getCategory());
+        }
+    }
+
+    @Test
+    void load_returnsCopiesThatDoNotAffectStore() throws IOException {
+        JournalStore<Budget> store = newStore();
+        store.replaceAll(budgets(3));
+        List<Budget> loaded = store.load();
+        loaded.get(1).addExpense(123);
+
+        store.replaceAll(loaded);
+
+        assertEquals(123, newStore().load().get(1).getSpentAmount());
+    }
+}
@@ -0,0 +1,152 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.coinue.model.User;
+import com.coinue.model.UserAnalysisData;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON编解码往返基准测试
+ * 比较改动前的写法（每个服务各自创建ObjectMapper、按Class调用readValue，DataManager使用Gson）
+ * 和{@link JsonCodecs}预先构建的读写器、流式列表编解码的往返耗时，
+ * 不属于单元测试，需要手动运行：
+ * mvn test-compile exec:java -Dexec.mainClass=com.coinue.util.JsonCodecsBenchmark -Dexec.classpathScope=test
+ */
+public class JsonCodecsBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+
+    private static long sink;
+
+    private interface RoundTrip {
+        void run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<ExpenseRecord> records = new ArrayList<>();
+        String[] categories = {"餐饮", "交通", "购物", "娱乐"};
+        for (int i = 0; i < 100_000; i++) {
+            records.add(new ExpenseRecord(i % 1000 + 0.5, categories[i % categories.length], "记录" + i,
+                    LocalDate.of(2020, 1, 1).plusDays(i % 1500), "说明", "支出", "CNY"));
+        }
+        User[] users = new User[1000];
+        for (int i = 0; i < users.length; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setEmail("user" + i + "@example.com");
+            user.setPassword("password" + i);
+            user.setSecurityQuestion("q");
+            user.setSecurityAnswer("a");
+            user.setBirthday(LocalDate.of(1990, 1, 1).plusDays(i));
+            users[i] = user;
+        }
+        UserAnalysisData analysis = new UserAnalysisData();
+        for (int i = 0; i < 50; i++) {
+            analysis.addCategoryExpense("类别" + i, i * 10.0);
+            analysis.addMonthlyTrend("2024-" + (i % 12 + 1), i);
+        }
+
+        ObjectMapper legacyMapper = new ObjectMapper();
+        legacyMapper.registerModule(new JavaTimeModule());
+        legacyMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        legacyMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        TypeReference<List<ExpenseRecord>> listType = new TypeReference<>() {};
+        Gson gson = new GsonBuilder().registerTypeAdapter(LocalDate.class, new TypeAdapter<LocalDate>() {
+            @Override
+            public void write(JsonWriter out, LocalDate value) throws IOException {
+                out.value(value.toString());
+            }
+
+            @Override
+            public LocalDate read(JsonReader in) throws IOException {
+                return LocalDate.parse(in.nextString());
+            }
+        }).create();
+        Type gsonListType = new TypeToken<List<ExpenseRecord>>() {}.getType();
+
+        ObjectReader userReader = JsonCodecs.reader(JsonCodecs.USER_ARRAY);
+        ObjectWriter userWriter = JsonCodecs.writer(JsonCodecs.USER_ARRAY);
+        ObjectReader analysisReader = JsonCodecs.reader(JsonCodecs.ANALYSIS_DATA);
+        ObjectWriter analysisWriter = JsonCodecs.writer(JsonCodecs.ANALYSIS_DATA);
+        ObjectReader listReader = JsonCodecs.reader(JsonCodecs.EXPENSE_LIST);
+        ObjectWriter listWriter = JsonCodecs.writer(JsonCodecs.EXPENSE_LIST);
+
+        System.out.println("== 1000个用户 User[]，每次往返 ==");
+        measure("新建ObjectMapper + readValue(Class)", 200, () -> {
+            ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule())
+                    .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+            sink += mapper.readValue(mapper.writeValueAsBytes(users), User[].class).length;
+        });
+        measure("共享ObjectMapper + readValue(Class)", 200, () ->
+                sink += legacyMapper.readValue(legacyMapper.writeValueAsBytes(users), User[].class).length);
+        measure("JsonCodecs预构建读写器", 200, () -> {
+            User[] read = userReader.readValue(userWriter.writeValueAsBytes(users));
+            sink += read.length;
+        });
+
+        System.out.println("== 分析数据 UserAnalysisData，每次往返 ==");
+        measure("新建ObjectMapper + readValue(Class)", 2000, () -> {
+            ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule())
+                    .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+            sink += mapper.readValue(mapper.writeValueAsBytes(analysis), UserAnalysisData.class).hashCode();
+        });
+        measure("共享ObjectMapper + readValue(Class)", 2000, () ->
+                sink += legacyMapper.readValue(legacyMapper.writeValueAsBytes(analysis), UserAnalysisData.class).hashCode());
+        measure("JsonCodecs预构建读写器", 2000, () -> {
+            UserAnalysisData read = analysisReader.readValue(analysisWriter.writeValueAsBytes(analysis));
+            sink += read.hashCode();
+        });
+
+        System.out.println("== 10万条支出记录 List<ExpenseRecord>，每次往返 ==");
+        measure("Gson（DataManager）", 3, () ->
+                sink += ((List<?>) gson.fromJson(gson.toJson(records, gsonListType), gsonListType)).size());
+        measure("共享ObjectMapper + TypeReference", 3, () ->
+                sink += legacyMapper.readValue(legacyMapper.writeValueAsBytes(records), listType).size());
+        measure("JsonCodecs预构建读写器", 3, () -> {
+            List<ExpenseRecord> read = listReader.readValue(listWriter.writeValueAsBytes(records));
+            sink += read.size();
+        });
+        measure("JsonCodecs流式读写", 3, () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonCodecs.writeList(out, ExpenseRecord.class, records);
+            sink += JsonCodecs.readList(new ByteArrayInputStream(out.toByteArray()), ExpenseRecord.class, r -> { });
+        });
+    }
+
+    private static void measure(String name, int iterations, RoundTrip roundTrip) throws IOException {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int i = 0; i < iterations; i++) {
+                roundTrip.run();
+            }
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                roundTrip.run();
+            }
+            best = Math.min(best, System.nanoTime() - begin);
+        }
+        System.out.printf("  %-36s %10.1f µs/次%n", name, best / 1e3 / iterations);
+    }
+}
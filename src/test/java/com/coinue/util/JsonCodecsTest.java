@@ -0,0 +1,83 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.coinue.model.User;
+import com.coinue.model.UserBillData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonCodecsTest {
+
+    @Test
+    void readersAndWritersAreCachedPerType() {
+        assertSame(JsonCodecs.reader(JsonCodecs.USER_ARRAY), JsonCodecs.reader(User[].class));
+        assertSame(JsonCodecs.writer(ExpenseRecord.class), JsonCodecs.writer(ExpenseRecord.class));
+        assertNotSame(JsonCodecs.writer(ExpenseRecord.class), JsonCodecs.prettyWriter(ExpenseRecord.class));
+    }
+
+    @Test
+    void userArray_roundTripsDatesAsStringsAndIgnoresUnknownFields() throws IOException {
+        User user = new User();
+        user.setUsername("alice");
+        user.setEmail("alice@example.com");
+        user.setBirthday(LocalDate.of(1990, 5, 6));
+
+        String json = JsonCodecs.writer(JsonCodecs.USER_ARRAY).writeValueAsString(new User[]{user});
+        assertTrue(json.contains("\"1990-05-06\""), json);
+
+        User[] read = JsonCodecs.reader(JsonCodecs.USER_ARRAY)
+                .readValue("[{\"username\":\"alice\",\"birthday\":\"1990-05-06\",\"addedLater\":1}]");
+        assertEquals("alice", read[0].getUsername());
+        assertEquals(LocalDate.of(1990, 5, 6), read[0].getBirthday());
+    }
+
+    @Test
+    void streamingList_matchesTreeCodec() throws IOException {
+        List<ExpenseRecord> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(new ExpenseRecord(i + 0.25, "餐饮", "记录" + i, LocalDate.of(2024, 1, 1).plusDays(i),
+                    null, "支出", "CNY"));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonCodecs.writeList(out, ExpenseRecord.class, records);
+        assertArrayEquals(JsonCodecs.writer(JsonCodecs.EXPENSE_LIST).writeValueAsBytes(records), out.toByteArray());
+
+        List<ExpenseRecord> read = JsonCodecs.readList(new ByteArrayInputStream(out.toByteArray()), ExpenseRecord.class);
+        assertEquals(100, read.size());
+        assertEquals("记录99", read.get(99).getName());
+        assertEquals(LocalDate.of(2024, 4, 9), read.get(99).getDate());
+    }
+
+    @Test
+    void copy_isDeepAndEqualToRoundTrip() throws IOException {
+        UserBillData bills = new UserBillData();
+        bills.setCreditLimit(5000);
+        bills.addBillRecord(new UserBillData.BillRecord(LocalDate.of(2024, 3, 1), "Rent", 1200.5, "Paid"));
+
+        UserBillData copy = JsonCodecs.copy(bills, UserBillData.class);
+        assertNotSame(bills, copy);
+        assertNotSame(bills.getBillRecords(), copy.getBillRecords());
+        assertEquals(bills.getBillRecords(), copy.getBillRecords());
+        assertEquals(5000, copy.getCreditLimit(), 0.001);
+
+        copy.addBillRecord(new UserBillData.BillRecord(LocalDate.of(2024, 3, 2), "Gas", 80, "Unpaid"));
+        assertEquals(1, bills.getBillRecords().size(), "修改副本不影响原对象");
+    }
+
+    @Test
+    void readList_handlesNullAndRejectsNonArrays() {
+        assertDoesNotThrow(() -> assertEquals(0, JsonCodecs.readList(
+                new ByteArrayInputStream("null".getBytes(StandardCharsets.UTF_8)), ExpenseRecord.class, r -> fail())));
+        assertThrows(IOException.class, () -> JsonCodecs.readList(
+                new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), ExpenseRecord.class));
+    }
+}
@@ -0,0 +1,56 @@
+package com.coinue.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ObjectCacheTest {
+
+    @Test
+    void get_requiresSameTypeAndVersion() {
+        ObjectCache<String> cache = new ObjectCache<>(100);
+        cache.put("a", String.class, "value", "v1", 10);
+
+        assertEquals("value", cache.get("a", String.class, "v1"));
+        assertNull(cache.get("a", String.class, "v2"), "版本变化后应视为未命中");
+        assertNull(cache.get("a", Object.class, "v1"), "类型不同应视为未命中");
+        assertNull(cache.get("b", String.class, "v1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    void put_evictsLeastRecentlyUsedBeyondMaxWeight() {
+        ObjectCache<String> cache = new ObjectCache<>(30);
+        cache.put("a", String.class, "A", 1, 10);
+        cache.put("b", String.class, "B", 1, 10);
+        cache.put("c", String.class, "C", 1, 10);
+        // 访问a后b成为最久未使用的条目
+        cache.get("a", String.class, 1);
+        cache.put("d", String.class, "D", 1, 10);
+
+        assertNull(cache.get("b", String.class, 1));
+        assertEquals("A", cache.get("a", String.class, 1));
+        assertEquals(30, cache.getWeight());
+        assertEquals(1, cache.getEvictions());
+
+        cache.put("huge", String.class, "H", 1, 31);
+        assertNull(cache.get("huge", String.class, 1), "超过上限的对象不缓存");
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void invalidate_removesEntriesAndWeight() {
+        ObjectCache<String> cache = new ObjectCache<>(100);
+        for (String key : List.of("user1/a", "user1/b", "user2/a")) {
+            cache.put(key, String.class, key, 1, 10);
+        }
+        cache.invalidate("user2/a");
+        cache.invalidateAll(key -> key.startsWith("user1/"));
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+}
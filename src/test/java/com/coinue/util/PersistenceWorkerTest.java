@@ -0,0 +1,154 @@
+package com.coinue.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistenceWorkerTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void write_coalescesRapidWritesToSameFile() throws IOException {
+        PersistenceWorker worker = new PersistenceWorker(10_000, 10_000);
+        Path file = dir.resolve("users.json");
+
+        for (int i = 0; i < 100; i++) {
+            worker.write(file, bytes("version " + i));
+        }
+        assertEquals(1, worker.getQueueDepth());
+        assertFalse(Files.exists(file), "延迟时间内不应写文件");
+
+        worker.flush();
+        assertEquals(0, worker.getQueueDepth());
+        assertEquals("version 99", Files.readString(file));
+        assertEquals(100, worker.getWritesSubmitted());
+        assertEquals(99, worker.getWritesCoalesced());
+        assertEquals(1, worker.getWritesCompleted());
+    }
+
+    @Test
+    void getPending_returnsUnwrittenContent() throws IOException {
+        PersistenceWorker worker = new PersistenceWorker(10_000, 10_000);
+        Path file = dir.resolve("settings.json");
+        Files.writeString(file, "old");
+
+        worker.write(file, bytes("new"));
+        assertEquals("new", new String(worker.getPending(file), StandardCharsets.UTF_8));
+        assertEquals("old", Files.readString(file));
+
+        worker.flush();
+        assertNull(worker.getPending(file));
+        assertEquals("new", Files.readString(file));
+    }
+
+    @Test
+    void write_isPersistedAfterDelayWithoutFlush() throws Exception {
+        PersistenceWorker worker = new PersistenceWorker(20, 100);
+        Path a = dir.resolve("a.json");
+        Path b = dir.resolve("nested").resolve("b.json");
+        worker.write(a, bytes("A"));
+        worker.write(b, bytes("B"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (worker.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, worker.getQueueDepth());
+        assertEquals("A", Files.readString(a));
+        assertEquals("B", Files.readString(b));
+    }
+
+    @Test
+    void discard_dropsPendingWritesUnderDirectory() throws IOException {
+        PersistenceWorker worker = new PersistenceWorker(10_000, 10_000);
+        Path userDir = dir.resolve("alice");
+        worker.write(userDir.resolve("budget.json"), bytes("1"));
+        worker.write(userDir.resolve("expense.json"), bytes("2"));
+        worker.write(dir.resolve("users.json"), bytes("3"));
+
+        assertEquals(2, worker.discard(userDir));
+        worker.flush();
+        assertFalse(Files.exists(userDir.resolve("budget.json")));
+        assertTrue(Files.exists(dir.resolve("users.json")));
+    }
+
+    @Test
+    void writeAtomically_replacesFileWithoutLeavingTempFiles() throws IOException {
+        Path file = dir.resolve("data.json");
+        Files.writeString(file, "a much longer original content");
+
+        PersistenceWorker.writeAtomically(file, bytes("short"));
+
+        assertEquals("short", Files.readString(file));
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count(), "临时文件应已被重命名或删除");
+        }
+    }
+
+    @Test
+    void failedWrite_keepsOriginalFileAndIsCounted() throws IOException {
+        PersistenceWorker worker = new PersistenceWorker(0, 0);
+        // 目标路径是一个非空目录，重命名一定失败
+        Path target = dir.resolve("blocked");
+        Files.createDirectories(target.resolve("child"));
+
+        worker.write(target, bytes("x"));
+        worker.flush();
+
+        assertEquals(1, worker.getWritesFailed());
+        assertTrue(Files.isDirectory(target.resolve("child")));
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void failedWrite_staysReadableAndCompletesFutureExceptionally() throws Exception {
+        PersistenceWorker worker = new PersistenceWorker(0, 0);
+        Path target = dir.resolve("blocked");
+        Files.createDirectories(target.resolve("child"));
+
+        CompletableFuture<Void> completion = worker.write(target, bytes("x"));
+        worker.flush();
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> completion.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, error.getCause());
+        assertArrayEquals(bytes("x"), worker.getPending(target), "失败的内容不能丢");
+        assertEquals(Set.of(target.toAbsolutePath().normalize()), worker.getFailedFiles());
+
+        // 障碍移除后重试成功
+        Files.delete(target.resolve("child"));
+        Files.delete(target);
+        assertEquals(1, worker.retryFailed());
+        worker.flush();
+        assertEquals("x", Files.readString(target));
+        assertNull(worker.getPending(target));
+        assertTrue(worker.getFailedFiles().isEmpty());
+
+        Path other = dir.resolve("other");
+        Files.createDirectories(other.resolve("child"));
+        worker.write(other, bytes("y"));
+        worker.flush();
+        assertEquals(1, worker.discard(other), "明确丢弃后才不再保留");
+        assertNull(worker.getPending(other));
+
+        CompletableFuture<Void> written = worker.write(dir.resolve("ok.txt"), bytes("ok"));
+        worker.flush();
+        assertNull(written.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,261 @@
+package com.coinue.util;
+
+import com.coinue.model.ExpenseRecord;
+import com.coinue.model.UserBillData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResumableImportTest {
+    @TempDir
+    Path dir;
+
+    private Path writeExpenses(int rows) throws IOException {
+        StringBuilder content = new StringBuilder("Type,Amount,Date,Additional\n");
+        for (int i = 0; i < rows; i++) {
+            content.append("交通,").append(i).append(".50,2024-01-").append(String.format("%02d", i % 28 + 1))
+                    .append(",车票").append(i).append('\n');
+        }
+        Path file = dir.resolve("expenses.csv");
+        Files.writeString(file, content.toString());
+        return file;
+    }
+
+    private ResumableImport<ExpenseRecord> newImport(ImportCheckpointStore store) {
+        ExpenseRowSchema schema = ExpenseRowSchema.importLayout();
+        return new ResumableImport<>(schema, schema, store).batchSize(100).checkpointInterval(0);
+    }
+
+    @Test
+    void run_resumesAfterFailureWithoutDuplicates() throws IOException {
+        Path file = writeExpenses(1000);
+        ImportCheckpointStore store = new ImportCheckpointStore(dir.resolve("checkpoints"));
+        List<ExpenseRecord> firstAttempt = new ArrayList<>();
+        int[] batches = {0};
+
+        IOException e = assertThrows(IOException.class, () -> newImport(store).run(file, batch -> {
+            if (++batches[0] > 3) {
+                throw new IOException("disk full");
+            }
+            firstAttempt.addAll(batch);
+        }));
+        assertEquals("disk full", e.getMessage());
+        assertEquals(300, firstAttempt.size());
+        ImportCheckpoint checkpoint = store.load(ImportCheckpointStore.fingerprint(file));
+        assertNotNull(checkpoint);
+        assertEquals(300, checkpoint.getRowsCommitted());
+        assertEquals(300, checkpoint.getRecordsStaged());
+
+        List<ExpenseRecord> records = new ArrayList<>();
+        ResumableImport<ExpenseRecord> resumed = newImport(store);
+        ImportPipeline.ImportProgress progress = resumed.run(file, records::addAll);
+
+        assertEquals(300, resumed.getRecordsReplayed());
+        assertEquals(1000, progress.getRowsAccepted());
+        assertEquals(1000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            ExpenseRecord record = records.get(i);
+            assertEquals("车票" + i, record.getName());
+            assertEquals(i + 0.5, record.getAmount(), 0.001);
+            assertEquals(LocalDate.of(2024, 1, i % 28 + 1), record.getDate());
+        }
+        assertEquals(records.get(0).getCategory(), firstAttempt.get(0).getCategory());
+        assertNull(store.load(ImportCheckpointStore.fingerprint(file)));
+        assertFalse(Files.exists(store.stagingFile(ImportCheckpointStore.fingerprint(file))));
+    }
+
+    @Test
+    void run_appliesDuplicateFilterToReplayedRecords() throws IOException {
+        // 每行重复出现两次，历史中各有一条：从头导入和续传都应该各保留一条
+        StringBuilder content = new StringBuilder("Type,Amount,Date,Additional\n");
+        List<ExpenseRecord> history = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String row = "交通," + i + ",2024-02-01,车票" + i + "\n";
+            content.append(row).append(row);
+            history.add(new ExpenseRecord(i, "交通", "车票" + i, LocalDate.of(2024, 2, 1)));
+        }
+        Path file = dir.resolve("expenses.csv");
+        Files.writeString(file, content.toString());
+        FingerprintIndex index = FingerprintIndex.open(dir.resolve("expense.fingerprints"));
+        index.rebuild(history, FingerprintIndex::fingerprint);
+        ImportCheckpointStore store = new ImportCheckpointStore(dir.resolve("checkpoints"));
+        int[] batches = {0};
+        assertThrows(IOException.class, () -> newImport(store)
+                .skipDuplicates(index.newFilter(FingerprintIndex::fingerprint))
+                .run(file, batch -> {
+                    if (++batches[0] == 3) {
+                        throw new IOException("stop");
+                    }
+                }));
+
+        List<ExpenseRecord> records = new ArrayList<>();
+        ImportPipeline.ImportProgress progress = newImport(store)
+                .skipDuplicates(index.newFilter(FingerprintIndex::fingerprint))
+                .run(file, records::addAll);
+
+        assertEquals(300, records.size());
+        assertEquals(300, progress.getRowsDuplicate());
+        assertEquals(300, progress.getRowsAccepted());
+    }
+
+    @Test
+    void run_ignoresCheckpointOfChangedFile() throws IOException {
+        Path file = writeExpenses(500);
+        ImportCheckpointStore store = new ImportCheckpointStore(dir.resolve("checkpoints"));
+        assertThrows(IOException.class, () -> newImport(store).run(file, batch -> {
+            throw new IOException("stop");
+        }));
+
+        // 文件内容变化后指纹不同，旧断点不会被使用
+        writeExpenses(200);
+        List<ExpenseRecord> records = new ArrayList<>();
+        ResumableImport<ExpenseRecord> rerun = newImport(store);
+        rerun.run(file, records::addAll);
+
+        assertEquals(0, rerun.getRecordsReplayed());
+        assertEquals(200, records.size());
+    }
+
+    @Test
+    void run_ignoresCheckpointOfFileEditedInTheMiddle() throws IOException {
+        // 文件超过2MB，改动的位置不在首尾1MB内，大小也不变
+        Path file = writeExpenses(100_000);
+        ImportCheckpointStore store = new ImportCheckpointStore(dir.resolve("checkpoints"));
+        int[] batches = {0};
+        assertThrows(IOException.class, () -> newImport(store).run(file, batch -> {
+            if (++batches[0] > 600) {
+                throw new IOException("stop");
+            }
+        }));
+        String fingerprint = ImportCheckpointStore.fingerprint(file);
+        assertNotNull(store.load(fingerprint));
+
+        String content = Files.readString(file);
+        long size = Files.size(file);
+        Files.writeString(file, content.replace(",车票50000\n", ",车漂50000\n"));
+        assertEquals(size, Files.size(file));
+        assertNotEquals(fingerprint, ImportCheckpointStore.fingerprint(file));
+
+        List<ExpenseRecord> records = new ArrayList<>();
+        ResumableImport<ExpenseRecord> rerun = newImport(store);
+        rerun.run(file, records::addAll);
+        assertEquals(0, rerun.getRecordsReplayed());
+        assertEquals("车漂50000", records.get(50000).getName(), "断点之前改过的行必须重新读取");
+    }
+
+    @Test
+    void run_dropsCheckpointWhenRowCannotBeParsed() throws IOException {
+        Path file = writeExpenses(1000);
+        String content = Files.readString(file).replace("交通,650.50,", "交通,abc,");
+        Files.writeString(file, content);
+        ImportCheckpointStore store = new ImportCheckpointStore(dir.resolve("checkpoints"));
+        String fingerprint = ImportCheckpointStore.fingerprint(file);
+        int[] batches = {0};
+        // 第一次导入不因数据错误中止，在写入失败时留下断点
+        assertThrows(IOException.class, () -> newImport(store).run(file, batch -> {
+            if (++batches[0] > 3) {
+                throw new IOException("disk full");
+            }
+        }));
+        assertNotNull(store.load(fingerprint));
+
+        ResumableImport<ExpenseRecord> resumed = newImport(store).failOnError(true);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> resumed.run(file, batch -> { }));
+        assertEquals(300, resumed.getRecordsReplayed());
+        assertTrue(e.getMessage().startsWith("第 651 行"), e.getMessage());
+        assertNull(store.load(fingerprint), "出错的行之前的断点会让每次续传都在同一行失败");
+        assertFalse(Files.exists(store.stagingFile(fingerprint)));
+
+        ResumableImport<ExpenseRecord> rerun = newImport(store).failOnError(true);
+        assertThrows(IllegalArgumentException.class, () -> rerun.run(file, batch -> { }));
+        assertEquals(0, rerun.getRecordsReplayed());
+    }
+
+    @Test
+    void run_stagesBillRecords() throws IOException {
+        Path file = dir.resolve("bills.csv");
+        StringBuilder content = new StringBuilder("date,description,amount,status\n");
+        for (int i = 0; i < 250; i++) {
+            content.append("2024-03-01,\"Rent, ").append(i).append("\",1200.50,Paid\n");
+        }
+        Files.writeString(file, content.toString());
+        ImportCheckpointStore store = new ImportCheckpointStore(dir.resolve("checkpoints"));
+        BillRowSchema schema = new BillRowSchema();
+        int[] batches = {0};
+        assertThrows(IOException.class, () -> new ResumableImport<>(schema, schema, store).batchSize(100)
+                .checkpointInterval(0)
+                .run(file, batch -> {
+                    if (++batches[0] == 2) {
+                        throw new IOException("stop");
+                    }
+                }));
+
+        List<UserBillData.BillRecord> bills = new ArrayList<>();
+        new ResumableImport<>(schema, schema, store).batchSize(100).run(file, bills::addAll);
+
+        assertEquals(250, bills.size());
+        assertEquals("Rent, 0", bills.get(0).getDescription());
+        assertEquals("Rent, 249", bills.get(249).getDescription());
+        assertEquals(1200.50, bills.get(100).getAmount(), 0.001);
+        assertEquals("Paid", bills.get(100).getStatus());
+    }
+
+    @Test
+    void run_stagesDescriptionsLongerThanWriteUtfLimit() throws IOException {
+        String longDescription = "长".repeat(30000);
+        Path file = dir.resolve("long.csv");
+        StringBuilder content = new StringBuilder("date,description,amount,status\n");
+        for (int i = 0; i < 150; i++) {
+            content.append("2024-03-01,").append(i == 20 ? longDescription : "Rent " + i).append(",10.00,Paid\n");
+        }
+        Files.writeString(file, content.toString());
+        ImportCheckpointStore store = new ImportCheckpointStore(dir.resolve("checkpoints"));
+        BillRowSchema schema = new BillRowSchema();
+        int[] batches = {0};
+        IOException e = assertThrows(IOException.class, () -> new ResumableImport<>(schema, schema, store).batchSize(100)
+                .checkpointInterval(0)
+                .run(file, batch -> {
+                    if (++batches[0] == 2) {
+                        throw new IOException("stop");
+                    }
+                }));
+        assertEquals("stop", e.getMessage(), "编码后超过65535字节的描述也能写入暂存文件");
+
+        List<UserBillData.BillRecord> bills = new ArrayList<>();
+        ResumableImport<UserBillData.BillRecord> resumed = new ResumableImport<>(schema, schema, store).batchSize(100);
+        resumed.run(file, bills::addAll);
+        assertEquals(100, resumed.getRecordsReplayed());
+        assertEquals(150, bills.size());
+        assertEquals(longDescription, bills.get(20).getDescription());
+    }
+
+    @Test
+    void run_ignoresCheckpointWithOldStagingFormat() throws IOException {
+        Path file = writeExpenses(1000);
+        ImportCheckpointStore store = new ImportCheckpointStore(dir.resolve("checkpoints"));
+        int[] batches = {0};
+        assertThrows(IOException.class, () -> newImport(store).run(file, batch -> {
+            if (++batches[0] > 3) {
+                throw new IOException("disk full");
+            }
+        }));
+        ImportCheckpoint checkpoint = store.load(ImportCheckpointStore.fingerprint(file));
+        checkpoint.setStagingFormat(0);
+        store.save(checkpoint);
+
+        List<ExpenseRecord> records = new ArrayList<>();
+        ResumableImport<ExpenseRecord> rerun = newImport(store);
+        rerun.run(file, records::addAll);
+        assertEquals(0, rerun.getRecordsReplayed(), "旧格式的暂存文件不能按新格式读回");
+        assertEquals(1000, records.size());
+    }
+}
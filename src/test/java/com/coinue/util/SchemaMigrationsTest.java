@@ -0,0 +1,90 @@
+package com.coinue.util;
+
+import com.coinue.model.UserAnalysisData;
+import com.coinue.model.UserBillData;
+import com.fasterxml.jackson.databind.annotation.JsonAppend;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchemaMigrationsTest {
+    @TempDir
+    Path dir;
+
+    @JsonAppend(attrs = @JsonAppend.Attr(SchemaMigrations.VERSION_FIELD), prepend = true)
+    static class RenamedDocument {
+        public String title;
+    }
+
+    static class PlainDocument {
+        public String title;
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void write_putsCurrentVersionFirstOnlyForVersionedTypes() throws IOException {
+        UserBillData bill = new UserBillData();
+        bill.setCreditLimit(500);
+        byte[] content = SchemaMigrations.write(bill, true);
+        assertTrue(new String(content, StandardCharsets.UTF_8).startsWith("{\n  \"schemaVersion\" : 1,"));
+        assertEquals(1, SchemaMigrations.readVersion(content));
+        assertFalse(SchemaMigrations.needsMigration(content, UserBillData.class));
+        assertEquals(500, JsonCodecs.reader(UserBillData.class).<UserBillData>readValue(content).getCreditLimit());
+
+        PlainDocument plain = new PlainDocument();
+        plain.title = "无版本";
+        assertEquals("{\"title\":\"无版本\"}", new String(SchemaMigrations.write(plain, false), StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class,
+                () -> SchemaMigrations.register(PlainDocument.class, 0, document -> { }));
+    }
+
+    @Test
+    void migrate_appliesStepsFromStoredVersion() throws IOException {
+        SchemaMigrations.register(RenamedDocument.class, 0, document -> document.set("title", document.remove("name")));
+        SchemaMigrations.register(RenamedDocument.class, 1,
+                document -> document.put("title", document.get("title").asText().toUpperCase()));
+        assertThrows(IllegalArgumentException.class,
+                () -> SchemaMigrations.register(RenamedDocument.class, 5, document -> { }));
+
+        byte[] legacy = bytes("{\"name\":\"old\"}");
+        assertTrue(SchemaMigrations.needsMigration(legacy, RenamedDocument.class));
+        byte[] migrated = SchemaMigrations.migrate(legacy, RenamedDocument.class, false);
+        assertEquals("{\"schemaVersion\":2,\"title\":\"OLD\"}", new String(migrated, StandardCharsets.UTF_8));
+
+        byte[] fromVersionOne = SchemaMigrations.migrate(bytes("{\"schemaVersion\":1,\"title\":\"mid\"}"),
+                RenamedDocument.class, false);
+        assertEquals("{\"schemaVersion\":2,\"title\":\"MID\"}", new String(fromVersionOne, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void migrateAll_upgradesEveryUserOnceInParallel() throws IOException {
+        for (int i = 0; i < 12; i++) {
+            Path user = Files.createDirectories(dir.resolve("user" + i));
+            Files.writeString(user.resolve("analysis_data.json"), "{\"totalExpenses\":" + i + ".0}");
+            Files.writeString(user.resolve("bill_data.json"), "{\"creditLimit\":100.0,\"billRecords\":[]}");
+        }
+        Files.writeString(dir.resolve("user0").resolve("bill_data.json"), "{broken");
+
+        SchemaMigrations.Report report = SchemaMigrations.migrateAll(dir, 4);
+        assertEquals(24, report.getFilesScanned());
+        assertEquals(23, report.getFilesMigrated());
+        assertEquals(1, report.getFilesFailed());
+        assertTrue(report.toString().contains("迁移 23 个"));
+
+        byte[] migrated = Files.readAllBytes(dir.resolve("user7").resolve("analysis_data.json"));
+        assertEquals(1, SchemaMigrations.readVersion(migrated));
+        assertEquals(7.0, JsonCodecs.reader(UserAnalysisData.class).<UserAnalysisData>readValue(migrated)
+                .getTotalExpenses());
+
+        assertEquals(0, SchemaMigrations.migrateAll(dir, 4).getFilesMigrated(), "已是当前版本的文件不再迁移");
+    }
+}
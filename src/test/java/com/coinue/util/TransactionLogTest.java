@@ -0,0 +1,109 @@
+package com.coinue.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionLogTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void commit_writesAllFilesAndRemovesLog() throws IOException {
+        TransactionLog log = new TransactionLog(dir);
+        Files.writeString(dir.resolve("index.idx"), "HEAD");
+        log.begin()
+                .replace(dir.resolve("data.json"), bytes("{\"a\":1}"))
+                .writeAt(dir.resolve("index.idx"), 4, bytes("rec1"))
+                .commit();
+
+        assertEquals("{\"a\":1}", Files.readString(dir.resolve("data.json")));
+        assertEquals("HEADrec1", Files.readString(dir.resolve("index.idx")));
+        assertFalse(Files.exists(dir.resolve(TransactionLog.LOG_FILE)));
+        assertEquals(1, log.getCommits());
+        assertThrows(IllegalArgumentException.class,
+                () -> log.begin().replace(dir.resolveSibling("outside.json"), bytes("x")));
+    }
+
+    @Test
+    void recover_redoesCompleteLogOnceAndDiscardsTornLog() throws IOException {
+        Files.writeString(dir.resolve("data.json"), "old");
+        Files.writeString(dir.resolve("index.idx"), "HEADrec1");
+        TransactionLog.Transaction transaction = new TransactionLog(dir).begin()
+                .replace(dir.resolve("data.json"), bytes("new"))
+                .writeAt(dir.resolve("index.idx"), 8, bytes("rec2"));
+        transaction.prepare();
+        // 崩溃前已经写完了追加的内容，重做不能再追加一次
+        Files.writeString(dir.resolve("index.idx"), "HEADrec1rec2");
+
+        TransactionLog restarted = new TransactionLog(dir);
+        assertTrue(restarted.recover());
+        assertEquals("new", Files.readString(dir.resolve("data.json")));
+        assertEquals("HEADrec1rec2", Files.readString(dir.resolve("index.idx")));
+        assertFalse(restarted.recover(), "日志重做后删除");
+
+        new TransactionLog(dir).begin().replace(dir.resolve("data.json"), bytes("newer")).prepare();
+        Path logFile = dir.resolve(TransactionLog.LOG_FILE);
+        byte[] content = Files.readAllBytes(logFile);
+        Files.write(logFile, Arrays.copyOf(content, content.length - 3));
+        assertFalse(new TransactionLog(dir).recover(), "不完整的日志说明事务没有提交");
+        assertEquals("new", Files.readString(dir.resolve("data.json")));
+        assertFalse(Files.exists(logFile));
+    }
+
+    @Test
+    void commit_keepsNewerBackgroundSaveOfSameFile() throws IOException {
+        Path file = dir.resolve("data.json");
+        TransactionLog.Transaction transaction = new TransactionLog(dir).begin().replace(file, bytes("transaction"));
+        PersistenceWorker.getInstance().write(file, bytes("saved later"));
+        transaction.commit();
+        PersistenceWorker.getInstance().flush();
+        assertEquals("saved later", Files.readString(file));
+    }
+
+    @Test
+    void commit_differentDirectoriesCommitInParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int user = 0; user < 4; user++) {
+                Path userDir = dir.resolve("user" + user);
+                TransactionLog log = new TransactionLog(userDir);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        log.begin()
+                                .replace(userDir.resolve("data.json"), bytes("v" + i))
+                                .writeAt(userDir.resolve("index.idx"), i, bytes("x"))
+                                .commit();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int user = 0; user < 4; user++) {
+            assertEquals("v19", Files.readString(dir.resolve("user" + user).resolve("data.json")));
+            assertEquals(20, Files.size(dir.resolve("user" + user).resolve("index.idx")));
+        }
+    }
+}
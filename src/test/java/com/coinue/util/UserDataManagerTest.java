@@ -14,7 +14,17 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -25,6 +35,8 @@ class UserDataManagerTest {
     private static final String DATA_DIR_NAME = "data";
     private Path actualUsersFilePath = Paths.get(DATA_DIR_NAME, TEST_USERS_FILE_NAME);
     private Path backupUsersFilePath = Paths.get(DATA_DIR_NAME, "users.json.backup");
+    private Path userStorePath = Paths.get(DATA_DIR_NAME, "user_store");
+    private Path backupUserStorePath = Paths.get(DATA_DIR_NAME, "user_store.backup");
 
     // Helper method to reset the singleton instance for testing
     private static void resetSingleton(Class<?> clazz, String fieldName) {
@@ -37,17 +49,13 @@ class UserDataManagerTest {
         }
     }
     
-    // Helper to clear private caches using reflection
-    private void clearCaches(UserDataManager manager) throws NoSuchFieldException, IllegalAccessException {
-        Field userCacheField = UserDataManager.class.getDeclaredField("userCache");
-        userCacheField.setAccessible(true);
-        Map<?, ?> userCache = (Map<?, ?>) userCacheField.get(manager);
-        userCache.clear();
-
-        Field emailCacheField = UserDataManager.class.getDeclaredField("emailCache");
-        emailCacheField.setAccessible(true);
-        Map<?, ?> emailCache = (Map<?, ?>) emailCacheField.get(manager);
-        emailCache.clear();
+    private static void deleteDirectory(Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            Files.walk(dir)
+                .map(Path::toFile)
+                .sorted((o1, o2) -> -o1.compareTo(o2)) // Delete contents before directory
+                .forEach(File::delete);
+        }
     }
 
     @BeforeEach
@@ -59,6 +67,12 @@ class UserDataManagerTest {
         } else {
              Files.deleteIfExists(backupUsersFilePath); // no original to backup
         }
+        // Move the sharded user store aside as well, otherwise users from earlier runs would still be found
+        PersistenceWorker.getInstance().discard(userStorePath);
+        deleteDirectory(backupUserStorePath);
+        if (Files.exists(userStorePath)) {
+            Files.move(userStorePath, backupUserStorePath);
+        }
         
         // Reset the singleton instance so it reloads/reinitializes with a clean slate
         resetSingleton(UserDataManager.class, "instance");
@@ -67,14 +81,20 @@ class UserDataManagerTest {
 
     @AfterEach
     void tearDown() throws IOException {
-        // Clean up: delete the test users.json
+        // Clean up: drop queued writes, then delete the test users.json
+        PersistenceWorker.getInstance().discard(actualUsersFilePath);
         Files.deleteIfExists(actualUsersFilePath);
+        PersistenceWorker.getInstance().discard(userStorePath);
+        deleteDirectory(userStorePath);
 
         // Restore backup if it exists
         if (Files.exists(backupUsersFilePath)) {
             Files.copy(backupUsersFilePath, actualUsersFilePath, StandardCopyOption.REPLACE_EXISTING);
             Files.delete(backupUsersFilePath);
         } 
+        if (Files.exists(backupUserStorePath)) {
+            Files.move(backupUserStorePath, userStorePath);
+        }
         // Reset singleton again to ensure no state leaks to other test classes if run in same JVM
         resetSingleton(UserDataManager.class, "instance");
     }
@@ -103,7 +123,10 @@ class UserDataManagerTest {
         assertTrue(userDataManager.createUser(user), "User creation should succeed.");
         assertNotNull(userDataManager.getUserByUsername("testUser1"), "User should exist after creation.");
         assertNotNull(userDataManager.getUserByEmail("test1@example.com"), "User should be findable by email.");
-        assertTrue(Files.exists(actualUsersFilePath), "users.json should be created after saving a user.");
+        PersistenceWorker.getInstance().flush();
+        assertTrue(Files.exists(userStorePath.resolve(String.format("shard-%04d.json",
+                (int) Long.remainderUnsigned(UserStore.hash("testUser1"), UserStore.DEFAULT_SHARD_COUNT)))),
+                "The user's shard file should be created after saving a user.");
     }
     
     @Test
@@ -119,6 +142,22 @@ class UserDataManagerTest {
         assertNotNull(newManager.getUserByEmail("persist@example.com"));
     }
 
+    @Test
+    void getInstance_migratesLegacyUsersFile() throws Exception {
+        PersistenceWorker.getInstance().discard(userStorePath);
+        deleteDirectory(userStorePath);
+        Files.writeString(actualUsersFilePath, "[{\"username\":\"legacyUser\",\"email\":\"legacy@example.com\","
+                + "\"password\":\"legacyPass\",\"securityQuestion\":\"q\",\"securityAnswer\":\"a\","
+                + "\"birthday\":\"1990-01-01\"}]");
+
+        resetSingleton(UserDataManager.class, "instance");
+        UserDataManager newManager = UserDataManager.getInstance();
+
+        assertNotNull(newManager.getUserByUsername("legacyUser"), "Users in users.json should be migrated to the store.");
+        assertNotNull(newManager.validateLogin("legacy@example.com", "legacyPass"));
+        assertTrue(Files.exists(userStorePath.resolve("index.bin")));
+    }
+
     @Test
     void createUser_usernameAlreadyExists() {
         User user1 = createValidUser("duplicateUser", "user1@example.com", "password123");
@@ -394,4 +433,103 @@ class UserDataManagerTest {
         assertFalse(userDataManager.resetPassword("shortNewPassUser", "answer", "new"));
         assertEquals("oldPass", userDataManager.getUserByUsername("shortNewPassUser").getPassword());
     }
-} 
\ No newline at end of file
+
+    // Runs every task on its own thread, all released at the same moment
+    private static void runConcurrently(List<Callable<Void>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentRegistrations_keepUsernamesAndEmailsUnique() throws Exception {
+        int users = 200;
+        AtomicInteger created = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            // Half of the threads register "stress" users, the other half "rival" users with the same emails
+            String prefix = t % 2 == 0 ? "stress" : "rival";
+            int offset = t * 13;
+            tasks.add(() -> {
+                for (int n = 0; n < users; n++) {
+                    int i = (n + offset) % users;
+                    if (userDataManager.createUser(createValidUser(prefix + i, "stress" + i + "@example.com", "password" + i))) {
+                        created.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+        runConcurrently(tasks);
+
+        assertEquals(users, created.get(), "Each email must be claimed exactly once.");
+        for (int i = 0; i < users; i++) {
+            User owner = userDataManager.getUserByEmail("stress" + i + "@example.com");
+            assertNotNull(owner);
+            User stress = userDataManager.getUserByUsername("stress" + i);
+            User rival = userDataManager.getUserByUsername("rival" + i);
+            assertTrue(stress == null ^ rival == null, "Exactly one of the competing users should exist for " + i);
+            assertSame(stress != null ? stress : rival, owner);
+        }
+    }
+
+    @Test
+    void concurrentLoginsAndUpdates_seeConsistentUsers() throws Exception {
+        int users = 100;
+        for (int i = 0; i < users; i++) {
+            assertTrue(userDataManager.createUser(createValidUser("login" + i, "login" + i + "@example.com", "password" + i)));
+        }
+        AtomicInteger failedLogins = new AtomicInteger();
+        AtomicInteger emailSwaps = new AtomicInteger();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            tasks.add(() -> {
+                for (int round = 0; round < 20; round++) {
+                    for (int i = 0; i < users; i++) {
+                        if (userDataManager.validateLogin("login" + i, "password" + i) == null) {
+                            failedLogins.incrementAndGet();
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        for (int t = 0; t < 8; t++) {
+            int writer = t;
+            tasks.add(() -> {
+                // Every writer tries to move its own user to the same shared email
+                for (int round = 0; round < 20; round++) {
+                    User changed = createValidUser("login" + writer, "shared" + round + "@example.com", "password" + writer);
+                    if (userDataManager.updateUser(changed)) {
+                        emailSwaps.incrementAndGet();
+                    }
+                }
+                return null;
+            });
+        }
+        runConcurrently(tasks);
+
+        assertEquals(0, failedLogins.get(), "Logins must never observe a missing or half-updated user.");
+        assertTrue(emailSwaps.get() > 0);
+        Set<String> emails = new HashSet<>();
+        for (int i = 0; i < users; i++) {
+            User user = userDataManager.getUserByUsername("login" + i);
+            assertTrue(emails.add(user.getEmail()), "Email used twice: " + user.getEmail());
+            assertSame(user, userDataManager.getUserByEmail(user.getEmail()));
+        }
+    }
+}
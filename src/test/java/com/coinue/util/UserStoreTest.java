@@ -0,0 +1,161 @@
+package com.coinue.util;
+
+import com.coinue.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserStoreTest {
+    @TempDir
+    Path dir;
+
+    private static User user(String username, String email) {
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(email);
+        user.setPassword("password");
+        user.setSecurityQuestion("q");
+        user.setSecurityAnswer("a");
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        return user;
+    }
+
+    @Test
+    void put_writesOnlyTheUsersShard() throws IOException {
+        UserStore store = new UserStore(dir, 16, 4);
+        store.put(user("alice", "alice@example.com"));
+        PersistenceWorker.getInstance().flush();
+
+        List<Path> shards = new ArrayList<>();
+        try (var files = Files.list(dir)) {
+            files.filter(p -> p.getFileName().toString().startsWith("shard-")).forEach(shards::add);
+        }
+        assertEquals(List.of(store.shardFile(store.shardOf("alice"))), shards);
+        assertEquals("alice", store.findByEmail("alice@example.com").getUsername());
+        assertNull(store.findByUsername("bob"));
+        assertNull(store.findByEmail("bob@example.com"));
+    }
+
+    @Test
+    void reopen_loadsOnlyIndexAndShardsOnDemand() throws IOException {
+        UserStore store = new UserStore(dir, 16, 4);
+        for (int i = 0; i < 100; i++) {
+            store.put(user("user" + i, "user" + i + "@example.com"));
+        }
+        PersistenceWorker.getInstance().flush();
+
+        UserStore reopened = new UserStore(dir, 64, 4);
+        assertEquals(16, reopened.getShardCount(), "分片数以索引中记录的为准");
+        assertEquals(100, reopened.size());
+        assertEquals(0, reopened.getShardLoads(), "启动时不应加载分片");
+        for (int i = 0; i < 100; i++) {
+            assertEquals("user" + i, reopened.findByEmail("user" + i + "@example.com").getUsername());
+        }
+        assertEquals(4, reopened.getCachedShardCount(), "缓存的分片数不超过上限");
+    }
+
+    @Test
+    void put_changedEmailReplacesOldIndexEntry() throws IOException {
+        UserStore store = new UserStore(dir, 16, 4);
+        User alice = user("alice", "old@example.com");
+        store.put(alice);
+        alice.setEmail("new@example.com");
+        store.put(alice);
+        PersistenceWorker.getInstance().flush();
+
+        UserStore reopened = new UserStore(dir);
+        assertNull(reopened.findByEmail("old@example.com"));
+        assertEquals("alice", reopened.findByEmail("new@example.com").getUsername());
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    void open_toleratesTornIndexAndRebuildsMissingIndex() throws IOException {
+        UserStore store = new UserStore(dir, 16, 4);
+        store.put(user("alice", "alice@example.com"));
+        store.put(user("bob", "bob@example.com"));
+        PersistenceWorker.getInstance().flush();
+
+        // 写了一半的索引记录
+        Files.write(dir.resolve("index.bin"), new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        assertEquals(2, new UserStore(dir).size());
+
+        Files.delete(dir.resolve("index.bin"));
+        UserStore rebuilt = new UserStore(dir, 16, 4);
+        assertEquals(2, rebuilt.size());
+        assertEquals("bob", rebuilt.findByEmail("bob@example.com").getUsername());
+    }
+
+    @Test
+    void putAll_writesEachShardOnce() throws IOException {
+        UserStore store = new UserStore(dir, 8, 2);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            users.add(user("user" + i, "user" + i + "@example.com"));
+        }
+        long submitted = PersistenceWorker.getInstance().getWritesSubmitted();
+        store.putAll(users);
+        assertTrue(PersistenceWorker.getInstance().getWritesSubmitted() - submitted <= 8);
+        PersistenceWorker.getInstance().flush();
+
+        UserStore reopened = new UserStore(dir, 8, 2);
+        assertEquals(50, reopened.size());
+        assertNotNull(reopened.findByUsername("user49"));
+    }
+
+    @Test
+    void put_concurrentWritersAndReadersAcrossEvictingShards() throws Exception {
+        UserStore store = new UserStore(dir, 16, 2);
+        int threads = 8;
+        int perThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int writer = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        String name = "w" + writer + "-" + i;
+                        store.put(user(name, name + "@example.com"));
+                        assertEquals(name, store.findByEmail(name + "@example.com").getUsername());
+                    }
+                    return null;
+                }));
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread * 4; i++) {
+                        store.findByUsername("w" + (i % threads) + "-" + (i % perThread));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * perThread, store.size());
+        PersistenceWorker.getInstance().flush();
+
+        UserStore reopened = new UserStore(dir, 16, 2);
+        assertEquals(threads * perThread, reopened.size());
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                assertNotNull(reopened.findByUsername("w" + t + "-" + i), "w" + t + "-" + i);
+            }
+        }
+    }
+}